@@ -67,6 +67,12 @@ public class HistogramRecordingBenchmark {
                 .withHighestTrackableValue(TimeUnit.MINUTES.toNanos(5), OverflowResolver.REDUCE_TO_HIGHEST_TRACKABLE)
                 .buildHistogram();
 
+        final Histogram exponentiallyDecayingHistogram = new HdrBuilder()
+                .decayReservoirExponentially(Duration.ofSeconds(60))
+                .withLowestDiscernibleValue(TimeUnit.MICROSECONDS.toNanos(1))
+                .withHighestTrackableValue(TimeUnit.MINUTES.toNanos(5), OverflowResolver.REDUCE_TO_HIGHEST_TRACKABLE)
+                .buildHistogram();
+
         final Histogram metricsCoreHistogram = new Histogram(new ExponentiallyDecayingReservoir());
 
     }
@@ -86,6 +92,11 @@ public class HistogramRecordingBenchmark {
         state.uniformHistogram.update(getRandomValue());
     }
 
+    @Benchmark
+    public void updateExponentiallyDecayingHistogram(HistogramState state) {
+        state.exponentiallyDecayingHistogram.update(getRandomValue());
+    }
+
     @Benchmark
     public void updateResetPeriodicallyHistogram(HistogramState state) {
         state.resetPeriodicallyHistogram.update(getRandomValue());
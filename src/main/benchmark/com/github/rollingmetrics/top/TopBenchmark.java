@@ -75,6 +75,42 @@ public class TopBenchmark {
                 .neverResetPositions()
                 .withSnapshotCachingDuration(Duration.ZERO)
                 .build();
+
+        final Top chunkedTop_10_striped = Top.builder(10)
+                .resetPositionsPeriodicallyByChunks(Duration.ofSeconds(4), 4)
+                .withStripedRecorder(4)
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .build();
+
+        final Top uniformTop_10_striped = Top.builder(10)
+                .neverResetPositions()
+                .withStripedRecorder(4)
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .build();
+
+        final Top chunkedTop_10_threadLocal = Top.builder(10)
+                .resetPositionsPeriodicallyByChunks(Duration.ofSeconds(4), 4)
+                .withThreadLocalRecorder()
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .build();
+
+        final Top scalableTop_10 = Top.scalableBuilder(10)
+                .resetPositionsPeriodicallyByChunks(Duration.ofSeconds(60), 60)
+                .withMaxLengthOfQueryDescription(100)
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .build();
+
+        final Top scalableTop_1000 = Top.scalableBuilder(1_000)
+                .resetPositionsPeriodicallyByChunks(Duration.ofSeconds(60), 60)
+                .withMaxLengthOfQueryDescription(100)
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .build();
+
+        final Top scalableTop_10000 = Top.scalableBuilder(10_000)
+                .resetPositionsPeriodicallyByChunks(Duration.ofSeconds(60), 60)
+                .withMaxLengthOfQueryDescription(100)
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .build();
     }
 
     @Benchmark
@@ -194,6 +230,90 @@ public class TopBenchmark {
         return state.uniformTop_10.getPositionsInDescendingOrder();
     }
 
+    @Group("chunkedTop_10_striped")
+    @GroupThreads(3)
+    @Benchmark
+    public void update_chunkedTop_10_striped(TopState state) {
+        state.chunkedTop_10_striped.update(0, getRandomValue(), TimeUnit.NANOSECONDS, () -> "Some query to something");
+    }
+
+    @Group("chunkedTop_10_striped")
+    @GroupThreads(1)
+    @Benchmark
+    public List<Position> getSnapshot_chunkedTop_10_striped(TopState state) {
+        return state.chunkedTop_10_striped.getPositionsInDescendingOrder();
+    }
+
+    @Group("uniformTop_10_striped")
+    @GroupThreads(3)
+    @Benchmark
+    public void update_uniformTop_10_striped(TopState state) {
+        state.uniformTop_10_striped.update(0, getRandomValue(), TimeUnit.NANOSECONDS, () -> "Some query to something");
+    }
+
+    @Group("uniformTop_10_striped")
+    @GroupThreads(1)
+    @Benchmark
+    public List<Position> getSnapshot_uniformTop_10_striped(TopState state) {
+        return state.uniformTop_10_striped.getPositionsInDescendingOrder();
+    }
+
+    @Group("chunkedTop_10_threadLocal")
+    @GroupThreads(3)
+    @Benchmark
+    public void update_chunkedTop_10_threadLocal(TopState state) {
+        state.chunkedTop_10_threadLocal.update(0, getRandomValue(), TimeUnit.NANOSECONDS, () -> "Some query to something");
+    }
+
+    @Group("chunkedTop_10_threadLocal")
+    @GroupThreads(1)
+    @Benchmark
+    public List<Position> getSnapshot_chunkedTop_10_threadLocal(TopState state) {
+        return state.chunkedTop_10_threadLocal.getPositionsInDescendingOrder();
+    }
+
+    @Group("scalableTop_10")
+    @GroupThreads(3)
+    @Benchmark
+    public void update_scalableTop_10(TopState state) {
+        state.scalableTop_10.update(0, getRandomValue(), TimeUnit.NANOSECONDS, () -> "Some query to something");
+    }
+
+    @Group("scalableTop_10")
+    @GroupThreads(1)
+    @Benchmark
+    public List<Position> getSnapshot_scalableTop_10(TopState state) {
+        return state.scalableTop_10.getPositionsInDescendingOrder();
+    }
+
+    @Group("scalableTop_1000")
+    @GroupThreads(3)
+    @Benchmark
+    public void update_scalableTop_1000(TopState state) {
+        state.scalableTop_1000.update(0, getRandomValue(), TimeUnit.NANOSECONDS, () -> "Some query to something");
+    }
+
+    @Group("scalableTop_1000")
+    @GroupThreads(1)
+    @Benchmark
+    public List<Position> getSnapshot_scalableTop_1000(TopState state) {
+        return state.scalableTop_1000.getPositionsInDescendingOrder();
+    }
+
+    @Group("scalableTop_10000")
+    @GroupThreads(3)
+    @Benchmark
+    public void update_scalableTop_10000(TopState state) {
+        state.scalableTop_10000.update(0, getRandomValue(), TimeUnit.NANOSECONDS, () -> "Some query to something");
+    }
+
+    @Group("scalableTop_10000")
+    @GroupThreads(1)
+    @Benchmark
+    public List<Position> getSnapshot_scalableTop_10000(TopState state) {
+        return state.scalableTop_10000.getPositionsInDescendingOrder();
+    }
+
     private static long getRandomValue() {
         return ThreadLocalRandom.current().nextLong(15_000_000) + 5_000_000;
     }
@@ -38,6 +38,9 @@ public class BackgroundExecutionUtilBenchmark {
                                       0L,TimeUnit.MILLISECONDS,
                                       new LinkedBlockingQueue<>(),
                                       new DaemonThreadFactory(""));
+        public final Executor shardedExecutor = ResilientExecutionUtil.getInstance().resolveExecutorForMetric(BackgroundExecutors.sharded(4));
+        // falls back to sharded executor on JVM without virtual threads
+        public final Executor virtualThreadExecutor = BackgroundExecutors.virtualThreadsOrSharded(4);
     }
 
     @Benchmark
@@ -71,6 +74,32 @@ public class BackgroundExecutionUtilBenchmark {
         while (!executed.get());
     }
 
+    @Benchmark
+    public void costOfSchedulingOnShardedExecutor(State state) {
+        state.shardedExecutor.execute(() -> {});
+        Blackhole.consumeCPU(1000);
+    }
+
+    @Benchmark
+    public void costOfSchedulingOnVirtualThreads(State state) {
+        ResilientExecutionUtil.getInstance().execute(state.virtualThreadExecutor, () -> {});
+        Blackhole.consumeCPU(1000);
+    }
+
+    @Benchmark
+    public void fullCycleOnShardedExecutor(State state) {
+        AtomicBoolean executed = new AtomicBoolean(false);
+        state.shardedExecutor.execute(() -> executed.set(true));
+        while (!executed.get());
+    }
+
+    @Benchmark
+    public void fullCycleOnVirtualThreads(State state) {
+        AtomicBoolean executed = new AtomicBoolean(false);
+        ResilientExecutionUtil.getInstance().execute(state.virtualThreadExecutor, () -> executed.set(true));
+        while (!executed.get());
+    }
+
     public static void main(String[] args) throws RunnerException {
         Options opt = new OptionsBuilder()
                 .include(BackgroundExecutionUtilBenchmark.class.getSimpleName())
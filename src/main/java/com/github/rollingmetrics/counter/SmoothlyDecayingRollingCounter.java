@@ -18,6 +18,7 @@
 package com.github.rollingmetrics.counter;
 
 import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.FootprintGovernor;
 import com.github.rollingmetrics.histogram.util.Printer;
 
 import java.time.Duration;
@@ -74,6 +75,10 @@ public class SmoothlyDecayingRollingCounter implements WindowCounter {
     static final int MAX_CHUNKS = 1000;
     static final long MIN_CHUNK_RESETTING_INTERVAL_MILLIS = 100;
 
+    // chunk together with reference to it, its AtomicReference, two phases and two LongAdders without cells,
+    // the cells of adders are created only under contention, so they are not taken into account
+    static final int CHUNK_FOOTPRINT_BYTES = 184;
+
     private final long intervalBetweenResettingMillis;
     private final Clock clock;
     private final long creationTimestamp;
@@ -117,6 +122,22 @@ public class SmoothlyDecayingRollingCounter implements WindowCounter {
     }
 
     public SmoothlyDecayingRollingCounter(Duration rollingWindow, int numberChunks, Clock clock) {
+        this(rollingWindow, numberChunks, clock, FootprintGovernor.getInstance());
+    }
+
+    /**
+     * Constructs the chunked counter which reports its footprint to {@code footprintGovernor} instead of process-wide governor.
+     *
+     * @param rollingWindow the rolling time window duration
+     * @param numberChunks The count of chunk to split counter
+     * @param clock the clock
+     * @param footprintGovernor the governor to which footprint of counter is reported
+     * @throws IllegalStateException if footprint of counter does not fit into hard limit of governor
+     */
+    public SmoothlyDecayingRollingCounter(Duration rollingWindow, int numberChunks, Clock clock, FootprintGovernor footprintGovernor) {
+        if (footprintGovernor == null) {
+            throw new IllegalArgumentException("footprintGovernor should not be null");
+        }
         if (numberChunks < 2) {
             throw new IllegalArgumentException("numberChunks should be >= 2");
         }
@@ -131,6 +152,9 @@ public class SmoothlyDecayingRollingCounter implements WindowCounter {
             throw new IllegalArgumentException("intervalBetweenResettingMillis should be >=" + MIN_CHUNK_RESETTING_INTERVAL_MILLIS);
         }
 
+        long estimatedFootprintInBytes = estimateFootprintInBytes(numberChunks + 1);
+        footprintGovernor.checkHardLimit(estimatedFootprintInBytes);
+
         this.clock = clock;
         this.creationTimestamp = clock.currentTimeMillis();
 
@@ -138,6 +162,18 @@ public class SmoothlyDecayingRollingCounter implements WindowCounter {
         for (int i = 0; i < chunks.length; i++) {
             this.chunks[i] = new Chunk(i);
         }
+        footprintGovernor.reserve(this, estimatedFootprintInBytes);
+    }
+
+    /**
+     * @return estimate of the counter's footprint in bytes, which is reported to {@link FootprintGovernor}
+     */
+    public long getEstimatedFootprintInBytes() {
+        return estimateFootprintInBytes(chunks.length);
+    }
+
+    private static long estimateFootprintInBytes(int chunkCount) {
+        return (long) chunkCount * CHUNK_FOOTPRINT_BYTES;
     }
 
     @Override
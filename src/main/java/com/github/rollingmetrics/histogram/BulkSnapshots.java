@@ -0,0 +1,195 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.*;
+import org.HdrHistogram.Histogram;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Takes snapshots of many histograms, timers or reservoirs in one pass, the work is split between threads of {@link ForkJoinPool},
+ * so the time of reporting scales with number of cores instead of being proportional to number of metrics.
+ *
+ * <p>
+ * For histograms, timers and reservoirs constructed by {@link HdrBuilder} the lock of reservoir is held only while the recorded values
+ * are copied into histogram which is private to worker thread, the percentiles are calculated outside of the lock.
+ * The collected snapshots are compact, they hold only min, max, mean, median, standard deviation and values of requested percentiles,
+ * so {@link Snapshot#size()} and {@link Snapshot#getValues()} are related to percentiles instead of recorded values.
+ * Snapshots of metrics which are not constructed by {@link HdrBuilder} are taken via {@link Sampling#getSnapshot()} as is.
+ *
+ * <p>
+ * Take into account that snapshot caching configured by {@link HdrBuilder#withSnapshotCachingDuration(java.time.Duration)} is bypassed by bulk collection.
+ */
+public final class BulkSnapshots {
+
+    private static final int SEQUENTIAL_THRESHOLD = 32;
+
+    // HdrHistogram supports from 0 to 5 significant value digits
+    private static final ThreadLocal<Histogram[]> SCRATCH_HISTOGRAMS = ThreadLocal.withInitial(() -> new Histogram[6]);
+
+    private BulkSnapshots() {
+        // util class
+    }
+
+    /**
+     * Collects snapshots of all histograms and timers from registry with {@link HdrBuilder#DEFAULT_PERCENTILES} using {@link ForkJoinPool#commonPool()}.
+     *
+     * @param registry the registry
+     * @param filter the filter of metrics
+     * @return snapshots sorted by metric name
+     */
+    public static SortedMap<String, Snapshot> collect(MetricRegistry registry, MetricFilter filter) {
+        return collect(registry, filter, HdrBuilder.DEFAULT_PERCENTILES, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Collects snapshots of all histograms and timers from registry.
+     *
+     * @param registry the registry
+     * @param filter the filter of metrics
+     * @param percentiles the percentiles which should be calculated, array of doubles between {@literal 0..1}
+     * @param pool the pool which is used to parallelize collection
+     * @return snapshots sorted by metric name
+     */
+    public static SortedMap<String, Snapshot> collect(MetricRegistry registry, MetricFilter filter, double[] percentiles, ForkJoinPool pool) {
+        if (registry == null) {
+            throw new IllegalArgumentException("registry should not be null");
+        }
+        if (filter == null) {
+            throw new IllegalArgumentException("filter should not be null");
+        }
+        Map<String, Object> sources = new LinkedHashMap<>();
+        sources.putAll(registry.getHistograms(filter));
+        sources.putAll(registry.getTimers(filter));
+        return new TreeMap<>(collectSources(sources, percentiles, pool));
+    }
+
+    /**
+     * Collects snapshots of reservoirs.
+     *
+     * @param reservoirs the reservoirs
+     * @param percentiles the percentiles which should be calculated, array of doubles between {@literal 0..1}
+     * @param pool the pool which is used to parallelize collection
+     * @param <K> the type of keys
+     * @return snapshots in iteration order of {@code reservoirs}
+     */
+    public static <K> Map<K, Snapshot> collect(Map<K, ? extends Reservoir> reservoirs, double[] percentiles, ForkJoinPool pool) {
+        if (reservoirs == null) {
+            throw new IllegalArgumentException("reservoirs should not be null");
+        }
+        return collectSources(reservoirs, percentiles, pool);
+    }
+
+    private static <K> Map<K, Snapshot> collectSources(Map<K, ?> sources, double[] percentiles, ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool should not be null");
+        }
+        double[] sortedPercentiles = validateAndSort(percentiles);
+
+        int size = sources.size();
+        List<K> keys = new ArrayList<>(size);
+        Object[] metrics = new Object[size];
+        for (Map.Entry<K, ?> entry : sources.entrySet()) {
+            metrics[keys.size()] = entry.getValue();
+            keys.add(entry.getKey());
+        }
+
+        Snapshot[] snapshots = new Snapshot[size];
+        pool.invoke(new CollectTask(metrics, snapshots, sortedPercentiles, 0, size));
+
+        Map<K, Snapshot> result = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            result.put(keys.get(i), snapshots[i]);
+        }
+        return result;
+    }
+
+    static Snapshot takeSnapshot(Object metric, double[] sortedPercentiles) {
+        Reservoir reservoir = null;
+        if (metric instanceof ReservoirBackedHistogram) {
+            reservoir = ((ReservoirBackedHistogram) metric).getReservoir();
+        } else if (metric instanceof ReservoirBackedTimer) {
+            reservoir = ((ReservoirBackedTimer) metric).getReservoir();
+        } else if (metric instanceof Reservoir) {
+            reservoir = (Reservoir) metric;
+        }
+        if (reservoir instanceof SnapshotCachingReservoir) {
+            reservoir = ((SnapshotCachingReservoir) reservoir).getTarget();
+        }
+
+        if (reservoir instanceof HdrReservoir) {
+            return ((HdrReservoir) reservoir).takeCompactSnapshot(sortedPercentiles, SCRATCH_HISTOGRAMS.get());
+        }
+        if (reservoir != null) {
+            return reservoir.getSnapshot();
+        }
+        return ((Sampling) metric).getSnapshot();
+    }
+
+    private static double[] validateAndSort(double[] percentiles) {
+        if (percentiles == null || percentiles.length == 0) {
+            throw new IllegalArgumentException("percentiles should not be empty");
+        }
+        for (double percentile : percentiles) {
+            if (percentile < 0.0 || percentile > 1.0) {
+                throw new IllegalArgumentException("Illegal percentile " + percentile + " - must be between 0 and 1");
+            }
+        }
+        double[] sortedPercentiles = Arrays.copyOf(percentiles, percentiles.length);
+        Arrays.sort(sortedPercentiles);
+        return sortedPercentiles;
+    }
+
+    private static final class CollectTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] metrics;
+        private final Snapshot[] snapshots;
+        private final double[] sortedPercentiles;
+        private final int from;
+        private final int to;
+
+        CollectTask(Object[] metrics, Snapshot[] snapshots, double[] sortedPercentiles, int from, int to) {
+            this.metrics = metrics;
+            this.snapshots = snapshots;
+            this.sortedPercentiles = sortedPercentiles;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    snapshots[i] = takeSnapshot(metrics[i], sortedPercentiles);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CollectTask(metrics, snapshots, sortedPercentiles, from, middle),
+                    new CollectTask(metrics, snapshots, sortedPercentiles, middle, to));
+        }
+
+    }
+
+}
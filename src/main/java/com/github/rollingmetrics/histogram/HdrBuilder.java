@@ -18,20 +18,31 @@
 package com.github.rollingmetrics.histogram;
 
 import com.codahale.metrics.*;
+import com.github.rollingmetrics.histogram.accumulator.ArchiveOptions;
 import com.github.rollingmetrics.histogram.accumulator.Accumulator;
+import com.github.rollingmetrics.histogram.accumulator.ExponentiallyDecayingAccumulator;
 import com.github.rollingmetrics.histogram.accumulator.ResetByChunksAccumulator;
+import com.github.rollingmetrics.histogram.accumulator.ResetByTiersAccumulator;
 import com.github.rollingmetrics.histogram.accumulator.ResetOnSnapshotAccumulator;
+import com.github.rollingmetrics.util.FootprintGovernor;
 import com.github.rollingmetrics.util.ResilientExecutionUtil;
+import com.github.rollingmetrics.util.RotationScheduler;
 import com.github.rollingmetrics.histogram.accumulator.UniformAccumulator;
+import com.github.rollingmetrics.histogram.accumulator.WindowedAccumulator;
+import com.github.rollingmetrics.histogram.util.HistogramUtil;
 import org.HdrHistogram.Recorder;
 
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadFactory;
+import java.util.function.BiFunction;
 import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 /**
  * The builder for creation and registration histograms, timers and reservoirs.
@@ -70,6 +81,9 @@ public class HdrBuilder {
     // meaningful limits to disallow user to kill performance(or memory footprint) by mistake
     static final int MAX_CHUNKS = 60;
     static final long MIN_CHUNK_RESETTING_INTERVAL_MILLIS = 1000;
+    static final int MIN_DEGRADED_SIGNIFICANT_DIGITS = 1;
+
+    private static final Logger logger = Logger.getLogger(HdrBuilder.class.getName());
 
     static int DEFAULT_NUMBER_OF_SIGNIFICANT_DIGITS = 2;
     static AccumulationFactory DEFAULT_ACCUMULATION_STRATEGY = AccumulationFactory.UNIFORM;
@@ -113,7 +127,7 @@ public class HdrBuilder {
      */
     public HdrBuilder resetReservoirPeriodically(Duration resettingPeriod) {
         int numberOfHistoryChunks = 0;
-        return resetReservoirPeriodicallyByChunks(resettingPeriod.toMillis(), numberOfHistoryChunks);
+        return resetReservoirPeriodicallyByChunks(resettingPeriod.toMillis(), numberOfHistoryChunks, false);
     }
 
     /**
@@ -148,7 +162,112 @@ public class HdrBuilder {
             throw new IllegalArgumentException("numberHistoryChunks should be <= " + MAX_CHUNKS);
         }
         long resettingPeriodMillis = rollingTimeWindow.toMillis() / numberChunks;
-        return resetReservoirPeriodicallyByChunks(resettingPeriodMillis, numberChunks);
+        return resetReservoirPeriodicallyByChunks(resettingPeriodMillis, numberChunks, false);
+    }
+
+    /**
+     * Reservoir configured with this strategy will be divided to <tt>numberChunks</tt> parts like {@link #resetReservoirPeriodicallyByChunks(Duration, int)},
+     * but the oldest chunk is not dropped at once, instead its weight in the snapshot is decayed smoothly
+     * proportionally to the remaining part of its lifetime, in the same way as {@link com.github.rollingmetrics.counter.SmoothlyDecayingRollingCounter} does.
+     * So the continuous observation does not see the sudden steps of percentiles caused by chunk eviction.
+     * <p>
+     * The writing path is the same as for {@link #resetReservoirPeriodicallyByChunks(Duration, int)},
+     * the decaying only affects the snapshot extraction, which becomes a little bit slower because oldest chunk is merged value by value.
+     * </p>
+     *
+     * @param rollingTimeWindow the total rolling time window, any value recorded to reservoir will be taken with full weight at least <tt>rollingTimeWindow</tt>
+     * @param numberChunks    specifies number of chunks by which reservoir will be slitted
+     * @return this builder instance
+     * @see #resetReservoirPeriodicallyByChunks(Duration, int)
+     */
+    public HdrBuilder resetReservoirSmoothlyByChunks(Duration rollingTimeWindow, int numberChunks) {
+        if (numberChunks < 2) {
+            throw new IllegalArgumentException("numberHistoryChunks should be >= 2");
+        }
+        if (numberChunks > MAX_CHUNKS) {
+            throw new IllegalArgumentException("numberHistoryChunks should be <= " + MAX_CHUNKS);
+        }
+        long resettingPeriodMillis = rollingTimeWindow.toMillis() / numberChunks;
+        return resetReservoirPeriodicallyByChunks(resettingPeriodMillis, numberChunks, true);
+    }
+
+    /**
+     * Reservoir configured with this strategy keeps the history in several tiers of chunks with growing granularity.
+     * Each completed chunk of finer tier is merged into the chunk of next coarser tier, so long rolling windows are served by bounded number of histograms,
+     * while recent values are still evicted with fine resolution.
+     * For example the following configuration provides 24 hours window with 60 + 60 + 24 chunks instead of forcing 24-minutes chunks:
+     * <pre><code>
+     *     builder.resetReservoirPeriodicallyByTiers(
+     *          RollupTier.of(Duration.ofSeconds(1), 60),
+     *          RollupTier.of(Duration.ofMinutes(1), 60),
+     *          RollupTier.of(Duration.ofHours(1), 24)
+     *     );
+     * </code></pre>
+     * The rolling window of reservoir equals to the span of coarsest tier.
+     * <p>
+     * The tiers must be ordered from finest to coarsest, the chunk duration of each tier must be multiple of chunk duration of previous tier,
+     * and each tier except coarsest must cover at least one chunk of next tier.
+     * </p>
+     *
+     * @param tiers the tiers ordered from finest to coarsest
+     * @return this builder instance
+     * @see RollupTier
+     * @see #resetReservoirPeriodicallyByChunks(Duration, int)
+     */
+    public HdrBuilder resetReservoirPeriodicallyByTiers(RollupTier... tiers) {
+        if (tiers == null || tiers.length == 0) {
+            throw new IllegalArgumentException("at least one tier should be specified");
+        }
+        long[] chunkDurationsMillis = new long[tiers.length];
+        int[] chunkCounts = new int[tiers.length];
+        for (int i = 0; i < tiers.length; i++) {
+            if (tiers[i] == null) {
+                throw new IllegalArgumentException("tier should not be null");
+            }
+            chunkDurationsMillis[i] = tiers[i].getChunkDuration().toMillis();
+            chunkCounts[i] = tiers[i].getChunkCount();
+            if (i > 0) {
+                long finerChunkMillis = chunkDurationsMillis[i - 1];
+                if (chunkDurationsMillis[i] <= finerChunkMillis || chunkDurationsMillis[i] % finerChunkMillis != 0) {
+                    throw new IllegalArgumentException("chunk duration of tier " + tiers[i] + " should be multiple of chunk duration of tier " + tiers[i - 1]);
+                }
+                if (finerChunkMillis * chunkCounts[i - 1] < chunkDurationsMillis[i]) {
+                    throw new IllegalArgumentException("tier " + tiers[i - 1] + " should cover at least one chunk of tier " + tiers[i]);
+                }
+            }
+        }
+        accumulationFactory = AccumulationFactory.of(
+                (recorder, builder) -> new ResetByTiersAccumulator(recorder.get(), chunkDurationsMillis, chunkCounts, builder.clock, builder.getExecutor()),
+                (histogramFootprint, lowest, highest, digits, archiveOptions) -> ResetByTiersAccumulator.estimateFootprintInBytes(histogramFootprint, chunkCounts));
+        return this;
+    }
+
+    /**
+     * Reservoir configured with this strategy will weight the values exponentially by recency, with weight of value halved each <tt>halfLife</tt>.
+     * In opposite to {@link com.codahale.metrics.ExponentiallyDecayingReservoir} the values are not sampled, so all of them take part in percentile calculation,
+     * and recording is as cheap as for {@link #neverResetReservoir()}, because weights are applied to bucket counts at snapshot extraction.
+     * <p>
+     * Pay attention that weight is assigned to value at the moment of snapshot extraction,
+     * so the resolution of recency weighting equals to interval between snapshots.
+     * </p>
+     *
+     * @param halfLife the duration after which the weight of value becomes twice lower
+     * @return this builder instance
+     * @see #neverResetReservoir()
+     * @see #resetReservoirSmoothlyByChunks(Duration, int)
+     */
+    public HdrBuilder decayReservoirExponentially(Duration halfLife) {
+        if (halfLife == null) {
+            throw new IllegalArgumentException("halfLife should not be null");
+        }
+        long halfLifeMillis = halfLife.toMillis();
+        if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException("halfLife must be a positive duration");
+        }
+        accumulationFactory = AccumulationFactory.of(
+                (recorder, builder) -> new ExponentiallyDecayingAccumulator(recorder.get(), halfLifeMillis, builder.clock),
+                (histogramFootprint, lowest, highest, digits, archiveOptions) -> ExponentiallyDecayingAccumulator.estimateFootprintInBytes(histogramFootprint));
+        return this;
     }
 
     /**
@@ -298,6 +417,7 @@ public class HdrBuilder {
         }
         double[] sortedPercentiles = copyAndSort(predefinedPercentiles);
         this.predefinedPercentiles = Optional.of(sortedPercentiles);
+        this.mergeableSnapshots = false;
         return this;
     }
 
@@ -311,6 +431,24 @@ public class HdrBuilder {
      */
     public HdrBuilder withoutSnapshotOptimization() {
         this.predefinedPercentiles = Optional.empty();
+        this.mergeableSnapshots = false;
+        return this;
+    }
+
+    /**
+     * Configures reservoir to return {@link MergeableSnapshot} which holds the copy of underlying histogram.
+     * Such snapshots can be serialized, transferred to aggregator and merged into one distribution,
+     * which is the only mathematically correct way to compute percentiles across many nodes.
+     * <p>
+     * This method cancels the effect of {@link #withPredefinedPercentiles(double[])} and {@link #withoutSnapshotOptimization()}, and vice versa.
+     * Pay attention that garbage required for take one snapshot will approximately equals to histogram size.
+     *
+     * @return this builder instance
+     * @see MergeableSnapshot
+     */
+    public HdrBuilder withMergeableSnapshots() {
+        this.predefinedPercentiles = Optional.empty();
+        this.mergeableSnapshots = true;
         return this;
     }
 
@@ -326,6 +464,11 @@ public class HdrBuilder {
      * in case of {@link ResilientExecutionUtil#setThreadFactory(ThreadFactory)} is not enough to meat security rules.
      * </p>
      *
+     * <p>
+     * Another use case is isolation of heavy metrics from the others via dedicated backend created by {@link com.github.rollingmetrics.util.BackgroundExecutors},
+     * when {@link com.github.rollingmetrics.util.ShardedExecutor} is passed then each constructed metric is pinned to one of its shards.
+     * </p>
+     *
      * @return this builder instance
      */
     public HdrBuilder withBackgroundExecutor(Executor backgroundExecutor) {
@@ -336,6 +479,134 @@ public class HdrBuilder {
         return this;
     }
 
+    /**
+     * Configures the writer to which each completed chunk will be written in form of HdrHistogram interval log,
+     * it is useful when you want to keep full-fidelity latency history on the local disk for post-incident analysis.
+     * The writing is performed by the background executor after chunk rotation, outside of reservoir monitor,
+     * so neither the recording path nor the rotation of other reservoirs is delayed by slow disk.
+     *
+     * <p>
+     * This option can be used only together with {@link #resetReservoirPeriodically(Duration)} or {@link #resetReservoirPeriodicallyByChunks(Duration, int)},
+     * otherwise IllegalStateException will be thrown during reservoir construction.
+     * Pay attention that each reservoir should be configured with its own writer, use {@link #deepCopy()} to build several reservoirs with similar settings.
+     * </p>
+     *
+     * @param intervalLogWriter the writer of interval log
+     * @return this builder instance
+     * @see IntervalLogWriter
+     */
+    public HdrBuilder withIntervalLog(IntervalLogWriter intervalLogWriter) {
+        if (intervalLogWriter == null) {
+            throw new IllegalArgumentException("intervalLogWriter must not be null");
+        }
+        this.intervalLogWriter = Optional.of(intervalLogWriter);
+        return this;
+    }
+
+    /**
+     * Configures the reservoir to be rotated by shared {@link RotationScheduler} at chunk boundaries,
+     * instead of the writer which first observes that chunk is expired. In this mode the writers only record the value without checking the time,
+     * and the reservoir is rotated even if there are no writes.
+     *
+     * <p>
+     * This option can be used only together with {@link #resetReservoirPeriodically(Duration)}, {@link #resetReservoirPeriodicallyByChunks(Duration, int)}
+     * or {@link #resetReservoirSmoothlyByChunks(Duration, int)}, otherwise IllegalStateException will be thrown during reservoir construction.
+     * The values recorded between chunk boundary and the moment when scheduler performs rotation are attributed to expired chunk.
+     * </p>
+     *
+     * @return this builder instance
+     * @see RotationScheduler
+     */
+    public HdrBuilder withScheduledRotation() {
+        this.scheduledRotation = true;
+        return this;
+    }
+
+    /**
+     * Configures the reservoir to downsample completed chunks when they are moved to archive.
+     * Recent values are kept with precision configured by {@link #withSignificantDigits(int)}, but archived chunks,
+     * where most of memory goes for long rolling windows, are stored with {@code numberOfSignificantValueDigits} and {@code lowestDiscernibleValue}.
+     * The archive precision is never higher than precision of recent values.
+     *
+     * <p>
+     * This option can be used only together with {@link #resetReservoirPeriodicallyByChunks(Duration, int)} or {@link #resetReservoirSmoothlyByChunks(Duration, int)},
+     * otherwise IllegalStateException will be thrown during reservoir construction.
+     * </p>
+     *
+     * @param numberOfSignificantValueDigits the number of significant value digits of archived chunks, between {@literal 0..5}
+     * @param lowestDiscernibleValue the lowest discernible value of archived chunks
+     * @return this builder instance
+     */
+    public HdrBuilder withArchivedChunksPrecision(int numberOfSignificantValueDigits, long lowestDiscernibleValue) {
+        this.archiveOptions = archiveOptions.withPrecision(numberOfSignificantValueDigits, lowestDiscernibleValue);
+        return this;
+    }
+
+    /**
+     * Configures the reservoir to keep archived chunks in compact variable-length encoding instead of HdrHistogram count arrays.
+     * Archived chunks are never written until they expire and are read only when snapshot is taken, so they are decoded on demand directly into snapshot,
+     * this trades some CPU of reporter for a large drop of resident heap for long rolling windows.
+     * The option can be combined with {@link #withArchivedChunksPrecision(int, long)}.
+     * The size of compressed chunk depends on recorded values, so {@link #getEstimatedFootprintInBytes()} accounts each compressed chunk by its worst case,
+     * when each bucket of histogram is filled.
+     *
+     * <p>
+     * This option can be used only together with {@link #resetReservoirPeriodicallyByChunks(Duration, int)} or {@link #resetReservoirSmoothlyByChunks(Duration, int)},
+     * otherwise IllegalStateException will be thrown during reservoir construction.
+     * </p>
+     *
+     * @return this builder instance
+     */
+    public HdrBuilder withCompressedArchive() {
+        this.archiveOptions = archiveOptions.withCompression();
+        return this;
+    }
+
+    /**
+     * Configures the reservoir to keep archived chunks outside of java heap in direct buffers, the chunks are stored in the same compact encoding
+     * as configured by {@link #withCompressedArchive()}, so this option implies compression.
+     * With thousands of long-window reservoirs the archive is the largest object population in the heap, moving it off-heap removes this population
+     * from marking and evacuation work of garbage collector.
+     * The live recorders still stay in java heap, because they are owned by HdrHistogram.
+     *
+     * <p>
+     * The off-heap memory should be freed via {@link OffHeapMemory#release(Object)} when metric is removed,
+     * otherwise it is freed only when garbage collector discovers that metric is unreachable.
+     * </p>
+     *
+     * <p>
+     * This option can be used only together with {@link #resetReservoirPeriodicallyByChunks(Duration, int)} or {@link #resetReservoirSmoothlyByChunks(Duration, int)},
+     * otherwise IllegalStateException will be thrown during reservoir construction.
+     * </p>
+     *
+     * @return this builder instance
+     */
+    public HdrBuilder withOffHeapArchive() {
+        this.archiveOptions = archiveOptions.withOffHeapStorage();
+        return this;
+    }
+
+    /**
+     * Configures the governor to which footprint of each constructed reservoir will be reported.
+     * When reservoir does not fit into soft limit of governor, the number of significant value digits is reduced until reservoir fits, but not below {@link #MIN_DEGRADED_SIGNIFICANT_DIGITS}.
+     * When reservoir does not fit into hard limit of governor, the construction fails with {@link IllegalStateException}.
+     *
+     * <p>
+     * By default the process-wide governor {@link FootprintGovernor#getInstance()} is used.
+     * </p>
+     *
+     * @param footprintGovernor the governor of memory consumed by metrics
+     * @return this builder instance
+     * @see FootprintGovernor
+     */
+    public HdrBuilder withFootprintGovernor(FootprintGovernor footprintGovernor) {
+        if (footprintGovernor == null) {
+            throw new IllegalArgumentException("footprintGovernor must not be null");
+        }
+        this.footprintGovernor = footprintGovernor;
+        return this;
+    }
+
     /**
      * Builds reservoir which can be useful for building monitoring primitives with higher level of abstraction.
      *
@@ -347,6 +618,74 @@ public class HdrBuilder {
         return reservoir;
     }
 
+    /**
+     * Builds reservoir which records each value once and serves snapshots for several windows from the shared chunk archive.
+     * The builder should be configured by one of {@link #resetReservoirPeriodicallyByChunks(Duration, int)}, {@link #resetReservoirSmoothlyByChunks(Duration, int)}
+     * or {@link #resetReservoirPeriodicallyByTiers(RollupTier...)}, and each window should not be longer than rolling window of configured strategy.
+     *
+     * @param windows the windows for which histogram views should be created
+     * @return an instance of {@link MultiWindowReservoir}
+     * @see MultiWindowReservoir
+     */
+    public MultiWindowReservoir buildMultiWindowReservoir(Duration... windows) {
+        if (windows == null || windows.length == 0) {
+            throw new IllegalArgumentException("at least one window should be specified");
+        }
+        Set<Duration> uniqueWindows = new HashSet<>();
+        for (Duration window : windows) {
+            if (window == null || window.isNegative() || window.isZero()) {
+                throw new IllegalArgumentException("window should be positive duration");
+            }
+            if (!uniqueWindows.add(window)) {
+                throw new IllegalArgumentException("window " + window + " is specified twice");
+            }
+        }
+
+        HdrReservoir hdrReservoir = buildHdrReservoir();
+        Accumulator accumulator = hdrReservoir.getAccumulator();
+        if (!(accumulator instanceof WindowedAccumulator)) {
+            throw new IllegalStateException("Multi-window reservoir can be built only with resetReservoirPeriodicallyByChunks, resetReservoirSmoothlyByChunks or resetReservoirPeriodicallyByTiers");
+        }
+        long rollingWindowMillis = ((WindowedAccumulator) accumulator).getRollingWindowMillis();
+        for (Duration window : windows) {
+            if (window.toMillis() > rollingWindowMillis) {
+                throw new IllegalStateException("window " + window + " is longer than rolling window " + Duration.ofMillis(rollingWindowMillis));
+            }
+        }
+        return new MultiWindowReservoir(hdrReservoir, rollingWindowMillis, windows, snapshotCachingDurationMillis, clock);
+    }
+
+    /**
+     * Builds the family of reservoirs distinguished by dynamic keys, each reservoir in the family is configured by this builder.
+     * The number of keys is limited by {@code maxKeys} and by {@code maxFootprintInBytes}, the values for keys which do not fit into limits
+     * are recorded to overflow reservoir. The keys which were not updated during {@code idleTimeout} are evicted
+     * and their reservoirs are reused by new keys.
+     *
+     * @param maxKeys the maximum number of keys
+     * @param maxFootprintInBytes the limit of memory which can be consumed by reservoirs of family, including overflow reservoir
+     * @param idleTimeout the duration of inactivity after which the key is evicted
+     * @param <K> type of key
+     * @return an instance of {@link ReservoirFamily}
+     * @see ReservoirFamily
+     */
+    public <K> ReservoirFamily<K> buildReservoirFamily(int maxKeys, long maxFootprintInBytes, Duration idleTimeout) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("maxKeys should be positive");
+        }
+        if (maxFootprintInBytes <= 0) {
+            throw new IllegalArgumentException("maxFootprintInBytes should be positive");
+        }
+        if (idleTimeout == null || idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new IllegalArgumentException("idleTimeout should be positive duration");
+        }
+        if (intervalLogWriter.isPresent()) {
+            throw new IllegalStateException("intervalLogWriter can not be shared between reservoirs of family");
+        }
+        HdrBuilder builder = deepCopy();
+        return new ReservoirFamily<>(builder::buildHdrReservoir, builder::wrapAroundByDecorators, maxKeys, maxFootprintInBytes,
+                idleTimeout.toMillis(), clock, getExecutor());
+    }
+
     /**
      * Builds histogram.
      *
@@ -354,7 +693,7 @@ public class HdrBuilder {
      * @see #buildAndRegisterHistogram(MetricRegistry, String)
      */
     public Histogram buildHistogram() {
-        return new Histogram(buildReservoir());
+        return new ReservoirBackedHistogram(buildReservoir());
     }
 
     /**
@@ -378,7 +717,7 @@ public class HdrBuilder {
      * @see #buildAndRegisterTimer(MetricRegistry, String)
      */
     public Timer buildTimer() {
-        return new Timer(buildReservoir());
+        return new ReservoirBackedTimer(buildReservoir());
     }
 
     /**
@@ -401,8 +740,8 @@ public class HdrBuilder {
      * @return a (conservatively high) estimate of the Reservoir's total footprint in bytes
      */
     public int getEstimatedFootprintInBytes() {
-        HdrReservoir hdrReservoir = buildHdrReservoir();
-        return hdrReservoir.getEstimatedFootprintInBytes();
+        validateParameters();
+        return (int) Math.min(Integer.MAX_VALUE, estimateFootprintInBytes(numberOfSignificantValueDigits));
     }
 
     /**
@@ -412,7 +751,7 @@ public class HdrBuilder {
      */
     public HdrBuilder deepCopy() {
         return new HdrBuilder(clock, accumulationFactory, numberOfSignificantValueDigits, predefinedPercentiles, lowestDiscernibleValue,
-                highestTrackableValue, overflowResolver, snapshotCachingDurationMillis, expectedIntervalBetweenValueSamples, backgroundExecutor);
+                highestTrackableValue, overflowResolver, snapshotCachingDurationMillis, expectedIntervalBetweenValueSamples, backgroundExecutor, intervalLogWriter, mergeableSnapshots, footprintGovernor, scheduledRotation, archiveOptions);
     }
 
     @Override
@@ -425,6 +764,11 @@ public class HdrBuilder {
                 ", overflowResolver=" + overflowResolver +
                 ", snapshotCachingDurationMillis=" + snapshotCachingDurationMillis +
                 ", predefinedPercentiles=" + Arrays.toString(predefinedPercentiles.orElse(new double[0])) +
+                ", intervalLogWriter=" + intervalLogWriter +
+                ", mergeableSnapshots=" + mergeableSnapshots +
+                ", footprintGovernor=" + footprintGovernor +
+                ", scheduledRotation=" + scheduledRotation +
+                ", archiveOptions=" + archiveOptions +
                 '}';
     }
 
@@ -437,11 +781,16 @@ public class HdrBuilder {
     private Optional<double[]> predefinedPercentiles;
     private Optional<Long> expectedIntervalBetweenValueSamples;
     private Optional<Executor> backgroundExecutor;
+    private Optional<IntervalLogWriter> intervalLogWriter;
+    private boolean mergeableSnapshots;
+    private FootprintGovernor footprintGovernor;
+    private boolean scheduledRotation;
+    private ArchiveOptions archiveOptions;
 
     private com.github.rollingmetrics.util.Clock clock;
 
     public HdrBuilder(com.github.rollingmetrics.util.Clock clock) {
-        this(clock, DEFAULT_ACCUMULATION_STRATEGY, DEFAULT_NUMBER_OF_SIGNIFICANT_DIGITS, Optional.of(DEFAULT_PERCENTILES), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+        this(clock, DEFAULT_ACCUMULATION_STRATEGY, DEFAULT_NUMBER_OF_SIGNIFICANT_DIGITS, Optional.of(DEFAULT_PERCENTILES), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), false, FootprintGovernor.getInstance(), false, ArchiveOptions.DEFAULT);
     }
 
     private HdrBuilder(com.github.rollingmetrics.util.Clock clock,
@@ -453,7 +802,12 @@ public class HdrBuilder {
                        Optional<OverflowResolver> overflowResolver,
                        Optional<Long> snapshotCachingDurationMillis,
                        Optional<Long> expectedIntervalBetweenValueSamples,
-                       Optional<Executor> backgroundExecutor) {
+                       Optional<Executor> backgroundExecutor,
+                       Optional<IntervalLogWriter> intervalLogWriter,
+                       boolean mergeableSnapshots,
+                       FootprintGovernor footprintGovernor,
+                       boolean scheduledRotation,
+                       ArchiveOptions archiveOptions) {
         this.clock = clock;
         this.accumulationFactory = accumulationFactory;
         this.numberOfSignificantValueDigits = numberOfSignificantValueDigits;
@@ -464,9 +818,14 @@ public class HdrBuilder {
         this.predefinedPercentiles = predefinedPercentiles;
         this.expectedIntervalBetweenValueSamples = expectedIntervalBetweenValueSamples;
         this.backgroundExecutor = backgroundExecutor;
+        this.intervalLogWriter = intervalLogWriter;
+        this.mergeableSnapshots = mergeableSnapshots;
+        this.footprintGovernor = footprintGovernor;
+        this.scheduledRotation = scheduledRotation;
+        this.archiveOptions = archiveOptions;
     }
 
-    private HdrBuilder resetReservoirPeriodicallyByChunks(long resettingPeriodMillis, int numberHistoryChunks) {
+    private HdrBuilder resetReservoirPeriodicallyByChunks(long resettingPeriodMillis, int numberHistoryChunks, boolean smoothlyDecaying) {
         if (resettingPeriodMillis <= 0) {
             throw new IllegalArgumentException("resettingPeriod must be a positive duration");
         }
@@ -474,18 +833,63 @@ public class HdrBuilder {
             throw new IllegalArgumentException("Interval between resetting must be >= " + MIN_CHUNK_RESETTING_INTERVAL_MILLIS + " millis");
         }
 
-        accumulationFactory = (recorder, clock) -> new ResetByChunksAccumulator(recorder, numberHistoryChunks, resettingPeriodMillis, clock, getExecutor());
+        accumulationFactory = AccumulationFactory.of(
+                (recorder, builder) -> new ResetByChunksAccumulator(recorder, numberHistoryChunks, resettingPeriodMillis, builder.clock, builder.getExecutor(),
+                        builder.intervalLogWriter.orElse(null), smoothlyDecaying, builder.scheduledRotation, builder.archiveOptions),
+                (histogramFootprint, lowest, highest, digits, archiveOptions) -> ResetByChunksAccumulator.estimateFootprintInBytes(histogramFootprint,
+                        archiveOptions.estimateArchiveFootprintInBytes(numberHistoryChunks, lowest, highest, digits)));
         return this;
     }
 
     private Executor getExecutor() {
-        return backgroundExecutor.orElseGet(ResilientExecutionUtil.getInstance()::getBackgroundExecutor);
+        return ResilientExecutionUtil.getInstance().resolveExecutorForMetric(backgroundExecutor.orElse(null));
     }
 
     private HdrReservoir buildHdrReservoir() {
         validateParameters();
-        Accumulator accumulator = accumulationFactory.createAccumulator(this::buildRecorder, clock);
-        return new HdrReservoir(accumulator, predefinedPercentiles, highestTrackableValue, overflowResolver, expectedIntervalBetweenValueSamples);
+        // limits are checked against estimation calculated from configuration, so nothing is allocated for reservoir which does not fit
+        int significantDigits = numberOfSignificantValueDigits;
+        long estimatedFootprintInBytes = estimateFootprintInBytes(significantDigits);
+        while (significantDigits > MIN_DEGRADED_SIGNIFICANT_DIGITS && !footprintGovernor.fitsIntoSoftLimit(estimatedFootprintInBytes)) {
+            significantDigits--;
+            estimatedFootprintInBytes = estimateFootprintInBytes(significantDigits);
+        }
+        if (significantDigits != numberOfSignificantValueDigits) {
+            int degradedSignificantDigits = significantDigits;
+            logger.warning(() -> "Soft limit of " + footprintGovernor + " is exceeded, so number of significant value digits is degraded from "
+                    + numberOfSignificantValueDigits + " to " + degradedSignificantDigits);
+        }
+        footprintGovernor.checkHardLimit(estimatedFootprintInBytes);
+        HdrReservoir hdrReservoir = createHdrReservoir(significantDigits);
+        footprintGovernor.reserve(hdrReservoir, estimatedFootprintInBytes);
+        if (scheduledRotation) {
+            ResetByChunksAccumulator accumulator = (ResetByChunksAccumulator) hdrReservoir.getAccumulator();
+            RotationScheduler.getInstance().schedule(accumulator, accumulator.rotate());
+        }
+        return hdrReservoir;
+    }
+
+    private long estimateFootprintInBytes(int significantDigits) {
+        // recorder without highest trackable value is auto-resizable, such recorder is backed by ConcurrentHistogram which keeps two arrays of counts
+        long lowest = lowestDiscernibleValue.orElse(1L);
+        long highest = highestTrackableValue.orElse(2 * lowest);
+        boolean concurrent = !highestTrackableValue.isPresent();
+        long histogramFootprint = HistogramUtil.estimateFootprintInBytes(lowest, highest, significantDigits, concurrent);
+        return accumulationFactory.estimateFootprintInBytes(histogramFootprint, lowest, highest, significantDigits, archiveOptions);
+    }
+
+    private HdrReservoir createHdrReservoir(int significantDigits) {
+        Accumulator accumulator = accumulationFactory.createAccumulator(() -> buildRecorder(significantDigits), this);
+        if (intervalLogWriter.isPresent() && !(accumulator instanceof ResetByChunksAccumulator)) {
+            throw new IllegalStateException("intervalLogWriter can be used only with resetReservoirPeriodically, resetReservoirPeriodicallyByChunks or resetReservoirSmoothlyByChunks");
+        }
+        if (scheduledRotation && !(accumulator instanceof ResetByChunksAccumulator)) {
+            throw new IllegalStateException("scheduled rotation can be used only with resetReservoirPeriodically, resetReservoirPeriodicallyByChunks or resetReservoirSmoothlyByChunks");
+        }
+        if ((archiveOptions.isDownsampled() || archiveOptions.isCompressed()) && !(accumulator instanceof ResetByChunksAccumulator)) {
+            throw new IllegalStateException("archived chunks precision, compression and off-heap storage can be configured only with resetReservoirPeriodicallyByChunks or resetReservoirSmoothlyByChunks");
+        }
+        return new HdrReservoir(accumulator, predefinedPercentiles, highestTrackableValue, overflowResolver, expectedIntervalBetweenValueSamples, mergeableSnapshots);
     }
 
     private void validateParameters() {
@@ -498,14 +902,14 @@ public class HdrBuilder {
         }
     }
 
-    private Recorder buildRecorder() {
+    private Recorder buildRecorder(int significantDigits) {
         if (lowestDiscernibleValue.isPresent()) {
-            return new Recorder(lowestDiscernibleValue.get(), highestTrackableValue.get(), numberOfSignificantValueDigits);
+            return new Recorder(lowestDiscernibleValue.get(), highestTrackableValue.get(), significantDigits);
         }
         if (highestTrackableValue.isPresent()) {
-            return new Recorder(highestTrackableValue.get(), numberOfSignificantValueDigits);
+            return new Recorder(highestTrackableValue.get(), significantDigits);
         }
-        return new Recorder(numberOfSignificantValueDigits);
+        return new Recorder(significantDigits);
     }
 
     private Reservoir wrapAroundByDecorators(Reservoir reservoir) {
@@ -522,13 +926,51 @@ public class HdrBuilder {
         return sortedPercentiles;
     }
 
-    interface AccumulationFactory {
-
-        AccumulationFactory UNIFORM = (recorderSupplier, clock) -> new UniformAccumulator(recorderSupplier.get());
+    /**
+     * The factories are shared between builder and its deep copies,
+     * so options which can be changed after choosing of accumulation strategy are taken from the builder which builds reservoir, not captured by factory.
+     */
+    interface AccumulationFactory extends FootprintEstimation {
+
+        AccumulationFactory UNIFORM = of(
+                (recorderSupplier, builder) -> new UniformAccumulator(recorderSupplier.get()),
+                (histogramFootprint, lowest, highest, digits, archiveOptions) -> UniformAccumulator.estimateFootprintInBytes(histogramFootprint));
+
+        AccumulationFactory RESET_ON_SNAPSHOT = of(
+                (recorderSupplier, builder) -> new ResetOnSnapshotAccumulator(recorderSupplier.get()),
+                (histogramFootprint, lowest, highest, digits, archiveOptions) -> ResetOnSnapshotAccumulator.estimateFootprintInBytes(histogramFootprint));
+
+        Accumulator createAccumulator(Supplier<Recorder> recorderSupplier, HdrBuilder builder);
+
+        static AccumulationFactory of(BiFunction<Supplier<Recorder>, HdrBuilder, Accumulator> constructor, FootprintEstimation footprintEstimation) {
+            return new AccumulationFactory() {
+                @Override
+                public Accumulator createAccumulator(Supplier<Recorder> recorderSupplier, HdrBuilder builder) {
+                    return constructor.apply(recorderSupplier, builder);
+                }
+
+                @Override
+                public long estimateFootprintInBytes(long histogramFootprint, long lowestDiscernibleValue, long highestTrackableValue, int significantDigits, ArchiveOptions archiveOptions) {
+                    return footprintEstimation.estimateFootprintInBytes(histogramFootprint, lowestDiscernibleValue, highestTrackableValue, significantDigits, archiveOptions);
+                }
+            };
+        }
 
-        AccumulationFactory RESET_ON_SNAPSHOT = (recorderSupplier, clock) -> new ResetOnSnapshotAccumulator(recorderSupplier.get());
+    }
 
-        Accumulator createAccumulator(Supplier<Recorder> recorderSupplier, com.github.rollingmetrics.util.Clock clock);
+    interface FootprintEstimation {
+
+        /**
+         * Estimates footprint of accumulator from configuration, without allocation of any histogram.
+         *
+         * @param histogramFootprint the footprint of single histogram of recorder
+         * @param lowestDiscernibleValue the lowest discernible value of recorder
+         * @param highestTrackableValue the highest trackable value of recorder
+         * @param significantDigits the number of significant value digits of recorder
+         * @param archiveOptions the options of archived chunks
+         * @return a (conservatively high) estimate of accumulator footprint in bytes
+         */
+        long estimateFootprintInBytes(long histogramFootprint, long lowestDiscernibleValue, long highestTrackableValue, int significantDigits, ArchiveOptions archiveOptions);
 
     }
 
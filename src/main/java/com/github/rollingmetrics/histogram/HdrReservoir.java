@@ -21,6 +21,8 @@ package com.github.rollingmetrics.histogram;
 import com.codahale.metrics.Reservoir;
 import com.codahale.metrics.Snapshot;
 import com.github.rollingmetrics.histogram.accumulator.Accumulator;
+import com.github.rollingmetrics.histogram.accumulator.WindowedAccumulator;
+import com.github.rollingmetrics.histogram.util.EmptySnapshot;
 import org.HdrHistogram.Histogram;
 import org.HdrHistogram.HistogramIterationValue;
 
@@ -45,14 +47,19 @@ class HdrReservoir implements Reservoir {
     private final long highestTrackableValue;
     private final OverflowResolver overflowResolver;
     private final long expectedIntervalBetweenValueSamples;
+    private final boolean mergeableSnapshots;
 
-    HdrReservoir(Accumulator accumulator, Optional<double[]> predefinedPercentiles, Optional<Long> highestTrackableValue, Optional<OverflowResolver> overflowResolver, Optional<Long> expectedIntervalBetweenValueSamples) {
+    HdrReservoir(Accumulator accumulator, Optional<double[]> predefinedPercentiles, Optional<Long> highestTrackableValue, Optional<OverflowResolver> overflowResolver, Optional<Long> expectedIntervalBetweenValueSamples, boolean mergeableSnapshots) {
         this.accumulator = accumulator;
         this.highestTrackableValue = highestTrackableValue.orElse(Long.MAX_VALUE);
         this.overflowResolver = overflowResolver.orElse(null);
         this.expectedIntervalBetweenValueSamples = expectedIntervalBetweenValueSamples.orElse(0L);
 
-        if (predefinedPercentiles.isPresent()) {
+        this.mergeableSnapshots = mergeableSnapshots;
+
+        if (mergeableSnapshots) {
+            snapshotTaker = MergeableSnapshot::copyOf;
+        } else if (predefinedPercentiles.isPresent()) {
             double[] percentiles = predefinedPercentiles.get();
             snapshotTaker = histogram -> takeSmartSnapshot(percentiles, histogram);
         } else {
@@ -79,7 +86,46 @@ class HdrReservoir implements Reservoir {
 
     @Override
     public Snapshot getSnapshot() {
-        return accumulator.getSnapshot(snapshotTaker);
+        return decorateSnapshot(accumulator.getSnapshot(snapshotTaker));
+    }
+
+    Snapshot getSnapshot(long windowMillis) {
+        return decorateSnapshot(((WindowedAccumulator) accumulator).getSnapshot(windowMillis, snapshotTaker));
+    }
+
+    /**
+     * Takes snapshot which holds only predefined percentiles, the lock of accumulator is held only while recorded values are copied into scratch histogram.
+     *
+     * @param sortedPercentiles the percentiles to calculate
+     * @param scratchHistograms the histograms private to current thread, indexed by number of significant value digits
+     * @return the compact snapshot
+     */
+    Snapshot takeCompactSnapshot(double[] sortedPercentiles, Histogram[] scratchHistograms) {
+        Histogram[] copy = new Histogram[1];
+        accumulator.getSnapshot(histogram -> {
+            int digits = histogram.getNumberOfSignificantValueDigits();
+            Histogram scratch = scratchHistograms[digits];
+            if (scratch == null) {
+                scratch = new Histogram(digits);
+                scratchHistograms[digits] = scratch;
+            }
+            histogram.copyInto(scratch);
+            copy[0] = scratch;
+            return EmptySnapshot.INSTANCE;
+        });
+        if (copy[0] == null) {
+            // there were no values
+            return EmptySnapshot.INSTANCE;
+        }
+        return takeSmartSnapshot(sortedPercentiles, copy[0]);
+    }
+
+    private Snapshot decorateSnapshot(Snapshot snapshot) {
+        if (mergeableSnapshots && !(snapshot instanceof MergeableSnapshot)) {
+            // accumulator returns the shared empty snapshot when there are no values
+            return MergeableSnapshot.empty();
+        }
+        return snapshot;
     }
 
     /**
@@ -91,6 +137,10 @@ class HdrReservoir implements Reservoir {
         return accumulator.getEstimatedFootprintInBytes();
     }
 
+    Accumulator getAccumulator() {
+        return accumulator;
+    }
+
     static Snapshot takeSmartSnapshot(final double[] predefinedQuantiles, Histogram histogram) {
         final long max = histogram.getMaxValue();
         final long min = histogram.getMinValue();
@@ -184,7 +234,7 @@ class HdrReservoir implements Reservoir {
         };
     }
 
-    private static Snapshot takeFullSnapshot(final Histogram histogram) {
+    static Snapshot takeFullSnapshot(final Histogram histogram) {
         return new Snapshot() {
             @Override
             public double getValue(double quantile) {
@@ -260,6 +310,7 @@ class HdrReservoir implements Reservoir {
                 "highestTrackableValue=" + highestTrackableValue +
                 ", overflowResolver=" + overflowResolver +
                 ", expectedIntervalBetweenValueSamples=" + expectedIntervalBetweenValueSamples +
+                ", mergeableSnapshots=" + mergeableSnapshots +
                 "\n accumulator=" + accumulator +
                 '}';
     }
@@ -0,0 +1,257 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram;
+
+import com.github.rollingmetrics.util.Clock;
+import org.HdrHistogram.Histogram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+/**
+ * Writes completed chunks of rolling reservoir into HdrHistogram interval log,
+ * the log is written in the same format as {@link org.HdrHistogram.HistogramLogWriter} produces, so it can be processed later by {@link org.HdrHistogram.HistogramLogReader}
+ * or by <a href="https://github.com/HdrHistogram/HistogramLogAnalyzer">HistogramLogAnalyzer</a>.
+ *
+ * <p>
+ * The writer rolls the log over to new file when size of current file exceeds {@code maxFileSizeBytes}
+ * or when current file is older than {@code maxFileAge}. The files are named as {@code <fileNamePrefix>-<creationTimeMillis>.hlog}.
+ *
+ * <p>
+ * The chunks are passed to writer from the background executor which rotates reservoir chunks,
+ * so the recording path is never affected by file IO. Any IO error is logged and never propagated to caller,
+ * after the error the writer tries to reopen the log at next chunk.
+ *
+ * <p>
+ * Each reservoir should be configured with its own writer instance, because format of interval log does not provide the way to distinguish histograms from different sources.
+ *
+ * @see HdrBuilder#withIntervalLog(IntervalLogWriter)
+ */
+public class IntervalLogWriter implements Consumer<Histogram>, Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE_BYTES = 64 * 1024;
+    static final String FILE_NAME_SUFFIX = ".hlog";
+    static final String LOG_FORMAT_VERSION = "1.3";
+
+    private static final double MAX_VALUE_UNIT_RATIO = 1000000.0;
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private static final Logger logger = Logger.getLogger(IntervalLogWriter.class.getName());
+
+    private final Path directory;
+    private final String fileNamePrefix;
+    private final long maxFileSizeBytes;
+    private final long maxFileAgeMillis;
+    private final Clock clock;
+    private final ByteBuffer buffer;
+
+    private FileChannel channel;
+    private ByteBuffer encodingBuffer;
+    private long currentFileSizeBytes;
+    private long currentFileCreationTimestamp;
+    private boolean closed;
+
+    /**
+     * Creates the writer which stores interval logs in the {@code directory}.
+     *
+     * @param directory the directory to store log files
+     * @param fileNamePrefix the prefix of log file names
+     * @param maxFileSizeBytes the size after reaching of which the log will be rolled over to new file
+     * @param maxFileAge the age after reaching of which the log will be rolled over to new file
+     */
+    public IntervalLogWriter(Path directory, String fileNamePrefix, long maxFileSizeBytes, Duration maxFileAge) {
+        this(directory, fileNamePrefix, maxFileSizeBytes, maxFileAge, DEFAULT_BUFFER_SIZE_BYTES, Clock.defaultClock());
+    }
+
+    public IntervalLogWriter(Path directory, String fileNamePrefix, long maxFileSizeBytes, Duration maxFileAge, int bufferSizeBytes, Clock clock) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory should not be null");
+        }
+        if (fileNamePrefix == null || fileNamePrefix.isEmpty()) {
+            throw new IllegalArgumentException("fileNamePrefix should not be empty");
+        }
+        if (maxFileSizeBytes <= 0) {
+            throw new IllegalArgumentException("maxFileSizeBytes should be positive");
+        }
+        if (maxFileAge == null || maxFileAge.isNegative() || maxFileAge.isZero()) {
+            throw new IllegalArgumentException("maxFileAge should be a positive duration");
+        }
+        if (bufferSizeBytes < 1024) {
+            throw new IllegalArgumentException("bufferSizeBytes should be >= 1024");
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock should not be null");
+        }
+        this.directory = directory;
+        this.fileNamePrefix = fileNamePrefix;
+        this.maxFileSizeBytes = maxFileSizeBytes;
+        this.maxFileAgeMillis = maxFileAge.toMillis();
+        this.clock = clock;
+        this.buffer = ByteBuffer.allocateDirect(bufferSizeBytes);
+    }
+
+    /**
+     * Appends the completed chunk to the log.
+     * The {@link Histogram#getStartTimeStamp()} and {@link Histogram#getEndTimeStamp()} of chunk are used as interval boundaries.
+     *
+     * @param chunk the completed chunk
+     */
+    @Override
+    public synchronized void accept(Histogram chunk) {
+        if (closed) {
+            return;
+        }
+        try {
+            long currentTimeMillis = clock.currentTimeMillis();
+            if (channel == null || isNeedToRollover(currentTimeMillis)) {
+                rollover(currentTimeMillis);
+            }
+            writeIntervalHistogram(chunk);
+            flush();
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, e, () -> "Fail to write chunk into interval log " + this + " because of " + e.getMessage());
+            closeCurrentFile();
+        }
+    }
+
+    /**
+     * Flushes and closes the current log file, the chunks passed to writer after closing will be silently ignored.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        closeCurrentFile();
+    }
+
+    private boolean isNeedToRollover(long currentTimeMillis) {
+        return currentFileSizeBytes >= maxFileSizeBytes || currentTimeMillis - currentFileCreationTimestamp >= maxFileAgeMillis;
+    }
+
+    private void rollover(long currentTimeMillis) throws IOException {
+        closeCurrentFile();
+
+        Files.createDirectories(directory);
+        channel = openNewFile(currentTimeMillis);
+        currentFileCreationTimestamp = currentTimeMillis;
+        currentFileSizeBytes = 0;
+        buffer.clear();
+
+        // the header is compatible with the format produced by org.HdrHistogram.HistogramLogWriter
+        double startTimeSec = currentTimeMillis / 1000.0;
+        write("#[Histogram log format version " + LOG_FORMAT_VERSION + "]\n");
+        write(String.format(Locale.US, "#[StartTime: %.3f (seconds since epoch), %s]\n", startTimeSec, new Date(currentTimeMillis)));
+        write(String.format(Locale.US, "#[BaseTime: %.3f (seconds since epoch)]\n", startTimeSec));
+        write("\"StartTimestamp\",\"Interval_Length\",\"Interval_Max\",\"Interval_Compressed_Histogram\"\n");
+    }
+
+    private void writeIntervalHistogram(Histogram chunk) throws IOException {
+        int neededCapacity = chunk.getNeededByteBufferCapacity();
+        if (encodingBuffer == null || encodingBuffer.capacity() < neededCapacity) {
+            encodingBuffer = ByteBuffer.allocate(neededCapacity);
+        }
+        encodingBuffer.clear();
+        int compressedLength = chunk.encodeIntoCompressedByteBuffer(encodingBuffer, Deflater.DEFAULT_COMPRESSION);
+        byte[] compressedBytes = Arrays.copyOf(encodingBuffer.array(), compressedLength);
+
+        // java.util.Base64 is used instead of HistogramLogWriter, because old versions of HdrHistogram depend on javax.xml.bind which is absent in modern JDKs
+        write(String.format(Locale.US, "%.3f,%.3f,%.3f,",
+                (chunk.getStartTimeStamp() - currentFileCreationTimestamp) / 1000.0,
+                (chunk.getEndTimeStamp() - chunk.getStartTimeStamp()) / 1000.0,
+                chunk.getMaxValue() / MAX_VALUE_UNIT_RATIO));
+        write(Base64.getEncoder().encode(compressedBytes));
+        write(NEW_LINE);
+    }
+
+    private FileChannel openNewFile(long currentTimeMillis) throws IOException {
+        String baseName = fileNamePrefix + "-" + currentTimeMillis;
+        for (int attempt = 0; ; attempt++) {
+            String fileName = (attempt == 0 ? baseName : baseName + "-" + attempt) + FILE_NAME_SUFFIX;
+            try {
+                return FileChannel.open(directory.resolve(fileName), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException e) {
+                // several files were created at the same millisecond, just try next name
+            }
+        }
+    }
+
+    private void write(String text) throws IOException {
+        write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int portion = Math.min(bytes.length - offset, buffer.remaining());
+            buffer.put(bytes, offset, portion);
+            offset += portion;
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            currentFileSizeBytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void closeCurrentFile() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e, () -> "Fail to close interval log " + this + " because of " + e.getMessage());
+        }
+        channel = null;
+        buffer.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "IntervalLogWriter{" +
+                "directory=" + directory +
+                ", fileNamePrefix='" + fileNamePrefix + '\'' +
+                ", maxFileSizeBytes=" + maxFileSizeBytes +
+                ", maxFileAgeMillis=" + maxFileAgeMillis +
+                ", currentFileSizeBytes=" + currentFileSizeBytes +
+                ", currentFileCreationTimestamp=" + currentFileCreationTimestamp +
+                '}';
+    }
+
+}
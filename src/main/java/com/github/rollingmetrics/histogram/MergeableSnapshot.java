@@ -0,0 +1,201 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * The snapshot which keeps the copy of underlying histogram, so the snapshots taken on different nodes can be serialized,
+ * transferred to aggregator and merged into one distribution. In opposite to averaging of percentiles, the merging of histograms provides mathematically correct fleet-wide percentiles.
+ *
+ * <pre>
+ *     // on each node
+ *     byte[] bytes = ((MergeableSnapshot) timer.getSnapshot()).toByteArray();
+ *
+ *     // on aggregator
+ *     List&lt;MergeableSnapshot&gt; snapshots = ...; // decoded by MergeableSnapshot.fromByteArray
+ *     MergeableSnapshot fleetSnapshot = MergeableSnapshot.merge(snapshots);
+ *     double fleetP99 = fleetSnapshot.get99thPercentile();
+ * </pre>
+ *
+ * @see HdrBuilder#withMergeableSnapshots()
+ */
+public class MergeableSnapshot extends Snapshot {
+
+    private static final MergeableSnapshot EMPTY = new MergeableSnapshot(new Histogram(HdrBuilder.DEFAULT_NUMBER_OF_SIGNIFICANT_DIGITS));
+
+    private final Histogram histogram;
+    private final Snapshot delegate;
+    private volatile byte[] encodedForm;
+
+    private MergeableSnapshot(Histogram histogram) {
+        this.histogram = histogram;
+        this.delegate = HdrReservoir.takeFullSnapshot(histogram);
+    }
+
+    static MergeableSnapshot copyOf(Histogram histogram) {
+        return new MergeableSnapshot(histogram.copy());
+    }
+
+    static MergeableSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Merges the snapshots into one distribution. The highest precision among snapshots is used for result.
+     *
+     * @param snapshots the snapshots to merge
+     * @return snapshot which contains the values from all snapshots
+     */
+    public static MergeableSnapshot merge(Iterable<MergeableSnapshot> snapshots) {
+        int numberOfSignificantValueDigits = 0;
+        long totalCount = 0;
+        for (MergeableSnapshot snapshot : snapshots) {
+            numberOfSignificantValueDigits = Math.max(numberOfSignificantValueDigits, snapshot.histogram.getNumberOfSignificantValueDigits());
+            totalCount += snapshot.histogram.getTotalCount();
+        }
+        if (totalCount == 0) {
+            // zero significant digits is legal precision, so emptiness is detected only by count of values
+            return EMPTY;
+        }
+
+        // auto-resizable histogram is able to accumulate values from histograms with different ranges
+        Histogram merged = new Histogram(numberOfSignificantValueDigits);
+        for (MergeableSnapshot snapshot : snapshots) {
+            if (snapshot.histogram.getTotalCount() > 0) {
+                merged.add(snapshot.histogram);
+            }
+        }
+        return new MergeableSnapshot(merged);
+    }
+
+    /**
+     * Restores the snapshot from the form produced by {@link #toByteArray()}.
+     *
+     * @param bytes the compressed form of snapshot
+     * @return restored snapshot
+     * @throws IllegalArgumentException if bytes do not represent the snapshot
+     */
+    public static MergeableSnapshot fromByteArray(byte[] bytes) {
+        try {
+            Histogram histogram = Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(bytes), 0);
+            return new MergeableSnapshot(histogram);
+        } catch (DataFormatException | RuntimeException e) {
+            throw new IllegalArgumentException("Bytes do not represent the compressed histogram", e);
+        }
+    }
+
+    /**
+     * Encodes the snapshot into compact compressed form which can be decoded by {@link #fromByteArray(byte[])}.
+     *
+     * @return the compressed form of snapshot
+     */
+    public byte[] toByteArray() {
+        byte[] encoded = encodedForm;
+        if (encoded == null) {
+            ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+            int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+            encoded = Arrays.copyOf(buffer.array(), length);
+            encodedForm = encoded;
+        }
+        return encoded.clone();
+    }
+
+    /**
+     * @return the count of values in this snapshot
+     */
+    public long getTotalCount() {
+        return histogram.getTotalCount();
+    }
+
+    /**
+     * Iterates over underlying histogram without copying, the upper bound of each next bucket is {@code logBase} times bigger than previous.
+     *
+     * @param valueUnitsInFirstBucket the upper bound of first bucket
+     * @param logBase the multiplier of bucket bounds
+     * @return the buckets of underlying histogram
+     */
+    public Iterable<HistogramIterationValue> getLogarithmicBuckets(long valueUnitsInFirstBucket, double logBase) {
+        return histogram.logarithmicBucketValues(valueUnitsInFirstBucket, logBase);
+    }
+
+    /**
+     * @return the copy of underlying histogram
+     */
+    public Histogram getHistogramCopy() {
+        return histogram.copy();
+    }
+
+    @Override
+    public double getValue(double quantile) {
+        return delegate.getValue(quantile);
+    }
+
+    @Override
+    public long[] getValues() {
+        return delegate.getValues();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public long getMax() {
+        return delegate.getMax();
+    }
+
+    @Override
+    public double getMean() {
+        return delegate.getMean();
+    }
+
+    @Override
+    public long getMin() {
+        return delegate.getMin();
+    }
+
+    @Override
+    public double getStdDev() {
+        return delegate.getStdDev();
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+        delegate.dump(output);
+    }
+
+    @Override
+    public String toString() {
+        return "MergeableSnapshot{" +
+                "totalCount=" + histogram.getTotalCount() +
+                ", min=" + histogram.getMinValue() +
+                ", max=" + histogram.getMaxValue() +
+                ", mean=" + histogram.getMean() +
+                '}';
+    }
+
+}
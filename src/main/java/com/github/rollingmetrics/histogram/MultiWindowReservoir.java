@@ -0,0 +1,196 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.github.rollingmetrics.util.Clock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The reservoir which records each value once and serves snapshots for several windows from the shared chunk archive.
+ * For example p99 over 1 minute, 5 minutes and 1 hour can be exposed for the same timer without recording each value three times:
+ * <pre><code>
+ *     MultiWindowReservoir reservoir = new HdrBuilder()
+ *          .resetReservoirPeriodicallyByChunks(Duration.ofHours(1), 60)
+ *          .buildMultiWindowReservoir(Duration.ofMinutes(1), Duration.ofMinutes(5), Duration.ofHours(1));
+ *     registry.register("latency-1m", reservoir.getHistogram(Duration.ofMinutes(1)));
+ *     registry.register("latency-5m", reservoir.getHistogram(Duration.ofMinutes(5)));
+ *     registry.register("latency-1h", reservoir.getHistogram(Duration.ofHours(1)));
+ *     ...
+ *     reservoir.update(latency);
+ * </code></pre>
+ *
+ * The values are evicted by whole chunks, so the snapshot for window can include the values which are older than window at most by duration of one chunk.
+ *
+ * @see HdrBuilder#buildMultiWindowReservoir(Duration...)
+ */
+public class MultiWindowReservoir implements Reservoir {
+
+    private final HdrReservoir reservoir;
+    private final long rollingWindowMillis;
+    private final long longestWindowMillis;
+    private final LongAdder count = new LongAdder();
+    private final Map<Duration, Histogram> histograms;
+
+    MultiWindowReservoir(HdrReservoir reservoir, long rollingWindowMillis, Duration[] windows, Optional<Long> snapshotCachingDurationMillis, Clock clock) {
+        this.reservoir = reservoir;
+        this.rollingWindowMillis = rollingWindowMillis;
+
+        long longestWindowMillis = 0;
+        Map<Duration, Histogram> histograms = new LinkedHashMap<>();
+        for (Duration window : windows) {
+            longestWindowMillis = Math.max(longestWindowMillis, window.toMillis());
+            Reservoir windowReservoir = new WindowReservoir(window.toMillis());
+            if (snapshotCachingDurationMillis.isPresent()) {
+                windowReservoir = new SnapshotCachingReservoir(windowReservoir, snapshotCachingDurationMillis.get(), clock);
+            }
+            histograms.put(window, new WindowHistogram(windowReservoir));
+        }
+        this.longestWindowMillis = longestWindowMillis;
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    @Override
+    public int size() {
+        throw new UnsupportedOperationException("You should not use this method https://github.com/dropwizard/metrics/issues/874");
+    }
+
+    @Override
+    public void update(long value) {
+        reservoir.update(value);
+        count.increment();
+    }
+
+    /**
+     * @return snapshot for the longest configured window
+     */
+    @Override
+    public Snapshot getSnapshot() {
+        return reservoir.getSnapshot(longestWindowMillis);
+    }
+
+    /**
+     * Takes snapshot for arbitrary window, the window is not required to be one of windows configured at construction.
+     *
+     * @param window the window, should not be longer than rolling window of reservoir
+     * @return the snapshot which contains values from the last {@code window}
+     */
+    public Snapshot getSnapshot(Duration window) {
+        if (window == null || window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("window should be positive duration");
+        }
+        long windowMillis = window.toMillis();
+        if (windowMillis > rollingWindowMillis) {
+            throw new IllegalArgumentException("window " + window + " is longer than rolling window of reservoir " + Duration.ofMillis(rollingWindowMillis));
+        }
+        return reservoir.getSnapshot(windowMillis);
+    }
+
+    /**
+     * Returns the histogram view for configured window which can be registered in {@link com.codahale.metrics.MetricRegistry}.
+     * The values written to the view are recorded to this reservoir, so they become visible in all windows.
+     * The count reported by each view is the total count of values recorded to this reservoir.
+     *
+     * @param window one of windows configured at construction
+     * @return the histogram view for window
+     */
+    public Histogram getHistogram(Duration window) {
+        Histogram histogram = histograms.get(window);
+        if (histogram == null) {
+            throw new IllegalArgumentException("window " + window + " is not configured, configured windows are " + histograms.keySet());
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the windows configured at construction
+     */
+    public List<Duration> getWindows() {
+        return new ArrayList<>(histograms.keySet());
+    }
+
+    HdrReservoir getHdrReservoir() {
+        return reservoir;
+    }
+
+    /**
+     * @return the count of values recorded to this reservoir
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    private final class WindowReservoir implements Reservoir {
+
+        private final long windowMillis;
+
+        WindowReservoir(long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+
+        @Override
+        public int size() {
+            throw new UnsupportedOperationException("You should not use this method https://github.com/dropwizard/metrics/issues/874");
+        }
+
+        @Override
+        public void update(long value) {
+            MultiWindowReservoir.this.update(value);
+        }
+
+        @Override
+        public Snapshot getSnapshot() {
+            return reservoir.getSnapshot(windowMillis);
+        }
+
+    }
+
+    private final class WindowHistogram extends Histogram {
+
+        WindowHistogram(Reservoir reservoir) {
+            super(reservoir);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return "MultiWindowReservoir{" +
+                "windows=" + histograms.keySet() +
+                ", rollingWindowMillis=" + rollingWindowMillis +
+                ", count=" + count +
+                ", reservoir=" + reservoir +
+                '}';
+    }
+
+}
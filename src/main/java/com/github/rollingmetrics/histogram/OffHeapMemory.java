@@ -0,0 +1,87 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Gauge;
+import com.github.rollingmetrics.util.DirectMemory;
+
+/**
+ * Manages the memory which is allocated outside of java heap by metrics configured via {@link HdrBuilder#withOffHeapArchive()}.
+ * <pre>
+ *     Timer timer = builder.withOffHeapArchive().buildAndRegisterTimer(registry, "my-timer");
+ *     ...
+ *     // when metric is not needed anymore
+ *     registry.remove("my-timer");
+ *     OffHeapMemory.release(timer);
+ * </pre>
+ *
+ * The memory of metric which was not released explicitly is freed when garbage collector discovers that metric is unreachable,
+ * but it can take a long time, because the heap footprint of such metric is tiny and does not create any pressure to garbage collector.
+ */
+public final class OffHeapMemory {
+
+    private OffHeapMemory() {
+    }
+
+    /**
+     * Frees the memory allocated outside of java heap by metric.
+     * The metric stays usable after release, but it loses recorded history and allocates the memory again on demand,
+     * so this method should be called only when metric is removed.
+     * It is safe to call this method for any metric, the metrics which do not use off-heap memory are just ignored.
+     *
+     * @param metric the histogram, timer or reservoir constructed by {@link HdrBuilder}, or {@link ReservoirFamily}
+     */
+    public static void release(Object metric) {
+        if (metric instanceof ReservoirFamily) {
+            ((ReservoirFamily<?>) metric).release();
+            return;
+        }
+        Object reservoir = metric;
+        if (reservoir instanceof ReservoirBackedHistogram) {
+            reservoir = ((ReservoirBackedHistogram) reservoir).getReservoir();
+        } else if (reservoir instanceof ReservoirBackedTimer) {
+            reservoir = ((ReservoirBackedTimer) reservoir).getReservoir();
+        }
+        if (reservoir instanceof SnapshotCachingReservoir) {
+            reservoir = ((SnapshotCachingReservoir) reservoir).getTarget();
+        }
+        if (reservoir instanceof MultiWindowReservoir) {
+            reservoir = ((MultiWindowReservoir) reservoir).getHdrReservoir();
+        }
+        if (reservoir instanceof HdrReservoir) {
+            ((HdrReservoir) reservoir).getAccumulator().release();
+        }
+    }
+
+    /**
+     * @return the amount of memory allocated outside of java heap by all metrics which were not released via {@link #release(Object)} yet,
+     * the memory freed by garbage collector is not subtracted
+     */
+    public static long getAllocatedBytes() {
+        return DirectMemory.getAllocatedBytes();
+    }
+
+    /**
+     * @return the gauge which reports {@link #getAllocatedBytes()}
+     */
+    public static Gauge<Long> getUsageGauge() {
+        return OffHeapMemory::getAllocatedBytes;
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Reservoir;
+
+/**
+ * {@link Histogram} which exposes the underlying reservoir, so {@link BulkSnapshots} is able to take snapshot without detour through metric.
+ *
+ * This class is not the part of metrics-core-hdr public API and should not be used by user directly.
+ */
+class ReservoirBackedHistogram extends Histogram {
+
+    private final Reservoir reservoir;
+
+    ReservoirBackedHistogram(Reservoir reservoir) {
+        super(reservoir);
+        this.reservoir = reservoir;
+    }
+
+    Reservoir getReservoir() {
+        return reservoir;
+    }
+
+}
@@ -0,0 +1,397 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.github.rollingmetrics.histogram.util.EmptySnapshot;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.ResilientExecutionUtil;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The family of reservoirs which share the same configuration and are distinguished by dynamic keys, for example latency per endpoint.
+ * <pre><code>
+ *     ReservoirFamily&lt;String&gt; family = new HdrBuilder()
+ *          .resetReservoirPeriodicallyByChunks(Duration.ofMinutes(1), 6)
+ *          .buildReservoirFamily(1000, 64 * 1024 * 1024, Duration.ofMinutes(10));
+ *     ...
+ *     family.update(endpoint, latency);
+ * </code></pre>
+ *
+ * <p>
+ * The family protects the application from unbounded growth of memory:
+ * <ul>
+ *     <li>The number of keys is limited by {@code maxKeys} and by {@code maxFootprintInBytes},
+ *     the values for keys which do not fit into limits are recorded to the shared overflow reservoir, see {@link #getOverflowReservoir()}.</li>
+ *     <li>The key which was not updated during {@code idleTimeout} is evicted from family, its reservoir is cleared and kept in the pool for reusing by another key.</li>
+ * </ul>
+ *
+ * <p>
+ * Lookup of key is lock-free and recording of value to existing key does not allocate memory.
+ * The eviction of idle keys is performed by background executor, it is triggered by writers not often than once per half of {@code idleTimeout}.
+ *
+ * @param <K> type of key
+ * @see HdrBuilder#buildReservoirFamily(int, long, Duration)
+ */
+public class ReservoirFamily<K> {
+
+    private static final int RETIRED = -1;
+
+    private final Supplier<HdrReservoir> reservoirSupplier;
+    private final Function<Reservoir, Reservoir> decorator;
+    private final int maxKeys;
+    private final int oneReservoirFootprintInBytes;
+    private final long idleTimeoutMillis;
+    private final long evictionIntervalMillis;
+    private final Clock clock;
+    private final Executor backgroundExecutor;
+
+    private final ConcurrentHashMap<K, Entry<K>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<HdrReservoir> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger keyCount = new AtomicInteger();
+    private final AtomicInteger allocatedReservoirs = new AtomicInteger();
+    private final AtomicLong nextEvictionTimestamp;
+    private final LongAdder evictedKeys = new LongAdder();
+    private final LongAdder overflowedValues = new LongAdder();
+    private final HdrReservoir overflowHdrReservoir;
+    private final Reservoir overflowReservoir;
+
+    ReservoirFamily(Supplier<HdrReservoir> reservoirSupplier, Function<Reservoir, Reservoir> decorator, int maxKeys, long maxFootprintInBytes,
+                    long idleTimeoutMillis, Clock clock, Executor backgroundExecutor) {
+        this.reservoirSupplier = reservoirSupplier;
+        this.decorator = decorator;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.evictionIntervalMillis = Math.max(1, idleTimeoutMillis / 2);
+        this.clock = clock;
+        this.backgroundExecutor = backgroundExecutor;
+
+        this.overflowHdrReservoir = reservoirSupplier.get();
+        this.oneReservoirFootprintInBytes = overflowHdrReservoir.getEstimatedFootprintInBytes();
+        this.overflowReservoir = decorator.apply(overflowHdrReservoir);
+
+        // overflow reservoir consumes the budget as well as the reservoir of any key
+        long keysFittingIntoFootprint = maxFootprintInBytes / oneReservoirFootprintInBytes - 1;
+        if (keysFittingIntoFootprint < 1) {
+            throw new IllegalStateException("maxFootprintInBytes " + maxFootprintInBytes + " is not enough even for one key, " +
+                    "because footprint of one reservoir is " + oneReservoirFootprintInBytes + " bytes and one reservoir is reserved for overflow");
+        }
+        this.maxKeys = (int) Math.min(maxKeys, keysFittingIntoFootprint);
+        this.nextEvictionTimestamp = new AtomicLong(clock.currentTimeMillis() + evictionIntervalMillis);
+    }
+
+    /**
+     * Records value for the key. If the key is new and family has no space for it, then value is recorded to overflow reservoir.
+     *
+     * @param key the key
+     * @param value the value to record
+     */
+    public void update(K key, long value) {
+        long currentTimeMillis = clock.currentTimeMillis();
+        while (true) {
+            Entry<K> entry = entries.get(key);
+            if (entry == null) {
+                entry = createEntry(key, currentTimeMillis);
+                if (entry == null) {
+                    overflowedValues.increment();
+                    overflowReservoir.update(value);
+                    break;
+                }
+            }
+            if (entry.acquire()) {
+                try {
+                    entry.reservoir.update(value);
+                    entry.touch(currentTimeMillis);
+                } finally {
+                    entry.release();
+                }
+                break;
+            }
+            // entry was evicted concurrently, just try again
+        }
+        scheduleEvictionIfNeeded(currentTimeMillis);
+    }
+
+    /**
+     * Returns the view which records values for the key, the view does not prevent the key from eviction.
+     *
+     * @param key the key
+     * @return the reservoir view bound to the key
+     */
+    public Reservoir getReservoir(K key) {
+        return new KeyReservoir(key);
+    }
+
+    /**
+     * @param key the key
+     * @return snapshot of values recorded for the key, or empty snapshot if the key is absent in the family
+     */
+    public Snapshot getSnapshot(K key) {
+        Entry<K> entry = entries.get(key);
+        if (entry == null || !entry.acquire()) {
+            return EmptySnapshot.INSTANCE;
+        }
+        try {
+            return entry.reservoir.getSnapshot();
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * @return the snapshots for all keys which present in the family
+     */
+    public Map<K, Snapshot> getSnapshots() {
+        Map<K, Snapshot> snapshots = new HashMap<>();
+        for (Entry<K> entry : entries.values()) {
+            if (entry.acquire()) {
+                try {
+                    snapshots.put(entry.key, entry.reservoir.getSnapshot());
+                } finally {
+                    entry.release();
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return the reservoir which accumulates values for keys which do not fit into limits of family
+     */
+    public Reservoir getOverflowReservoir() {
+        return overflowReservoir;
+    }
+
+    /**
+     * @return the number of values recorded to overflow reservoir
+     */
+    public long getOverflowCount() {
+        return overflowedValues.sum();
+    }
+
+    /**
+     * @return the number of keys which present in the family
+     */
+    public int getKeyCount() {
+        return keyCount.get();
+    }
+
+    /**
+     * @return the maximum number of keys, it is the minimum of {@code maxKeys} and number of reservoirs which fit into {@code maxFootprintInBytes}
+     */
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    /**
+     * @return the number of keys which were evicted because of idleness
+     */
+    public long getEvictionCount() {
+        return evictedKeys.sum();
+    }
+
+    /**
+     * @return the number of cleared reservoirs which are ready to be reused by new keys
+     */
+    public int getPooledCount() {
+        return pool.size();
+    }
+
+    /**
+     * Provide a (conservatively high) estimate of the family total footprint in bytes, including overflow reservoir and pooled reservoirs.
+     *
+     * @return a (conservatively high) estimate of the family total footprint in bytes
+     */
+    public long getEstimatedFootprintInBytes() {
+        return (long) oneReservoirFootprintInBytes * (allocatedReservoirs.get() + 1);
+    }
+
+    /**
+     * Evicts all keys which were not updated during {@code idleTimeout}.
+     * Normally there is no need to call this method, because eviction is triggered by writers.
+     */
+    public void evictIdleKeys() {
+        long currentTimeMillis = clock.currentTimeMillis();
+        for (Entry<K> entry : entries.values()) {
+            if (currentTimeMillis - entry.lastUpdateTimestamp >= idleTimeoutMillis && entry.retire()) {
+                entries.remove(entry.key, entry);
+                keyCount.decrementAndGet();
+                evictedKeys.increment();
+                recycle(entry.hdrReservoir);
+            }
+        }
+    }
+
+    private Entry<K> createEntry(K key, long currentTimeMillis) {
+        if (keyCount.incrementAndGet() > maxKeys) {
+            keyCount.decrementAndGet();
+            return null;
+        }
+        HdrReservoir hdrReservoir = pool.poll();
+        if (hdrReservoir == null) {
+            hdrReservoir = reservoirSupplier.get();
+            allocatedReservoirs.incrementAndGet();
+        }
+        Entry<K> entry = new Entry<>(key, hdrReservoir, decorator.apply(hdrReservoir), currentTimeMillis);
+        Entry<K> concurrentEntry = entries.putIfAbsent(key, entry);
+        if (concurrentEntry != null) {
+            // another writer registered the key concurrently
+            keyCount.decrementAndGet();
+            pool.offer(hdrReservoir);
+            return concurrentEntry;
+        }
+        return entry;
+    }
+
+    private void recycle(HdrReservoir hdrReservoir) {
+        if (hdrReservoir.getAccumulator().reset()) {
+            pool.offer(hdrReservoir);
+        } else {
+            // accumulator is busy by background rotation, so just leave it to garbage collector
+            hdrReservoir.getAccumulator().release();
+            allocatedReservoirs.decrementAndGet();
+        }
+    }
+
+    /**
+     * Frees the memory allocated outside of java heap by reservoirs of all keys, see {@link HdrBuilder#withOffHeapArchive()}.
+     */
+    void release() {
+        for (Entry<K> entry : entries.values()) {
+            entry.hdrReservoir.getAccumulator().release();
+        }
+        for (HdrReservoir hdrReservoir : pool) {
+            hdrReservoir.getAccumulator().release();
+        }
+        overflowHdrReservoir.getAccumulator().release();
+    }
+
+    private void scheduleEvictionIfNeeded(long currentTimeMillis) {
+        long nextEvictionTimestampLocal = nextEvictionTimestamp.get();
+        if (currentTimeMillis >= nextEvictionTimestampLocal
+                && nextEvictionTimestamp.compareAndSet(nextEvictionTimestampLocal, currentTimeMillis + evictionIntervalMillis)) {
+            // Current thread is responsible to evict idle keys.
+            ResilientExecutionUtil.getInstance().execute(backgroundExecutor, this::evictIdleKeys);
+        }
+    }
+
+    private static final class Entry<K> {
+
+        final K key;
+        final HdrReservoir hdrReservoir;
+        final Reservoir reservoir;
+
+        // the positive value is the number of threads which currently use the entry, RETIRED means that entry was evicted
+        final AtomicInteger users = new AtomicInteger();
+        volatile long lastUpdateTimestamp;
+
+        Entry(K key, HdrReservoir hdrReservoir, Reservoir reservoir, long lastUpdateTimestamp) {
+            this.key = key;
+            this.hdrReservoir = hdrReservoir;
+            this.reservoir = reservoir;
+            this.lastUpdateTimestamp = lastUpdateTimestamp;
+        }
+
+        boolean acquire() {
+            while (true) {
+                int usersLocal = users.get();
+                if (usersLocal == RETIRED) {
+                    return false;
+                }
+                if (users.compareAndSet(usersLocal, usersLocal + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            users.decrementAndGet();
+        }
+
+        boolean retire() {
+            return users.compareAndSet(0, RETIRED);
+        }
+
+        void touch(long currentTimeMillis) {
+            // avoid of volatile write when timestamp is not changed
+            if (lastUpdateTimestamp != currentTimeMillis) {
+                lastUpdateTimestamp = currentTimeMillis;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "key=" + key +
+                    ", lastUpdateTimestamp=" + lastUpdateTimestamp +
+                    ", reservoir=" + reservoir +
+                    '}';
+        }
+    }
+
+    private final class KeyReservoir implements Reservoir {
+
+        private final K key;
+
+        KeyReservoir(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public int size() {
+            throw new UnsupportedOperationException("You should not use this method https://github.com/dropwizard/metrics/issues/874");
+        }
+
+        @Override
+        public void update(long value) {
+            ReservoirFamily.this.update(key, value);
+        }
+
+        @Override
+        public Snapshot getSnapshot() {
+            return ReservoirFamily.this.getSnapshot(key);
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return "ReservoirFamily{" +
+                "maxKeys=" + maxKeys +
+                ", idleTimeout=" + Duration.ofMillis(idleTimeoutMillis) +
+                ", oneReservoirFootprintInBytes=" + oneReservoirFootprintInBytes +
+                ", keyCount=" + keyCount +
+                ", allocatedReservoirs=" + allocatedReservoirs +
+                ", pooledReservoirs=" + pool.size() +
+                ", evictedKeys=" + evictedKeys +
+                ", overflowedValues=" + overflowedValues +
+                '}';
+    }
+
+}
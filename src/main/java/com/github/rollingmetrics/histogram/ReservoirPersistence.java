@@ -0,0 +1,103 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Reservoir;
+import com.github.rollingmetrics.histogram.accumulator.Accumulator;
+import com.github.rollingmetrics.histogram.accumulator.ResetByChunksAccumulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Saves and restores the state of reservoirs configured by {@link HdrBuilder#resetReservoirPeriodically(java.time.Duration)}
+ * or {@link HdrBuilder#resetReservoirPeriodicallyByChunks(java.time.Duration, int)}.
+ * It is useful to avoid the reporting of nearly empty rolling windows just after application restart:
+ * <pre>
+ *     Reservoir reservoir = builder.buildReservoir();
+ *     ReservoirPersistence.restore(reservoir, stateFile);
+ *     Timer timer = new Timer(reservoir);
+ *     ...
+ *     // at shutdown
+ *     ReservoirPersistence.save(reservoir, stateFile);
+ * </pre>
+ *
+ * The chunks which were invalidated during the time passed between saving and restoring are discarded.
+ */
+public final class ReservoirPersistence {
+
+    private ReservoirPersistence() {
+    }
+
+    /**
+     * Saves the state of reservoir to the file. The file is replaced atomically, so the previous state is never corrupted by unsuccessful saving.
+     *
+     * @param reservoir the reservoir which was constructed by {@link HdrBuilder}
+     * @param file the file to save state
+     * @throws IOException if any IO error occurs
+     * @throws IllegalArgumentException if reservoir is not configured to reset periodically
+     */
+    public static void save(Reservoir reservoir, Path file) throws IOException {
+        ResetByChunksAccumulator accumulator = getAccumulator(reservoir);
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            accumulator.writeState(output);
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores the state of reservoir from the file. This method should be called just after construction of reservoir.
+     *
+     * @param reservoir the reservoir which was constructed by {@link HdrBuilder}
+     * @param file the file which was previously written by {@link #save(Reservoir, Path)}
+     * @return true if state has been restored, false if file does not exist or state was saved by reservoir with different configuration
+     * @throws IOException if any IO error occurs or the file is corrupted
+     * @throws IllegalArgumentException if reservoir is not configured to reset periodically
+     */
+    public static boolean restore(Reservoir reservoir, Path file) throws IOException {
+        ResetByChunksAccumulator accumulator = getAccumulator(reservoir);
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return accumulator.readState(input);
+        }
+    }
+
+    private static ResetByChunksAccumulator getAccumulator(Reservoir reservoir) {
+        if (reservoir instanceof SnapshotCachingReservoir) {
+            reservoir = ((SnapshotCachingReservoir) reservoir).getTarget();
+        }
+        if (!(reservoir instanceof HdrReservoir)) {
+            throw new IllegalArgumentException("Reservoir " + reservoir + " was not constructed by HdrBuilder");
+        }
+        Accumulator accumulator = ((HdrReservoir) reservoir).getAccumulator();
+        if (!(accumulator instanceof ResetByChunksAccumulator)) {
+            throw new IllegalArgumentException("Only reservoirs which reset periodically can be persisted");
+        }
+        return (ResetByChunksAccumulator) accumulator;
+    }
+
+}
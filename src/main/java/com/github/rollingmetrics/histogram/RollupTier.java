@@ -0,0 +1,82 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram;
+
+import java.time.Duration;
+
+/**
+ * Describes one tier of reservoir configured via {@link HdrBuilder#resetReservoirPeriodicallyByTiers(RollupTier...)}.
+ *
+ * @see HdrBuilder#resetReservoirPeriodicallyByTiers(RollupTier...)
+ */
+public final class RollupTier {
+
+    private final Duration chunkDuration;
+    private final int chunkCount;
+
+    private RollupTier(Duration chunkDuration, int chunkCount) {
+        this.chunkDuration = chunkDuration;
+        this.chunkCount = chunkCount;
+    }
+
+    /**
+     * Creates the description of tier.
+     *
+     * @param chunkDuration the duration of each chunk in the tier
+     * @param chunkCount the number of chunks which tier keeps
+     * @return the description of tier
+     */
+    public static RollupTier of(Duration chunkDuration, int chunkCount) {
+        if (chunkDuration == null) {
+            throw new IllegalArgumentException("chunkDuration should not be null");
+        }
+        if (chunkDuration.toMillis() < HdrBuilder.MIN_CHUNK_RESETTING_INTERVAL_MILLIS) {
+            throw new IllegalArgumentException("chunkDuration must be >= " + HdrBuilder.MIN_CHUNK_RESETTING_INTERVAL_MILLIS + " millis");
+        }
+        if (chunkCount < 1) {
+            throw new IllegalArgumentException("chunkCount should be >= 1");
+        }
+        if (chunkCount > HdrBuilder.MAX_CHUNKS) {
+            throw new IllegalArgumentException("chunkCount should be <= " + HdrBuilder.MAX_CHUNKS);
+        }
+        return new RollupTier(chunkDuration, chunkCount);
+    }
+
+    /**
+     * @return the duration of each chunk in the tier
+     */
+    public Duration getChunkDuration() {
+        return chunkDuration;
+    }
+
+    /**
+     * @return the number of chunks which tier keeps
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    @Override
+    public String toString() {
+        return "RollupTier{" +
+                "chunkDuration=" + chunkDuration +
+                ", chunkCount=" + chunkCount +
+                '}';
+    }
+
+}
@@ -51,4 +51,8 @@ class SnapshotCachingReservoir implements Reservoir {
         return cachingSupplier.get();
     }
 
+    Reservoir getTarget() {
+        return target;
+    }
+
 }
@@ -35,4 +35,20 @@ public interface Accumulator {
 
     int getEstimatedFootprintInBytes();
 
+    /**
+     * Clears all values recorded to this accumulator, so it can be reused for another source of values.
+     * This method should be called only when there are no concurrent writers.
+     *
+     * @return true if accumulator has been cleared, and false if accumulator can not be cleared at the moment
+     */
+    boolean reset();
+
+    /**
+     * Frees the memory allocated by this accumulator outside of java heap. This method should be called when metric is removed,
+     * the accumulator stays usable after release, but it allocates the memory again on demand.
+     */
+    default void release() {
+        // nothing to release by default, because accumulators keep values in java heap
+    }
+
 }
@@ -0,0 +1,171 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.histogram.accumulator;
+
+import com.github.rollingmetrics.histogram.util.HistogramUtil;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Describes how completed chunks are stored in the archive of {@link ResetByChunksAccumulator}.
+ *
+ * <p>
+ * By default archived chunks have the same precision as the live recorder.
+ * Because archive is where most of memory goes for long rolling windows, the archived chunks can be downsampled
+ * to fewer significant digits or to coarser lowest discernible value, the values are downsampled once when chunk is moved to archive.
+ * Also the archived chunks can be kept in compact variable-length encoding, which is decoded on demand when snapshot is taken,
+ * this trades CPU of snapshot extraction for a large drop of resident heap.
+ * The compact encoding of archived chunks can be moved outside of java heap to direct buffers,
+ * so the archive does not contribute to the work of garbage collector at all.
+ *
+ * This class is not the part of metrics-core-hdr public API and should not be used by user directly.
+ */
+public final class ArchiveOptions {
+
+    private static final int SAME_AS_LIVE = -1;
+
+    public static final ArchiveOptions DEFAULT = new ArchiveOptions(SAME_AS_LIVE, SAME_AS_LIVE, false, false);
+
+    private final int numberOfSignificantValueDigits;
+    private final long lowestDiscernibleValue;
+    private final boolean compressed;
+    private final boolean offHeap;
+
+    private ArchiveOptions(int numberOfSignificantValueDigits, long lowestDiscernibleValue, boolean compressed, boolean offHeap) {
+        this.numberOfSignificantValueDigits = numberOfSignificantValueDigits;
+        this.lowestDiscernibleValue = lowestDiscernibleValue;
+        this.compressed = compressed;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @param numberOfSignificantValueDigits the precision of archived chunks, it is never higher than precision of live recorder
+     * @param lowestDiscernibleValue the lowest discernible value of archived chunks, it is never lower than lowest discernible value of live recorder
+     * @return options with downsampled precision
+     */
+    public ArchiveOptions withPrecision(int numberOfSignificantValueDigits, long lowestDiscernibleValue) {
+        if (numberOfSignificantValueDigits < 0 || numberOfSignificantValueDigits > 5) {
+            throw new IllegalArgumentException("numberOfSignificantValueDigits should be between 0 and 5");
+        }
+        if (lowestDiscernibleValue < 1) {
+            throw new IllegalArgumentException("lowestDiscernibleValue should be >= 1");
+        }
+        return new ArchiveOptions(numberOfSignificantValueDigits, lowestDiscernibleValue, compressed, offHeap);
+    }
+
+    /**
+     * @return options with compressed storage of archived chunks
+     */
+    public ArchiveOptions withCompression() {
+        return new ArchiveOptions(numberOfSignificantValueDigits, lowestDiscernibleValue, true, offHeap);
+    }
+
+    /**
+     * Off-heap storage implies compression, because the compact encoding is exactly what is kept in direct buffers.
+     *
+     * @return options with compressed storage of archived chunks in direct buffers
+     */
+    public ArchiveOptions withOffHeapStorage() {
+        return new ArchiveOptions(numberOfSignificantValueDigits, lowestDiscernibleValue, true, true);
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public boolean isDownsampled() {
+        return numberOfSignificantValueDigits != SAME_AS_LIVE;
+    }
+
+    public int getNumberOfSignificantValueDigits() {
+        return numberOfSignificantValueDigits;
+    }
+
+    public long getLowestDiscernibleValue() {
+        return lowestDiscernibleValue;
+    }
+
+    /**
+     * Creates empty histogram for archived chunk.
+     *
+     * @param liveHistogram the histogram of live recorder
+     * @return the histogram which should be used for storing of archived chunk
+     */
+    Histogram createArchivedHistogram(Histogram liveHistogram) {
+        int liveDigits = liveHistogram.getNumberOfSignificantValueDigits();
+        long liveLowestDiscernibleValue = liveHistogram.getLowestDiscernibleValue();
+        if (!isDownsampled() || (numberOfSignificantValueDigits >= liveDigits && lowestDiscernibleValue <= liveLowestDiscernibleValue)) {
+            return HistogramUtil.createNonConcurrentCopy(liveHistogram);
+        }
+        int digits = Math.min(numberOfSignificantValueDigits, liveDigits);
+        long lowest = Math.max(lowestDiscernibleValue, liveLowestDiscernibleValue);
+        long highest = liveHistogram.isAutoResize() ? 2 * lowest : Math.max(liveHistogram.getHighestTrackableValue(), 2 * lowest);
+        Histogram histogram = new Histogram(lowest, highest, digits);
+        // the buckets of downsampled histogram do not match to buckets of live histogram,
+        // so the highest value of live histogram can exceed the range of downsampled histogram by one bucket
+        histogram.setAutoResize(true);
+        return histogram;
+    }
+
+    /**
+     * Estimates footprint of archive from configuration, without allocation of any histogram.
+     *
+     * @param numberHistoryChunks the number of archived chunks
+     * @param liveLowestDiscernibleValue the lowest discernible value of live recorder
+     * @param liveHighestTrackableValue the highest trackable value of live recorder, {@code 2 * liveLowestDiscernibleValue} for auto-resizable recorder
+     * @param liveDigits the number of significant value digits of live recorder
+     * @return estimated footprint of archive in bytes
+     */
+    public long estimateArchiveFootprintInBytes(int numberHistoryChunks, long liveLowestDiscernibleValue, long liveHighestTrackableValue, int liveDigits) {
+        if (numberHistoryChunks == 0) {
+            return 0;
+        }
+        int digits = liveDigits;
+        long lowest = liveLowestDiscernibleValue;
+        long highest = liveHighestTrackableValue;
+        if (isDownsampled() && (numberOfSignificantValueDigits < liveDigits || lowestDiscernibleValue > liveLowestDiscernibleValue)) {
+            digits = Math.min(numberOfSignificantValueDigits, liveDigits);
+            lowest = Math.max(lowestDiscernibleValue, liveLowestDiscernibleValue);
+            highest = Math.max(liveHighestTrackableValue, 2 * lowest);
+        }
+        long archivedHistogramFootprint = HistogramUtil.estimateFootprintInBytes(lowest, highest, digits, false);
+        if (!compressed) {
+            return numberHistoryChunks * archivedHistogramFootprint;
+        }
+        // the buffer of compressed chunk grows with number of recorded buckets, so each chunk is estimated by its worst case
+        long compressedHistogramFootprint = CompressedHistogram.getMaxFootprintInBytes(HistogramUtil.estimateCountsArrayLength(lowest, highest, digits), offHeap);
+        // compressed chunks are downsampled via intermediate histogram
+        long downsamplingHistogramFootprint = isDownsampled() ? archivedHistogramFootprint : 0;
+        return numberHistoryChunks * compressedHistogramFootprint + downsamplingHistogramFootprint;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveOptions{" +
+                "numberOfSignificantValueDigits=" + (isDownsampled() ? numberOfSignificantValueDigits : "same as live") +
+                ", lowestDiscernibleValue=" + (isDownsampled() ? lowestDiscernibleValue : "same as live") +
+                ", compressed=" + compressed +
+                ", offHeap=" + offHeap +
+                '}';
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.histogram.accumulator;
+
+import com.github.rollingmetrics.util.DirectMemory;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only histogram which keeps recorded values in compact variable-length encoding,
+ * each non-empty bucket is stored as pair of delta from previous value and count, both encoded as unsigned LEB128.
+ *
+ * <p>
+ * Unlike {@link Histogram#encodeIntoCompressedByteBuffer(java.nio.ByteBuffer)} the values can be decoded directly into target histogram
+ * without construction of intermediate histogram, and the buffer is reused when histogram is stored again.
+ *
+ * <p>
+ * The encoded values can be kept in direct buffer outside of java heap, in this case the memory should be freed via {@link #release()}
+ * when histogram is not needed anymore, otherwise the memory is freed only when garbage collector discovers that histogram is unreachable.
+ *
+ * This class is not thread-safe, the synchronization should be provided by owner.
+ */
+final class CompressedHistogram {
+
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    // the size of buffer reference, length, totalCount and offHeap fields
+    private static final int OWN_FOOTPRINT_BYTES = 40;
+
+    // the size of ByteBuffer object which wraps direct memory
+    private static final int DIRECT_BUFFER_FOOTPRINT_BYTES = 64;
+
+    // unsigned LEB128 encoding of long takes up to 10 bytes, each bucket is encoded as two longs
+    private static final int MAX_BUCKET_BYTES = 20;
+
+    private final boolean offHeap;
+
+    private ByteBuffer buffer = EMPTY_BUFFER;
+    private int length;
+    private long totalCount;
+
+    CompressedHistogram() {
+        this(false);
+    }
+
+    /**
+     * @param offHeap whether encoded values should be kept in direct buffer
+     */
+    CompressedHistogram(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Replaces the content of this histogram by values from {@code source}.
+     *
+     * @param source the histogram to store
+     */
+    void store(Histogram source) {
+        length = 0;
+        totalCount = source.getTotalCount();
+        if (totalCount == 0) {
+            return;
+        }
+        // the buffer is sized exactly by encoded length, so its capacity never exceeds the bound reported by getMaxFootprintInBytes
+        int encodedLength = 0;
+        long previousValue = 0;
+        for (HistogramIterationValue bucket : source.recordedValues()) {
+            long value = bucket.getValueIteratedTo();
+            encodedLength += unsignedLength(value - previousValue) + unsignedLength(bucket.getCountAtValueIteratedTo());
+            previousValue = value;
+        }
+        ensureCapacity(encodedLength);
+
+        previousValue = 0;
+        for (HistogramIterationValue bucket : source.recordedValues()) {
+            long value = bucket.getValueIteratedTo();
+            writeUnsigned(value - previousValue);
+            writeUnsigned(bucket.getCountAtValueIteratedTo());
+            previousValue = value;
+        }
+    }
+
+    /**
+     * Decodes the values into {@code target}, the count of each value is multiplied by {@code weight} and rounded.
+     *
+     * @param target the histogram to add values
+     * @param weight the non-negative coefficient
+     */
+    void addTo(Histogram target, double weight) {
+        if (totalCount == 0 || weight <= 0.0) {
+            return;
+        }
+        long value = 0;
+        int position = 0;
+        while (position < length) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            long count = 0;
+            shift = 0;
+            do {
+                b = buffer.get(position++);
+                count |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            value += delta;
+            long weightedCount = weight == 1.0 ? count : Math.round(count * weight);
+            if (weightedCount > 0) {
+                target.recordValueWithCount(value, weightedCount);
+            }
+        }
+    }
+
+    void reset() {
+        length = 0;
+        totalCount = 0;
+    }
+
+    /**
+     * Clears this histogram and frees the memory of buffer, the histogram stays usable and allocates new buffer on next {@link #store(Histogram)}.
+     */
+    void release() {
+        reset();
+        ByteBuffer releasedBuffer = buffer;
+        buffer = EMPTY_BUFFER;
+        if (offHeap) {
+            DirectMemory.free(releasedBuffer);
+        }
+    }
+
+    boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * @return the amount of memory which is allocated outside of java heap
+     */
+    int getOffHeapBytes() {
+        return offHeap ? buffer.capacity() : 0;
+    }
+
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    int getEstimatedFootprintInBytes() {
+        return offHeap ? OWN_FOOTPRINT_BYTES + DIRECT_BUFFER_FOOTPRINT_BYTES : OWN_FOOTPRINT_BYTES + buffer.capacity();
+    }
+
+    /**
+     * @param offHeap whether encoded values are kept in direct buffer
+     * @return the footprint of just created histogram, the buffer for encoded values is allocated later on demand
+     */
+    static int getInitialFootprintInBytes(boolean offHeap) {
+        return offHeap ? OWN_FOOTPRINT_BYTES + DIRECT_BUFFER_FOOTPRINT_BYTES : OWN_FOOTPRINT_BYTES;
+    }
+
+    /**
+     * @param countsArrayLength the length of counts array of histograms which are stored, that is maximum number of recorded buckets
+     * @param offHeap whether encoded values are kept in direct buffer
+     * @return the upper bound of {@link #getEstimatedFootprintInBytes()}, the direct buffer is not taken into account because it is allocated outside of heap
+     */
+    static long getMaxFootprintInBytes(long countsArrayLength, boolean offHeap) {
+        if (offHeap) {
+            return getInitialFootprintInBytes(true);
+        }
+        return OWN_FOOTPRINT_BYTES + countsArrayLength * MAX_BUCKET_BYTES;
+    }
+
+    private static int unsignedLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private void writeUnsigned(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put(length++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put(length++, (byte) value);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buffer.capacity() < capacity) {
+            ByteBuffer newBuffer = offHeap ? DirectMemory.allocate(capacity) : ByteBuffer.allocate(capacity);
+            ByteBuffer oldBuffer = buffer;
+            buffer = newBuffer;
+            if (offHeap) {
+                DirectMemory.free(oldBuffer);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CompressedHistogram{" +
+                "totalCount=" + totalCount +
+                ", encodedLength=" + length +
+                ", bufferCapacity=" + buffer.capacity() +
+                ", offHeap=" + offHeap +
+                '}';
+    }
+
+}
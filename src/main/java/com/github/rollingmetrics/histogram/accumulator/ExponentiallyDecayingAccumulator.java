@@ -0,0 +1,131 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram.accumulator;
+
+import com.codahale.metrics.Snapshot;
+import com.github.rollingmetrics.histogram.util.HistogramUtil;
+import com.github.rollingmetrics.histogram.util.Printer;
+import com.github.rollingmetrics.util.Clock;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.function.Function;
+
+/**
+ * The accumulator which applies forward-decay weights to the bucket counts of histogram.
+ *
+ * <p>
+ * Recording is the same as in {@link UniformAccumulator}, the values are written to {@link Recorder} without any weighting.
+ * At snapshot extraction the values collected since previous snapshot are added to decaying histogram with weight {@code 2^((now - landmark) / halfLife)},
+ * so the recent values have greater weight than older ones. Because percentiles do not depend from the scale of counts,
+ * there is no need to divide the counts at query time, instead the landmark is moved forward and counts are rescaled once per {@link #RESCALE_THRESHOLD_HALF_LIVES} half-lives
+ * in order to avoid overflow.
+ *
+ * <p>
+ * Pay attention that weight is assigned to value at the moment of snapshot extraction, so the resolution of recency weighting equals to interval between snapshots.
+ */
+public class ExponentiallyDecayingAccumulator implements Accumulator {
+
+    static final long WEIGHT_SCALE = 1000;
+    static final int RESCALE_THRESHOLD_HALF_LIVES = 10;
+
+    private final Recorder recorder;
+    private final long halfLifeMillis;
+    private final Clock clock;
+
+    private Histogram intervalHistogram;
+    private Histogram decayingHistogram;
+    private Histogram rescaleHistogram;
+    private long landmarkTimestamp;
+
+    public ExponentiallyDecayingAccumulator(Recorder recorder, long halfLifeMillis, Clock clock) {
+        this.recorder = recorder;
+        this.halfLifeMillis = halfLifeMillis;
+        this.clock = clock;
+        this.intervalHistogram = recorder.getIntervalHistogram();
+        this.decayingHistogram = HistogramUtil.createNonConcurrentCopy(intervalHistogram);
+        this.rescaleHistogram = HistogramUtil.createNonConcurrentCopy(intervalHistogram);
+        this.landmarkTimestamp = clock.currentTimeMillis();
+    }
+
+    @Override
+    public void recordSingleValueWithExpectedInterval(long value, long expectedIntervalBetweenValueSamples) {
+        recorder.recordValueWithExpectedInterval(value, expectedIntervalBetweenValueSamples);
+    }
+
+    @Override
+    public final synchronized Snapshot getSnapshot(Function<Histogram, Snapshot> snapshotTaker) {
+        long currentTimeMillis = clock.currentTimeMillis();
+        if (currentTimeMillis - landmarkTimestamp >= RESCALE_THRESHOLD_HALF_LIVES * halfLifeMillis) {
+            rescale(currentTimeMillis);
+        }
+
+        intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+        HistogramUtil.addSecondToFirst(decayingHistogram, intervalHistogram, WEIGHT_SCALE * getForwardWeight(currentTimeMillis));
+        return HistogramUtil.getSnapshot(decayingHistogram, snapshotTaker);
+    }
+
+    private void rescale(long currentTimeMillis) {
+        HistogramUtil.reset(rescaleHistogram);
+        HistogramUtil.addSecondToFirst(rescaleHistogram, decayingHistogram, 1.0 / getForwardWeight(currentTimeMillis));
+
+        Histogram previous = decayingHistogram;
+        decayingHistogram = rescaleHistogram;
+        rescaleHistogram = previous;
+        landmarkTimestamp = currentTimeMillis;
+    }
+
+    private double getForwardWeight(long currentTimeMillis) {
+        return Math.pow(2.0, (double) (currentTimeMillis - landmarkTimestamp) / (double) halfLifeMillis);
+    }
+
+    @Override
+    public synchronized boolean reset() {
+        recorder.reset();
+        HistogramUtil.reset(decayingHistogram);
+        landmarkTimestamp = clock.currentTimeMillis();
+        return true;
+    }
+
+    @Override
+    public int getEstimatedFootprintInBytes() {
+        return (int) estimateFootprintInBytes(intervalHistogram.getEstimatedFootprintInBytes());
+    }
+
+    /**
+     * Estimates footprint of accumulator from configuration, without allocation of any histogram.
+     *
+     * @param histogramFootprint the footprint of single histogram of recorder
+     * @return a (conservatively high) estimate of accumulator footprint in bytes
+     */
+    public static long estimateFootprintInBytes(long histogramFootprint) {
+        // two histograms inside recorder, decaying histogram and histogram used for rescaling
+        return histogramFootprint * 4;
+    }
+
+    @Override
+    public String toString() {
+        return "ExponentiallyDecayingAccumulator{" +
+                "\nhalfLifeMillis=" + halfLifeMillis +
+                "\n, landmarkTimestamp=" + landmarkTimestamp +
+                "\n, decayingHistogram=" + Printer.histogramToString(decayingHistogram) +
+                "\n, intervalHistogram=" + Printer.histogramToString(intervalHistogram) +
+                '}';
+    }
+
+}
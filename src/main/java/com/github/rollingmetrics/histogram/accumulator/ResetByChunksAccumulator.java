@@ -20,6 +20,7 @@ package com.github.rollingmetrics.histogram.accumulator;
 import com.github.rollingmetrics.histogram.util.HistogramUtil;
 import com.github.rollingmetrics.util.ResilientExecutionUtil;
 import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.Rotatable;
 import com.codahale.metrics.Snapshot;
 import com.github.rollingmetrics.histogram.util.Printer;
 import com.github.rollingmetrics.histogram.util.HistogramUtil;
@@ -27,12 +28,26 @@ import com.github.rollingmetrics.util.Clock;
 import org.HdrHistogram.Histogram;
 import org.HdrHistogram.Recorder;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
 
-public class ResetByChunksAccumulator implements Accumulator {
+public class ResetByChunksAccumulator implements WindowedAccumulator, Rotatable {
+
+    private static final int STATE_MAGIC = 0x524D4348;
+    private static final byte STATE_VERSION = 1;
 
     private final Executor backgroundExecutor;
     private final long intervalBetweenResettingMillis;
@@ -41,6 +56,12 @@ public class ResetByChunksAccumulator implements Accumulator {
     private final boolean historySupported;
     private final Clock clock;
     private final Histogram temporarySnapshotHistogram;
+    private final Consumer<Histogram> completedChunkConsumer;
+    private final Queue<Histogram> completedChunks;
+    private final boolean smoothlyDecaying;
+    private final boolean scheduledRotation;
+    private final ArchiveOptions archiveOptions;
+    private final Histogram downsamplingHistogram;
 
     private final Phase left;
     private final Phase right;
@@ -48,6 +69,44 @@ public class ResetByChunksAccumulator implements Accumulator {
     private final AtomicReference<Phase> currentPhaseRef;
 
     public ResetByChunksAccumulator(Supplier<Recorder> recorderSupplier, int numberHistoryChunks, long intervalBetweenResettingMillis, Clock clock, Executor backgroundExecutor) {
+        this(recorderSupplier, numberHistoryChunks, intervalBetweenResettingMillis, clock, backgroundExecutor, null);
+    }
+
+    /**
+     * @param completedChunkConsumer nullable consumer which will be notified in background executor about each completed chunk,
+     *                               the start and end timestamps of passed histogram are set to chunk boundaries.
+     *                               Consumer is called outside of accumulator monitor, in order of chunk completion and never concurrently,
+     *                               the passed histogram is the copy of chunk which is not used by accumulator anymore.
+     */
+    public ResetByChunksAccumulator(Supplier<Recorder> recorderSupplier, int numberHistoryChunks, long intervalBetweenResettingMillis, Clock clock, Executor backgroundExecutor, Consumer<Histogram> completedChunkConsumer) {
+        this(recorderSupplier, numberHistoryChunks, intervalBetweenResettingMillis, clock, backgroundExecutor, completedChunkConsumer, false);
+    }
+
+    /**
+     * @param smoothlyDecaying if true then the weight of oldest chunk in snapshot is reduced proportionally to the remaining part of its lifetime,
+     *                         instead of dropping the whole chunk at once
+     */
+    public ResetByChunksAccumulator(Supplier<Recorder> recorderSupplier, int numberHistoryChunks, long intervalBetweenResettingMillis, Clock clock, Executor backgroundExecutor, Consumer<Histogram> completedChunkConsumer, boolean smoothlyDecaying) {
+        this(recorderSupplier, numberHistoryChunks, intervalBetweenResettingMillis, clock, backgroundExecutor, completedChunkConsumer, smoothlyDecaying, false);
+    }
+
+    /**
+     * @param scheduledRotation if true then writers never check the time and never rotate chunks,
+     *                          instead the chunks are rotated by external scheduler via {@link #rotate()}
+     */
+    public ResetByChunksAccumulator(Supplier<Recorder> recorderSupplier, int numberHistoryChunks, long intervalBetweenResettingMillis, Clock clock, Executor backgroundExecutor, Consumer<Histogram> completedChunkConsumer, boolean smoothlyDecaying, boolean scheduledRotation) {
+        this(recorderSupplier, numberHistoryChunks, intervalBetweenResettingMillis, clock, backgroundExecutor, completedChunkConsumer, smoothlyDecaying, scheduledRotation, ArchiveOptions.DEFAULT);
+    }
+
+    /**
+     * @param archiveOptions describes how completed chunks are stored in the archive, for example with reduced precision
+     */
+    public ResetByChunksAccumulator(Supplier<Recorder> recorderSupplier, int numberHistoryChunks, long intervalBetweenResettingMillis, Clock clock, Executor backgroundExecutor, Consumer<Histogram> completedChunkConsumer, boolean smoothlyDecaying, boolean scheduledRotation, ArchiveOptions archiveOptions) {
+        this.archiveOptions = archiveOptions;
+        this.completedChunkConsumer = completedChunkConsumer;
+        this.completedChunks = completedChunkConsumer == null ? null : new ConcurrentLinkedQueue<>();
+        this.scheduledRotation = scheduledRotation;
+        this.smoothlyDecaying = smoothlyDecaying;
         this.intervalBetweenResettingMillis = intervalBetweenResettingMillis;
         this.clock = clock;
         this.creationTimestamp = clock.currentTimeMillis();
@@ -63,18 +122,31 @@ public class ResetByChunksAccumulator implements Accumulator {
         if (historySupported) {
             this.archive = new ArchivedHistogram[numberHistoryChunks];
             for (int i = 0; i < numberHistoryChunks; i++) {
-                Histogram archivedHistogram = HistogramUtil.createNonConcurrentCopy(left.intervalHistogram);
-                this.archive[i] = new ArchivedHistogram(archivedHistogram, Long.MIN_VALUE);
+                if (archiveOptions.isCompressed()) {
+                    this.archive[i] = new ArchivedHistogram(new CompressedHistogram(archiveOptions.isOffHeap()), Long.MIN_VALUE);
+                } else {
+                    Histogram archivedHistogram = archiveOptions.createArchivedHistogram(left.intervalHistogram);
+                    this.archive[i] = new ArchivedHistogram(archivedHistogram, Long.MIN_VALUE);
+                }
             }
         } else {
             this.archive = null;
         }
+        // compressed chunk can not be downsampled by itself, so values are downsampled via intermediate histogram before compression
+        this.downsamplingHistogram = historySupported && archiveOptions.isCompressed() && archiveOptions.isDownsampled() ?
+                archiveOptions.createArchivedHistogram(left.intervalHistogram) : null;
 
         this.temporarySnapshotHistogram = HistogramUtil.createNonConcurrentCopy(left.intervalHistogram);
     }
 
     @Override
     public void recordSingleValueWithExpectedInterval(long value, long expectedIntervalBetweenValueSamples) {
+        if (scheduledRotation) {
+            // chunks are rotated by scheduler, so there is no need to check the time
+            currentPhaseRef.get().recorder.recordValueWithExpectedInterval(value, expectedIntervalBetweenValueSamples);
+            return;
+        }
+
         long currentTimeMillis = clock.currentTimeMillis();
         Phase currentPhase = currentPhaseRef.get();
         if (currentTimeMillis < currentPhase.proposedInvalidationTimestamp) {
@@ -95,7 +167,33 @@ public class ResetByChunksAccumulator implements Accumulator {
         ResilientExecutionUtil.getInstance().execute(backgroundExecutor, phaseRotation);
     }
 
-    private synchronized void rotate(long currentTimeMillis, Phase currentPhase, Phase nextPhase) {
+    @Override
+    public long rotate() {
+        long currentTimeMillis = clock.currentTimeMillis();
+        Phase currentPhase = currentPhaseRef.get();
+        if (currentTimeMillis >= currentPhase.proposedInvalidationTimestamp) {
+            Phase nextPhase = currentPhase == left ? right : left;
+            if (currentPhaseRef.compareAndSet(currentPhase, nextPhase)) {
+                rotate(currentTimeMillis, currentPhase, nextPhase);
+            }
+        }
+        long nextRotationTimestamp = currentPhaseRef.get().proposedInvalidationTimestamp;
+        if (nextRotationTimestamp == Long.MAX_VALUE) {
+            // rotation is in progress in another thread
+            return intervalBetweenResettingMillis;
+        }
+        return nextRotationTimestamp - currentTimeMillis;
+    }
+
+    private void rotate(long currentTimeMillis, Phase currentPhase, Phase nextPhase) {
+        rotateUnderMonitor(currentTimeMillis, currentPhase, nextPhase);
+        if (completedChunkConsumer != null) {
+            // consumer can perform IO, so it is notified outside of monitor and outside of scheduler thread
+            ResilientExecutionUtil.getInstance().execute(backgroundExecutor, this::notifyCompletedChunkConsumer);
+        }
+    }
+
+    private synchronized void rotateUnderMonitor(long currentTimeMillis, Phase currentPhase, Phase nextPhase) {
         try {
             currentPhase.intervalHistogram = currentPhase.recorder.getIntervalHistogram(currentPhase.intervalHistogram);
             HistogramUtil.addSecondToFirst(currentPhase.totalsHistogram, currentPhase.intervalHistogram);
@@ -104,10 +202,15 @@ public class ResetByChunksAccumulator implements Accumulator {
                 long currentPhaseNumber = (currentPhase.proposedInvalidationTimestamp - creationTimestamp) / intervalBetweenResettingMillis;
                 int correspondentArchiveIndex = (int) (currentPhaseNumber - 1) % archive.length;
                 ArchivedHistogram correspondentArchivedHistogram = archive[correspondentArchiveIndex];
-                HistogramUtil.reset(correspondentArchivedHistogram.histogram);
-                HistogramUtil.addSecondToFirst(correspondentArchivedHistogram.histogram, currentPhase.totalsHistogram);
+                correspondentArchivedHistogram.store(currentPhase.totalsHistogram);
                 correspondentArchivedHistogram.proposedInvalidationTimestamp = currentPhase.proposedInvalidationTimestamp + archive.length * intervalBetweenResettingMillis;
             }
+            if (completedChunkConsumer != null) {
+                Histogram completedChunk = currentPhase.totalsHistogram.copy();
+                completedChunk.setStartTimeStamp(currentPhase.proposedInvalidationTimestamp - intervalBetweenResettingMillis);
+                completedChunk.setEndTimeStamp(currentPhase.proposedInvalidationTimestamp);
+                completedChunks.add(completedChunk);
+            }
             HistogramUtil.reset(currentPhase.totalsHistogram);
         } finally {
             long millisSinceCreation = currentTimeMillis - creationTimestamp;
@@ -117,8 +220,23 @@ public class ResetByChunksAccumulator implements Accumulator {
         }
     }
 
+    private void notifyCompletedChunkConsumer() {
+        // the lock guaranties that chunks are passed to consumer in order of completion even if executor has many threads
+        synchronized (completedChunks) {
+            Histogram completedChunk;
+            while ((completedChunk = completedChunks.poll()) != null) {
+                completedChunkConsumer.accept(completedChunk);
+            }
+        }
+    }
+
+    @Override
+    public final Snapshot getSnapshot(Function<Histogram, Snapshot> snapshotTaker) {
+        return getSnapshot(getArchiveLength() * intervalBetweenResettingMillis, snapshotTaker);
+    }
+
     @Override
-    public final synchronized Snapshot getSnapshot(Function<Histogram, Snapshot> snapshotTaker) {
+    public final synchronized Snapshot getSnapshot(long windowMillis, Function<Histogram, Snapshot> snapshotTaker) {
         HistogramUtil.reset(temporarySnapshotHistogram);
         long currentTimeMillis = clock.currentTimeMillis();
 
@@ -126,13 +244,22 @@ public class ResetByChunksAccumulator implements Accumulator {
             if (phase.isNeedToBeReportedToSnapshot(currentTimeMillis)) {
                 phase.intervalHistogram = phase.recorder.getIntervalHistogram(phase.intervalHistogram);
                 HistogramUtil.addSecondToFirst(phase.totalsHistogram, phase.intervalHistogram);
-                HistogramUtil.addSecondToFirst(temporarySnapshotHistogram, phase.totalsHistogram);
+                long proposedInvalidationTimestamp = phase.proposedInvalidationTimestamp;
+                if (proposedInvalidationTimestamp > currentTimeMillis) {
+                    HistogramUtil.addSecondToFirst(temporarySnapshotHistogram, phase.totalsHistogram);
+                } else {
+                    // phase is expired but still not moved to archive
+                    addChunkToSnapshot(phase.totalsHistogram, proposedInvalidationTimestamp, windowMillis, currentTimeMillis);
+                }
             }
         }
         if (historySupported) {
+            long archiveLifetimeMillis = archive.length * intervalBetweenResettingMillis;
             for (ArchivedHistogram archivedHistogram : archive) {
-                if (archivedHistogram.proposedInvalidationTimestamp > currentTimeMillis) {
-                    HistogramUtil.addSecondToFirst(temporarySnapshotHistogram, archivedHistogram.histogram);
+                long proposedInvalidationTimestamp = archivedHistogram.proposedInvalidationTimestamp;
+                if (proposedInvalidationTimestamp > currentTimeMillis) {
+                    long chunkEndTimestamp = proposedInvalidationTimestamp - archiveLifetimeMillis;
+                    addChunkToSnapshot(archivedHistogram, chunkEndTimestamp, windowMillis, currentTimeMillis);
                 }
             }
         }
@@ -140,32 +267,330 @@ public class ResetByChunksAccumulator implements Accumulator {
         return HistogramUtil.getSnapshot(temporarySnapshotHistogram, snapshotTaker);
     }
 
+    @Override
+    public long getRollingWindowMillis() {
+        return historySupported ? archive.length * intervalBetweenResettingMillis : intervalBetweenResettingMillis;
+    }
+
+    private void addChunkToSnapshot(Histogram chunk, long chunkEndTimestamp, long windowMillis, long currentTimeMillis) {
+        long beforeInvalidateMillis = chunkEndTimestamp + windowMillis - currentTimeMillis;
+        if (beforeInvalidateMillis > 0) {
+            HistogramUtil.addSecondToFirst(temporarySnapshotHistogram, chunk, getDecayingCoefficient(beforeInvalidateMillis));
+        }
+    }
+
+    private void addChunkToSnapshot(ArchivedHistogram chunk, long chunkEndTimestamp, long windowMillis, long currentTimeMillis) {
+        long beforeInvalidateMillis = chunkEndTimestamp + windowMillis - currentTimeMillis;
+        if (beforeInvalidateMillis > 0) {
+            chunk.addTo(temporarySnapshotHistogram, getDecayingCoefficient(beforeInvalidateMillis));
+        }
+    }
+
+    private double getDecayingCoefficient(long beforeInvalidateMillis) {
+        if (!smoothlyDecaying) {
+            return 1.0;
+        }
+        // if this is oldest chunk then we need to reduce its weight
+        if (beforeInvalidateMillis >= intervalBetweenResettingMillis) {
+            return 1.0;
+        }
+        return (double) beforeInvalidateMillis / (double) intervalBetweenResettingMillis;
+    }
+
+    /**
+     * Writes the values of all chunks which are not invalidated yet, into compact binary form.
+     * Each chunk is stored together with its absolute invalidation timestamp, so {@link #readState(DataInput)} is able
+     * to discard the chunks which are expired at the moment of restoring.
+     *
+     * @param output the destination of state
+     * @throws IOException if any IO error occurs
+     * @see #readState(DataInput)
+     */
+    public synchronized void writeState(DataOutput output) throws IOException {
+        long currentTimeMillis = clock.currentTimeMillis();
+        List<ArchivedHistogram> liveChunks = new ArrayList<>();
+        for (Phase phase : phases) {
+            if (phase.isNeedToBeReportedToSnapshot(currentTimeMillis)) {
+                phase.intervalHistogram = phase.recorder.getIntervalHistogram(phase.intervalHistogram);
+                HistogramUtil.addSecondToFirst(phase.totalsHistogram, phase.intervalHistogram);
+                if (phase.totalsHistogram.getTotalCount() > 0) {
+                    long phaseEndTimestamp = phase.proposedInvalidationTimestamp;
+                    if (phaseEndTimestamp == Long.MAX_VALUE) {
+                        // phase is being rotated right now, so its end is not assigned yet
+                        long intervalsSinceCreation = (currentTimeMillis - creationTimestamp) / intervalBetweenResettingMillis;
+                        phaseEndTimestamp = creationTimestamp + (intervalsSinceCreation + 1) * intervalBetweenResettingMillis;
+                    }
+                    long invalidationTimestamp = phaseEndTimestamp + getArchiveLength() * intervalBetweenResettingMillis;
+                    liveChunks.add(new ArchivedHistogram(phase.totalsHistogram, invalidationTimestamp));
+                }
+            }
+        }
+        if (historySupported) {
+            for (ArchivedHistogram archivedHistogram : archive) {
+                if (archivedHistogram.proposedInvalidationTimestamp > currentTimeMillis && archivedHistogram.getTotalCount() > 0) {
+                    liveChunks.add(archivedHistogram);
+                }
+            }
+        }
+
+        output.writeInt(STATE_MAGIC);
+        output.writeByte(STATE_VERSION);
+        writeConfiguration(output);
+        output.writeInt(liveChunks.size());
+        ByteBuffer buffer = null;
+        for (ArchivedHistogram chunk : liveChunks) {
+            // temporary histogram is reset by each snapshot, so it can be used as decoding buffer while monitor is held
+            Histogram histogram = chunk.toHistogram(temporarySnapshotHistogram);
+            int neededCapacity = histogram.getNeededByteBufferCapacity();
+            if (buffer == null || buffer.capacity() < neededCapacity) {
+                buffer = ByteBuffer.allocate(neededCapacity);
+            }
+            buffer.clear();
+            int compressedLength = histogram.encodeIntoCompressedByteBuffer(buffer);
+            output.writeLong(chunk.proposedInvalidationTimestamp);
+            output.writeInt(compressedLength);
+            output.write(buffer.array(), 0, compressedLength);
+        }
+    }
+
+    /**
+     * Restores the values previously saved by {@link #writeState(DataOutput)}.
+     * The chunks which were invalidated during the time passed since saving are discarded,
+     * the other chunks are restored with their original invalidation timestamps, so rolling window stays continuous across restart.
+     *
+     * <p>
+     * This method is intended to be called once, just after construction of accumulator, before recording of any value.
+     *
+     * @param input the source of state
+     * @return true if state has been restored, and false if state was written by accumulator with different configuration
+     * @throws IOException if any IO error occurs or if the state is corrupted
+     * @see #writeState(DataOutput)
+     */
+    public synchronized boolean readState(DataInput input) throws IOException {
+        if (input.readInt() != STATE_MAGIC) {
+            throw new IOException("Unknown format of accumulator state");
+        }
+        byte version = input.readByte();
+        if (version != STATE_VERSION) {
+            throw new IOException("Unsupported version of accumulator state " + version);
+        }
+        if (!isSameConfiguration(input)) {
+            return false;
+        }
+
+        long currentTimeMillis = clock.currentTimeMillis();
+        long archiveLifetimeMillis = getArchiveLength() * intervalBetweenResettingMillis;
+        List<Histogram> uncompletedChunks = new ArrayList<>();
+        List<ArchivedHistogram> completedChunks = new ArrayList<>();
+        int chunkCount = input.readInt();
+        for (int i = 0; i < chunkCount; i++) {
+            long invalidationTimestamp = input.readLong();
+            byte[] compressedHistogram = new byte[input.readInt()];
+            input.readFully(compressedHistogram);
+            if (invalidationTimestamp <= currentTimeMillis) {
+                continue;
+            }
+            Histogram histogram;
+            try {
+                histogram = Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(compressedHistogram), 0);
+            } catch (DataFormatException e) {
+                throw new IOException("Accumulator state is corrupted", e);
+            }
+            if (invalidationTimestamp - archiveLifetimeMillis > currentTimeMillis) {
+                uncompletedChunks.add(histogram);
+            } else {
+                completedChunks.add(new ArchivedHistogram(histogram, invalidationTimestamp));
+            }
+        }
+
+        // values of chunk which was not completed at the moment of saving are accounted in the current phase
+        Phase currentPhase = currentPhaseRef.get();
+        for (Histogram histogram : uncompletedChunks) {
+            HistogramUtil.addSecondToFirst(currentPhase.totalsHistogram, histogram);
+        }
+
+        // the slots at the end of archive are overwritten by rotation later than others,
+        // so placing the restored chunks there guaranties that each of them will live until its own invalidation timestamp
+        completedChunks.sort(Comparator.comparingLong(chunk -> chunk.proposedInvalidationTimestamp));
+        int chunksToRestore = Math.min(completedChunks.size(), getArchiveLength());
+        int firstChunkIndex = completedChunks.size() - chunksToRestore;
+        for (int i = 0; i < chunksToRestore; i++) {
+            ArchivedHistogram restoredChunk = completedChunks.get(firstChunkIndex + i);
+            ArchivedHistogram archivedHistogram = archive[archive.length - chunksToRestore + i];
+            archivedHistogram.store(restoredChunk.histogram);
+            archivedHistogram.proposedInvalidationTimestamp = restoredChunk.proposedInvalidationTimestamp;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean reset() {
+        Phase currentPhase = currentPhaseRef.get();
+        Phase previousPhase = currentPhase == left ? right : left;
+        if (previousPhase.proposedInvalidationTimestamp != Long.MAX_VALUE) {
+            // rotation of previous phase is not completed yet
+            return false;
+        }
+        for (Phase phase : phases) {
+            phase.recorder.reset();
+            HistogramUtil.reset(phase.totalsHistogram);
+        }
+        if (historySupported) {
+            for (ArchivedHistogram archivedHistogram : archive) {
+                archivedHistogram.reset();
+                archivedHistogram.proposedInvalidationTimestamp = Long.MIN_VALUE;
+            }
+        }
+        long intervalsSinceCreation = (clock.currentTimeMillis() - creationTimestamp) / intervalBetweenResettingMillis;
+        currentPhase.proposedInvalidationTimestamp = creationTimestamp + (intervalsSinceCreation + 1) * intervalBetweenResettingMillis;
+        return true;
+    }
+
+    @Override
+    public synchronized void release() {
+        if (historySupported) {
+            for (ArchivedHistogram archivedHistogram : archive) {
+                archivedHistogram.release();
+                archivedHistogram.proposedInvalidationTimestamp = Long.MIN_VALUE;
+            }
+        }
+    }
+
+    private void writeConfiguration(DataOutput output) throws IOException {
+        output.writeLong(intervalBetweenResettingMillis);
+        output.writeInt(getArchiveLength());
+        output.writeLong(temporarySnapshotHistogram.getLowestDiscernibleValue());
+        output.writeLong(getHighestTrackableValue());
+        output.writeInt(temporarySnapshotHistogram.getNumberOfSignificantValueDigits());
+    }
+
+    private boolean isSameConfiguration(DataInput input) throws IOException {
+        boolean same = input.readLong() == intervalBetweenResettingMillis;
+        same &= input.readInt() == getArchiveLength();
+        same &= input.readLong() == temporarySnapshotHistogram.getLowestDiscernibleValue();
+        same &= input.readLong() == getHighestTrackableValue();
+        same &= input.readInt() == temporarySnapshotHistogram.getNumberOfSignificantValueDigits();
+        return same;
+    }
+
+    private long getHighestTrackableValue() {
+        // highestTrackableValue of auto-resizable histogram depends from recorded values, so it is not a part of configuration
+        return temporarySnapshotHistogram.isAutoResize() ? Long.MAX_VALUE : temporarySnapshotHistogram.getHighestTrackableValue();
+    }
+
+    private int getArchiveLength() {
+        return historySupported ? archive.length : 0;
+    }
+
     @Override
     public int getEstimatedFootprintInBytes() {
-        // each histogram has equivalent pessimistic estimation
+        // each live histogram has equivalent pessimistic estimation
         int oneHistogramPessimisticFootprint = temporarySnapshotHistogram.getEstimatedFootprintInBytes();
 
+        // archived histograms can be downsampled or compressed, so they are estimated separately
+        int archiveFootprint = 0;
+        if (historySupported) {
+            for (ArchivedHistogram archivedHistogram : archive) {
+                archiveFootprint += archivedHistogram.getEstimatedFootprintInBytes();
+            }
+        }
+        if (downsamplingHistogram != null) {
+            archiveFootprint += downsamplingHistogram.getEstimatedFootprintInBytes();
+        }
+
+        return (int) estimateFootprintInBytes(oneHistogramPessimisticFootprint, archiveFootprint);
+    }
+
+    /**
+     * Estimates footprint of accumulator from configuration, without allocation of any histogram.
+     *
+     * @param histogramFootprint the footprint of single histogram of recorder
+     * @param archiveFootprint the footprint of archive, see {@link ArchiveOptions#estimateArchiveFootprintInBytes(int, long, long, int)}
+     * @return a (conservatively high) estimate of accumulator footprint in bytes
+     */
+    public static long estimateFootprintInBytes(long histogramFootprint, long archiveFootprint) {
         // 4 - two recorders with two histogram
         // 2 - two histogram for storing accumulated values from current phase
         // 1 - temporary histogram used for snapshot extracting
-        return oneHistogramPessimisticFootprint * ((archive != null? archive.length : 0) + 4 + 2 + 1);
+        return archiveFootprint + histogramFootprint * (4 + 2 + 1);
     }
 
     private final class ArchivedHistogram {
 
+        // exactly one of histogram and compressedHistogram is not null
         private final Histogram histogram;
+        private final CompressedHistogram compressedHistogram;
         private volatile long proposedInvalidationTimestamp;
 
         public ArchivedHistogram(Histogram histogram, long proposedInvalidationTimestamp) {
             this.histogram = histogram;
+            this.compressedHistogram = null;
+            this.proposedInvalidationTimestamp = proposedInvalidationTimestamp;
+        }
+
+        public ArchivedHistogram(CompressedHistogram compressedHistogram, long proposedInvalidationTimestamp) {
+            this.histogram = null;
+            this.compressedHistogram = compressedHistogram;
             this.proposedInvalidationTimestamp = proposedInvalidationTimestamp;
         }
 
+        void store(Histogram source) {
+            if (histogram != null) {
+                HistogramUtil.reset(histogram);
+                HistogramUtil.addSecondToFirst(histogram, source);
+            } else if (downsamplingHistogram != null) {
+                HistogramUtil.reset(downsamplingHistogram);
+                HistogramUtil.addSecondToFirst(downsamplingHistogram, source);
+                compressedHistogram.store(downsamplingHistogram);
+            } else {
+                compressedHistogram.store(source);
+            }
+        }
+
+        void addTo(Histogram target, double weight) {
+            if (histogram != null) {
+                HistogramUtil.addSecondToFirst(target, histogram, weight);
+            } else {
+                compressedHistogram.addTo(target, weight);
+            }
+        }
+
+        Histogram toHistogram(Histogram decodingBuffer) {
+            if (histogram != null) {
+                return histogram;
+            }
+            HistogramUtil.reset(decodingBuffer);
+            compressedHistogram.addTo(decodingBuffer, 1.0);
+            return decodingBuffer;
+        }
+
+        long getTotalCount() {
+            return histogram != null ? histogram.getTotalCount() : compressedHistogram.getTotalCount();
+        }
+
+        void reset() {
+            if (histogram != null) {
+                HistogramUtil.reset(histogram);
+            } else {
+                compressedHistogram.reset();
+            }
+        }
+
+        void release() {
+            if (compressedHistogram != null) {
+                compressedHistogram.release();
+            }
+        }
+
+        int getEstimatedFootprintInBytes() {
+            return histogram != null ? histogram.getEstimatedFootprintInBytes() : compressedHistogram.getEstimatedFootprintInBytes();
+        }
+
         @Override
         public String toString() {
             return "ArchivedHistogram{" +
                     "\n, proposedInvalidationTimestamp=" + proposedInvalidationTimestamp +
-                    "\n, histogram=" + Printer.histogramToString(histogram) +
+                    "\n, histogram=" + (histogram != null ? Printer.histogramToString(histogram) : compressedHistogram) +
                     "\n}";
         }
     }
@@ -210,6 +635,9 @@ public class ResetByChunksAccumulator implements Accumulator {
     public String toString() {
         return "ResetByChunksAccumulator{" +
                 "\nintervalBetweenResettingMillis=" + intervalBetweenResettingMillis +
+                ",\n smoothlyDecaying=" + smoothlyDecaying +
+                ",\n scheduledRotation=" + scheduledRotation +
+                ",\n archiveOptions=" + archiveOptions +
                 ",\n creationTimestamp=" + creationTimestamp +
                 (!historySupported ? "" : ",\n archive=" + Printer.printArray(archive, "chunk")) +
                 ",\n clock=" + clock +
@@ -0,0 +1,328 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram.accumulator;
+
+import com.codahale.metrics.Snapshot;
+import com.github.rollingmetrics.histogram.util.HistogramUtil;
+import com.github.rollingmetrics.histogram.util.Printer;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.ResilientExecutionUtil;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The accumulator which keeps history in several tiers of chunks with growing granularity, for example 60 chunks per second, 60 chunks per minute and 24 chunks per hour.
+ * Each completed chunk of finer tier is stored in its own tier and is merged into the currently open chunk of next coarser tier,
+ * so the long rolling windows are served by bounded number of histograms, but recent values are still evicted with fine resolution.
+ *
+ * <p>
+ * The snapshot merges the newest data from the finest tier and takes from coarser tiers only the chunks which are older than the data available in finer tiers.
+ *
+ * <p>
+ * Writing is lock-free, values are written to single {@link Recorder}, the recorder is drained to the chunk of finest tier by background executor
+ * when chunk boundary is crossed, and by snapshot extraction. The recorder is drained into the expired chunk before it is completed,
+ * so the values recorded just after the boundary can be attributed to the previous chunk if rotation is delayed by executor,
+ * which is negligible in comparison with chunk durations.
+ */
+public class ResetByTiersAccumulator implements WindowedAccumulator {
+
+    private final Recorder recorder;
+    private final Clock clock;
+    private final Executor backgroundExecutor;
+    private final long creationTimestamp;
+    private final Tier[] tiers;
+    private final Chunk openChunk;
+    private final Histogram temporarySnapshotHistogram;
+    private final AtomicLong nextRotationTimestamp;
+
+    private Histogram intervalHistogram;
+
+    /**
+     * @param recorder the recorder to write values
+     * @param chunkDurationsMillis the durations of chunk in each tier, ordered from finest to coarsest tier
+     * @param chunkCounts the number of chunks which are kept in each tier
+     * @param clock the clock
+     * @param backgroundExecutor the executor to rotate chunks
+     */
+    public ResetByTiersAccumulator(Recorder recorder, long[] chunkDurationsMillis, int[] chunkCounts, Clock clock, Executor backgroundExecutor) {
+        this.recorder = recorder;
+        this.clock = clock;
+        this.backgroundExecutor = backgroundExecutor;
+        this.creationTimestamp = clock.currentTimeMillis();
+        this.intervalHistogram = recorder.getIntervalHistogram();
+        this.temporarySnapshotHistogram = HistogramUtil.createNonConcurrentCopy(intervalHistogram);
+
+        this.tiers = new Tier[chunkDurationsMillis.length];
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new Tier(chunkDurationsMillis[i], chunkCounts[i], i == 0);
+        }
+        this.openChunk = new Chunk(HistogramUtil.createNonConcurrentCopy(intervalHistogram));
+        openChunk.align(creationTimestamp, tiers[0].chunkDurationMillis);
+        this.nextRotationTimestamp = new AtomicLong(openChunk.endTimestamp);
+    }
+
+    @Override
+    public void recordSingleValueWithExpectedInterval(long value, long expectedIntervalBetweenValueSamples) {
+        long currentTimeMillis = clock.currentTimeMillis();
+        long nextRotationTimestampLocal = nextRotationTimestamp.get();
+        if (currentTimeMillis >= nextRotationTimestampLocal && nextRotationTimestamp.compareAndSet(nextRotationTimestampLocal, Long.MAX_VALUE)) {
+            // Current thread is responsible to rotate chunks.
+            ResilientExecutionUtil.getInstance().execute(backgroundExecutor, () -> rotate(currentTimeMillis));
+        }
+        recorder.recordValueWithExpectedInterval(value, expectedIntervalBetweenValueSamples);
+    }
+
+    @Override
+    public final Snapshot getSnapshot(Function<Histogram, Snapshot> snapshotTaker) {
+        return getSnapshot(getRollingWindowMillis(), snapshotTaker);
+    }
+
+    @Override
+    public final synchronized Snapshot getSnapshot(long windowMillis, Function<Histogram, Snapshot> snapshotTaker) {
+        long currentTimeMillis = clock.currentTimeMillis();
+        rotate(currentTimeMillis);
+
+        HistogramUtil.reset(temporarySnapshotHistogram);
+        HistogramUtil.addSecondToFirst(temporarySnapshotHistogram, openChunk.histogram);
+
+        long windowStart = currentTimeMillis - windowMillis;
+        long boundary = openChunk.startTimestamp;
+        for (int i = 0; i < tiers.length && boundary > windowStart; i++) {
+            Tier tier = tiers[i];
+            long lowerBound = i == tiers.length - 1 ? Long.MIN_VALUE : tier.getLowerBound(boundary, tiers[i + 1].chunkDurationMillis);
+            for (Chunk chunk : tier.chunks) {
+                if (chunk.endTimestamp <= boundary && chunk.startTimestamp >= lowerBound && chunk.endTimestamp > windowStart) {
+                    HistogramUtil.addSecondToFirst(temporarySnapshotHistogram, chunk.histogram);
+                }
+            }
+            boundary = lowerBound;
+        }
+
+        return HistogramUtil.getSnapshot(temporarySnapshotHistogram, snapshotTaker);
+    }
+
+    @Override
+    public long getRollingWindowMillis() {
+        // the window is covered by coarsest tier
+        Tier coarsestTier = tiers[tiers.length - 1];
+        return coarsestTier.chunkDurationMillis * coarsestTier.chunks.length;
+    }
+
+    private synchronized void rotate(long currentTimeMillis) {
+        try {
+            intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+            HistogramUtil.addSecondToFirst(openChunk.histogram, intervalHistogram);
+            if (currentTimeMillis >= openChunk.endTimestamp) {
+                complete(0, openChunk);
+                openChunk.align(currentTimeMillis, tiers[0].chunkDurationMillis);
+            }
+            // complete the coarse chunks which are expired but not completed yet because there were no writes
+            for (int i = 1; i < tiers.length; i++) {
+                Chunk pendingChunk = tiers[i].pendingChunk;
+                if (currentTimeMillis >= pendingChunk.endTimestamp) {
+                    complete(i, pendingChunk);
+                    pendingChunk.align(currentTimeMillis, tiers[i].chunkDurationMillis);
+                }
+            }
+        } finally {
+            nextRotationTimestamp.set(openChunk.endTimestamp);
+        }
+    }
+
+    private void complete(int tierIndex, Chunk completedChunk) {
+        Tier tier = tiers[tierIndex];
+        if (completedChunk.histogram.getTotalCount() > 0) {
+            tier.store(completedChunk);
+        }
+
+        if (tierIndex < tiers.length - 1) {
+            // roll-up the completed chunk to the next coarser tier
+            Tier coarserTier = tiers[tierIndex + 1];
+            Chunk pendingChunk = coarserTier.pendingChunk;
+            if (completedChunk.startTimestamp >= pendingChunk.endTimestamp) {
+                complete(tierIndex + 1, pendingChunk);
+                pendingChunk.align(completedChunk.startTimestamp, coarserTier.chunkDurationMillis);
+            }
+            HistogramUtil.addSecondToFirst(pendingChunk.histogram, completedChunk.histogram);
+        }
+        HistogramUtil.reset(completedChunk.histogram);
+    }
+
+    @Override
+    public synchronized boolean reset() {
+        long currentTimeMillis = clock.currentTimeMillis();
+        recorder.reset();
+        HistogramUtil.reset(openChunk.histogram);
+        openChunk.align(currentTimeMillis, tiers[0].chunkDurationMillis);
+        for (Tier tier : tiers) {
+            tier.reset(currentTimeMillis);
+        }
+        nextRotationTimestamp.set(openChunk.endTimestamp);
+        return true;
+    }
+
+    private long alignDown(long timestamp, long durationMillis) {
+        return creationTimestamp + Math.floorDiv(timestamp - creationTimestamp, durationMillis) * durationMillis;
+    }
+
+    @Override
+    public int getEstimatedFootprintInBytes() {
+        // each histogram has equivalent pessimistic estimation
+        int oneHistogramPessimisticFootprint = temporarySnapshotHistogram.getEstimatedFootprintInBytes();
+        int[] chunkCounts = new int[tiers.length];
+        for (int i = 0; i < tiers.length; i++) {
+            chunkCounts[i] = tiers[i].chunks.length;
+        }
+        return (int) estimateFootprintInBytes(oneHistogramPessimisticFootprint, chunkCounts);
+    }
+
+    /**
+     * Estimates footprint of accumulator from configuration, without allocation of any histogram.
+     *
+     * @param histogramFootprint the footprint of single histogram of recorder
+     * @param chunkCounts the number of chunks which are kept in each tier
+     * @return a (conservatively high) estimate of accumulator footprint in bytes
+     */
+    public static long estimateFootprintInBytes(long histogramFootprint, int[] chunkCounts) {
+        // 2 - two histograms inside recorder
+        // 1 - open chunk of finest tier
+        // 1 - temporary histogram used for snapshot extracting
+        long histogramCount = 2 + 1 + 1;
+        for (int i = 0; i < chunkCounts.length; i++) {
+            // each tier except finest has pending chunk
+            histogramCount += chunkCounts[i] + (i > 0 ? 1 : 0);
+        }
+        return histogramFootprint * histogramCount;
+    }
+
+    private final class Tier {
+
+        final long chunkDurationMillis;
+        final Chunk[] chunks;
+        final Chunk pendingChunk;
+        int nextChunkIndex;
+        long evictedUpToTimestamp = Long.MIN_VALUE;
+
+        Tier(long chunkDurationMillis, int chunkCount, boolean finest) {
+            this.chunkDurationMillis = chunkDurationMillis;
+            this.chunks = new Chunk[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                chunks[i] = new Chunk(HistogramUtil.createNonConcurrentCopy(intervalHistogram));
+            }
+            if (finest) {
+                // the finest tier is fed by open chunk
+                this.pendingChunk = null;
+            } else {
+                this.pendingChunk = new Chunk(HistogramUtil.createNonConcurrentCopy(intervalHistogram));
+                pendingChunk.align(creationTimestamp, chunkDurationMillis);
+            }
+        }
+
+        void store(Chunk completedChunk) {
+            Chunk slot = chunks[nextChunkIndex];
+            if (slot.endTimestamp != Long.MIN_VALUE) {
+                evictedUpToTimestamp = Math.max(evictedUpToTimestamp, slot.endTimestamp);
+            }
+            HistogramUtil.reset(slot.histogram);
+            HistogramUtil.addSecondToFirst(slot.histogram, completedChunk.histogram);
+            slot.startTimestamp = completedChunk.startTimestamp;
+            slot.endTimestamp = completedChunk.endTimestamp;
+            nextChunkIndex = (nextChunkIndex + 1) % chunks.length;
+        }
+
+        void reset(long currentTimeMillis) {
+            for (Chunk chunk : chunks) {
+                HistogramUtil.reset(chunk.histogram);
+                chunk.startTimestamp = Long.MIN_VALUE;
+                chunk.endTimestamp = Long.MIN_VALUE;
+            }
+            if (pendingChunk != null) {
+                HistogramUtil.reset(pendingChunk.histogram);
+                pendingChunk.align(currentTimeMillis, chunkDurationMillis);
+            }
+            nextChunkIndex = 0;
+            evictedUpToTimestamp = Long.MIN_VALUE;
+        }
+
+        /**
+         * @return the oldest timestamp aligned to chunks of coarser tier, since which this tier holds all values
+         */
+        long getLowerBound(long boundary, long coarserChunkDurationMillis) {
+            if (evictedUpToTimestamp == Long.MIN_VALUE) {
+                // nothing was evicted, so this tier holds all values
+                return Long.MIN_VALUE;
+            }
+            long lowerBound = alignDown(evictedUpToTimestamp + coarserChunkDurationMillis - 1, coarserChunkDurationMillis);
+            if (lowerBound > boundary) {
+                // the values between evicted chunk and boundary are lost, it can happen only when coarser tier is not completed yet
+                lowerBound = alignDown(boundary, coarserChunkDurationMillis);
+            }
+            return lowerBound;
+        }
+
+        @Override
+        public String toString() {
+            return "Tier{" +
+                    "chunkDurationMillis=" + chunkDurationMillis +
+                    ", evictedUpToTimestamp=" + evictedUpToTimestamp +
+                    ", pendingChunk=" + pendingChunk +
+                    ", chunks=" + Printer.printArray(chunks, "chunk") +
+                    '}';
+        }
+    }
+
+    private final class Chunk {
+
+        final Histogram histogram;
+        long startTimestamp = Long.MIN_VALUE;
+        long endTimestamp = Long.MIN_VALUE;
+
+        Chunk(Histogram histogram) {
+            this.histogram = histogram;
+        }
+
+        void align(long timestamp, long durationMillis) {
+            startTimestamp = alignDown(timestamp, durationMillis);
+            endTimestamp = startTimestamp + durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk{" +
+                    "startTimestamp=" + startTimestamp +
+                    ", endTimestamp=" + endTimestamp +
+                    ", histogram=" + Printer.histogramToString(histogram) +
+                    '}';
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResetByTiersAccumulator{" +
+                "\ncreationTimestamp=" + creationTimestamp +
+                ",\n openChunk=" + openChunk +
+                ",\n tiers=" + Printer.printArray(tiers, "tier") +
+                ",\n temporarySnapshotHistogram=" + Printer.histogramToString(temporarySnapshotHistogram) +
+                '}';
+    }
+
+}
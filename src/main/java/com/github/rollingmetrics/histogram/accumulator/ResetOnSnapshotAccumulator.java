@@ -47,9 +47,25 @@ public class ResetOnSnapshotAccumulator implements Accumulator {
         return HistogramUtil.getSnapshot(intervalHistogram, snapshotTaker);
     }
 
+    @Override
+    public synchronized boolean reset() {
+        recorder.reset();
+        return true;
+    }
+
     @Override
     public int getEstimatedFootprintInBytes() {
-        return intervalHistogram.getEstimatedFootprintInBytes() * 2;
+        return (int) estimateFootprintInBytes(intervalHistogram.getEstimatedFootprintInBytes());
+    }
+
+    /**
+     * Estimates footprint of accumulator from configuration, without allocation of any histogram.
+     *
+     * @param histogramFootprint the footprint of single histogram of recorder
+     * @return a (conservatively high) estimate of accumulator footprint in bytes
+     */
+    public static long estimateFootprintInBytes(long histogramFootprint) {
+        return histogramFootprint * 2;
     }
 
     @Override
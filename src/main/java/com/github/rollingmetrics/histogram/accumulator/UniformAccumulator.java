@@ -51,9 +51,26 @@ public class UniformAccumulator implements Accumulator {
         return HistogramUtil.getSnapshot(uniformHistogram, snapshotTaker);
     }
 
+    @Override
+    public synchronized boolean reset() {
+        recorder.reset();
+        HistogramUtil.reset(uniformHistogram);
+        return true;
+    }
+
     @Override
     public int getEstimatedFootprintInBytes() {
-        return intervalHistogram.getEstimatedFootprintInBytes() * 3;
+        return (int) estimateFootprintInBytes(intervalHistogram.getEstimatedFootprintInBytes());
+    }
+
+    /**
+     * Estimates footprint of accumulator from configuration, without allocation of any histogram.
+     *
+     * @param histogramFootprint the footprint of single histogram of recorder
+     * @return a (conservatively high) estimate of accumulator footprint in bytes
+     */
+    public static long estimateFootprintInBytes(long histogramFootprint) {
+        return histogramFootprint * 3;
     }
 
     @Override
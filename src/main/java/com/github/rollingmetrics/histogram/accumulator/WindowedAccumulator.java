@@ -0,0 +1,47 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram.accumulator;
+
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+
+import java.util.function.Function;
+
+/**
+ * The accumulator which is able to extract snapshot for any window which is not longer than its rolling window.
+ *
+ * This class is not the part of metrics-core-hdr public API and should not be used by user directly.
+ */
+public interface WindowedAccumulator extends Accumulator {
+
+    /**
+     * Takes the snapshot which contains the values from the last {@code windowMillis}.
+     * The values are taken by whole chunks, so snapshot can include the values which are older than window at most by duration of one chunk.
+     *
+     * @param windowMillis the duration of window, should not be greater than {@link #getRollingWindowMillis()}
+     * @param snapshotTaker the function to build snapshot
+     * @return the snapshot
+     */
+    Snapshot getSnapshot(long windowMillis, Function<Histogram, Snapshot> snapshotTaker);
+
+    /**
+     * @return the longest window which can be requested from this accumulator
+     */
+    long getRollingWindowMillis();
+
+}
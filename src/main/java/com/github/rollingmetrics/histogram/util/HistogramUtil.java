@@ -22,11 +22,15 @@ import com.codahale.metrics.Snapshot;
 import org.HdrHistogram.AtomicHistogram;
 import org.HdrHistogram.ConcurrentHistogram;
 import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
 
 import java.util.function.Function;
 
 public class HistogramUtil {
 
+    // the footprint of histogram object itself, in addition to array of counts, the same constant is used by HdrHistogram
+    private static final int HISTOGRAM_OWN_FOOTPRINT_BYTES = 512;
+
     public static void reset(Histogram histogram) {
         if (histogram.getTotalCount() > 0) {
             histogram.reset();
@@ -39,6 +43,29 @@ public class HistogramUtil {
         }
     }
 
+    /**
+     * Adds the values from second histogram to first, the count of each value is multiplied by {@code weight} and rounded.
+     *
+     * @param first the histogram to add values
+     * @param second the source of values
+     * @param weight the non-negative coefficient
+     */
+    public static void addSecondToFirst(Histogram first, Histogram second, double weight) {
+        if (weight == 1.0) {
+            addSecondToFirst(first, second);
+            return;
+        }
+        if (second.getTotalCount() == 0 || weight <= 0.0) {
+            return;
+        }
+        for (HistogramIterationValue value : second.recordedValues()) {
+            long weightedCount = Math.round(value.getCountAtValueIteratedTo() * weight);
+            if (weightedCount > 0) {
+                first.recordValueWithCount(value.getValueIteratedTo(), weightedCount);
+            }
+        }
+    }
+
     public static Snapshot getSnapshot(Histogram histogram, Function<Histogram, Snapshot> snapshotTaker) {
         if (histogram.getTotalCount() > 0) {
             return snapshotTaker.apply(histogram);
@@ -47,6 +74,49 @@ public class HistogramUtil {
         }
     }
 
+    /**
+     * Calculates the value which {@link Histogram#getEstimatedFootprintInBytes()} returns for histogram with provided parameters,
+     * without allocation of histogram. The calculation repeats the sizing of counts array performed by HdrHistogram.
+     *
+     * @param lowestDiscernibleValue the lowest discernible value of histogram
+     * @param highestTrackableValue the highest trackable value of histogram, use {@code 2 * lowestDiscernibleValue} for auto-resizable histogram
+     * @param numberOfSignificantValueDigits the precision of histogram
+     * @param concurrent true for {@link ConcurrentHistogram} which keeps two arrays of counts
+     * @return estimated footprint of histogram in bytes
+     */
+    public static long estimateFootprintInBytes(long lowestDiscernibleValue, long highestTrackableValue, int numberOfSignificantValueDigits, boolean concurrent) {
+        long countsArrayLength = estimateCountsArrayLength(lowestDiscernibleValue, highestTrackableValue, numberOfSignificantValueDigits);
+        return HISTOGRAM_OWN_FOOTPRINT_BYTES + (concurrent ? 2 : 1) * Long.BYTES * countsArrayLength;
+    }
+
+    /**
+     * Calculates the length of counts array of histogram with provided parameters, that is the maximum number of distinct recorded buckets.
+     *
+     * @param lowestDiscernibleValue the lowest discernible value of histogram
+     * @param highestTrackableValue the highest trackable value of histogram
+     * @param numberOfSignificantValueDigits the precision of histogram
+     * @return the length of counts array
+     */
+    public static long estimateCountsArrayLength(long lowestDiscernibleValue, long highestTrackableValue, int numberOfSignificantValueDigits) {
+        long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(10, numberOfSignificantValueDigits);
+        int unitMagnitude = (int) (Math.log(lowestDiscernibleValue) / Math.log(2));
+        int subBucketCountMagnitude = (int) Math.ceil(Math.log(largestValueWithSingleUnitResolution) / Math.log(2));
+        int subBucketHalfCountMagnitude = Math.max(subBucketCountMagnitude, 1) - 1;
+        int subBucketCount = 1 << (subBucketHalfCountMagnitude + 1);
+
+        long smallestUntrackableValue = ((long) subBucketCount) << unitMagnitude;
+        int bucketCount = 1;
+        while (smallestUntrackableValue <= highestTrackableValue) {
+            if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                bucketCount++;
+                break;
+            }
+            smallestUntrackableValue <<= 1;
+            bucketCount++;
+        }
+        return (long) (bucketCount + 1) * (subBucketCount / 2);
+    }
+
     public static Histogram createNonConcurrentCopy(Histogram source) {
         if (source instanceof ConcurrentHistogram) {
             return new Histogram(source.getNumberOfSignificantValueDigits());
@@ -19,6 +19,7 @@ package com.github.rollingmetrics.hitratio;
 
 import com.github.rollingmetrics.counter.SmoothlyDecayingRollingCounter;
 import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.FootprintGovernor;
 import com.github.rollingmetrics.histogram.util.Printer;
 
 import java.time.Duration;
@@ -69,6 +70,9 @@ public class SmoothlyDecayingRollingHitRatio implements HitRatio {
     static final int MAX_CHUNKS = 100;
     static final long MIN_ROLLING_WINDOW_MILLIS = 1000;
 
+    // chunk together with reference to it, its AtomicReference, two phases and two AtomicLongs
+    static final int CHUNK_FOOTPRINT_BYTES = 168;
+
     private static final int HIT_INDEX = 0;
     private static final int TOTAL_INDEX = 1;
 
@@ -106,6 +110,22 @@ public class SmoothlyDecayingRollingHitRatio implements HitRatio {
     }
 
     public SmoothlyDecayingRollingHitRatio(Duration rollingWindow, int numberChunks, Clock clock) {
+        this(rollingWindow, numberChunks, clock, FootprintGovernor.getInstance());
+    }
+
+    /**
+     * Constructs the chunked hit-ratio which reports its footprint to {@code footprintGovernor} instead of process-wide governor.
+     *
+     * @param rollingWindow the rolling time window duration
+     * @param numberChunks The count of chunk to split
+     * @param clock the clock
+     * @param footprintGovernor the governor to which footprint of hit-ratio is reported
+     * @throws IllegalStateException if footprint of hit-ratio does not fit into hard limit of governor
+     */
+    public SmoothlyDecayingRollingHitRatio(Duration rollingWindow, int numberChunks, Clock clock, FootprintGovernor footprintGovernor) {
+        if (footprintGovernor == null) {
+            throw new IllegalArgumentException("footprintGovernor should not be null");
+        }
         if (numberChunks < 2) {
             throw new IllegalArgumentException("numberChunks should be >= 2");
         }
@@ -120,6 +140,9 @@ public class SmoothlyDecayingRollingHitRatio implements HitRatio {
         }
         this.intervalBetweenResettingMillis = rollingWindowMillis / numberChunks;
 
+        long estimatedFootprintInBytes = estimateFootprintInBytes(numberChunks + 1);
+        footprintGovernor.checkHardLimit(estimatedFootprintInBytes);
+
         this.clock = clock;
         this.creationTimestamp = clock.currentTimeMillis();
 
@@ -127,6 +150,18 @@ public class SmoothlyDecayingRollingHitRatio implements HitRatio {
         for (int i = 0; i < chunks.length; i++) {
             this.chunks[i] = new Chunk(i);
         }
+        footprintGovernor.reserve(this, estimatedFootprintInBytes);
+    }
+
+    /**
+     * @return estimate of the hit-ratio's footprint in bytes, which is reported to {@link FootprintGovernor}
+     */
+    public long getEstimatedFootprintInBytes() {
+        return estimateFootprintInBytes(chunks.length);
+    }
+
+    private static long estimateFootprintInBytes(int chunkCount) {
+        return (long) chunkCount * CHUNK_FOOTPRINT_BYTES;
     }
 
     @Override
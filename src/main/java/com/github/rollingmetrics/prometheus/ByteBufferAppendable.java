@@ -0,0 +1,108 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.prometheus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes characters into {@link ByteBuffer} as UTF-8 without intermediate arrays.
+ *
+ * Each method throws {@link java.nio.BufferOverflowException} when buffer has no enough space,
+ * unless appendable is growable, in this case buffer is replaced by twice bigger one.
+ */
+class ByteBufferAppendable implements Appendable {
+
+    // UTF-8 encoding of single code point takes up to 4 bytes
+    private static final int MAX_CHAR_BYTES = 4;
+
+    private final boolean growable;
+    private ByteBuffer buffer;
+    private char highSurrogate;
+
+    ByteBufferAppendable() {
+        this(false);
+    }
+
+    /**
+     * @param growable whether buffer should be replaced by twice bigger one when it has no enough space
+     */
+    ByteBufferAppendable(boolean growable) {
+        this.growable = growable;
+    }
+
+    /**
+     * @return the current buffer, it can differ from buffer passed to {@link #setBuffer(ByteBuffer)} if appendable is growable
+     */
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    void setBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.highSurrogate = 0;
+    }
+
+    @Override
+    public Appendable append(CharSequence chars) {
+        return append(chars, 0, chars.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence chars, int start, int end) {
+        for (int i = start; i < end; i++) {
+            append(chars.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+        if (growable && buffer.remaining() < MAX_CHAR_BYTES) {
+            grow();
+        }
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c) && highSurrogate != 0) {
+            int codePoint = Character.toCodePoint(highSurrogate, c);
+            highSurrogate = 0;
+            buffer.put((byte) (0xF0 | (codePoint >> 18)));
+            buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+        } else {
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+        return this;
+    }
+
+    private void grow() {
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, MAX_CHAR_BYTES));
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.prometheus;
+
+import com.codahale.metrics.*;
+import com.github.rollingmetrics.counter.WindowCounter;
+import com.github.rollingmetrics.histogram.MergeableSnapshot;
+import com.github.rollingmetrics.hitratio.HitRatio;
+import com.github.rollingmetrics.top.Top;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports metrics in <a href="https://openmetrics.io">OpenMetrics</a> text format without intermediate bridge to Prometheus client.
+ *
+ * <p>
+ * The metrics of {@link MetricRegistry} are exported in following way:
+ * <ul>
+ *     <li>{@link Counter} - as gauge, because Dropwizard counters can be decremented.</li>
+ *     <li>{@link Gauge} - as gauge, only gauges with {@link Number} or {@link Boolean} values are exported.</li>
+ *     <li>{@link Meter} - as counter.</li>
+ *     <li>{@link Histogram} - as summary, or as histogram with exponential buckets when reservoir is configured with {@link com.github.rollingmetrics.histogram.HdrBuilder#withMergeableSnapshots()}.</li>
+ *     <li>{@link Timer} - same as histogram, the values are converted to seconds.</li>
+ * </ul>
+ * Rolling counters, hit ratios and tops are exported directly from source objects which are added via
+ * {@link #addCounter(String, WindowCounter)}, {@link #addHitRatio(String, HitRatio)} and {@link #addTop(String, Top, TimeUnit)},
+ * this avoids boxing of values in gauges and string gauges of {@link com.github.rollingmetrics.top.TopMetricSet}.
+ *
+ * @see OpenMetricsHttpServer
+ */
+public class OpenMetricsExporter {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final double[] DEFAULT_QUANTILES = new double[]{0.5, 0.75, 0.9, 0.95, 0.98, 0.99, 0.999};
+    private static final double NANOSECONDS_TO_SECONDS = 1e-9;
+
+    private final MetricRegistry registry;
+    private final double[] quantiles;
+    private final Map<String, WindowCounter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, HitRatio> hitRatios = new ConcurrentSkipListMap<>();
+    private final Map<String, TopSource> tops = new ConcurrentSkipListMap<>();
+
+    private final OpenMetricsWriter writer = new OpenMetricsWriter(new StringBuilder(0));
+    private final ByteBufferAppendable byteBufferAppendable = new ByteBufferAppendable();
+
+    /**
+     * Creates exporter which writes summaries with quantiles {@code 0.5, 0.75, 0.9, 0.95, 0.98, 0.99, 0.999}.
+     *
+     * @param registry the registry to export
+     */
+    public OpenMetricsExporter(MetricRegistry registry) {
+        this(registry, DEFAULT_QUANTILES);
+    }
+
+    /**
+     * @param registry the registry to export
+     * @param quantiles the quantiles of summaries, array of doubles between {@literal 0..1}
+     */
+    public OpenMetricsExporter(MetricRegistry registry, double[] quantiles) {
+        if (registry == null) {
+            throw new IllegalArgumentException("registry should not be null");
+        }
+        if (quantiles == null || quantiles.length == 0) {
+            throw new IllegalArgumentException("quantiles should not be empty");
+        }
+        for (double quantile : quantiles) {
+            if (quantile < 0.0 || quantile > 1.0) {
+                throw new IllegalArgumentException("Illegal quantile " + quantile + " - must be between 0 and 1");
+            }
+        }
+        this.registry = registry;
+        this.quantiles = Arrays.copyOf(quantiles, quantiles.length);
+        Arrays.sort(this.quantiles);
+    }
+
+    public OpenMetricsExporter addCounter(String name, WindowCounter counter) {
+        counters.put(checkName(name), checkNotNull(counter, "counter"));
+        return this;
+    }
+
+    public OpenMetricsExporter addHitRatio(String name, HitRatio hitRatio) {
+        hitRatios.put(checkName(name), checkNotNull(hitRatio, "hitRatio"));
+        return this;
+    }
+
+    public OpenMetricsExporter addTop(String name, Top top, TimeUnit latencyUnit) {
+        tops.put(checkName(name), new TopSource(checkNotNull(top, "top"), checkNotNull(latencyUnit, "latencyUnit")));
+        return this;
+    }
+
+    /**
+     * Writes all metrics into {@code target}.
+     *
+     * @param target the destination of exposition
+     */
+    public synchronized void export(Appendable target) {
+        writer.setTarget(target);
+        writeAll(writer);
+    }
+
+    /**
+     * Writes all metrics into {@code buffer} encoded as UTF-8.
+     *
+     * @param buffer the destination of exposition
+     * @throws java.nio.BufferOverflowException if buffer has no enough space, the caller should repeat export with bigger buffer
+     */
+    public synchronized void export(ByteBuffer buffer) {
+        byteBufferAppendable.setBuffer(buffer);
+        writer.setTarget(byteBufferAppendable);
+        writeAll(writer);
+    }
+
+    private void writeAll(OpenMetricsWriter writer) {
+        for (Map.Entry<String, Metric> entry : registry.getMetrics().entrySet()) {
+            writeMetric(writer, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, WindowCounter> entry : counters.entrySet()) {
+            writer.writeGauge(entry.getKey(), entry.getValue().getSum());
+        }
+        for (Map.Entry<String, HitRatio> entry : hitRatios.entrySet()) {
+            writer.writeGauge(entry.getKey(), entry.getValue().getHitRatio());
+        }
+        for (Map.Entry<String, TopSource> entry : tops.entrySet()) {
+            writer.writeTop(entry.getKey(), entry.getValue().top, entry.getValue().latencyUnit);
+        }
+        writer.writeEof();
+    }
+
+    private void writeMetric(OpenMetricsWriter writer, String name, Metric metric) {
+        if (metric instanceof Counter) {
+            writer.writeGauge(name, ((Counter) metric).getCount());
+        } else if (metric instanceof Gauge) {
+            Object value = ((Gauge<?>) metric).getValue();
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                writer.writeGauge(name, ((Number) value).longValue());
+            } else if (value instanceof Number) {
+                writer.writeGauge(name, ((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                writer.writeGauge(name, ((Boolean) value) ? 1 : 0);
+            }
+        } else if (metric instanceof Timer) {
+            Timer timer = (Timer) metric;
+            writeSampling(writer, name, timer.getSnapshot(), timer.getCount(), NANOSECONDS_TO_SECONDS);
+        } else if (metric instanceof Histogram) {
+            Histogram histogram = (Histogram) metric;
+            writeSampling(writer, name, histogram.getSnapshot(), histogram.getCount(), 1.0);
+        } else if (metric instanceof Meter) {
+            writer.writeCounter(name, ((Meter) metric).getCount());
+        }
+    }
+
+    private void writeSampling(OpenMetricsWriter writer, String name, Snapshot snapshot, long count, double scale) {
+        if (snapshot instanceof MergeableSnapshot) {
+            writer.writeHistogram(name, (MergeableSnapshot) snapshot, scale);
+        } else {
+            writer.writeSummary(name, snapshot, count, quantiles, scale);
+        }
+    }
+
+    private static String checkName(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("name should not be empty");
+        }
+        return name;
+    }
+
+    private static <T> T checkNotNull(T value, String parameterName) {
+        if (value == null) {
+            throw new IllegalArgumentException(parameterName + " should not be null");
+        }
+        return value;
+    }
+
+    private static final class TopSource {
+
+        final Top top;
+        final TimeUnit latencyUnit;
+
+        TopSource(Top top, TimeUnit latencyUnit) {
+            this.top = top;
+            this.latencyUnit = latencyUnit;
+        }
+
+    }
+
+}
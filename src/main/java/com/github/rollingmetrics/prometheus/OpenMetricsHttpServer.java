@@ -0,0 +1,141 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.prometheus;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tiny HTTP endpoint based on {@code com.sun.net.httpserver} which serves exposition of {@link OpenMetricsExporter}.
+ *
+ * <p>
+ * The exposition is written once per scrape into the buffer which is reused between scrapes, the buffer grows while exposition is written,
+ * so the snapshots of metrics are never taken twice, which is important for metrics which are reset on snapshot.
+ * The response is sent to client after leaving the lock, so slow client does not block the rendering for other scrapes,
+ * and HEAD requests do not render the exposition at all.
+ * The requests are handled by dispatcher thread of http server, so the endpoint should be closed at application shutdown.
+ *
+ * <p><b>Sample Usage:</b>
+ * <pre> {@code
+ *
+ *  OpenMetricsExporter exporter = new OpenMetricsExporter(registry);
+ *  OpenMetricsHttpServer server = new OpenMetricsHttpServer(new InetSocketAddress(9400), "/metrics", exporter);
+ * }</pre>
+ */
+public class OpenMetricsHttpServer implements Closeable {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final HttpServer server;
+    private final OpenMetricsExporter exporter;
+    private final ByteBufferAppendable output = new ByteBufferAppendable(true);
+
+    /**
+     * Creates and starts http server.
+     *
+     * @param address the address to bind, use port 0 to bind on ephemeral port
+     * @param path the path of endpoint, for example {@code "/metrics"}
+     * @param exporter the source of exposition
+     * @throws IOException if server can not be bound
+     */
+    public OpenMetricsHttpServer(InetSocketAddress address, String path, OpenMetricsExporter exporter) throws IOException {
+        if (address == null) {
+            throw new IllegalArgumentException("address should not be null");
+        }
+        if (path == null || !path.startsWith("/")) {
+            throw new IllegalArgumentException("path should start with '/'");
+        }
+        if (exporter == null) {
+            throw new IllegalArgumentException("exporter should not be null");
+        }
+        this.exporter = exporter;
+        this.output.setBuffer(ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+        this.server = HttpServer.create(address, 0);
+        server.createContext(path, this::handle);
+        server.start();
+    }
+
+    /**
+     * @return the port on which server listens
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops http server.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            boolean head = "HEAD".equals(method);
+            if (!head && !"GET".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", OpenMetricsExporter.CONTENT_TYPE);
+            if (head) {
+                // export is not performed, because it resets the metrics which are reset on snapshot
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            byte[] exposition = export();
+            exchange.sendResponseHeaders(200, exposition.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(exposition);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private synchronized byte[] export() {
+        ByteBuffer buffer = output.getBuffer();
+        buffer.clear();
+        output.setBuffer(buffer);
+        exporter.export(output);
+        buffer = output.getBuffer();
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private synchronized int getBufferCapacity() {
+        return output.getBuffer().capacity();
+    }
+
+    @Override
+    public String toString() {
+        return "OpenMetricsHttpServer{" +
+                "address=" + server.getAddress() +
+                ", bufferCapacity=" + getBufferCapacity() +
+                '}';
+    }
+
+}
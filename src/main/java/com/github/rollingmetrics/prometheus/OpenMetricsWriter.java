@@ -0,0 +1,317 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.prometheus;
+
+import com.codahale.metrics.Snapshot;
+import com.github.rollingmetrics.histogram.MergeableSnapshot;
+import com.github.rollingmetrics.top.Position;
+import com.github.rollingmetrics.top.Top;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes metrics in <a href="https://openmetrics.io">OpenMetrics</a> text format directly into {@link Appendable}.
+ *
+ * <p>
+ * The writer does not create intermediate strings, numbers are formatted digit by digit and metric names are sanitized on the fly,
+ * so the only allocations during exposition are ones which are performed by {@link Appendable} itself.
+ * The names are sanitized by replacing all characters which are not allowed by OpenMetrics with underscore,
+ * for example {@code "my.metric"} becomes {@code "my_metric"}.
+ *
+ * <p>
+ * This class is not thread-safe, it is designed to be reused by one thread for many expositions.
+ *
+ * @see OpenMetricsExporter
+ */
+public final class OpenMetricsWriter {
+
+    private static final int FRACTION_DIGITS = 9;
+    private static final long FRACTION_SCALE = 1_000_000_000L;
+    private static final double MAX_FIXED_POINT_VALUE = 1e15;
+
+    private Appendable target;
+
+    /**
+     * @param target the destination of exposition
+     */
+    public OpenMetricsWriter(Appendable target) {
+        setTarget(target);
+    }
+
+    /**
+     * Replaces the destination of exposition, so the same writer can be reused for next exposition.
+     *
+     * @param target the destination of exposition
+     */
+    public void setTarget(Appendable target) {
+        if (target == null) {
+            throw new IllegalArgumentException("target should not be null");
+        }
+        this.target = target;
+    }
+
+    /**
+     * Writes monotonic counter, the suffix {@code _total} is appended to the name.
+     *
+     * @param name the metric name
+     * @param value the current value of counter
+     */
+    public void writeCounter(String name, long value) {
+        writeType(name, "counter");
+        writeName(name);
+        append("_total ");
+        appendLong(value);
+        append('\n');
+    }
+
+    /**
+     * Writes gauge.
+     *
+     * @param name the metric name
+     * @param value the current value of gauge
+     */
+    public void writeGauge(String name, long value) {
+        writeType(name, "gauge");
+        writeName(name);
+        append(' ');
+        appendLong(value);
+        append('\n');
+    }
+
+    /**
+     * Writes gauge.
+     *
+     * @param name the metric name
+     * @param value the current value of gauge
+     */
+    public void writeGauge(String name, double value) {
+        writeType(name, "gauge");
+        writeName(name);
+        append(' ');
+        appendDouble(value);
+        append('\n');
+    }
+
+    /**
+     * Writes snapshot as summary.
+     *
+     * @param name the metric name
+     * @param snapshot the snapshot of histogram
+     * @param count the total count of recorded values or negative number if count is unknown
+     * @param quantiles the quantiles which should be written, array of doubles between {@literal 0..1}
+     * @param scale the multiplier of each value, for example {@code 1e-9} to convert nanoseconds to seconds
+     */
+    public void writeSummary(String name, Snapshot snapshot, long count, double[] quantiles, double scale) {
+        writeType(name, "summary");
+        for (double quantile : quantiles) {
+            writeName(name);
+            append("{quantile=\"");
+            appendDouble(quantile);
+            append("\"} ");
+            appendDouble(snapshot.getValue(quantile) * scale);
+            append('\n');
+        }
+        if (count >= 0) {
+            writeName(name);
+            append("_count ");
+            appendLong(count);
+            append('\n');
+        }
+    }
+
+    /**
+     * Writes mergeable snapshot as histogram with exponential buckets, the upper bound of each next bucket is twice bigger than previous.
+     *
+     * @param name the metric name
+     * @param snapshot the snapshot which holds copy of HdrHistogram
+     * @param scale the multiplier of each value, for example {@code 1e-9} to convert nanoseconds to seconds
+     */
+    public void writeHistogram(String name, MergeableSnapshot snapshot, double scale) {
+        writeType(name, "histogram");
+        long totalCount = snapshot.getTotalCount();
+        if (totalCount > 0) {
+            long cumulativeCount = 0;
+            for (HistogramIterationValue bucket : snapshot.getLogarithmicBuckets(1, 2.0)) {
+                cumulativeCount += bucket.getCountAddedInThisIterationStep();
+                writeName(name);
+                append("_bucket{le=\"");
+                appendDouble(bucket.getValueIteratedTo() * scale);
+                append("\"} ");
+                appendLong(cumulativeCount);
+                append('\n');
+                if (cumulativeCount >= totalCount) {
+                    break;
+                }
+            }
+        }
+        writeName(name);
+        append("_bucket{le=\"+Inf\"} ");
+        appendLong(totalCount);
+        append('\n');
+        writeName(name);
+        append("_count ");
+        appendLong(totalCount);
+        append('\n');
+    }
+
+    /**
+     * Writes positions of top as gauge with labels {@code rank} and {@code description}, the rank 0 is the slowest query.
+     *
+     * @param name the metric name
+     * @param top the top
+     * @param latencyUnit the unit in which latency should be written
+     */
+    public void writeTop(String name, Top top, TimeUnit latencyUnit) {
+        writeType(name, "gauge");
+        double scale = 1.0 / latencyUnit.toNanos(1);
+        List<Position> positions = top.getPositionsInDescendingOrder();
+        for (int i = 0; i < positions.size(); i++) {
+            Position position = positions.get(i);
+            writeName(name);
+            append("{rank=\"");
+            appendLong(i);
+            append("\",description=\"");
+            appendEscaped(position.getQueryDescription());
+            append("\"} ");
+            appendDouble(position.getLatencyInNanoseconds() * scale);
+            append('\n');
+        }
+    }
+
+    /**
+     * Writes the mandatory terminator of exposition.
+     */
+    public void writeEof() {
+        append("# EOF\n");
+    }
+
+    private void writeType(String name, String type) {
+        append("# TYPE ");
+        writeName(name);
+        append(' ');
+        append(type);
+        append('\n');
+    }
+
+    private void writeName(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':' || (i > 0 && c >= '0' && c <= '9');
+            append(allowed ? c : '_');
+        }
+    }
+
+    private void appendEscaped(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': append("\\\\"); break;
+                case '"': append("\\\""); break;
+                case '\n': append("\\n"); break;
+                default: append(c);
+            }
+        }
+    }
+
+    void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            append("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        appendPositiveLong(value, 1);
+    }
+
+    private void appendPositiveLong(long value, int minDigits) {
+        long divider = 1;
+        int digits = 1;
+        while (divider <= value / 10) {
+            divider *= 10;
+            digits++;
+        }
+        for (; minDigits > digits; minDigits--) {
+            append('0');
+        }
+        while (divider > 0) {
+            append((char) ('0' + (value / divider) % 10));
+            divider /= 10;
+        }
+    }
+
+    void appendDouble(double value) {
+        if (Double.isNaN(value)) {
+            append("NaN");
+            return;
+        }
+        if (Double.isInfinite(value)) {
+            append(value > 0 ? "+Inf" : "-Inf");
+            return;
+        }
+        if (Math.abs(value) >= MAX_FIXED_POINT_VALUE) {
+            // rare case, it is not worth to implement exponential notation by hand
+            append(Double.toString(value));
+            return;
+        }
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        long integerPart = (long) value;
+        long fraction = Math.round((value - integerPart) * FRACTION_SCALE);
+        if (fraction >= FRACTION_SCALE) {
+            integerPart++;
+            fraction -= FRACTION_SCALE;
+        }
+        appendPositiveLong(integerPart, 1);
+        if (fraction == 0) {
+            return;
+        }
+        int fractionDigits = FRACTION_DIGITS;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            fractionDigits--;
+        }
+        append('.');
+        appendPositiveLong(fraction, fractionDigits);
+    }
+
+    private void append(char c) {
+        try {
+            target.append(c);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void append(CharSequence chars) {
+        try {
+            target.append(chars);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.shared;
+
+/**
+ * Type of metric in shared metrics file.
+ */
+public enum SharedMetricType {
+
+    COUNTER(1),
+    HIT_RATIO(2),
+    HISTOGRAM(3);
+
+    private final int code;
+
+    SharedMetricType(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the code which is stored in the file
+     */
+    public int getCode() {
+        return code;
+    }
+
+    static SharedMetricType fromCode(int code) {
+        for (SharedMetricType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalStateException("Unknown metric type " + code);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.shared;
+
+import java.nio.ByteOrder;
+
+/**
+ * Describes the binary layout of shared metrics file, all numbers are stored in little-endian order.
+ *
+ * <pre>
+ * Header:
+ *   0  int     magic, 0x524D4D46
+ *   4  int     version
+ *   8  int     capacity, the maximum number of metrics
+ *   12 int     slot size in bytes
+ *   16 int     quantile count
+ *   20 int     metric count, the number of initialized slots, it only grows
+ *   24 long    timestamp in milliseconds of last completed publishing
+ *   32 long    generation, random non-zero identifier of publisher which created the file
+ *   40 double[quantile count] quantiles of histograms
+ *
+ * Slot, the first slot starts just after header aligned to 64 bytes, each slot is aligned to 64 bytes:
+ *   0   long   sequence, odd value means that values are being modified by publisher
+ *   8   int    type of metric, see {@link SharedMetricType#getCode()}
+ *   12  int    length of name in bytes
+ *   16  byte[112] name encoded as UTF-8
+ *   128 values:
+ *       counter   - long sum
+ *       hit ratio - double ratio
+ *       histogram - long count, double min, double max, double mean, double standard deviation, double[quantile count] values at quantiles
+ * </pre>
+ *
+ * The type and name of slot are written once before the metric count is incremented.
+ * The values are written by seqlock protocol:
+ * publisher increments the sequence to odd value, writes the values, then increments the sequence to even value;
+ * reader reads the sequence, then values, then sequence again, and retries when sequence was odd or has been changed.
+ *
+ * The file is never modified in place by new publisher: the new file is prepared under temporary name and atomically renamed into place,
+ * then the magic of replaced file is zeroed, so readers which still map the replaced file detect that they should reopen the file.
+ */
+final class SharedMetricsLayout {
+
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    static final int MAGIC = 0x524D4D46;
+    static final int VERSION = 2;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int CAPACITY_OFFSET = 8;
+    static final int SLOT_SIZE_OFFSET = 12;
+    static final int QUANTILE_COUNT_OFFSET = 16;
+    static final int METRIC_COUNT_OFFSET = 20;
+    static final int TIMESTAMP_OFFSET = 24;
+    static final int GENERATION_OFFSET = 32;
+    static final int QUANTILES_OFFSET = 40;
+
+    static final int SEQUENCE_OFFSET = 0;
+    static final int TYPE_OFFSET = 8;
+    static final int NAME_LENGTH_OFFSET = 12;
+    static final int NAME_OFFSET = 16;
+    static final int MAX_NAME_BYTES = 112;
+    static final int VALUES_OFFSET = NAME_OFFSET + MAX_NAME_BYTES;
+
+    // count, min, max, mean, standard deviation
+    static final int HISTOGRAM_FIXED_VALUES = 5;
+
+    static final int ALIGNMENT = 64;
+
+    private SharedMetricsLayout() {
+    }
+
+    static int headerSize(int quantileCount) {
+        return align(QUANTILES_OFFSET + quantileCount * 8);
+    }
+
+    static int slotSize(int quantileCount) {
+        return align(VALUES_OFFSET + (HISTOGRAM_FIXED_VALUES + quantileCount) * 8);
+    }
+
+    static long fileSize(int capacity, int quantileCount) {
+        return headerSize(quantileCount) + (long) capacity * slotSize(quantileCount);
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+}
@@ -0,0 +1,460 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.shared;
+
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.github.rollingmetrics.counter.WindowCounter;
+import com.github.rollingmetrics.hitratio.HitRatio;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.DaemonThreadFactory;
+import com.github.rollingmetrics.util.DirectMemory;
+import com.github.rollingmetrics.util.MemoryFences;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.github.rollingmetrics.shared.SharedMetricsLayout.*;
+
+/**
+ * Publishes the current values of metrics into memory-mapped file, so they can be read by external processes, for example by sidecar agent,
+ * without JMX or HTTP calls into the JVM. The file can be read via {@link SharedMetricsReader} or by any other tool which follows the layout described in {@code shared-metrics.md}.
+ *
+ * <p>
+ * Each metric owns the fixed slot in the file, the refresh of metric costs only a few memory stores:
+ * the sequence, the values and the sequence again. The readers never block publisher, instead they retry when observe the values in the middle of modification.
+ * The percentiles of histograms are taken from snapshot, so it is recommended to configure reservoir with the same predefined percentiles
+ * via {@link com.github.rollingmetrics.histogram.HdrBuilder#withPredefinedPercentiles(double[])}, it makes snapshots tiny.
+ *
+ * <p>
+ * The file of previous publisher, for example of the process before restart, is never truncated in place, because readers can still map it.
+ * Instead the new file is prepared under temporary name and atomically renamed into place, and the replaced file is marked as invalid,
+ * so {@link SharedMetricsReader} reopens the file when it observes the mark.
+ *
+ * <p><b>Sample Usage:</b>
+ * <pre> {@code
+ *
+ *  SharedMetricsPublisher publisher = new SharedMetricsPublisher(Paths.get("/dev/shm/my-service.metrics"), 1000);
+ *  publisher.addCounter("requests", requestCounter)
+ *           .addHitRatio("cache-hit-ratio", cacheHitRatio)
+ *           .addTimer("latency", latencyTimer);
+ *  publisher.startPublishing(Duration.ofSeconds(1));
+ * }</pre>
+ *
+ * @see SharedMetricsReader
+ */
+public class SharedMetricsPublisher implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(SharedMetricsPublisher.class.getName());
+
+    private static final double[] DEFAULT_QUANTILES = new double[]{0.5, 0.75, 0.9, 0.95, 0.98, 0.99, 0.999};
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int headerSize;
+    private final int slotSize;
+    private final double[] quantiles;
+    private final Clock clock;
+    private final List<Slot> slots = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+
+    private ScheduledExecutorService scheduler;
+    private boolean closed;
+
+    /**
+     * Creates publisher which publishes histograms with quantiles {@code 0.5, 0.75, 0.9, 0.95, 0.98, 0.99, 0.999}.
+     *
+     * @param file the file to publish, it is created if does not exist and atomically replaced otherwise
+     * @param capacity the maximum number of metrics
+     * @throws IOException if file can not be mapped
+     */
+    public SharedMetricsPublisher(Path file, int capacity) throws IOException {
+        this(file, capacity, DEFAULT_QUANTILES);
+    }
+
+    /**
+     * @param file the file to publish, it is created if does not exist and atomically replaced otherwise
+     * @param capacity the maximum number of metrics
+     * @param quantiles the quantiles of histograms, array of doubles between {@literal 0..1}
+     * @throws IOException if file can not be mapped
+     */
+    public SharedMetricsPublisher(Path file, int capacity, double[] quantiles) throws IOException {
+        this(file, capacity, quantiles, Clock.defaultClock());
+    }
+
+    SharedMetricsPublisher(Path file, int capacity, double[] quantiles, Clock clock) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file should not be null");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be positive");
+        }
+        if (quantiles == null) {
+            throw new IllegalArgumentException("quantiles should not be null");
+        }
+        for (double quantile : quantiles) {
+            if (quantile < 0.0 || quantile > 1.0) {
+                throw new IllegalArgumentException("Illegal quantile " + quantile + " - must be between 0 and 1");
+            }
+        }
+        this.capacity = capacity;
+        this.quantiles = Arrays.copyOf(quantiles, quantiles.length);
+        Arrays.sort(this.quantiles);
+        this.headerSize = SharedMetricsLayout.headerSize(quantiles.length);
+        this.slotSize = SharedMetricsLayout.slotSize(quantiles.length);
+        long fileSize = SharedMetricsLayout.fileSize(capacity, quantiles.length);
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity " + capacity + " is too big");
+        }
+        this.clock = clock;
+
+        Path absoluteFile = file.toAbsolutePath();
+        Path temporaryFile = Files.createTempFile(absoluteFile.getParent(), absoluteFile.getFileName().toString(), ".tmp");
+        try {
+            // the new file is empty, so all slots are zeroed
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            }
+            initializeHeader();
+            replace(temporaryFile, absoluteFile);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+    }
+
+    private void initializeHeader() {
+        buffer.order(BYTE_ORDER);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putInt(SLOT_SIZE_OFFSET, slotSize);
+        buffer.putInt(QUANTILE_COUNT_OFFSET, this.quantiles.length);
+        for (int i = 0; i < this.quantiles.length; i++) {
+            buffer.putDouble(QUANTILES_OFFSET + i * 8, this.quantiles[i]);
+        }
+        long generation = 0;
+        while (generation == 0) {
+            generation = ThreadLocalRandom.current().nextLong();
+        }
+        buffer.putLong(GENERATION_OFFSET, generation);
+        // magic is written last, so reader never observes partially initialized header
+        MemoryFences.storeFence();
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+    }
+
+    private static void replace(Path temporaryFile, Path file) throws IOException {
+        // the replaced file is opened before rename, because it can not be found by name after rename
+        FileChannel replacedChannel;
+        try {
+            replacedChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (NoSuchFileException e) {
+            replacedChannel = null;
+        }
+        try {
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (replacedChannel != null && replacedChannel.size() >= QUANTILES_OFFSET) {
+                // zeroed magic tells to readers which still map replaced file that they should reopen the file
+                ByteBuffer zero = ByteBuffer.allocate(4).order(BYTE_ORDER);
+                replacedChannel.write(zero, MAGIC_OFFSET);
+            }
+        } finally {
+            if (replacedChannel != null) {
+                replacedChannel.close();
+            }
+        }
+    }
+
+    public SharedMetricsPublisher addCounter(String name, WindowCounter counter) {
+        checkNotNull(counter, "counter");
+        return addSlot(new CounterSlot(name, counter));
+    }
+
+    public SharedMetricsPublisher addHitRatio(String name, HitRatio hitRatio) {
+        checkNotNull(hitRatio, "hitRatio");
+        return addSlot(new HitRatioSlot(name, hitRatio));
+    }
+
+    public SharedMetricsPublisher addHistogram(String name, Histogram histogram) {
+        checkNotNull(histogram, "histogram");
+        return addSlot(new HistogramSlot(name, histogram, histogram));
+    }
+
+    /**
+     * Adds timer, the values of timer are published in nanoseconds.
+     *
+     * @param name the name of metric
+     * @param timer the timer
+     * @return this publisher instance
+     */
+    public SharedMetricsPublisher addTimer(String name, Timer timer) {
+        checkNotNull(timer, "timer");
+        return addSlot(new HistogramSlot(name, timer, timer));
+    }
+
+    /**
+     * Writes the current values of all metrics to the file.
+     */
+    public synchronized void publish() {
+        if (closed) {
+            throw new IllegalStateException("Publisher is closed");
+        }
+        for (Slot slot : slots) {
+            slot.publish();
+        }
+        buffer.putLong(TIMESTAMP_OFFSET, clock.currentTimeMillis());
+    }
+
+    /**
+     * Starts the daemon thread which calls {@link #publish()} periodically, the thread is stopped by {@link #close()}.
+     *
+     * @param period the period between publishing
+     */
+    public synchronized void startPublishing(Duration period) {
+        if (period == null || period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("period should be positive duration");
+        }
+        if (closed) {
+            throw new IllegalStateException("Publisher is closed");
+        }
+        if (scheduler != null) {
+            throw new IllegalStateException("Publishing is already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("rolling-metrics-shared-publisher-%d"));
+        long periodMillis = period.toMillis();
+        scheduler.scheduleAtFixedRate(this::publishSafely, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops periodic publishing and unmaps the file, the file itself is not deleted.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService schedulerToStop;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            schedulerToStop = scheduler;
+        }
+        if (schedulerToStop != null) {
+            schedulerToStop.shutdownNow();
+            try {
+                schedulerToStop.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            DirectMemory.unmap(buffer);
+        }
+    }
+
+    public synchronized int getMetricCount() {
+        return slots.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void publishSafely() {
+        try {
+            publish();
+        } catch (IllegalStateException e) {
+            // publisher has been closed concurrently
+        } catch (Throwable e) {
+            logger.log(Level.SEVERE, "Failed to publish shared metrics", e);
+        }
+    }
+
+    private synchronized SharedMetricsPublisher addSlot(Slot slot) {
+        if (closed) {
+            throw new IllegalStateException("Publisher is closed");
+        }
+        if (!names.add(slot.name)) {
+            throw new IllegalArgumentException("Metric with name " + slot.name + " is already added");
+        }
+        if (slots.size() == capacity) {
+            names.remove(slot.name);
+            throw new IllegalStateException("Capacity " + capacity + " is exhausted");
+        }
+        int offset = headerSize + slots.size() * slotSize;
+        slot.initialize(offset);
+        slots.add(slot);
+        // the slot must be completely initialized before reader can discover it
+        MemoryFences.storeFence();
+        buffer.putInt(METRIC_COUNT_OFFSET, slots.size());
+        return this;
+    }
+
+    private static <T> T checkNotNull(T value, String parameterName) {
+        if (value == null) {
+            throw new IllegalArgumentException(parameterName + " should not be null");
+        }
+        return value;
+    }
+
+    private abstract class Slot {
+
+        final String name;
+        final byte[] nameBytes;
+        final SharedMetricType type;
+        int offset;
+        long sequence;
+
+        Slot(String name, SharedMetricType type) {
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("name should not be empty");
+            }
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameBytes.length > MAX_NAME_BYTES) {
+                throw new IllegalArgumentException("name should not be longer than " + MAX_NAME_BYTES + " bytes in UTF-8");
+            }
+            this.name = name;
+            this.type = type;
+        }
+
+        void initialize(int offset) {
+            this.offset = offset;
+            buffer.putInt(offset + TYPE_OFFSET, type.getCode());
+            buffer.putInt(offset + NAME_LENGTH_OFFSET, nameBytes.length);
+            for (int i = 0; i < nameBytes.length; i++) {
+                buffer.put(offset + NAME_OFFSET + i, nameBytes[i]);
+            }
+        }
+
+        final void beginWrite() {
+            buffer.putLong(offset + SEQUENCE_OFFSET, ++sequence);
+            MemoryFences.storeFence();
+        }
+
+        final void endWrite() {
+            MemoryFences.storeFence();
+            buffer.putLong(offset + SEQUENCE_OFFSET, ++sequence);
+        }
+
+        abstract void publish();
+
+    }
+
+    private final class CounterSlot extends Slot {
+
+        final WindowCounter counter;
+
+        CounterSlot(String name, WindowCounter counter) {
+            super(name, SharedMetricType.COUNTER);
+            this.counter = counter;
+        }
+
+        @Override
+        void publish() {
+            long sum = counter.getSum();
+            beginWrite();
+            buffer.putLong(offset + VALUES_OFFSET, sum);
+            endWrite();
+        }
+
+    }
+
+    private final class HitRatioSlot extends Slot {
+
+        final HitRatio hitRatio;
+
+        HitRatioSlot(String name, HitRatio hitRatio) {
+            super(name, SharedMetricType.HIT_RATIO);
+            this.hitRatio = hitRatio;
+        }
+
+        @Override
+        void publish() {
+            double ratio = hitRatio.getHitRatio();
+            beginWrite();
+            buffer.putDouble(offset + VALUES_OFFSET, ratio);
+            endWrite();
+        }
+
+    }
+
+    private final class HistogramSlot extends Slot {
+
+        final Sampling sampling;
+        final Counting counting;
+        final double[] quantileValues = new double[quantiles.length];
+
+        HistogramSlot(String name, Sampling sampling, Counting counting) {
+            super(name, SharedMetricType.HISTOGRAM);
+            this.sampling = sampling;
+            this.counting = counting;
+        }
+
+        @Override
+        void publish() {
+            // values are calculated before seqlock is acquired, so the window in which readers retry is as short as possible
+            Snapshot snapshot = sampling.getSnapshot();
+            long count = counting.getCount();
+            double min = snapshot.getMin();
+            double max = snapshot.getMax();
+            double mean = snapshot.getMean();
+            double stdDev = snapshot.getStdDev();
+            for (int i = 0; i < quantiles.length; i++) {
+                quantileValues[i] = snapshot.getValue(quantiles[i]);
+            }
+
+            int valuesOffset = offset + VALUES_OFFSET;
+            beginWrite();
+            buffer.putLong(valuesOffset, count);
+            buffer.putDouble(valuesOffset + 8, min);
+            buffer.putDouble(valuesOffset + 16, max);
+            buffer.putDouble(valuesOffset + 24, mean);
+            buffer.putDouble(valuesOffset + 32, stdDev);
+            int quantilesOffset = valuesOffset + HISTOGRAM_FIXED_VALUES * 8;
+            for (int i = 0; i < quantileValues.length; i++) {
+                buffer.putDouble(quantilesOffset + i * 8, quantileValues[i]);
+            }
+            endWrite();
+        }
+
+    }
+
+}
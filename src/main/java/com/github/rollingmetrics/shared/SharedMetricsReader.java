@@ -0,0 +1,354 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.shared;
+
+import com.github.rollingmetrics.util.DirectMemory;
+import com.github.rollingmetrics.util.MemoryFences;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.rollingmetrics.shared.SharedMetricsLayout.*;
+
+/**
+ * Reads metrics from the file which is published by {@link SharedMetricsPublisher}, possibly from another process.
+ * The reader never blocks publisher, when values are read in the middle of modification the reading is retried.
+ *
+ * <p><b>Sample Usage:</b>
+ * <pre> {@code
+ *
+ *  try (SharedMetricsReader reader = new SharedMetricsReader(Paths.get("/dev/shm/my-service.metrics"))) {
+ *      long requests = reader.readCounter("requests");
+ *      SharedMetricsReader.HistogramSummary latency = reader.readHistogram("latency");
+ *  }
+ * }</pre>
+ *
+ * <p>
+ * The reader checks the header of file on each read, when file has been replaced by new publisher, for example after restart of service,
+ * the reader reopens the file and forgets the directory of metrics of replaced file.
+ *
+ * This class is not thread-safe, each thread should use own reader.
+ */
+public class SharedMetricsReader implements Closeable {
+
+    private static final int MAX_READ_ATTEMPTS = 10_000;
+
+    private final Path file;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int headerSize;
+    private int slotSize;
+    private double[] quantiles;
+    private long generation;
+
+    private final Map<String, Integer> slotOffsets = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * @param file the file which is published by {@link SharedMetricsPublisher}
+     * @throws IOException if file can not be mapped or it is not published by {@link SharedMetricsPublisher}
+     */
+    public SharedMetricsReader(Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file should not be null");
+        }
+        this.file = file;
+        open();
+    }
+
+    /**
+     * @return the names of all published metrics, including metrics added after construction of reader
+     */
+    public List<String> getNames() {
+        checkGeneration();
+        refreshDirectory();
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * @return the quantiles of histograms
+     */
+    public double[] getQuantiles() {
+        checkGeneration();
+        return Arrays.copyOf(quantiles, quantiles.length);
+    }
+
+    /**
+     * @return the timestamp in milliseconds of last completed publishing, or zero if metrics were never published
+     */
+    public long getPublishTimestamp() {
+        checkGeneration();
+        return buffer.getLong(TIMESTAMP_OFFSET);
+    }
+
+    public SharedMetricType getType(String name) {
+        int offset = getSlotOffset(name);
+        return SharedMetricType.fromCode(buffer.getInt(offset + TYPE_OFFSET));
+    }
+
+    public long readCounter(String name) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            int offset = getSlotOffset(name, SharedMetricType.COUNTER);
+            long sequence = beginRead(offset);
+            long sum = buffer.getLong(offset + VALUES_OFFSET);
+            if (endRead(offset, sequence)) {
+                return sum;
+            }
+        }
+        throw inconsistentSlot(name);
+    }
+
+    public double readHitRatio(String name) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            int offset = getSlotOffset(name, SharedMetricType.HIT_RATIO);
+            long sequence = beginRead(offset);
+            double ratio = buffer.getDouble(offset + VALUES_OFFSET);
+            if (endRead(offset, sequence)) {
+                return ratio;
+            }
+        }
+        throw inconsistentSlot(name);
+    }
+
+    public HistogramSummary readHistogram(String name) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            int offset = getSlotOffset(name, SharedMetricType.HISTOGRAM);
+            int valuesOffset = offset + VALUES_OFFSET;
+            int quantilesOffset = valuesOffset + HISTOGRAM_FIXED_VALUES * 8;
+            double[] values = new double[quantiles.length];
+            long sequence = beginRead(offset);
+            long count = buffer.getLong(valuesOffset);
+            double min = buffer.getDouble(valuesOffset + 8);
+            double max = buffer.getDouble(valuesOffset + 16);
+            double mean = buffer.getDouble(valuesOffset + 24);
+            double stdDev = buffer.getDouble(valuesOffset + 32);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.getDouble(quantilesOffset + i * 8);
+            }
+            if (endRead(offset, sequence)) {
+                return new HistogramSummary(count, min, max, mean, stdDev, quantiles, values);
+            }
+        }
+        throw inconsistentSlot(name);
+    }
+
+    /**
+     * Unmaps the file, the file itself is not deleted.
+     */
+    @Override
+    public void close() {
+        DirectMemory.unmap(buffer);
+    }
+
+    private long beginRead(int offset) {
+        long sequence = buffer.getLong(offset + SEQUENCE_OFFSET);
+        MemoryFences.loadFence();
+        return sequence;
+    }
+
+    private boolean endRead(int offset, long sequence) {
+        MemoryFences.loadFence();
+        if ((sequence & 1) == 0 && buffer.getLong(offset + SEQUENCE_OFFSET) == sequence && isCurrentGeneration()) {
+            return true;
+        }
+        // publisher is in the middle of modification, or file has been replaced
+        Thread.yield();
+        return false;
+    }
+
+    private int getSlotOffset(String name, SharedMetricType expectedType) {
+        int offset = getSlotOffset(name);
+        SharedMetricType type = SharedMetricType.fromCode(buffer.getInt(offset + TYPE_OFFSET));
+        if (type != expectedType) {
+            throw new IllegalArgumentException("Metric " + name + " has type " + type + " instead of " + expectedType);
+        }
+        return offset;
+    }
+
+    private int getSlotOffset(String name) {
+        checkGeneration();
+        Integer offset = slotOffsets.get(name);
+        if (offset == null) {
+            refreshDirectory();
+            offset = slotOffsets.get(name);
+            if (offset == null) {
+                throw new IllegalArgumentException("Metric " + name + " is not published");
+            }
+        }
+        return offset;
+    }
+
+    private void open() throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < QUANTILES_OFFSET) {
+                throw new IOException("File " + file + " is not a shared metrics file");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        buffer.order(BYTE_ORDER);
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            DirectMemory.unmap(buffer);
+            throw new IOException("File " + file + " is not a shared metrics file");
+        }
+        MemoryFences.loadFence();
+        int version = buffer.getInt(VERSION_OFFSET);
+        if (version != VERSION) {
+            DirectMemory.unmap(buffer);
+            throw new IOException("Unsupported version " + version + " of shared metrics file " + file);
+        }
+        int capacity = buffer.getInt(CAPACITY_OFFSET);
+        int quantileCount = buffer.getInt(QUANTILE_COUNT_OFFSET);
+        if (buffer.capacity() < SharedMetricsLayout.fileSize(capacity, quantileCount)) {
+            DirectMemory.unmap(buffer);
+            throw new IOException("Shared metrics file " + file + " is truncated");
+        }
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.slotSize = buffer.getInt(SLOT_SIZE_OFFSET);
+        this.headerSize = SharedMetricsLayout.headerSize(quantileCount);
+        this.generation = buffer.getLong(GENERATION_OFFSET);
+        this.quantiles = new double[quantileCount];
+        for (int i = 0; i < quantileCount; i++) {
+            quantiles[i] = buffer.getDouble(QUANTILES_OFFSET + i * 8);
+        }
+        slotOffsets.clear();
+        names.clear();
+    }
+
+    private boolean isCurrentGeneration() {
+        return buffer.getInt(MAGIC_OFFSET) == MAGIC && buffer.getLong(GENERATION_OFFSET) == generation;
+    }
+
+    private void checkGeneration() {
+        if (isCurrentGeneration()) {
+            return;
+        }
+        // replaced file is unmapped only after new file is mapped, so the buffer always refers to mapped memory
+        MappedByteBuffer replacedBuffer = buffer;
+        try {
+            open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Shared metrics file " + file + " has been replaced, but can not be reopened", e);
+        }
+        DirectMemory.unmap(replacedBuffer);
+    }
+
+    private void refreshDirectory() {
+        int metricCount = Math.min(buffer.getInt(METRIC_COUNT_OFFSET), capacity);
+        MemoryFences.loadFence();
+        for (int i = names.size(); i < metricCount; i++) {
+            int offset = headerSize + i * slotSize;
+            int nameLength = Math.min(buffer.getInt(offset + NAME_LENGTH_OFFSET), MAX_NAME_BYTES);
+            byte[] nameBytes = new byte[nameLength];
+            for (int j = 0; j < nameLength; j++) {
+                nameBytes[j] = buffer.get(offset + NAME_OFFSET + j);
+            }
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            names.add(name);
+            slotOffsets.put(name, offset);
+        }
+    }
+
+    private static IllegalStateException inconsistentSlot(String name) {
+        return new IllegalStateException("Failed to read consistent values of metric " + name + " after " + MAX_READ_ATTEMPTS + " attempts");
+    }
+
+    /**
+     * The values of histogram which were published at once.
+     */
+    public static final class HistogramSummary {
+
+        private final long count;
+        private final double min;
+        private final double max;
+        private final double mean;
+        private final double stdDev;
+        private final double[] quantiles;
+        private final double[] values;
+
+        HistogramSummary(long count, double min, double max, double mean, double stdDev, double[] quantiles, double[] values) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.stdDev = stdDev;
+            this.quantiles = quantiles;
+            this.values = values;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getStdDev() {
+            return stdDev;
+        }
+
+        /**
+         * @param quantile one of quantiles configured in publisher
+         * @return the value at quantile
+         */
+        public double getValue(double quantile) {
+            int index = Arrays.binarySearch(quantiles, quantile);
+            if (index < 0) {
+                throw new IllegalArgumentException("Quantile " + quantile + " is not published, published quantiles are " + Arrays.toString(quantiles));
+            }
+            return values[index];
+        }
+
+        @Override
+        public String toString() {
+            return "HistogramSummary{" +
+                    "count=" + count +
+                    ", min=" + min +
+                    ", max=" + max +
+                    ", mean=" + mean +
+                    ", stdDev=" + stdDev +
+                    ", quantiles=" + Arrays.toString(quantiles) +
+                    ", values=" + Arrays.toString(values) +
+                    '}';
+        }
+
+    }
+
+}
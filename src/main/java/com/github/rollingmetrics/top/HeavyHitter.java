@@ -0,0 +1,114 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.top;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The aggregated statistics of one key reported by {@link HeavyHittersTop}.
+ *
+ * <p>
+ * Because {@link HeavyHittersTop} tracks only bounded number of keys, the key which replaced another key inherits the counters of replaced key
+ * (this is the Space-Saving algorithm), so the statistics can be overestimated, the upper bound of overestimation of ranked value is reported by {@link #getError()}.
+ * When key is absent in some of merged chunks, its ranked value is raised by the minimum of those chunks,
+ * so the ranked value is never underestimated, while other statistics are aggregated only from chunks where key is tracked.
+ */
+public class HeavyHitter {
+
+    private final String key;
+    private final long count;
+    private final long totalLatencyInNanoseconds;
+    private final long maxLatencyInNanoseconds;
+    private final long error;
+
+    public HeavyHitter(String key, long count, long totalLatencyInNanoseconds, long maxLatencyInNanoseconds, long error) {
+        this.key = key;
+        this.count = count;
+        this.totalLatencyInNanoseconds = totalLatencyInNanoseconds;
+        this.maxLatencyInNanoseconds = maxLatencyInNanoseconds;
+        this.error = error;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalLatencyInNanoseconds() {
+        return totalLatencyInNanoseconds;
+    }
+
+    public long getTotalLatency(TimeUnit unit) {
+        return unit.convert(totalLatencyInNanoseconds, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxLatencyInNanoseconds() {
+        return maxLatencyInNanoseconds;
+    }
+
+    public long getMaxLatency(TimeUnit unit) {
+        return unit.convert(maxLatencyInNanoseconds, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the upper bound of overestimation of value by which this key is ranked, zero means that value is exact
+     */
+    public long getError() {
+        return error;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        HeavyHitter that = (HeavyHitter) o;
+
+        if (count != that.count) return false;
+        if (totalLatencyInNanoseconds != that.totalLatencyInNanoseconds) return false;
+        if (maxLatencyInNanoseconds != that.maxLatencyInNanoseconds) return false;
+        if (error != that.error) return false;
+        return key.equals(that.key);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = key.hashCode();
+        result = 31 * result + (int) (count ^ (count >>> 32));
+        result = 31 * result + (int) (totalLatencyInNanoseconds ^ (totalLatencyInNanoseconds >>> 32));
+        result = 31 * result + (int) (maxLatencyInNanoseconds ^ (maxLatencyInNanoseconds >>> 32));
+        result = 31 * result + (int) (error ^ (error >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "HeavyHitter{" +
+                "key='" + key + '\'' +
+                ", count=" + count +
+                ", totalLatencyInNanoseconds=" + totalLatencyInNanoseconds +
+                ", maxLatencyInNanoseconds=" + maxLatencyInNanoseconds +
+                ", error=" + error +
+                '}';
+    }
+
+}
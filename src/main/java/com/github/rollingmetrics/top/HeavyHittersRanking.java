@@ -0,0 +1,62 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.top;
+
+/**
+ * Defines the value by which keys are ranked in {@link HeavyHittersTop}.
+ */
+public enum HeavyHittersRanking {
+
+    /**
+     * Keys are ranked by sum of latencies, this answers to question "which queries consume the most of time".
+     */
+    TOTAL_LATENCY {
+        @Override
+        public long getRankedValue(long count, long totalLatencyInNanoseconds, long maxLatencyInNanoseconds) {
+            return totalLatencyInNanoseconds;
+        }
+    },
+
+    /**
+     * Keys are ranked by count of recorded latencies.
+     */
+    COUNT {
+        @Override
+        public long getRankedValue(long count, long totalLatencyInNanoseconds, long maxLatencyInNanoseconds) {
+            return count;
+        }
+    },
+
+    /**
+     * Keys are ranked by maximum of recorded latencies, in contrast to {@link Top} each key occupies only one position.
+     */
+    MAX_LATENCY {
+        @Override
+        public long getRankedValue(long count, long totalLatencyInNanoseconds, long maxLatencyInNanoseconds) {
+            return maxLatencyInNanoseconds;
+        }
+    };
+
+    public abstract long getRankedValue(long count, long totalLatencyInNanoseconds, long maxLatencyInNanoseconds);
+
+    public long getRankedValue(HeavyHitter heavyHitter) {
+        return getRankedValue(heavyHitter.getCount(), heavyHitter.getTotalLatencyInNanoseconds(), heavyHitter.getMaxLatencyInNanoseconds());
+    }
+
+}
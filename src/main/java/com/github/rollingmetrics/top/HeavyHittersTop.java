@@ -0,0 +1,73 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.top;
+
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The top of keys (for example query signatures) aggregated by latencies recorded for each key.
+ *
+ * <p>
+ * In contrast to {@link Top}, which stores individual slowest queries, this top stores one position per key,
+ * so the same slow query can not displace all other offenders. The number of tracked keys is bounded by capacity,
+ * when capacity is exhausted then the key with the least ranked value is replaced according to Space-Saving algorithm.
+ */
+public interface HeavyHittersTop {
+
+    /**
+     * Creates new instance of {@link HeavyHittersTopBuilder}
+     *
+     * @param size maximum count of keys in the top
+     *
+     * @return new instance of {@link HeavyHittersTopBuilder}
+     */
+    static HeavyHittersTopBuilder builder(int size) {
+        return HeavyHittersTopBuilder.newBuilder(size);
+    }
+
+    /**
+     * Registers latency of query.
+     *
+     * @param key the key by which latencies are aggregated, for example query text without parameters
+     * @param latencyTime query duration
+     * @param latencyUnit resolution of latency time
+     */
+    void update(String key, long latencyTime, TimeUnit latencyUnit);
+
+    /**
+     * Returns the top of keys in descend order of {@link #getRanking() ranked value}.
+     * The size of returned list can be less then {@link #getSize} if not enough count of keys were recorded.
+     *
+     * @return the top of keys in descend order.
+     */
+    List<HeavyHitter> getHeavyHittersInDescendingOrder();
+
+    /**
+     * @return the maximum count of keys in the top.
+     */
+    int getSize();
+
+    /**
+     * @return the value by which keys are ranked
+     */
+    HeavyHittersRanking getRanking();
+
+}
@@ -0,0 +1,308 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.top;
+
+import com.github.rollingmetrics.top.impl.ResetByChunksHeavyHittersTop;
+import com.github.rollingmetrics.top.impl.SnapshotCachingHeavyHittersTop;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.FootprintGovernor;
+
+import java.time.Duration;
+
+import static com.github.rollingmetrics.top.TopBuilder.MAX_CHUNKS;
+import static com.github.rollingmetrics.top.TopBuilder.MAX_POSITION_COUNT;
+import static com.github.rollingmetrics.top.TopBuilder.MAX_RECORDER_STRIPES;
+import static com.github.rollingmetrics.top.TopBuilder.MIN_CHUNK_RESETTING_INTERVAL_MILLIS;
+
+/**
+ * The builder for {@link HeavyHittersTop}.
+ *
+ * <p><br> Basic examples of usage:
+ * <pre> {@code
+ *
+ *  HeavyHittersTop top = HeavyHittersTop.builder(10)
+ *      .rankBy(HeavyHittersRanking.TOTAL_LATENCY)
+ *      .resetPositionsPeriodicallyByChunks(Duration.ofMinutes(1), 6)
+ *      .build();
+ *
+ *  top.update(querySignature, latencyNanos, TimeUnit.NANOSECONDS);
+ * }</pre>
+ *
+ * The reset strategies have the same meaning as in {@link TopBuilder}.
+ * The keys are recorded into {@link #DEFAULT_STRIPES} independently locked summaries by default (see {@link #withStripes(int)}),
+ * and snapshots are cached for {@link TopBuilder#DEFAULT_SNAPSHOT_CACHING_DURATION} (see {@link #withSnapshotCachingDuration(Duration)}).
+ */
+public class HeavyHittersTopBuilder {
+
+    public static final int MAX_CAPACITY = 100_000;
+    public static final int DEFAULT_CAPACITY_PER_POSITION = 10;
+    public static final HeavyHittersRanking DEFAULT_RANKING = HeavyHittersRanking.TOTAL_LATENCY;
+    public static final int DEFAULT_STRIPES = TopBuilder.DEFAULT_SCALABLE_RECORDER_STRIPES;
+
+    // counter fields, heap reference and entry of hash map
+    private static final int COUNTER_OVERHEAD_BYTES = 128;
+
+    private int size;
+    private int capacity;
+    private HeavyHittersRanking ranking = DEFAULT_RANKING;
+    private long intervalBetweenResettingMillis = Long.MAX_VALUE;
+    private int numberHistoryChunks;
+    private boolean resetOnSnapshot;
+    private int stripes = DEFAULT_STRIPES;
+    private Duration snapshotCachingDuration = TopBuilder.DEFAULT_SNAPSHOT_CACHING_DURATION;
+    private Clock clock = Clock.defaultClock();
+    private FootprintGovernor footprintGovernor = FootprintGovernor.getInstance();
+
+    private HeavyHittersTopBuilder(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Creates new builder instance.
+     *
+     * @param size the count of keys for tops which will be constructed by this builder
+     * @return this builder instance
+     */
+    public static HeavyHittersTopBuilder newBuilder(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size should be >=1");
+        }
+        if (size > MAX_POSITION_COUNT) {
+            throw new IllegalArgumentException("size should be <= " + MAX_POSITION_COUNT);
+        }
+        return new HeavyHittersTopBuilder(size);
+    }
+
+    /**
+     * Constructs new {@link HeavyHittersTop} instance
+     *
+     * @return new {@link HeavyHittersTop} instance
+     */
+    public HeavyHittersTop build() {
+        long estimatedFootprintInBytes = getEstimatedFootprintInBytes();
+        footprintGovernor.checkHardLimit(estimatedFootprintInBytes);
+        HeavyHittersTop top = new ResetByChunksHeavyHittersTop(size, getCapacity(), ranking, intervalBetweenResettingMillis,
+                numberHistoryChunks, resetOnSnapshot, stripes, clock);
+        if (!snapshotCachingDuration.isZero()) {
+            top = new SnapshotCachingHeavyHittersTop(top, snapshotCachingDuration.toMillis(), clock);
+        }
+        footprintGovernor.reserve(top, estimatedFootprintInBytes);
+        return top;
+    }
+
+    /**
+     * Configures the number of keys which are tracked in each chunk, the more keys are tracked the lesser is error of reported values.
+     * By default capacity is {@link #DEFAULT_CAPACITY_PER_POSITION} multiplied by size.
+     *
+     * @param capacity the number of tracked keys, should be >= size and <= {@link #MAX_CAPACITY}
+     * @return this builder instance
+     */
+    public HeavyHittersTopBuilder withCapacity(int capacity) {
+        if (capacity < size) {
+            throw new IllegalArgumentException("capacity should be >= size");
+        }
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity should be <= " + MAX_CAPACITY);
+        }
+        this.capacity = capacity;
+        return this;
+    }
+
+    /**
+     * Configures the value by which keys are ranked, default is {@link #DEFAULT_RANKING}.
+     *
+     * @param ranking the value by which keys are ranked
+     * @return this builder instance
+     */
+    public HeavyHittersTopBuilder rankBy(HeavyHittersRanking ranking) {
+        if (ranking == null) {
+            throw new IllegalArgumentException("ranking should not be null");
+        }
+        this.ranking = ranking;
+        return this;
+    }
+
+    /**
+     * Configures the number of independently locked summaries into which each chunk is split, default is {@link #DEFAULT_STRIPES}.
+     * The keys are distributed between stripes by identifier of writer thread and stripes are merged at snapshot time.
+     * Each stripe tracks up to {@code capacity} keys, so the memory occupied by top is multiplied by number of stripes.
+     * The number of stripes is rounded up to the power of two, a good choice is the number of threads which concurrently update the top.
+     *
+     * @param stripes the number of independently locked summaries, between {@literal 1..}{@link TopBuilder#MAX_RECORDER_STRIPES}
+     * @return this builder instance
+     */
+    public HeavyHittersTopBuilder withStripes(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes should be >= 1");
+        }
+        if (stripes > MAX_RECORDER_STRIPES) {
+            throw new IllegalArgumentException("stripes should be <= " + MAX_RECORDER_STRIPES);
+        }
+        this.stripes = stripes;
+        return this;
+    }
+
+    /**
+     * Configures the duration for caching the results of invocation of {@link HeavyHittersTop#getHeavyHittersInDescendingOrder()},
+     * the default value is {@link TopBuilder#DEFAULT_SNAPSHOT_CACHING_DURATION}. You can specify zero duration to discard caching at all.
+     *
+     * @param snapshotCachingDuration the duration for caching of snapshot
+     * @return this builder instance
+     * @see TopBuilder#withSnapshotCachingDuration(Duration)
+     */
+    public HeavyHittersTopBuilder withSnapshotCachingDuration(Duration snapshotCachingDuration) {
+        if (snapshotCachingDuration == null) {
+            throw new IllegalArgumentException("snapshotCachingDuration should not be null");
+        }
+        if (snapshotCachingDuration.isNegative()) {
+            throw new IllegalArgumentException("snapshotCachingDuration can not be negative");
+        }
+        this.snapshotCachingDuration = snapshotCachingDuration;
+        return this;
+    }
+
+    /**
+     * Replaces default clock.
+     * Most likely you should never use this method, because replacing time measuring has sense only for unit testing.
+     *
+     * @param clock the abstraction over time
+     *
+     * @return this builder instance
+     */
+    public HeavyHittersTopBuilder withClock(Clock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock should not be null");
+        }
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * Replaces the process-wide {@link FootprintGovernor} by isolated instance.
+     *
+     * @param footprintGovernor the governor into which footprint of constructed tops is reported
+     * @return this builder instance
+     */
+    public HeavyHittersTopBuilder withFootprintGovernor(FootprintGovernor footprintGovernor) {
+        if (footprintGovernor == null) {
+            throw new IllegalArgumentException("footprintGovernor should not be null");
+        }
+        this.footprintGovernor = footprintGovernor;
+        return this;
+    }
+
+    /**
+     * Provide a (conservatively high) estimate of the top's total footprint in bytes, the keys itself are not taken into account
+     * because they are owned by caller.
+     *
+     * @return a (conservatively high) estimate of the top's total footprint in bytes
+     */
+    public long getEstimatedFootprintInBytes() {
+        int powerOfTwoStripes = Integer.highestOneBit(stripes * 2 - 1);
+        return (long) COUNTER_OVERHEAD_BYTES * getCapacity() * (numberHistoryChunks + 1) * powerOfTwoStripes;
+    }
+
+    /**
+     * Top configured with this strategy will store all values since the top was created, this is default strategy.
+     *
+     * @return this builder instance
+     * @see TopBuilder#neverResetPositions()
+     */
+    public HeavyHittersTopBuilder neverResetPositions() {
+        return configureChunks(Long.MAX_VALUE, 0, false);
+    }
+
+    /**
+     * Top configured with this strategy will be cleared each time when {@link HeavyHittersTop#getHeavyHittersInDescendingOrder()} invoked.
+     *
+     * @return this builder instance
+     * @see TopBuilder#resetAllPositionsOnSnapshot()
+     */
+    public HeavyHittersTopBuilder resetAllPositionsOnSnapshot() {
+        return configureChunks(Long.MAX_VALUE, 0, true);
+    }
+
+    /**
+     * Top configured with this strategy will be cleared at all after each {@code intervalBetweenResetting} elapsed.
+     *
+     * @param intervalBetweenResetting specifies how often need to reset the top
+     * @return this builder instance
+     * @see TopBuilder#resetAllPositionsPeriodically(Duration)
+     */
+    public HeavyHittersTopBuilder resetAllPositionsPeriodically(Duration intervalBetweenResetting) {
+        if (intervalBetweenResetting == null) {
+            throw new IllegalArgumentException("intervalBetweenResetting should not be null");
+        }
+        if (intervalBetweenResetting.isNegative()) {
+            throw new IllegalArgumentException("intervalBetweenResetting should not be negative");
+        }
+        long intervalBetweenResettingMillis = intervalBetweenResetting.toMillis();
+        if (intervalBetweenResettingMillis < MIN_CHUNK_RESETTING_INTERVAL_MILLIS) {
+            String msg = "interval between resetting one chunk should be >= " + MIN_CHUNK_RESETTING_INTERVAL_MILLIS + " millis";
+            throw new IllegalArgumentException(msg);
+        }
+        return configureChunks(intervalBetweenResettingMillis, 0, false);
+    }
+
+    /**
+     * Top configured with this strategy will be divided to <tt>numberChunks</tt> parts,
+     * and one chunk will be cleared after each <tt>rollingTimeWindow / numberChunks</tt> elapsed.
+     *
+     * @param rollingTimeWindow the total rolling time window, any value recorded to top will not be evicted from it at least <tt>rollingTimeWindow</tt>
+     * @param numberChunks specifies number of chunks by which the top will be slitted
+     * @return this builder instance
+     * @see TopBuilder#resetPositionsPeriodicallyByChunks(Duration, int)
+     */
+    public HeavyHittersTopBuilder resetPositionsPeriodicallyByChunks(Duration rollingTimeWindow, int numberChunks) {
+        if (numberChunks > MAX_CHUNKS) {
+            throw new IllegalArgumentException("numberChunks should be <= " + MAX_CHUNKS);
+        }
+        if (numberChunks < 2) {
+            throw new IllegalArgumentException("numberChunks should be >= 2");
+        }
+        if (rollingTimeWindow == null) {
+            throw new IllegalArgumentException("rollingTimeWindow should not be null");
+        }
+        if (rollingTimeWindow.isNegative()) {
+            throw new IllegalArgumentException("rollingTimeWindow should not be negative");
+        }
+
+        long intervalBetweenResettingMillis = rollingTimeWindow.toMillis() / numberChunks;
+        if (intervalBetweenResettingMillis < MIN_CHUNK_RESETTING_INTERVAL_MILLIS) {
+            String msg = "interval between resetting one chunk should be >= " + MIN_CHUNK_RESETTING_INTERVAL_MILLIS + " millis";
+            throw new IllegalArgumentException(msg);
+        }
+        return configureChunks(intervalBetweenResettingMillis, numberChunks, false);
+    }
+
+    private HeavyHittersTopBuilder configureChunks(long intervalBetweenResettingMillis, int numberHistoryChunks, boolean resetOnSnapshot) {
+        this.intervalBetweenResettingMillis = intervalBetweenResettingMillis;
+        this.numberHistoryChunks = numberHistoryChunks;
+        this.resetOnSnapshot = resetOnSnapshot;
+        return this;
+    }
+
+    private int getCapacity() {
+        if (capacity > 0) {
+            return capacity;
+        }
+        return Math.min(MAX_CAPACITY, size * DEFAULT_CAPACITY_PER_POSITION);
+    }
+
+}
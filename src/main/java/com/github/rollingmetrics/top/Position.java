@@ -18,6 +18,7 @@
 package com.github.rollingmetrics.top;
 
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -27,10 +28,16 @@ public class Position implements Comparable<Position> {
 
     private final long latencyTime;
     private final TimeUnit latencyUnit;
-    private final String description;
     private final long timestamp;
     private long latencyInNanoseconds;
 
+    private volatile String description;
+
+    // not null only until deferred description is materialized
+    private Object descriptionHandle;
+    private Function<Object, String> descriptionFormatter;
+    private int maxDescriptionLength;
+
     public Position(long timestamp, long latencyTime, TimeUnit latencyUnit, Supplier<String> descriptionSupplier, int maxDescriptionLengt) {
         this(timestamp, latencyTime, latencyUnit, combineDescriptionWithLatency(latencyTime, latencyUnit, descriptionSupplier, maxDescriptionLengt));
     }
@@ -43,11 +50,43 @@ public class Position implements Comparable<Position> {
         this.latencyInNanoseconds = latencyUnit.toNanos(latencyTime);
     }
 
+    /**
+     * Creates position with deferred description, the {@code descriptionFormatter} is not called until {@link #getQueryDescription()} is invoked first time,
+     * so nothing is formatted for positions which are evicted from top before anybody reads them.
+     * The position holds reference to {@code descriptionHandle} until description is materialized,
+     * so handle should stay immutable at least up to that moment.
+     *
+     * @param timestamp timestamp in milliseconds when latency taken
+     * @param latencyTime query duration
+     * @param latencyUnit resolution of latency time
+     * @param descriptionHandle the cheap reference to object which describes the query
+     * @param descriptionFormatter the function which converts handle to query description
+     * @param maxDescriptionLength the formatted description will be truncated to this length
+     * @param <T> type of handle
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Position(long timestamp, long latencyTime, TimeUnit latencyUnit, T descriptionHandle, Function<? super T, String> descriptionFormatter, int maxDescriptionLength) {
+        if (descriptionFormatter == null) {
+            throw new IllegalArgumentException("descriptionFormatter should not be null");
+        }
+        this.latencyTime = latencyTime;
+        this.latencyUnit = latencyUnit;
+        this.timestamp = timestamp;
+        this.latencyInNanoseconds = latencyUnit.toNanos(latencyTime);
+        this.descriptionHandle = descriptionHandle;
+        this.descriptionFormatter = (Function<Object, String>) descriptionFormatter;
+        this.maxDescriptionLength = maxDescriptionLength;
+    }
+
     /**
      * @return user friendly query description. For example SQL or HTTP URL.
      */
     public String getQueryDescription() {
-        return description;
+        String description = this.description;
+        if (description != null) {
+            return description;
+        }
+        return materializeDescription();
     }
 
     /**
@@ -88,7 +127,11 @@ public class Position implements Comparable<Position> {
         if (timestamp != other.timestamp) {
             return Long.compare(timestamp, other.timestamp);
         }
-        return description.compareTo(other.description);
+        if (this == other) {
+            // avoid materialization of deferred description
+            return 0;
+        }
+        return getQueryDescription().compareTo(other.getQueryDescription());
     }
 
     @Override
@@ -100,13 +143,13 @@ public class Position implements Comparable<Position> {
 
         if (timestamp != position.timestamp) return false;
         if (latencyInNanoseconds != position.latencyInNanoseconds) return false;
-        return description.equals(position.description);
+        return getQueryDescription().equals(position.getQueryDescription());
 
     }
 
     @Override
     public int hashCode() {
-        int result = description.hashCode();
+        int result = getQueryDescription().hashCode();
         result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
         result = 31 * result + (int) (latencyInNanoseconds ^ (latencyInNanoseconds >>> 32));
         return result;
@@ -117,12 +160,30 @@ public class Position implements Comparable<Position> {
         return "Position{" +
                 "latencyTime=" + latencyTime +
                 ", latencyUnit=" + latencyUnit +
-                ", description='" + description + '\'' +
+                ", description='" + getQueryDescription() + '\'' +
                 ", timestamp=" + timestamp +
                 ", latencyInNanoseconds=" + latencyInNanoseconds +
                 '}';
     }
 
+    private synchronized String materializeDescription() {
+        if (description != null || descriptionFormatter == null) {
+            return description;
+        }
+        String queryDescription = descriptionFormatter.apply(descriptionHandle);
+        if (queryDescription == null) {
+            throw new IllegalStateException("Formatted query description should not be null");
+        }
+        if (queryDescription.length() > maxDescriptionLength) {
+            queryDescription = queryDescription.substring(0, maxDescriptionLength);
+        }
+        // release the handle, it is not needed anymore
+        descriptionHandle = null;
+        descriptionFormatter = null;
+        description = queryDescription;
+        return queryDescription;
+    }
+
     private static String combineDescriptionWithLatency(long latencyTime, TimeUnit latencyUnit, Supplier<String> descriptionSupplier, int maxDescriptionLength) {
         String queryDescription = descriptionSupplier.get();
         if (queryDescription == null) {
@@ -20,6 +20,7 @@ package com.github.rollingmetrics.top;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -40,6 +41,17 @@ public interface Top {
         return TopBuilder.newBuilder(size);
     }
 
+    /**
+     * Creates new instance of {@link TopBuilder} for tops with large number of positions, see {@link TopBuilder#newScalableBuilder(int)}
+     *
+     * @param size maximum count of positions in the top
+     *
+     * @return new instance of {@link TopBuilder}
+     */
+    static TopBuilder scalableBuilder(int size) {
+        return TopBuilder.newScalableBuilder(size);
+    }
+
     /**
      * Registers latency of query. To avoid unnecessary memory allocation for Strings the descriptionSupplier will be called only if latency is greater then "SlowQueryThreshold"
      * and latency is greater than any other query in the top.
@@ -51,6 +63,29 @@ public interface Top {
      */
     void update(long timestamp, long latencyTime, TimeUnit latencyUnit, Supplier<String> descriptionSupplier);
 
+    /**
+     * Registers latency of query with deferred description. In contrast to {@link #update(long, long, TimeUnit, Supplier)} the description is not built at update time,
+     * the top stores only {@code descriptionHandle} and {@code descriptionFormatter}, and the formatter is invoked when description of position is read first time,
+     * so nothing is formatted for positions which were evicted from top before snapshot.
+     * The top holds reference to handle while position stays in the top, so handle should be immutable and should not retain too much memory.
+     *
+     * <p>
+     * The default implementation formats description eagerly, all built-in implementations override it.
+     *
+     * @param timestamp timestamp in milliseconds when latency taken
+     * @param latencyTime query duration
+     * @param latencyUnit resolution of latency time
+     * @param descriptionHandle the cheap reference to object which describes the query
+     * @param descriptionFormatter the function which converts handle to query description, it should be thread-safe
+     * @param <T> type of handle
+     */
+    default <T> void update(long timestamp, long latencyTime, TimeUnit latencyUnit, T descriptionHandle, Function<? super T, String> descriptionFormatter) {
+        if (descriptionFormatter == null) {
+            throw new IllegalArgumentException("descriptionFormatter should not be null");
+        }
+        update(timestamp, latencyTime, latencyUnit, () -> descriptionFormatter.apply(descriptionHandle));
+    }
+
     /**
      * Returns the top of queries in descend order, slowest query will be at first place.
      * The size of returned list can be less then {@link #getSize} if not enough count of quires were recorded.
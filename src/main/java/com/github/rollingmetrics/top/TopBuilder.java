@@ -21,8 +21,11 @@ import com.github.rollingmetrics.top.impl.ResetByChunksTop;
 import com.github.rollingmetrics.top.impl.ResetOnSnapshotConcurrentTop;
 import com.github.rollingmetrics.top.impl.SnapshotCachingTop;
 import com.github.rollingmetrics.top.impl.UniformTop;
+import com.github.rollingmetrics.top.impl.recorder.PositionRecorder;
 import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.FootprintGovernor;
 import com.github.rollingmetrics.util.ResilientExecutionUtil;
+import com.github.rollingmetrics.util.RotationScheduler;
 import com.github.rollingmetrics.top.impl.ResetOnSnapshotConcurrentTop;
 import com.github.rollingmetrics.top.impl.SnapshotCachingTop;
 import com.github.rollingmetrics.top.impl.UniformTop;
@@ -31,6 +34,7 @@ import com.github.rollingmetrics.util.Clock;
 import java.time.Duration;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
 
 /**
  * The builder for {@link Top}.
@@ -56,6 +60,11 @@ public class TopBuilder {
     public static final int MAX_CHUNKS = 25;
     public static final int MIN_LENGTH_OF_QUERY_DESCRIPTION = 10;
     public static final int DEFAULT_MAX_LENGTH_OF_QUERY_DESCRIPTION = 1000;
+    public static final int MAX_RECORDER_STRIPES = 256;
+
+    public static final int MAX_SCALABLE_POSITION_COUNT = 100_000;
+    public static final int MAX_SCALABLE_CHUNKS = 120;
+    public static final int DEFAULT_SCALABLE_RECORDER_STRIPES = 4;
 
     public static final Duration DEFAULT_LATENCY_THRESHOLD = Duration.ZERO;
     public static final Duration DEFAULT_SNAPSHOT_CACHING_DURATION = Duration.ofSeconds(1);
@@ -63,6 +72,11 @@ public class TopBuilder {
     private static final Executor DEFAULT_BACKGROUND_EXECUTOR = null;
     private static final TopFactory DEFAULT_TOP_FACTORY = TopFactory.UNIFORM;
 
+    // conservative estimation of position object together with reference to it
+    private static final int POSITION_OVERHEAD_BYTES = 64;
+    // conservative estimation of String object together with header of its char array
+    private static final int DESCRIPTION_OVERHEAD_BYTES = 40;
+
     private int size;
     private Duration latencyThreshold;
     private Duration snapshotCachingDuration;
@@ -70,8 +84,13 @@ public class TopBuilder {
     private Clock clock;
     private Executor backgroundExecutor;
     private TopFactory factory;
+    private FootprintGovernor footprintGovernor;
+    private boolean scheduledRotation;
+    private int recorderStripes;
+    private boolean threadLocalRecorder;
+    private boolean scalable;
 
-    private TopBuilder(int size, Duration latencyThreshold, Duration snapshotCachingDuration, int maxDescriptionLength, Clock clock, Executor backgroundExecutor, TopFactory factory) {
+    private TopBuilder(int size, Duration latencyThreshold, Duration snapshotCachingDuration, int maxDescriptionLength, Clock clock, Executor backgroundExecutor, TopFactory factory, FootprintGovernor footprintGovernor) {
         this.size = size;
         this.latencyThreshold = latencyThreshold;
         this.snapshotCachingDuration = snapshotCachingDuration;
@@ -79,6 +98,7 @@ public class TopBuilder {
         this.clock = clock;
         this.backgroundExecutor = backgroundExecutor;
         this.factory = factory;
+        this.footprintGovernor = footprintGovernor;
     }
 
     /**
@@ -87,7 +107,14 @@ public class TopBuilder {
      * @return new {@link Top} instance
      */
     public Top build() {
-        Top top = factory.create(size, latencyThreshold, maxDescriptionLength, clock);
+        if (scheduledRotation && !factory.isRotatedByChunks()) {
+            throw new IllegalStateException("scheduled rotation can be used only with resetAllPositionsPeriodically or resetPositionsPeriodicallyByChunks");
+        }
+        // there is no meaningful way to degrade precision of top, so only hard limit of governor is applied
+        long estimatedFootprintInBytes = getEstimatedFootprintInBytes();
+        footprintGovernor.checkHardLimit(estimatedFootprintInBytes);
+        Top top = factory.create(size, latencyThreshold, maxDescriptionLength, clock, createRecorderSupplier());
+        footprintGovernor.reserve(top, estimatedFootprintInBytes);
         if (!snapshotCachingDuration.isZero()) {
             top = new SnapshotCachingTop(top, snapshotCachingDuration.toMillis(), clock);
         }
@@ -101,8 +128,33 @@ public class TopBuilder {
      * @return this builder instance
      */
     public static TopBuilder newBuilder(int size) {
-        validateSize(size);
-        return new TopBuilder(size, DEFAULT_LATENCY_THRESHOLD, DEFAULT_SNAPSHOT_CACHING_DURATION, DEFAULT_MAX_LENGTH_OF_QUERY_DESCRIPTION, Clock.defaultClock(), DEFAULT_BACKGROUND_EXECUTOR, DEFAULT_TOP_FACTORY);
+        validateSize(size, MAX_POSITION_COUNT);
+        return new TopBuilder(size, DEFAULT_LATENCY_THRESHOLD, DEFAULT_SNAPSHOT_CACHING_DURATION, DEFAULT_MAX_LENGTH_OF_QUERY_DESCRIPTION, Clock.defaultClock(), DEFAULT_BACKGROUND_EXECUTOR, DEFAULT_TOP_FACTORY, FootprintGovernor.getInstance());
+    }
+
+    /**
+     * Creates new builder instance for tops with large number of positions, for example the slowest 10_000 queries of last hour at 1-minute granularity.
+     * In comparison with {@link #newBuilder(int)} the size is limited by {@link #MAX_SCALABLE_POSITION_COUNT}
+     * and the number of chunks is limited by {@link #MAX_SCALABLE_CHUNKS}.
+     *
+     * <p>
+     * The positions are recorded into {@link #DEFAULT_SCALABLE_RECORDER_STRIPES} bounded heaps by default (see {@link #withStripedRecorder(int)}),
+     * so the cost of update does not depend on size of top, and the writers which can not beat the minimum of any filled heap are rejected without locking.
+     * The content of recorder is sorted once and merged into collectors in linear time, so the snapshot cost is
+     * {@code O(S * N * log(S * N))} for recorders plus {@code O(N * C)} for chunks, where {@code N} is size, {@code S} is number of stripes, {@code C} is number of chunks.
+     * For chunked top the memory is proportional to {@code N * (C + 4 * S + 3)} positions, see {@link #getEstimatedFootprintInBytes()},
+     * so it is strongly recommended to reduce {@link #withMaxLengthOfQueryDescription(int)} for large tops.
+     * </p>
+     *
+     * @param size the count of positions for tops which will be constructed by this builder
+     * @return this builder instance
+     */
+    public static TopBuilder newScalableBuilder(int size) {
+        validateSize(size, MAX_SCALABLE_POSITION_COUNT);
+        TopBuilder builder = new TopBuilder(size, DEFAULT_LATENCY_THRESHOLD, DEFAULT_SNAPSHOT_CACHING_DURATION, DEFAULT_MAX_LENGTH_OF_QUERY_DESCRIPTION, Clock.defaultClock(), DEFAULT_BACKGROUND_EXECUTOR, DEFAULT_TOP_FACTORY, FootprintGovernor.getInstance());
+        builder.scalable = true;
+        builder.recorderStripes = DEFAULT_SCALABLE_RECORDER_STRIPES;
+        return builder;
     }
 
     /**
@@ -112,7 +164,7 @@ public class TopBuilder {
      * @return this builder instance
      */
     public TopBuilder withPositionCount(int size) {
-        validateSize(size);
+        validateSize(size, scalable ? MAX_SCALABLE_POSITION_COUNT : MAX_POSITION_COUNT);
         this.size = size;
         return this;
     }
@@ -208,6 +260,11 @@ public class TopBuilder {
      * in case of {@link ResilientExecutionUtil#setThreadFactory(ThreadFactory)} is not enough to meat security rules.
      * </p>
      *
+     * <p>
+     * Another use case is isolation of heavy metrics from the others via dedicated backend created by {@link com.github.rollingmetrics.util.BackgroundExecutors},
+     * when {@link com.github.rollingmetrics.util.ShardedExecutor} is passed then each constructed metric is pinned to one of its shards.
+     * </p>
+     *
      * @return this builder instance
      */
     public TopBuilder withBackgroundExecutor(Executor backgroundExecutor) {
@@ -218,6 +275,109 @@ public class TopBuilder {
         return this;
     }
 
+    /**
+     * Configures the top to be rotated by shared {@link RotationScheduler} at chunk boundaries,
+     * instead of the writer which first observes that chunk is expired. In this mode the writers only record the position without checking the time,
+     * and the top is rotated even if there are no writes.
+     *
+     * <p>
+     * This option can be used only together with {@link #resetAllPositionsPeriodically(Duration)} or {@link #resetPositionsPeriodicallyByChunks(Duration, int)},
+     * otherwise IllegalStateException will be thrown during top construction.
+     * The positions recorded between chunk boundary and the moment when scheduler performs rotation are attributed to expired chunk.
+     * </p>
+     *
+     * @return this builder instance
+     * @see RotationScheduler
+     */
+    public TopBuilder withScheduledRotation() {
+        this.scheduledRotation = true;
+        return this;
+    }
+
+    /**
+     * Configures the top to record positions into fixed-size array min-heaps instead of concurrent skip list.
+     * The positions are distributed between {@code stripes} heaps by identifier of writer thread, each heap is guarded by its own lock.
+     * The slots of heaps are reused, so steady-state update allocates nothing, and the writer which can not beat the minimum of its heap
+     * is rejected without acquiring the lock. It makes the difference at startup and during latency spikes, when almost every update qualifies.
+     *
+     * <p>
+     * Each stripe holds up to {@code size} positions, so the memory occupied by recorders is multiplied by number of stripes.
+     * The number of stripes is rounded up to the power of two, a good choice is the number of threads which concurrently update the top.
+     * </p>
+     *
+     * @param stripes the number of independently locked heaps, between {@literal 1..}{@link #MAX_RECORDER_STRIPES}
+     * @return this builder instance
+     */
+    public TopBuilder withStripedRecorder(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes should be >= 1");
+        }
+        if (stripes > MAX_RECORDER_STRIPES) {
+            throw new IllegalArgumentException("stripes should be <= " + MAX_RECORDER_STRIPES);
+        }
+        this.recorderStripes = stripes;
+        this.threadLocalRecorder = false;
+        return this;
+    }
+
+    /**
+     * Configures the top to record positions into separated bounded heap for each writer thread,
+     * the heaps are merged into the top only when snapshot is taken or chunk is rotated.
+     * So, in contrast to {@link #withStripedRecorder(int)}, writers never share any memory on the hot path,
+     * that is the best choice when top is updated by many threads and most of updates beat the current minimum.
+     *
+     * <p>
+     * Each writer thread holds up to {@code size} positions in each recorder, so the memory occupied by recorders is {@code threads * recorders * size} positions,
+     * where {@code recorders} is two for tops which are never reset or reset on snapshot, and four for tops which are reset periodically or by chunks.
+     * For example, top of size 100 which is reset by chunks and updated by 200 threads can hold up to 80_000 positions in its recorders.
+     * The heaps of terminated threads are released only when recorder is reset, so this mode is intended for applications which update top from thread pools,
+     * rather than from short-lived threads. The threads do not hold strong references to heaps, so heaps are released together with discarded top.
+     * </p>
+     *
+     * @return this builder instance
+     */
+    public TopBuilder withThreadLocalRecorder() {
+        this.threadLocalRecorder = true;
+        this.recorderStripes = 0;
+        return this;
+    }
+
+    /**
+     * Configures the governor to which footprint of each constructed top will be reported.
+     * When top does not fit into hard limit of governor, the construction fails with {@link IllegalStateException}.
+     * By default the process-wide governor {@link FootprintGovernor#getInstance()} is used.
+     *
+     * @param footprintGovernor the governor of memory consumed by metrics
+     * @return this builder instance
+     * @see FootprintGovernor
+     */
+    public TopBuilder withFootprintGovernor(FootprintGovernor footprintGovernor) {
+        if (footprintGovernor == null) {
+            throw new IllegalArgumentException("footprintGovernor should not be null");
+        }
+        this.footprintGovernor = footprintGovernor;
+        return this;
+    }
+
+    /**
+     * Provide a (conservatively high) estimate of the top's total footprint in bytes,
+     * the estimation assumes that each position holds description of maximum length.
+     *
+     * @return a (conservatively high) estimate of the top's total footprint in bytes
+     */
+    public long getEstimatedFootprintInBytes() {
+        long onePositionFootprint = POSITION_OVERHEAD_BYTES + DESCRIPTION_OVERHEAD_BYTES + 2L * maxDescriptionLength;
+        int positionSetCount = factory.getPositionSetCount();
+        if (recorderStripes > 0) {
+            // each stripe of recorder holds its own set of positions
+            positionSetCount += factory.getRecorderCount() * (Integer.highestOneBit(recorderStripes * 2 - 1) - 1);
+        } else if (threadLocalRecorder) {
+            // the number of writer threads is unknown at construction time, so it is assumed to be equal to number of processors
+            positionSetCount += factory.getRecorderCount() * (Runtime.getRuntime().availableProcessors() - 1);
+        }
+        return onePositionFootprint * size * positionSetCount;
+    }
+
     /**
      * Top configured with this strategy will store all values since the top was created.
      *
@@ -305,8 +465,9 @@ public class TopBuilder {
      * @return this builder instance
      */
     public TopBuilder resetPositionsPeriodicallyByChunks(Duration rollingTimeWindow, int numberChunks) {
-        if (numberChunks > MAX_CHUNKS) {
-            throw new IllegalArgumentException("numberChunks should be <= " + MAX_CHUNKS);
+        int maxChunks = scalable ? MAX_SCALABLE_CHUNKS : MAX_CHUNKS;
+        if (numberChunks > maxChunks) {
+            throw new IllegalArgumentException("numberChunks should be <= " + maxChunks);
         }
         if (numberChunks < 2) {
             throw new IllegalArgumentException("numberChunks should be >= 1");
@@ -330,44 +491,118 @@ public class TopBuilder {
 
     private interface TopFactory {
 
-        Top create(int size, Duration latencyThreshold, int maxDescriptionLength, Clock clock);
+        Top create(int size, Duration latencyThreshold, int maxDescriptionLength, Clock clock, Supplier<PositionRecorder> recorderSupplier);
+
+        /**
+         * @return the number of sets of positions which are held by top, each set can contain up to {@code size} positions
+         */
+        int getPositionSetCount();
+
+        /**
+         * @return the number of recorders among sets of positions
+         */
+        int getRecorderCount();
+
+        /**
+         * @return true if top is rotated at chunk boundaries, so it can be rotated by {@link RotationScheduler}
+         */
+        default boolean isRotatedByChunks() {
+            return false;
+        }
 
         TopFactory UNIFORM = new TopFactory() {
             @Override
-            public Top create(int size, Duration latencyThreshold, int maxDescriptionLength, Clock clock) {
-                return new UniformTop(size, latencyThreshold.toNanos(), maxDescriptionLength);
+            public Top create(int size, Duration latencyThreshold, int maxDescriptionLength, Clock clock, Supplier<PositionRecorder> recorderSupplier) {
+                return new UniformTop(size, recorderSupplier);
+            }
+
+            @Override
+            public int getPositionSetCount() {
+                // two recorders and uniform collector
+                return 3;
+            }
+
+            @Override
+            public int getRecorderCount() {
+                return 2;
             }
         };
 
         TopFactory RESET_ON_SNAPSHOT = new TopFactory() {
             @Override
-            public Top create(int size, Duration latencyThreshold, int maxDescriptionLength, Clock clock) {
-                return new ResetOnSnapshotConcurrentTop(size, latencyThreshold.toNanos(), maxDescriptionLength);
+            public Top create(int size, Duration latencyThreshold, int maxDescriptionLength, Clock clock, Supplier<PositionRecorder> recorderSupplier) {
+                return new ResetOnSnapshotConcurrentTop(recorderSupplier);
+            }
+
+            @Override
+            public int getPositionSetCount() {
+                // two recorders
+                return 2;
+            }
+
+            @Override
+            public int getRecorderCount() {
+                return 2;
             }
         };
 
     }
 
-    private static void validateSize(int size) {
+    private static void validateSize(int size, int maxSize) {
         if (size < 1) {
             throw new IllegalArgumentException("size should be >=1");
         }
-        if (size > MAX_POSITION_COUNT) {
-            throw new IllegalArgumentException("size should be <= " + MAX_POSITION_COUNT);
+        if (size > maxSize) {
+            throw new IllegalArgumentException("size should be <= " + maxSize);
         }
     }
 
     private TopFactory resetByChunks(final long intervalBetweenResettingMillis, int numberOfHistoryChunks) {
         return new TopFactory() {
             @Override
-            public Top create(int size, Duration latencyThreshold, int maxDescriptionLength, Clock clock) {
-                return new ResetByChunksTop(size, latencyThreshold.toNanos(), maxDescriptionLength, intervalBetweenResettingMillis, numberOfHistoryChunks, clock, getExecutor());
+            public Top create(int size, Duration latencyThreshold, int maxDescriptionLength, Clock clock, Supplier<PositionRecorder> recorderSupplier) {
+                ResetByChunksTop top = new ResetByChunksTop(size, recorderSupplier, intervalBetweenResettingMillis, numberOfHistoryChunks, clock, getExecutor(), scheduledRotation);
+                if (scheduledRotation) {
+                    RotationScheduler.getInstance().schedule(top, top.rotate());
+                }
+                return top;
+            }
+
+            @Override
+            public int getPositionSetCount() {
+                // two phases with two recorders and totals collector in each, archive and temporary snapshot collector
+                return 2 * 3 + numberOfHistoryChunks + 1;
+            }
+
+            @Override
+            public int getRecorderCount() {
+                // two recorders in each phase
+                return 2 * 2;
+            }
+
+            @Override
+            public boolean isRotatedByChunks() {
+                return true;
             }
         };
     }
 
+    private Supplier<PositionRecorder> createRecorderSupplier() {
+        long latencyThresholdNanos = latencyThreshold.toNanos();
+        int size = this.size;
+        int maxDescriptionLength = this.maxDescriptionLength;
+        int stripes = this.recorderStripes;
+        if (threadLocalRecorder) {
+            return () -> PositionRecorder.createThreadLocalRecorder(size, latencyThresholdNanos, maxDescriptionLength);
+        }
+        if (stripes == 0) {
+            return () -> PositionRecorder.createRecorder(size, latencyThresholdNanos, maxDescriptionLength);
+        }
+        return () -> PositionRecorder.createStripedRecorder(size, latencyThresholdNanos, maxDescriptionLength, stripes);
+    }
+
     private Executor getExecutor() {
-        return backgroundExecutor != null ? backgroundExecutor : ResilientExecutionUtil.getInstance().getBackgroundExecutor();
+        return ResilientExecutionUtil.getInstance().resolveExecutorForMetric(backgroundExecutor);
     }
 
 }
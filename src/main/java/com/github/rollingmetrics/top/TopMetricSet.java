@@ -20,9 +20,11 @@ package com.github.rollingmetrics.top;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricSet;
+import com.github.rollingmetrics.util.Clock;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -50,12 +52,31 @@ import java.util.concurrent.TimeUnit;
  * </ul>
  * The "latency" gauges have {@link BigDecimal} type, the "latencyUnit" and "description" gauges have {@link String} type.
  * The number in the gauge name represents position in the top in descending order, the "0" is the slowest query.
+ * <p>
+ * All gauges of set share the single snapshot of top per reporting cycle.
+ * The new snapshot is taken when some gauge is read second time since last snapshot,
+ * so each reporter which reads gauges one by one sees consistent picture and top is asked for positions once per report.
+ * Also the new snapshot is taken when shared snapshot is older than {@code maxSnapshotAge},
+ * so the gauge which was not read in current cycle, for example because reporter is filtered or other reporter has different period,
+ * never returns the positions which were taken long time ago.
  *
  */
 public class TopMetricSet implements MetricSet {
 
+    /**
+     * The default maximum age of snapshot shared between gauges, it equals to {@link TopBuilder#DEFAULT_SNAPSHOT_CACHING_DURATION}.
+     */
+    public static final Duration DEFAULT_MAX_SNAPSHOT_AGE = TopBuilder.DEFAULT_SNAPSHOT_CACHING_DURATION;
+
+    private static final int MAX_DIGITS_FOR_EXACT_LONG_SCALING = 18;
+
     private final BigDecimal zero;
     private final Map<String, Metric> gauges;
+    private final SharedSnapshot snapshot;
+    private final long latencyUnitNanos;
+    private final int digitsAfterDecimalPoint;
+    private final long decimalMultiplier;
+    private final long maxNanosForExactLongScaling;
 
     /**
      * Creates new collection of gauges which compatible with {@link com.codahale.metrics.MetricRegistry}.
@@ -66,6 +87,24 @@ public class TopMetricSet implements MetricSet {
      * @param digitsAfterDecimalPoint the number of digits after decimal point
      */
     public TopMetricSet(String name, Top top, TimeUnit latencyUnit, int digitsAfterDecimalPoint) {
+        this(name, top, latencyUnit, digitsAfterDecimalPoint, DEFAULT_MAX_SNAPSHOT_AGE);
+    }
+
+    /**
+     * Creates new collection of gauges which compatible with {@link com.codahale.metrics.MetricRegistry}.
+     *
+     * @param name the name prefix for each gauge
+     * @param top the target {@link Top}
+     * @param latencyUnit the time unit to convert latency
+     * @param digitsAfterDecimalPoint the number of digits after decimal point
+     * @param maxSnapshotAge the maximum duration during which snapshot of top is shared between gauges,
+     *                       the value should be close to snapshot caching duration of top, zero duration disables sharing at all
+     */
+    public TopMetricSet(String name, Top top, TimeUnit latencyUnit, int digitsAfterDecimalPoint, Duration maxSnapshotAge) {
+        this(name, top, latencyUnit, digitsAfterDecimalPoint, maxSnapshotAge, Clock.defaultClock());
+    }
+
+    TopMetricSet(String name, Top top, TimeUnit latencyUnit, int digitsAfterDecimalPoint, Duration maxSnapshotAge, Clock clock) {
         if (name == null) {
             throw new IllegalArgumentException("name should not be null");
         }
@@ -81,20 +120,36 @@ public class TopMetricSet implements MetricSet {
         if (digitsAfterDecimalPoint < 0) {
             throw new IllegalArgumentException("digitsAfterDecimalPoint should not be negative");
         }
+        if (maxSnapshotAge == null) {
+            throw new IllegalArgumentException("maxSnapshotAge should not be null");
+        }
+        if (maxSnapshotAge.isNegative()) {
+            throw new IllegalArgumentException("maxSnapshotAge should not be negative");
+        }
 
         gauges = new HashMap<>();
         gauges.put(name + ".latencyUnit", (Gauge<String>) latencyUnit::toString);
 
         zero = BigDecimal.ZERO.setScale(digitsAfterDecimalPoint, RoundingMode.CEILING);
+        this.latencyUnitNanos = latencyUnit.toNanos(1);
+        this.digitsAfterDecimalPoint = digitsAfterDecimalPoint;
+        if (digitsAfterDecimalPoint <= MAX_DIGITS_FOR_EXACT_LONG_SCALING) {
+            this.decimalMultiplier = pow10(digitsAfterDecimalPoint);
+            this.maxNanosForExactLongScaling = Long.MAX_VALUE / decimalMultiplier;
+        } else {
+            this.decimalMultiplier = 0;
+            this.maxNanosForExactLongScaling = 0;
+        }
 
         int size = top.getSize();
+        snapshot = new SharedSnapshot(top, size * 2, maxSnapshotAge.toMillis(), clock);
         for (int i = 0; i < size; i++) {
             String latencyName = name + "." + i + "." + "latency";
-            Gauge<BigDecimal> latencyGauge = createLatencyGauge(i, top, latencyUnit, digitsAfterDecimalPoint);
+            Gauge<BigDecimal> latencyGauge = new LatencyGauge(i, i * 2);
             gauges.put(latencyName, latencyGauge);
 
             String descriptionName = name + "." + i + "." + "description";
-            Gauge<String> descriptionGauge = createDescriptionGauge(i, top);
+            Gauge<String> descriptionGauge = createDescriptionGauge(i, i * 2 + 1);
             gauges.put(descriptionName, descriptionGauge);
         }
     }
@@ -104,28 +159,114 @@ public class TopMetricSet implements MetricSet {
         return gauges;
     }
 
-    private Gauge<BigDecimal> createLatencyGauge(int i, Top top, TimeUnit latencyUnit, int digitsAfterDecimalPoint) {
+    private Gauge<String> createDescriptionGauge(int i, int gaugeIndex) {
         return () -> {
-            List<Position> positions = top.getPositionsInDescendingOrder();
+            List<Position> positions = snapshot.getPositions(gaugeIndex);
             if (positions.size() <= i) {
+                return "";
+            }
+            return positions.get(i).getQueryDescription();
+        };
+    }
+
+    private BigDecimal toLatency(long latencyNanos) {
+        if (latencyNanos == 0) {
+            return zero;
+        }
+        if (latencyNanos > 0 && latencyNanos <= maxNanosForExactLongScaling) {
+            long scaledNanos = latencyNanos * decimalMultiplier;
+            long unscaledValue = scaledNanos / latencyUnitNanos;
+            if (scaledNanos % latencyUnitNanos != 0) {
+                unscaledValue++;
+            }
+            return BigDecimal.valueOf(unscaledValue, digitsAfterDecimalPoint);
+        }
+        return BigDecimal.valueOf(latencyNanos).divide(BigDecimal.valueOf(latencyUnitNanos), digitsAfterDecimalPoint, RoundingMode.CEILING);
+    }
+
+    private static long pow10(int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= 10;
+        }
+        return result;
+    }
+
+    private final class LatencyGauge implements Gauge<BigDecimal> {
+
+        private final int position;
+        private final int gaugeIndex;
+
+        // converted value is remembered because latency on same position often stays unchanged between reports
+        private volatile ConvertedLatency lastLatency;
+
+        private LatencyGauge(int position, int gaugeIndex) {
+            this.position = position;
+            this.gaugeIndex = gaugeIndex;
+        }
+
+        @Override
+        public BigDecimal getValue() {
+            List<Position> positions = snapshot.getPositions(gaugeIndex);
+            if (positions.size() <= position) {
                 return zero;
             }
-            double latencyNanos = positions.get(i).getLatencyInNanoseconds();
-            long scale = latencyUnit.toNanos(1);
-            double result = latencyNanos/scale;
+            long latencyNanos = positions.get(position).getLatencyInNanoseconds();
+            ConvertedLatency converted = lastLatency;
+            if (converted == null || converted.latencyNanos != latencyNanos) {
+                converted = new ConvertedLatency(latencyNanos, toLatency(latencyNanos));
+                lastLatency = converted;
+            }
+            return converted.value;
+        }
+    }
 
-            return new BigDecimal(result).setScale(digitsAfterDecimalPoint, RoundingMode.CEILING);
-        };
+    private static final class ConvertedLatency {
+
+        private final long latencyNanos;
+        private final BigDecimal value;
+
+        private ConvertedLatency(long latencyNanos, BigDecimal value) {
+            this.latencyNanos = latencyNanos;
+            this.value = value;
+        }
     }
 
-    private Gauge<String> createDescriptionGauge(int i, Top top) {
-        return () -> {
-            List<Position> positions = top.getPositionsInDescendingOrder();
-            if (positions.size() <= i) {
-                return "";
+    /**
+     * Holds the positions which are shared by all gauges during the reporting cycle.
+     * Each gauge remembers the epoch in which it was read last time,
+     * when gauge is read twice in the same epoch it means that new reporting cycle has been started.
+     * The epoch is also finished when it lasts longer than {@code maxAgeMillis},
+     * because gauges which are not read in each cycle can not detect the start of new cycle.
+     */
+    private static final class SharedSnapshot {
+
+        private final Top top;
+        private final long[] readEpochs;
+        private final long maxAgeMillis;
+        private final Clock clock;
+
+        private long epoch;
+        private long epochStartMillis;
+        private List<Position> positions;
+
+        private SharedSnapshot(Top top, int gaugeCount, long maxAgeMillis, Clock clock) {
+            this.top = top;
+            this.readEpochs = new long[gaugeCount];
+            this.maxAgeMillis = maxAgeMillis;
+            this.clock = clock;
+        }
+
+        private synchronized List<Position> getPositions(int gaugeIndex) {
+            long nowMillis = clock.currentTimeMillis();
+            if (positions == null || readEpochs[gaugeIndex] == epoch || nowMillis - epochStartMillis >= maxAgeMillis) {
+                positions = top.getPositionsInDescendingOrder();
+                epoch++;
+                epochStartMillis = nowMillis;
             }
-            return positions.get(i).getQueryDescription();
-        };
+            readEpochs[gaugeIndex] = epoch;
+            return positions;
+        }
     }
 
 }
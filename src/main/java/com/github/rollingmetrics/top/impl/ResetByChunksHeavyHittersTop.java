@@ -0,0 +1,192 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.top.impl;
+
+import com.github.rollingmetrics.histogram.util.Printer;
+import com.github.rollingmetrics.top.HeavyHitter;
+import com.github.rollingmetrics.top.HeavyHittersRanking;
+import com.github.rollingmetrics.top.HeavyHittersTop;
+import com.github.rollingmetrics.util.Clock;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Is not a part of public API, use {@link com.github.rollingmetrics.top.HeavyHittersTopBuilder} to construct instances.
+ *
+ * The timeline is divided to intervals, each interval is recorded into its own chunk, the chunks are reused in ring.
+ * The snapshot merges the current chunk and {@code numberHistoryChunks} previous chunks.
+ * All reset strategies of {@link com.github.rollingmetrics.top.TopBuilder} are expressed via this class:
+ * <ul>
+ *     <li>never reset - one chunk with infinite interval.</li>
+ *     <li>reset on snapshot - one chunk with infinite interval which is cleared by snapshot.</li>
+ *     <li>reset periodically - one chunk without history.</li>
+ *     <li>reset by chunks - {@code numberHistoryChunks} chunks of history.</li>
+ * </ul>
+ * Because the chunk is rotated by writer which first observes the new interval, there is no need in background thread.
+ *
+ * <p>
+ * Each chunk is split to several stripes, each stripe is a {@link SpaceSavingSummary} guarded by its own lock,
+ * the writer thread is mapped to stripe by its identifier, so writers from different threads rarely contend for the same lock.
+ * The stripes are rotated independently and merged at snapshot time together with chunks,
+ * the merging accounts the values of key which could be evicted from other summaries, see {@link SpaceSavingSummary}.
+ */
+public class ResetByChunksHeavyHittersTop implements HeavyHittersTop {
+
+    private final int size;
+    private final HeavyHittersRanking ranking;
+    private final long intervalBetweenResettingMillis;
+    private final int numberHistoryChunks;
+    private final boolean resetOnSnapshot;
+    private final Clock clock;
+    private final long creationTimestamp;
+    private final int stripeMask;
+    // stripes of the same interval are adjacent
+    private final Chunk[] chunks;
+
+    public ResetByChunksHeavyHittersTop(int size, int capacity, HeavyHittersRanking ranking, long intervalBetweenResettingMillis,
+                                        int numberHistoryChunks, boolean resetOnSnapshot, int stripeCount, Clock clock) {
+        this.size = size;
+        this.ranking = ranking;
+        this.intervalBetweenResettingMillis = intervalBetweenResettingMillis;
+        this.numberHistoryChunks = numberHistoryChunks;
+        this.resetOnSnapshot = resetOnSnapshot;
+        this.clock = clock;
+        this.creationTimestamp = clock.currentTimeMillis();
+        int powerOfTwoStripes = Integer.highestOneBit(stripeCount);
+        if (powerOfTwoStripes < stripeCount) {
+            powerOfTwoStripes <<= 1;
+        }
+        this.stripeMask = powerOfTwoStripes - 1;
+        this.chunks = new Chunk[(numberHistoryChunks + 1) * powerOfTwoStripes];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new Chunk(new SpaceSavingSummary(capacity, ranking));
+        }
+    }
+
+    @Override
+    public void update(String key, long latencyTime, TimeUnit latencyUnit) {
+        if (key == null) {
+            throw new IllegalArgumentException("key should not be null");
+        }
+        long latencyNanos = latencyUnit.toNanos(latencyTime);
+        long interval = currentInterval();
+        int stripeCount = stripeMask + 1;
+        int chunkIndex = (int) (interval % (numberHistoryChunks + 1));
+        Chunk chunk = chunks[chunkIndex * stripeCount + stripeIndex(Thread.currentThread().getId())];
+        synchronized (chunk) {
+            if (chunk.interval < interval) {
+                // the first writer in the new interval clears the data which was recorded chunks.length intervals ago
+                chunk.summary.reset();
+                chunk.interval = interval;
+            }
+            chunk.summary.update(key, latencyNanos);
+        }
+    }
+
+    @Override
+    public List<HeavyHitter> getHeavyHittersInDescendingOrder() {
+        long interval = currentInterval();
+        Map<String, SpaceSavingSummary.HeavyHitterBuilder> aggregation = new HashMap<>();
+        long[] minimumRankedValues = new long[chunks.length];
+        Arrays.fill(minimumRankedValues, -1);
+        for (int i = 0; i < chunks.length; i++) {
+            Chunk chunk = chunks[i];
+            synchronized (chunk) {
+                if (chunk.interval <= interval && chunk.interval >= interval - numberHistoryChunks) {
+                    minimumRankedValues[i] = chunk.summary.addInto(aggregation, i);
+                }
+                if (resetOnSnapshot) {
+                    chunk.summary.reset();
+                }
+            }
+        }
+        if (aggregation.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<HeavyHitter> heavyHitters = new ArrayList<>(aggregation.size());
+        for (SpaceSavingSummary.HeavyHitterBuilder builder : aggregation.values()) {
+            heavyHitters.add(builder.build(minimumRankedValues));
+        }
+        heavyHitters.sort((first, second) -> {
+            int comparison = Long.compare(ranking.getRankedValue(second), ranking.getRankedValue(first));
+            return comparison != 0 ? comparison : first.getKey().compareTo(second.getKey());
+        });
+        if (heavyHitters.size() > size) {
+            return new ArrayList<>(heavyHitters.subList(0, size));
+        }
+        return heavyHitters;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public HeavyHittersRanking getRanking() {
+        return ranking;
+    }
+
+    private long currentInterval() {
+        if (intervalBetweenResettingMillis == Long.MAX_VALUE) {
+            return 0;
+        }
+        return (clock.currentTimeMillis() - creationTimestamp) / intervalBetweenResettingMillis;
+    }
+
+    int stripeIndex(long threadId) {
+        // spread sequential thread identifiers
+        long hash = threadId * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & stripeMask;
+    }
+
+    private static final class Chunk {
+
+        private final SpaceSavingSummary summary;
+        private long interval;
+
+        Chunk(SpaceSavingSummary summary) {
+            this.summary = summary;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Chunk{" +
+                    "interval=" + interval +
+                    ", summary=" + summary +
+                    '}';
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResetByChunksHeavyHittersTop{" +
+                "size=" + size +
+                ", ranking=" + ranking +
+                ", intervalBetweenResettingMillis=" + intervalBetweenResettingMillis +
+                ", resetOnSnapshot=" + resetOnSnapshot +
+                ", stripes=" + (stripeMask + 1) +
+                ", clock=" + clock +
+                ",\n chunks=" + Printer.printArray(chunks, "chunk") +
+                '}';
+    }
+
+}
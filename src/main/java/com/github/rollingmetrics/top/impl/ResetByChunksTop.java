@@ -26,6 +26,7 @@ import com.github.rollingmetrics.top.impl.recorder.PositionRecorder;
 import com.github.rollingmetrics.top.impl.recorder.TwoPhasePositionRecorder;
 import com.github.rollingmetrics.util.Clock;
 import com.github.rollingmetrics.util.ResilientExecutionUtil;
+import com.github.rollingmetrics.util.Rotatable;
 import com.github.rollingmetrics.histogram.util.Printer;
 import com.github.rollingmetrics.top.Position;
 import com.github.rollingmetrics.top.Top;
@@ -38,10 +39,11 @@ import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 
-public class ResetByChunksTop implements Top {
+public class ResetByChunksTop implements Top, Rotatable {
 
     private final Executor backgroundExecutor;
     private final long intervalBetweenResettingMillis;
@@ -50,6 +52,8 @@ public class ResetByChunksTop implements Top {
     private final boolean historySupported;
     private final Clock clock;
     private final PositionCollector temporarySnapshotCollector;
+    private final PositionCollector[] snapshotSources;
+    private final boolean scheduledRotation;
 
     private final Phase left;
     private final Phase right;
@@ -57,12 +61,28 @@ public class ResetByChunksTop implements Top {
     private final AtomicReference<Phase> currentPhaseRef;
 
     public ResetByChunksTop(int size, long latencyThresholdNanos, int maxDescriptionLength, long intervalBetweenResettingMillis, int numberHistoryChunks, Clock clock, Executor backgroundExecutor) {
+        this(size, latencyThresholdNanos, maxDescriptionLength, intervalBetweenResettingMillis, numberHistoryChunks, clock, backgroundExecutor, false);
+    }
+
+    /**
+     * @param scheduledRotation if true then writers never check the time and never rotate chunks,
+     *                          instead the chunks are rotated by external scheduler via {@link #rotate()}
+     */
+    public ResetByChunksTop(int size, long latencyThresholdNanos, int maxDescriptionLength, long intervalBetweenResettingMillis, int numberHistoryChunks, Clock clock, Executor backgroundExecutor, boolean scheduledRotation) {
+        this(size, () -> PositionRecorder.createRecorder(size, latencyThresholdNanos, maxDescriptionLength), intervalBetweenResettingMillis, numberHistoryChunks, clock, backgroundExecutor, scheduledRotation);
+    }
+
+    /**
+     * @param positionRecorderSupplier the supplier of recorders into which positions are recorded by writers
+     */
+    public ResetByChunksTop(int size, Supplier<PositionRecorder> positionRecorderSupplier, long intervalBetweenResettingMillis, int numberHistoryChunks, Clock clock, Executor backgroundExecutor, boolean scheduledRotation) {
+        this.scheduledRotation = scheduledRotation;
         this.intervalBetweenResettingMillis = intervalBetweenResettingMillis;
         this.clock = clock;
         this.creationTimestamp = clock.currentTimeMillis();
         this.backgroundExecutor = backgroundExecutor;
 
-        Supplier<TwoPhasePositionRecorder> recorderSupplier = () -> new TwoPhasePositionRecorder(size, latencyThresholdNanos, maxDescriptionLength);
+        Supplier<TwoPhasePositionRecorder> recorderSupplier = () -> new TwoPhasePositionRecorder(positionRecorderSupplier.get());
         this.left = new Phase(recorderSupplier.get(), creationTimestamp + intervalBetweenResettingMillis);
         this.right = new Phase(recorderSupplier.get(), Long.MAX_VALUE);
         this.phases = new Phase[] {left, right};
@@ -79,19 +99,39 @@ public class ResetByChunksTop implements Top {
             archive = null;
         }
         this.temporarySnapshotCollector = collectorSupplier.get();
+        this.snapshotSources = new PositionCollector[phases.length + numberHistoryChunks];
     }
 
     @Override
     public void update(long timestamp, long latencyTime, TimeUnit latencyUnit, Supplier<String> descriptionSupplier) {
+        recordPosition(timestamp, latencyTime, latencyUnit, descriptionSupplier, null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> void update(long timestamp, long latencyTime, TimeUnit latencyUnit, T descriptionHandle, Function<? super T, String> descriptionFormatter) {
+        if (descriptionFormatter == null) {
+            throw new IllegalArgumentException("descriptionFormatter should not be null");
+        }
+        recordPosition(timestamp, latencyTime, latencyUnit, descriptionHandle, (Function<Object, String>) descriptionFormatter);
+    }
+
+    private void recordPosition(long timestamp, long latencyTime, TimeUnit latencyUnit, Object descriptionSource, Function<Object, String> descriptionFormatter) {
+        if (scheduledRotation) {
+            // chunks are rotated by scheduler, so there is no need to check the time
+            currentPhaseRef.get().recorder.update(timestamp, latencyTime, latencyUnit, descriptionSource, descriptionFormatter);
+            return;
+        }
+
         long currentTimeMillis = clock.currentTimeMillis();
         Phase currentPhase = currentPhaseRef.get();
         if (currentTimeMillis < currentPhase.proposedInvalidationTimestamp) {
-            currentPhase.recorder.update(timestamp, latencyTime, latencyUnit, descriptionSupplier);
+            currentPhase.recorder.update(timestamp, latencyTime, latencyUnit, descriptionSource, descriptionFormatter);
             return;
         }
 
         Phase nextPhase = currentPhase == left ? right : left;
-        nextPhase.recorder.update(timestamp, latencyTime, latencyUnit, descriptionSupplier);
+        nextPhase.recorder.update(timestamp, latencyTime, latencyUnit, descriptionSource, descriptionFormatter);
 
         if (!currentPhaseRef.compareAndSet(currentPhase, nextPhase)) {
             // another writer achieved progress and must submit rotation task to backgroundExecutor
@@ -105,25 +145,27 @@ public class ResetByChunksTop implements Top {
 
     @Override
     synchronized public List<Position> getPositionsInDescendingOrder() {
-        temporarySnapshotCollector.reset();
         long currentTimeMillis = clock.currentTimeMillis();
+        int sourceCount = 0;
 
         for (Phase phase : phases) {
             if (phase.isNeedToBeReportedToSnapshot(currentTimeMillis)) {
                 phase.intervalRecorder = phase.recorder.getIntervalRecorder(phase.intervalRecorder);
                 phase.intervalRecorder.addInto(phase.totalsCollector);
-                phase.totalsCollector.addInto(temporarySnapshotCollector);
+                snapshotSources[sourceCount++] = phase.totalsCollector;
             }
         }
 
         if (historySupported) {
             for (ArchivedTop archivedTop : archive) {
                 if (archivedTop.proposedInvalidationTimestamp > currentTimeMillis) {
-                    archivedTop.collector.addInto(temporarySnapshotCollector);
+                    snapshotSources[sourceCount++] = archivedTop.collector;
                 }
             }
         }
 
+        // all collectors are already sorted, so snapshot is built by k-way merge instead of re-adding positions one by one
+        temporarySnapshotCollector.mergeFrom(snapshotSources, sourceCount);
         return temporarySnapshotCollector.getPositionsInDescendingOrder();
     }
 
@@ -132,6 +174,24 @@ public class ResetByChunksTop implements Top {
         return left.intervalRecorder.getSize();
     }
 
+    @Override
+    public long rotate() {
+        long currentTimeMillis = clock.currentTimeMillis();
+        Phase currentPhase = currentPhaseRef.get();
+        if (currentTimeMillis >= currentPhase.proposedInvalidationTimestamp) {
+            Phase nextPhase = currentPhase == left ? right : left;
+            if (currentPhaseRef.compareAndSet(currentPhase, nextPhase)) {
+                rotate(currentTimeMillis, currentPhase, nextPhase);
+            }
+        }
+        long nextRotationTimestamp = currentPhaseRef.get().proposedInvalidationTimestamp;
+        if (nextRotationTimestamp == Long.MAX_VALUE) {
+            // rotation is in progress in another thread
+            return intervalBetweenResettingMillis;
+        }
+        return nextRotationTimestamp - currentTimeMillis;
+    }
+
     private synchronized void rotate(long currentTimeMillis, Phase currentPhase, Phase nextPhase) {
         try {
             currentPhase.intervalRecorder = currentPhase.recorder.getIntervalRecorder(currentPhase.intervalRecorder);
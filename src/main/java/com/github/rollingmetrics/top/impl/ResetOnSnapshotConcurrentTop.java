@@ -25,6 +25,7 @@ import com.github.rollingmetrics.top.impl.recorder.TwoPhasePositionRecorder;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class ResetOnSnapshotConcurrentTop implements Top {
@@ -33,7 +34,11 @@ public class ResetOnSnapshotConcurrentTop implements Top {
     private PositionRecorder intervalRecorder;
 
     public ResetOnSnapshotConcurrentTop(int size, long latencyThresholdNanos, int maxDescriptionLength) {
-        this.recorder = new TwoPhasePositionRecorder(size, latencyThresholdNanos, maxDescriptionLength);
+        this(() -> PositionRecorder.createRecorder(size, latencyThresholdNanos, maxDescriptionLength));
+    }
+
+    public ResetOnSnapshotConcurrentTop(Supplier<PositionRecorder> recorderSupplier) {
+        this.recorder = new TwoPhasePositionRecorder(recorderSupplier.get());
         this.intervalRecorder = recorder.getIntervalRecorder();
     }
 
@@ -42,6 +47,15 @@ public class ResetOnSnapshotConcurrentTop implements Top {
         recorder.update(timestamp, latencyTime, latencyUnit, descriptionSupplier);
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> void update(long timestamp, long latencyTime, TimeUnit latencyUnit, T descriptionHandle, Function<? super T, String> descriptionFormatter) {
+        if (descriptionFormatter == null) {
+            throw new IllegalArgumentException("descriptionFormatter should not be null");
+        }
+        recorder.update(timestamp, latencyTime, latencyUnit, descriptionHandle, (Function<Object, String>) descriptionFormatter);
+    }
+
     @Override
     synchronized public List<Position> getPositionsInDescendingOrder() {
         intervalRecorder = recorder.getIntervalRecorder(intervalRecorder);
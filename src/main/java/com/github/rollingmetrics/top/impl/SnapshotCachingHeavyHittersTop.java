@@ -0,0 +1,67 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.top.impl;
+
+
+import com.github.rollingmetrics.top.HeavyHitter;
+import com.github.rollingmetrics.top.HeavyHittersRanking;
+import com.github.rollingmetrics.top.HeavyHittersTop;
+import com.github.rollingmetrics.util.CachingSupplier;
+import com.github.rollingmetrics.util.Clock;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class SnapshotCachingHeavyHittersTop implements HeavyHittersTop {
+
+    private final HeavyHittersTop target;
+    private final CachingSupplier<List<HeavyHitter>> cache;
+
+    public SnapshotCachingHeavyHittersTop(HeavyHittersTop target, long cachingDurationMillis, Clock clock) {
+        this.target = target;
+        this.cache = new CachingSupplier<>(cachingDurationMillis, clock, target::getHeavyHittersInDescendingOrder);
+    }
+
+    @Override
+    public void update(String key, long latencyTime, TimeUnit latencyUnit) {
+        target.update(key, latencyTime, latencyUnit);
+    }
+
+    @Override
+    public List<HeavyHitter> getHeavyHittersInDescendingOrder() {
+        return cache.get();
+    }
+
+    @Override
+    public int getSize() {
+        return target.getSize();
+    }
+
+    @Override
+    public HeavyHittersRanking getRanking() {
+        return target.getRanking();
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotCachingHeavyHittersTop{" +
+                "target=" + target +
+                ", cache=" + cache +
+                '}';
+    }
+}
@@ -26,6 +26,7 @@ import com.github.rollingmetrics.top.Top;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class SnapshotCachingTop implements Top {
@@ -43,6 +44,11 @@ public class SnapshotCachingTop implements Top {
         target.update(timestamp, latencyTime, latencyUnit, descriptionSupplier);
     }
 
+    @Override
+    public <T> void update(long timestamp, long latencyTime, TimeUnit latencyUnit, T descriptionHandle, Function<? super T, String> descriptionFormatter) {
+        target.update(timestamp, latencyTime, latencyUnit, descriptionHandle, descriptionFormatter);
+    }
+
     @Override
     public List<Position> getPositionsInDescendingOrder() {
         return cache.get();
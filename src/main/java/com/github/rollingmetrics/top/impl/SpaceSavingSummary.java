@@ -0,0 +1,267 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.top.impl;
+
+import com.github.rollingmetrics.top.HeavyHitter;
+import com.github.rollingmetrics.top.HeavyHittersRanking;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Is not a part of public API, this class just used as building block for {@link ResetByChunksHeavyHittersTop}.
+ *
+ * Bounded summary of keys according to Space-Saving algorithm: counters are kept in min-heap by ranked value,
+ * when capacity is exhausted then the key with minimal ranked value is replaced by new key which inherits its counters,
+ * the inherited ranked value is remembered as error of new key.
+ * For {@link HeavyHittersRanking#MAX_LATENCY} nothing is inherited, because maximum is not additive,
+ * the new key just displaces the key with minimal maximum if latency of new key is greater.
+ *
+ * Several summaries are merged according to mergeable Space-Saving: the key which is absent in full summary could be counted there
+ * not more than minimal ranked value of this summary, so this minimum is added to ranked value and to error of the key,
+ * in such way the merged value is never underestimated and error remains the upper bound of overestimation.
+ *
+ * This implementation does not support concurrent access at all, synchronization aspects should be managed outside.
+ */
+class SpaceSavingSummary {
+
+    private final int capacity;
+    private final HeavyHittersRanking ranking;
+    private final Map<String, Counter> counters;
+    private final Counter[] heap;
+    private int count;
+
+    SpaceSavingSummary(int capacity, HeavyHittersRanking ranking) {
+        this.capacity = capacity;
+        this.ranking = ranking;
+        this.counters = new HashMap<>(capacity * 2);
+        this.heap = new Counter[capacity];
+    }
+
+    void update(String key, long latencyNanos) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.add(latencyNanos);
+            siftDown(counter.heapIndex);
+            return;
+        }
+
+        if (count < capacity) {
+            counter = new Counter(key, count);
+            counter.add(latencyNanos);
+            heap[count] = counter;
+            counters.put(key, counter);
+            siftUp(count++);
+            return;
+        }
+
+        Counter minimum = heap[0];
+        if (ranking == HeavyHittersRanking.MAX_LATENCY && latencyNanos <= minimum.maxLatencyNanos) {
+            return;
+        }
+        counters.remove(minimum.key);
+        if (ranking == HeavyHittersRanking.MAX_LATENCY) {
+            minimum.clear();
+        } else {
+            minimum.error = minimum.getRankedValue();
+        }
+        minimum.key = key;
+        minimum.add(latencyNanos);
+        counters.put(key, minimum);
+        siftDown(0);
+    }
+
+    /**
+     * Adds counters of this summary into aggregation.
+     *
+     * @param aggregation the builders of merged heavy hitters
+     * @param summaryIndex the index of this summary among merged summaries
+     * @return the minimal ranked value if summary is full, or {@code -1} if keys were never evicted from this summary
+     */
+    long addInto(Map<String, HeavyHitterBuilder> aggregation, int summaryIndex) {
+        for (int i = 0; i < count; i++) {
+            Counter counter = heap[i];
+            HeavyHitterBuilder builder = aggregation.get(counter.key);
+            if (builder == null) {
+                builder = new HeavyHitterBuilder(counter.key, ranking);
+                aggregation.put(counter.key, builder);
+            }
+            builder.merge(counter.count, counter.totalLatencyNanos, counter.maxLatencyNanos, counter.error, summaryIndex);
+        }
+        return count < capacity ? -1 : heap[0].getRankedValue();
+    }
+
+    void reset() {
+        for (int i = 0; i < count; i++) {
+            heap[i] = null;
+        }
+        counters.clear();
+        count = 0;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    private void siftUp(int index) {
+        Counter counter = heap[index];
+        long value = counter.getRankedValue();
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            Counter parent = heap[parentIndex];
+            if (parent.getRankedValue() <= value) {
+                break;
+            }
+            place(parent, index);
+            index = parentIndex;
+        }
+        place(counter, index);
+    }
+
+    private void siftDown(int index) {
+        Counter counter = heap[index];
+        long value = counter.getRankedValue();
+        int half = count >>> 1;
+        while (index < half) {
+            int childIndex = 2 * index + 1;
+            Counter child = heap[childIndex];
+            int rightIndex = childIndex + 1;
+            if (rightIndex < count && heap[rightIndex].getRankedValue() < child.getRankedValue()) {
+                childIndex = rightIndex;
+                child = heap[rightIndex];
+            }
+            if (value <= child.getRankedValue()) {
+                break;
+            }
+            place(child, index);
+            index = childIndex;
+        }
+        place(counter, index);
+    }
+
+    private void place(Counter counter, int index) {
+        heap[index] = counter;
+        counter.heapIndex = index;
+    }
+
+    private final class Counter {
+
+        String key;
+        int heapIndex;
+        long count;
+        long totalLatencyNanos;
+        long maxLatencyNanos;
+        long error;
+
+        Counter(String key, int heapIndex) {
+            this.key = key;
+            this.heapIndex = heapIndex;
+        }
+
+        void add(long latencyNanos) {
+            count++;
+            totalLatencyNanos += latencyNanos;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+        }
+
+        void clear() {
+            count = 0;
+            totalLatencyNanos = 0;
+            maxLatencyNanos = 0;
+            error = 0;
+        }
+
+        long getRankedValue() {
+            return ranking.getRankedValue(count, totalLatencyNanos, maxLatencyNanos);
+        }
+
+    }
+
+    static final class HeavyHitterBuilder {
+
+        private final String key;
+        private final HeavyHittersRanking ranking;
+        private final BitSet mergedSummaries = new BitSet();
+        private long count;
+        private long totalLatencyNanos;
+        private long maxLatencyNanos;
+        private long error;
+
+        HeavyHitterBuilder(String key, HeavyHittersRanking ranking) {
+            this.key = key;
+            this.ranking = ranking;
+        }
+
+        void merge(long count, long totalLatencyNanos, long maxLatencyNanos, long error, int summaryIndex) {
+            this.count += count;
+            this.totalLatencyNanos += totalLatencyNanos;
+            this.maxLatencyNanos = Math.max(this.maxLatencyNanos, maxLatencyNanos);
+            this.error += error;
+            mergedSummaries.set(summaryIndex);
+        }
+
+        /**
+         * @param minimumRankedValues the minimal ranked value of each merged summary, or {@code -1} for summaries which are not full
+         * @return the heavy hitter which accounts the values which could be evicted from full summaries where key is absent
+         */
+        HeavyHitter build(long[] minimumRankedValues) {
+            for (int i = 0; i < minimumRankedValues.length; i++) {
+                long minimum = minimumRankedValues[i];
+                if (minimum > 0 && !mergedSummaries.get(i)) {
+                    addEvictedValue(minimum);
+                }
+            }
+            return new HeavyHitter(key, count, totalLatencyNanos, maxLatencyNanos, error);
+        }
+
+        private void addEvictedValue(long minimum) {
+            switch (ranking) {
+                case COUNT:
+                    count += minimum;
+                    error += minimum;
+                    break;
+                case TOTAL_LATENCY:
+                    totalLatencyNanos += minimum;
+                    error += minimum;
+                    break;
+                case MAX_LATENCY:
+                    // maximum is not additive, the evicted latency can not be greater than minimum
+                    if (minimum > maxLatencyNanos) {
+                        maxLatencyNanos = minimum;
+                        error = Math.max(error, minimum);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown ranking " + ranking);
+            }
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return "SpaceSavingSummary{" +
+                "capacity=" + capacity +
+                ", ranking=" + ranking +
+                ", count=" + count +
+                '}';
+    }
+
+}
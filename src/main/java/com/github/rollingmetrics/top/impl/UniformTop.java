@@ -27,6 +27,7 @@ import com.github.rollingmetrics.top.impl.recorder.TwoPhasePositionRecorder;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 
@@ -37,7 +38,11 @@ public class UniformTop implements Top {
     private PositionRecorder intervalRecorder;
 
     public UniformTop(int size, long latencyThresholdNanos, int maxDescriptionLength) {
-        this.phasedRecorder = new TwoPhasePositionRecorder(size, latencyThresholdNanos, maxDescriptionLength);
+        this(size, () -> PositionRecorder.createRecorder(size, latencyThresholdNanos, maxDescriptionLength));
+    }
+
+    public UniformTop(int size, Supplier<PositionRecorder> recorderSupplier) {
+        this.phasedRecorder = new TwoPhasePositionRecorder(recorderSupplier.get());
         intervalRecorder = phasedRecorder.getIntervalRecorder();
         this.uniformCollector = PositionCollector.createCollector(size);
     }
@@ -47,6 +52,15 @@ public class UniformTop implements Top {
         phasedRecorder.update(timestamp, latencyTime, latencyUnit, descriptionSupplier);
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> void update(long timestamp, long latencyTime, TimeUnit latencyUnit, T descriptionHandle, Function<? super T, String> descriptionFormatter) {
+        if (descriptionFormatter == null) {
+            throw new IllegalArgumentException("descriptionFormatter should not be null");
+        }
+        phasedRecorder.update(timestamp, latencyTime, latencyUnit, descriptionHandle, (Function<Object, String>) descriptionFormatter);
+    }
+
     @Override
     synchronized public List<Position> getPositionsInDescendingOrder() {
         intervalRecorder = phasedRecorder.getIntervalRecorder(intervalRecorder);
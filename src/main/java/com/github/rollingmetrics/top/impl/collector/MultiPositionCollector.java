@@ -23,65 +23,196 @@ import java.util.*;
 /**
  * Is not a part of public API, this class just used as building block for high-level Top implementations.
  *
+ * This implementation keeps positions in pre-sized array sorted in descending order,
+ * so adding of positions which arrive in descending order (that is usual for {@link #addInto(PositionCollector)}) is just appending,
+ * and merging of already sorted collectors via {@link #mergeFrom(PositionCollector[], int)} does not allocate at all.
+ * The sorted batches passed via {@link #addAll(Position[], int)} are merged in linear time through the second array of the same size,
+ * that keeps the cost of adding recorder content into collector acceptable even for tops with tens of thousands of positions.
+ *
  * This implementation does not support concurrent access at all, synchronization aspects should be managed outside.
  */
 class MultiPositionCollector implements PositionCollector {
 
-    private final TreeSet<Position> positions = new TreeSet<>();
+    private Position[] positions;
+    private Position[] mergeBuffer;
     private final int maxSize;
+    private int count;
+    private int[] cursors = new int[0];
 
     MultiPositionCollector(int maxSize) {
         this.maxSize = maxSize;
+        this.positions = new Position[maxSize];
     }
 
     @Override
     public boolean add(Position position) {
-        if (positions.size() < maxSize) {
-            positions.add(position);
-            return true;
+        boolean full = count == maxSize;
+        if (full && !PositionCollector.isNeedToAdd(position, positions[count - 1])) {
+            return false;
         }
 
-        Position min = positions.first();
-        if (PositionCollector.isNeedToAdd(position, min)) {
-            if (positions.add(position)) {
-                positions.remove(min);
-                return true;
-            } else {
-                return false;
-            }
+        int insertionIndex = findInsertionIndex(position);
+        if (insertionIndex < 0) {
+            // the same position already collected
+            return !full;
+        }
+        if (full) {
+            System.arraycopy(positions, insertionIndex, positions, insertionIndex + 1, count - insertionIndex - 1);
         } else {
-            return false;
+            System.arraycopy(positions, insertionIndex, positions, insertionIndex + 1, count - insertionIndex);
+            count++;
         }
+        positions[insertionIndex] = position;
+        return true;
     }
 
     @Override
     public void addInto(PositionCollector other) {
-        for (Position position: positions.descendingSet()) {
-            if (!other.add(position)) {
+        for (int i = 0; i < count; i++) {
+            if (!other.add(positions[i])) {
                 return;
             }
         }
     }
 
+    @Override
+    public void addAll(Position[] positionsInDescendingOrder, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (this.count == 0 || positionsInDescendingOrder[0].compareTo(positions[this.count - 1]) < 0) {
+            // fast path, all new positions are lesser than collected
+            for (int i = 0; i < count && this.count < maxSize; i++) {
+                positions[this.count++] = positionsInDescendingOrder[i];
+            }
+            return;
+        }
+
+        if (mergeBuffer == null) {
+            mergeBuffer = new Position[maxSize];
+        }
+        int mergedCount = 0;
+        int left = 0;
+        int right = 0;
+        while (mergedCount < maxSize && (left < this.count || right < count)) {
+            Position next;
+            if (right == count) {
+                next = positions[left++];
+            } else if (left == this.count) {
+                next = positionsInDescendingOrder[right++];
+            } else {
+                int comparison = positions[left].compareTo(positionsInDescendingOrder[right]);
+                if (comparison > 0) {
+                    next = positions[left++];
+                } else if (comparison < 0) {
+                    next = positionsInDescendingOrder[right++];
+                } else {
+                    // the same position already collected
+                    next = positions[left++];
+                    right++;
+                }
+            }
+            mergeBuffer[mergedCount++] = next;
+        }
+
+        Position[] previous = positions;
+        Arrays.fill(previous, 0, this.count, null);
+        positions = mergeBuffer;
+        mergeBuffer = previous;
+        this.count = mergedCount;
+    }
+
+    @Override
+    public void mergeFrom(PositionCollector[] sources, int sourceCount) {
+        reset();
+        if (cursors.length < sourceCount) {
+            cursors = new int[sourceCount];
+        } else {
+            Arrays.fill(cursors, 0, sourceCount, 0);
+        }
+
+        // bounded k-way merge, each step takes the greatest head among sources,
+        // so the total work is proportional to maxSize * sourceCount regardless of the size of sources
+        while (count < maxSize) {
+            Position max = null;
+            int maxSource = -1;
+            for (int i = 0; i < sourceCount; i++) {
+                PositionCollector source = sources[i];
+                if (cursors[i] < source.size()) {
+                    Position head = source.get(cursors[i]);
+                    if (max == null || head.compareTo(max) > 0) {
+                        max = head;
+                        maxSource = i;
+                    }
+                }
+            }
+            if (max == null) {
+                return;
+            }
+            cursors[maxSource]++;
+            // the same position can be present in several sources, equal positions are adjacent after merge
+            if (count == 0 || !positions[count - 1].equals(max)) {
+                positions[count++] = max;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public Position get(int index) {
+        if (index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        return positions[index];
+    }
+
     @Override
     public void reset() {
-        positions.clear();
+        Arrays.fill(positions, 0, count, null);
+        count = 0;
     }
 
     @Override
     public List<Position> getPositionsInDescendingOrder() {
-        if (positions.isEmpty()) {
+        if (count == 0) {
             return Collections.emptyList();
         }
-        ArrayList<Position> result = new ArrayList<>(positions.size());
-        result.addAll(positions.descendingSet());
+        ArrayList<Position> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(positions[i]);
+        }
         return result;
     }
 
+    private int findInsertionIndex(Position position) {
+        if (count == 0 || position.compareTo(positions[count - 1]) < 0) {
+            // fast path for positions which arrive in descending order
+            return count;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = positions[middle].compareTo(position);
+            if (comparison > 0) {
+                low = middle + 1;
+            } else if (comparison < 0) {
+                high = middle - 1;
+            } else {
+                return -1;
+            }
+        }
+        return low;
+    }
+
     @Override
     public String toString() {
         return "MultiPositionCollector{" +
-                "positions=" + positions +
+                "positions=" + getPositionsInDescendingOrder() +
                 ", maxSize=" + maxSize +
                 '}';
     }
@@ -30,6 +30,35 @@ public interface PositionCollector {
 
     void addInto(PositionCollector other);
 
+    /**
+     * Adds positions which are already sorted in descending order and do not contain duplicates,
+     * so collector is able to merge them with its own content in linear time.
+     *
+     * @param positionsInDescendingOrder the sorted positions
+     * @param count the number of first elements of {@code positionsInDescendingOrder} array to take into account
+     */
+    void addAll(Position[] positionsInDescendingOrder, int count);
+
+    /**
+     * Replaces content of this collector by the greatest positions of {@code sources}.
+     * Because each collector is always sorted, the sources are merged without any sorting and allocation.
+     *
+     * @param sources the collectors to merge
+     * @param sourceCount the number of first elements of {@code sources} array to take into account
+     */
+    void mergeFrom(PositionCollector[] sources, int sourceCount);
+
+    /**
+     * @return number of collected positions
+     */
+    int size();
+
+    /**
+     * @param index the index of position in descending order, should be less than {@link #size()}
+     * @return collected position
+     */
+    Position get(int index);
+
     void reset();
 
     List<Position> getPositionsInDescendingOrder();
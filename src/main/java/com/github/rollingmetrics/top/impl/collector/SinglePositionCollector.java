@@ -63,6 +63,37 @@ class SinglePositionCollector implements PositionCollector {
         }
     }
 
+    @Override
+    public void addAll(Position[] positionsInDescendingOrder, int count) {
+        if (count > 0) {
+            add(positionsInDescendingOrder[0]);
+        }
+    }
+
+    @Override
+    public void mergeFrom(PositionCollector[] sources, int sourceCount) {
+        max = null;
+        for (int i = 0; i < sourceCount; i++) {
+            PositionCollector source = sources[i];
+            if (source.size() > 0) {
+                add(source.get(0));
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return max == null ? 0 : 1;
+    }
+
+    @Override
+    public Position get(int index) {
+        if (index != 0 || max == null) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return max;
+    }
+
     @Override
     public String toString() {
         return "SinglePositionCollector{" +
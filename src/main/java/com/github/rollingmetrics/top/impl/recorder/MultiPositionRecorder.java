@@ -28,7 +28,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.function.Supplier;
+import java.util.function.Function;
 
 /**
  * Is not a part of public API, this class just used as building block for other QueryTop implementations.
@@ -55,7 +55,7 @@ class MultiPositionRecorder extends PositionRecorder {
     }
 
     @Override
-    protected void updateConcurrently(long timestamp, long latencyTime, TimeUnit latencyUnit, Supplier<String> descriptionSupplier, long latencyNanos) {
+    protected void updateConcurrently(long timestamp, long latencyTime, TimeUnit latencyUnit, Object descriptionSource, Function<Object, String> descriptionFormatter, long latencyNanos) {
         Map.Entry<PositionKey, Position> firstEntry = positions.firstEntry();
         PositionKey firstKey = firstEntry.getKey();
         Position firstPosition = firstEntry.getValue();
@@ -63,7 +63,7 @@ class MultiPositionRecorder extends PositionRecorder {
         if (!isNeedToAdd(timestamp, latencyNanos, firstPosition, firstKey, currentPhase)) {
             return;
         }
-        Position position = new Position(timestamp, latencyTime, latencyUnit, descriptionSupplier, maxDescriptionLength);
+        Position position = createPosition(timestamp, latencyTime, latencyUnit, descriptionSource, descriptionFormatter);
         if (positions.putIfAbsent(new PositionKey(currentPhase, position), position) == null) {
             positions.pollFirstEntry();
         }
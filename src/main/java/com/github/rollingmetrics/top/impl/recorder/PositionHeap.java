@@ -0,0 +1,338 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.top.impl.recorder;
+
+import com.github.rollingmetrics.top.Position;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Is not a part of public API, this class just used as building block for {@link StripedHeapPositionRecorder} and {@link ThreadLocalPositionRecorder}.
+ *
+ * Fixed-size array min-heap of reusable slots guarded by monitor of heap.
+ * The slots are mutable and reused, so steady-state update allocates nothing:
+ * the description returned by supplier is stored by reference, and truncated description is copied into reusable char buffer of slot,
+ * the deferred descriptions are stored as pair of handle and formatter, so nothing is formatted until reader requests the description.
+ * The {@link Position} objects are materialized only by readers, and cached by slot until slot is overwritten.
+ * Duplicates are rejected via open-addressing lookup table of slots, so the duplicated position never evicts distinct one.
+ */
+final class PositionHeap {
+
+    private final Slot[] heap;
+    private final Slot[] lookup;
+    private final int lookupMask;
+    private int count;
+
+    // Long.MIN_VALUE until heap is filled, then latency of heap root
+    private volatile long minimumLatencyNanos = Long.MIN_VALUE;
+
+    PositionHeap(int size) {
+        this.heap = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            heap[i] = new Slot();
+        }
+        // load factor of lookup table never exceeds 0.5
+        int lookupCapacity = Integer.highestOneBit(size) << 2;
+        this.lookup = new Slot[lookupCapacity];
+        this.lookupMask = lookupCapacity - 1;
+    }
+
+    /**
+     * @param descriptionSource the {@link Supplier} of description when {@code descriptionFormatter} is null, otherwise the handle of deferred description
+     * @param descriptionFormatter the formatter of deferred description, or null if description should be taken from supplier eagerly
+     */
+    @SuppressWarnings("unchecked")
+    void update(long timestamp, long latencyTime, TimeUnit latencyUnit, long latencyNanos, Object descriptionSource,
+                Function<Object, String> descriptionFormatter, int maxDescriptionLength) {
+        if (latencyNanos < minimumLatencyNanos) {
+            return;
+        }
+        String description = null;
+        if (descriptionFormatter == null) {
+            // description is requested before acquiring the lock in order to not execute the foreign code inside critical section
+            description = ((Supplier<String>) descriptionSource).get();
+            if (description == null) {
+                throw new IllegalArgumentException("Query queryDescription should not be null");
+            }
+        }
+        update(timestamp, latencyTime, latencyUnit, latencyNanos, description, descriptionSource, descriptionFormatter, maxDescriptionLength);
+    }
+
+    private synchronized void update(long timestamp, long latencyTime, TimeUnit latencyUnit, long latencyNanos, String description,
+                             Object descriptionHandle, Function<Object, String> descriptionFormatter, int maxDescriptionLength) {
+        if (count == heap.length) {
+            Slot root = heap[0];
+            if (latencyNanos < root.latencyNanos || (latencyNanos == root.latencyNanos && timestamp <= root.timestamp)) {
+                return;
+            }
+        }
+        int hash = Slot.hash(timestamp, latencyNanos, description, descriptionHandle, descriptionFormatter, maxDescriptionLength);
+        if (containsInLookup(hash, timestamp, latencyNanos, description, descriptionHandle, descriptionFormatter, maxDescriptionLength)) {
+            return;
+        }
+        if (count < heap.length) {
+            Slot slot = heap[count];
+            slot.set(timestamp, latencyTime, latencyUnit, latencyNanos, description, descriptionHandle, descriptionFormatter, maxDescriptionLength, hash);
+            addToLookup(slot);
+            siftUp(count);
+            count++;
+        } else {
+            Slot root = heap[0];
+            removeFromLookup(root);
+            root.set(timestamp, latencyTime, latencyUnit, latencyNanos, description, descriptionHandle, descriptionFormatter, maxDescriptionLength, hash);
+            addToLookup(root);
+            siftDown(0);
+        }
+        minimumLatencyNanos = count < heap.length ? Long.MIN_VALUE : heap[0].latencyNanos;
+    }
+
+    synchronized void reset() {
+        for (int i = 0; i < count; i++) {
+            heap[i].clear();
+        }
+        Arrays.fill(lookup, null);
+        count = 0;
+        minimumLatencyNanos = Long.MIN_VALUE;
+    }
+
+    /**
+     * Copies positions in heap order, that is without any sorting.
+     *
+     * @return the number of copied positions
+     */
+    synchronized int copyTo(Position[] target, int offset) {
+        for (int i = 0; i < count; i++) {
+            target[offset + i] = heap[i].toPosition();
+        }
+        return count;
+    }
+
+    int getCapacity() {
+        return heap.length;
+    }
+
+    /**
+     * @return Long.MIN_VALUE until heap is filled, then latency of heap root
+     */
+    long getMinimumLatencyNanos() {
+        return minimumLatencyNanos;
+    }
+
+    private boolean containsInLookup(int hash, long timestamp, long latencyNanos, String description,
+                                     Object descriptionHandle, Function<Object, String> descriptionFormatter, int maxDescriptionLength) {
+        for (int i = hash & lookupMask; lookup[i] != null; i = (i + 1) & lookupMask) {
+            Slot slot = lookup[i];
+            if (slot.hash == hash && slot.isSame(timestamp, latencyNanos, description, descriptionHandle, descriptionFormatter, maxDescriptionLength)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addToLookup(Slot slot) {
+        int i = slot.hash & lookupMask;
+        while (lookup[i] != null) {
+            i = (i + 1) & lookupMask;
+        }
+        lookup[i] = slot;
+    }
+
+    private void removeFromLookup(Slot slot) {
+        int i = slot.hash & lookupMask;
+        while (lookup[i] != slot) {
+            i = (i + 1) & lookupMask;
+        }
+        // backward shift deletion keeps probe sequences unbroken without tombstones
+        int j = i;
+        while (true) {
+            j = (j + 1) & lookupMask;
+            Slot candidate = lookup[j];
+            if (candidate == null) {
+                break;
+            }
+            int home = candidate.hash & lookupMask;
+            boolean homeIsBetween = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!homeIsBetween) {
+                lookup[i] = candidate;
+                i = j;
+            }
+        }
+        lookup[i] = null;
+    }
+
+    private void siftUp(int index) {
+        Slot slot = heap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            Slot parent = heap[parentIndex];
+            if (!slot.isLesserThan(parent)) {
+                break;
+            }
+            heap[index] = parent;
+            index = parentIndex;
+        }
+        heap[index] = slot;
+    }
+
+    private void siftDown(int index) {
+        Slot slot = heap[index];
+        int half = count >>> 1;
+        while (index < half) {
+            int childIndex = 2 * index + 1;
+            Slot child = heap[childIndex];
+            int rightIndex = childIndex + 1;
+            if (rightIndex < count && heap[rightIndex].isLesserThan(child)) {
+                childIndex = rightIndex;
+                child = heap[childIndex];
+            }
+            if (!child.isLesserThan(slot)) {
+                break;
+            }
+            heap[index] = child;
+            index = childIndex;
+        }
+        heap[index] = slot;
+    }
+
+    private static final class Slot {
+
+        long timestamp;
+        long latencyTime;
+        TimeUnit latencyUnit;
+        long latencyNanos;
+        String description;
+
+        // not null for deferred description, which is formatted only when position is read
+        Object descriptionHandle;
+        Function<Object, String> descriptionFormatter;
+        int maxDescriptionLength;
+
+        // reused buffer for descriptions which exceed maxDescriptionLength
+        char[] truncatedDescription;
+        int truncatedLength;
+
+        // position materialized by reader, it is valid until slot is overwritten
+        Position position;
+
+        int hash;
+
+        void set(long timestamp, long latencyTime, TimeUnit latencyUnit, long latencyNanos, String description,
+                 Object descriptionHandle, Function<Object, String> descriptionFormatter, int maxDescriptionLength, int hash) {
+            this.hash = hash;
+            this.timestamp = timestamp;
+            this.latencyTime = latencyTime;
+            this.latencyUnit = latencyUnit;
+            this.latencyNanos = latencyNanos;
+            this.position = null;
+            this.maxDescriptionLength = maxDescriptionLength;
+            this.descriptionHandle = descriptionHandle;
+            this.descriptionFormatter = descriptionFormatter;
+            if (descriptionFormatter != null) {
+                this.description = null;
+                this.truncatedLength = 0;
+            } else if (description.length() <= maxDescriptionLength) {
+                this.description = description;
+                this.truncatedLength = 0;
+            } else {
+                if (truncatedDescription == null) {
+                    truncatedDescription = new char[maxDescriptionLength];
+                }
+                description.getChars(0, maxDescriptionLength, truncatedDescription, 0);
+                this.description = null;
+                this.truncatedLength = maxDescriptionLength;
+            }
+        }
+
+        void clear() {
+            description = null;
+            descriptionHandle = null;
+            descriptionFormatter = null;
+            latencyUnit = null;
+            position = null;
+        }
+
+        boolean isSame(long timestamp, long latencyNanos, String description, Object descriptionHandle, Function<Object, String> descriptionFormatter, int maxDescriptionLength) {
+            if (this.timestamp != timestamp || this.latencyNanos != latencyNanos) {
+                return false;
+            }
+            if (this.descriptionFormatter != null || descriptionFormatter != null) {
+                // deferred descriptions are compared by identity in order to not format them
+                return this.descriptionFormatter == descriptionFormatter && this.descriptionHandle == descriptionHandle;
+            }
+            if (this.description != null) {
+                return this.description.equals(description);
+            }
+            if (description.length() <= maxDescriptionLength) {
+                return false;
+            }
+            for (int i = 0; i < truncatedLength; i++) {
+                if (truncatedDescription[i] != description.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        static int hash(long timestamp, long latencyNanos, String description, Object descriptionHandle, Function<Object, String> descriptionFormatter, int maxDescriptionLength) {
+            int descriptionHash;
+            if (descriptionFormatter != null) {
+                descriptionHash = System.identityHashCode(descriptionHandle);
+            } else if (description.length() <= maxDescriptionLength) {
+                descriptionHash = description.hashCode();
+            } else {
+                descriptionHash = 0;
+                for (int i = 0; i < maxDescriptionLength; i++) {
+                    descriptionHash = 31 * descriptionHash + description.charAt(i);
+                }
+            }
+            int hash = 31 * (31 * Long.hashCode(timestamp) + Long.hashCode(latencyNanos)) + descriptionHash;
+            return hash ^ (hash >>> 16);
+        }
+
+        boolean isLesserThan(Slot other) {
+            if (latencyNanos != other.latencyNanos) {
+                return latencyNanos < other.latencyNanos;
+            }
+            return timestamp < other.timestamp;
+        }
+
+        Position toPosition() {
+            if (position == null && descriptionFormatter != null) {
+                position = new Position(timestamp, latencyTime, latencyUnit, descriptionHandle, descriptionFormatter, maxDescriptionLength);
+            } else if (position == null) {
+                String materializedDescription = description != null ? description : new String(truncatedDescription, 0, truncatedLength);
+                position = new Position(timestamp, latencyTime, latencyUnit, materializedDescription);
+            }
+            return position;
+        }
+
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PositionHeap{" +
+                "count=" + count +
+                ", minimumLatencyNanos=" + minimumLatencyNanos +
+                '}';
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.top.impl.recorder;
+
+import com.github.rollingmetrics.top.Position;
+import com.github.rollingmetrics.top.impl.collector.PositionCollector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Is not a part of public API, this class just used as building block for recorders which keep positions in several {@link PositionHeap}s.
+ *
+ * Merges heaps into top of {@code size} distinct positions: the content of heaps is copied into reusable buffer and sorted,
+ * the cost is {@code O(S * N * log(S * N))} where {@code S} is number of heaps and {@code N} is size of top.
+ * Because result is sorted, it is passed to collector via {@link PositionCollector#addAll(Position[], int)}, so collector can merge it in linear time.
+ */
+final class PositionHeapMerger {
+
+    private static final Position[] EMPTY = new Position[0];
+
+    private final int size;
+    private Position[] buffer = EMPTY;
+
+    PositionHeapMerger(int size) {
+        this.size = size;
+    }
+
+    synchronized List<Position> getPositionsInDescendingOrder(Iterable<PositionHeap> heaps) {
+        int count = mergeIntoBuffer(heaps);
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<Position> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(buffer[i]);
+        }
+        Arrays.fill(buffer, 0, count, null);
+        return result;
+    }
+
+    synchronized void addInto(Iterable<PositionHeap> heaps, PositionCollector collector) {
+        int count = mergeIntoBuffer(heaps);
+        if (count > 0) {
+            collector.addAll(buffer, count);
+            Arrays.fill(buffer, 0, count, null);
+        }
+    }
+
+    private int mergeIntoBuffer(Iterable<PositionHeap> heaps) {
+        int capacity = 0;
+        for (PositionHeap heap : heaps) {
+            capacity += heap.getCapacity();
+        }
+        if (buffer.length < capacity) {
+            buffer = new Position[capacity];
+        }
+
+        int count = 0;
+        for (PositionHeap heap : heaps) {
+            if (count + heap.getCapacity() > buffer.length) {
+                // heap was registered concurrently after capacity has been calculated, it will be merged next time
+                break;
+            }
+            count += heap.copyTo(buffer, count);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        Arrays.sort(buffer, 0, count, Collections.reverseOrder());
+
+        // the same position can be recorded into different heaps, equal positions are adjacent after sorting
+        int distinctCount = 1;
+        for (int i = 1; i < count && distinctCount < size; i++) {
+            if (!buffer[i].equals(buffer[distinctCount - 1])) {
+                buffer[distinctCount++] = buffer[i];
+            }
+        }
+        Arrays.fill(buffer, distinctCount, count, null);
+        return distinctCount;
+    }
+
+}
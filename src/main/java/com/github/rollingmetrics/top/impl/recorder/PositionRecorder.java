@@ -23,6 +23,7 @@ import com.github.rollingmetrics.top.impl.collector.PositionCollector;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -41,12 +42,20 @@ public abstract class PositionRecorder {
     }
 
     public void update(long timestamp, long latencyTime, TimeUnit latencyUnit, Supplier<String> descriptionSupplier) {
+        update(timestamp, latencyTime, latencyUnit, descriptionSupplier, null);
+    }
+
+    /**
+     * @param descriptionSource the {@link Supplier} of description when {@code descriptionFormatter} is null, otherwise the handle of deferred description
+     * @param descriptionFormatter the formatter of deferred description, or null if description should be taken from supplier eagerly
+     */
+    public void update(long timestamp, long latencyTime, TimeUnit latencyUnit, Object descriptionSource, Function<Object, String> descriptionFormatter) {
         long latencyNanos = latencyUnit.toNanos(latencyTime);
         if (latencyNanos < latencyThresholdNanos) {
             // the measure should be skipped because it is lesser then threshold
             return;
         }
-        updateConcurrently(timestamp, latencyTime, latencyUnit, descriptionSupplier, latencyNanos);
+        updateConcurrently(timestamp, latencyTime, latencyUnit, descriptionSource, descriptionFormatter, latencyNanos);
     }
 
     public int getSize() {
@@ -61,6 +70,22 @@ public abstract class PositionRecorder {
         }
     }
 
+    /**
+     * Creates recorder which does not allocate anything on steady-state update, see {@link StripedHeapPositionRecorder}.
+     *
+     * @param stripeCount the number of independently locked stripes, it is rounded up to the power of two
+     */
+    public static PositionRecorder createStripedRecorder(int size, long latencyThresholdNanos, int maxDescriptionLength, int stripeCount) {
+        return new StripedHeapPositionRecorder(size, latencyThresholdNanos, maxDescriptionLength, stripeCount);
+    }
+
+    /**
+     * Creates recorder which keeps separated heap for each writer thread, see {@link ThreadLocalPositionRecorder}.
+     */
+    public static PositionRecorder createThreadLocalRecorder(int size, long latencyThresholdNanos, int maxDescriptionLength) {
+        return new ThreadLocalPositionRecorder(size, latencyThresholdNanos, maxDescriptionLength);
+    }
+
     public PositionRecorder createEmptyCopy() {
         return createRecorder(size, latencyThresholdNanos, maxDescriptionLength);
     }
@@ -78,7 +103,15 @@ public abstract class PositionRecorder {
         return false;
     }
 
-    protected abstract void updateConcurrently(long timestamp, long latencyTime, TimeUnit latencyUnit, Supplier<String> descriptionSupplier, long latencyNanos);
+    @SuppressWarnings("unchecked")
+    protected Position createPosition(long timestamp, long latencyTime, TimeUnit latencyUnit, Object descriptionSource, Function<Object, String> descriptionFormatter) {
+        if (descriptionFormatter == null) {
+            return new Position(timestamp, latencyTime, latencyUnit, (Supplier<String>) descriptionSource, maxDescriptionLength);
+        }
+        return new Position(timestamp, latencyTime, latencyUnit, descriptionSource, descriptionFormatter, maxDescriptionLength);
+    }
+
+    protected abstract void updateConcurrently(long timestamp, long latencyTime, TimeUnit latencyUnit, Object descriptionSource, Function<Object, String> descriptionFormatter, long latencyNanos);
 
     public abstract void reset();
 
@@ -24,7 +24,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Supplier;
+import java.util.function.Function;
 
 /**
  * Is not a part of public API, this class just used as building block for other QueryTop implementations.
@@ -42,7 +42,7 @@ class SinglePositionRecorder extends PositionRecorder {
     }
 
     @Override
-    protected void updateConcurrently(long timestamp, long latencyTime, TimeUnit latencyUnit, Supplier<String> descriptionSupplier, long latencyNanos) {
+    protected void updateConcurrently(long timestamp, long latencyTime, TimeUnit latencyUnit, Object descriptionSource, Function<Object, String> descriptionFormatter, long latencyNanos) {
         Position newMax = null;
         while (true) {
             Position previousMax = max.get();
@@ -50,7 +50,7 @@ class SinglePositionRecorder extends PositionRecorder {
                 return;
             }
             if (newMax == null) {
-                newMax = new Position(timestamp, latencyTime, latencyUnit, descriptionSupplier, super.maxDescriptionLength);
+                newMax = createPosition(timestamp, latencyTime, latencyUnit, descriptionSource, descriptionFormatter);
             }
             if (max.compareAndSet(previousMax, newMax)) {
                 return;
@@ -0,0 +1,127 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.top.impl.recorder;
+
+import com.github.rollingmetrics.top.Position;
+import com.github.rollingmetrics.top.impl.collector.PositionCollector;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Is not a part of public API, this class just used as building block for other QueryTop implementations.
+ *
+ * This implementation keeps positions in several stripes, each stripe is a {@link PositionHeap} guarded by its own lock,
+ * the writer thread is mapped to stripe by its identifier. Each stripe holds the top of values recorded into it,
+ * so union of stripes always contains the top of all recorded values.
+ *
+ * <p>
+ * The slots of heap are reused, so steady-state update allocates nothing.
+ * The writer which can not beat the minimum of stripe is rejected by volatile read without acquiring the lock.
+ * Moreover, as soon as any stripe is filled, its minimum is the lower bound of whole top, because this stripe alone holds {@code size} greater positions,
+ * so the maximum among minimums of filled stripes is published as rejection threshold which is checked before choosing the stripe.
+ * The threshold is cleared by {@link #reset()}, so it relies on the fact that recorder is not updated concurrently with reset,
+ * that is guaranteed by {@link TwoPhasePositionRecorder}.
+ */
+class StripedHeapPositionRecorder extends PositionRecorder {
+
+    private final PositionHeap[] stripes;
+    private final int stripeMask;
+    private final AtomicLong rejectionThreshold = new AtomicLong(Long.MIN_VALUE);
+    private final PositionHeapMerger merger;
+
+    StripedHeapPositionRecorder(int size, long latencyThresholdNanos, int maxDescriptionLength, int stripeCount) {
+        super(size, latencyThresholdNanos, maxDescriptionLength);
+        int powerOfTwoStripes = Integer.highestOneBit(stripeCount);
+        if (powerOfTwoStripes < stripeCount) {
+            powerOfTwoStripes <<= 1;
+        }
+        this.stripes = new PositionHeap[powerOfTwoStripes];
+        for (int i = 0; i < powerOfTwoStripes; i++) {
+            stripes[i] = new PositionHeap(size);
+        }
+        this.stripeMask = powerOfTwoStripes - 1;
+        this.merger = new PositionHeapMerger(size);
+    }
+
+    @Override
+    protected void updateConcurrently(long timestamp, long latencyTime, TimeUnit latencyUnit, Object descriptionSource, Function<Object, String> descriptionFormatter, long latencyNanos) {
+        if (latencyNanos < rejectionThreshold.get()) {
+            return;
+        }
+        PositionHeap stripe = stripes[stripeIndex(Thread.currentThread().getId())];
+        stripe.update(timestamp, latencyTime, latencyUnit, latencyNanos, descriptionSource, descriptionFormatter, maxDescriptionLength);
+        raiseRejectionThreshold(stripe.getMinimumLatencyNanos());
+    }
+
+    @Override
+    public List<Position> getPositionsInDescendingOrder() {
+        return merger.getPositionsInDescendingOrder(Arrays.asList(stripes));
+    }
+
+    @Override
+    public void reset() {
+        for (PositionHeap stripe : stripes) {
+            stripe.reset();
+        }
+        rejectionThreshold.set(Long.MIN_VALUE);
+    }
+
+    @Override
+    public void addInto(PositionCollector collector) {
+        merger.addInto(Arrays.asList(stripes), collector);
+    }
+
+    @Override
+    public PositionRecorder createEmptyCopy() {
+        return new StripedHeapPositionRecorder(size, latencyThresholdNanos, maxDescriptionLength, stripes.length);
+    }
+
+    int getStripeCount() {
+        return stripes.length;
+    }
+
+    private void raiseRejectionThreshold(long stripeMinimum) {
+        long threshold = rejectionThreshold.get();
+        while (stripeMinimum > threshold) {
+            if (rejectionThreshold.compareAndSet(threshold, stripeMinimum)) {
+                return;
+            }
+            threshold = rejectionThreshold.get();
+        }
+    }
+
+    private int stripeIndex(long threadId) {
+        // spread sequential thread identifiers
+        long hash = threadId * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & stripeMask;
+    }
+
+    @Override
+    public String toString() {
+        return "StripedHeapPositionRecorder{" +
+                "positions=" + getPositionsInDescendingOrder() +
+                ", stripes=" + stripes.length +
+                '}';
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.top.impl.recorder;
+
+import com.github.rollingmetrics.top.Position;
+import com.github.rollingmetrics.top.impl.collector.PositionCollector;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Is not a part of public API, this class just used as building block for other QueryTop implementations.
+ *
+ * This implementation gives each writer thread its own {@link PositionHeap}, so writers never touch the memory written by other threads,
+ * the heaps are merged only when positions are read, that is when snapshot is taken or when chunk is rotated.
+ * The heap is registered once per thread on first update, so in steady state the update touches only the memory of current thread
+ * and acquires monitor which is never contended by other writers.
+ *
+ * <p>
+ * When used inside of {@link TwoPhasePositionRecorder} the phasing guarantees are the same as for other recorders:
+ * the writer records into the heap of recorder which was active at the moment of entering the critical section,
+ * and reader touches the recorder only after it has been swapped out and all writers left it.
+ *
+ * <p>
+ * The heaps of terminated threads are kept until {@link #reset()}, because they can still hold positions which should be reported,
+ * so the recorder is good for thread pools and bad for applications which create short-lived thread per request.
+ *
+ * <p>
+ * The thread local variable holds only weak reference to the heap, so the list of heaps is the only strong reference to it,
+ * and heaps of discarded recorder are garbage collected even if writer threads live forever.
+ */
+class ThreadLocalPositionRecorder extends PositionRecorder {
+
+    private final CopyOnWriteArrayList<OwnedHeap> heaps = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<WeakReference<OwnedHeap>> localHeap = new ThreadLocal<>();
+    private final Iterable<PositionHeap> heapView = () -> heaps.stream().map(ownedHeap -> ownedHeap.heap).iterator();
+    private final PositionHeapMerger merger;
+
+    ThreadLocalPositionRecorder(int size, long latencyThresholdNanos, int maxDescriptionLength) {
+        super(size, latencyThresholdNanos, maxDescriptionLength);
+        this.merger = new PositionHeapMerger(size);
+    }
+
+    @Override
+    protected void updateConcurrently(long timestamp, long latencyTime, TimeUnit latencyUnit, Object descriptionSource, Function<Object, String> descriptionFormatter, long latencyNanos) {
+        WeakReference<OwnedHeap> heapReference = localHeap.get();
+        OwnedHeap heap = heapReference == null ? null : heapReference.get();
+        if (heap == null) {
+            heap = new OwnedHeap(Thread.currentThread(), size);
+            localHeap.set(new WeakReference<>(heap));
+            heaps.add(heap);
+        }
+        heap.heap.update(timestamp, latencyTime, latencyUnit, latencyNanos, descriptionSource, descriptionFormatter, maxDescriptionLength);
+    }
+
+    @Override
+    public List<Position> getPositionsInDescendingOrder() {
+        return merger.getPositionsInDescendingOrder(heapView);
+    }
+
+    @Override
+    public void reset() {
+        for (OwnedHeap heap : heaps) {
+            heap.heap.reset();
+            Thread owner = heap.owner.get();
+            if (owner == null || !owner.isAlive()) {
+                // there are no positions in the heap anymore, and terminated thread never writes into it again
+                heaps.remove(heap);
+            }
+        }
+    }
+
+    @Override
+    public void addInto(PositionCollector collector) {
+        merger.addInto(heapView, collector);
+    }
+
+    @Override
+    public PositionRecorder createEmptyCopy() {
+        return new ThreadLocalPositionRecorder(size, latencyThresholdNanos, maxDescriptionLength);
+    }
+
+    int getHeapCount() {
+        return heaps.size();
+    }
+
+    PositionHeap getHeap(int index) {
+        return heaps.get(index).heap;
+    }
+
+    private static final class OwnedHeap {
+
+        private final WeakReference<Thread> owner;
+        private final PositionHeap heap;
+
+        OwnedHeap(Thread owner, int size) {
+            this.owner = new WeakReference<>(owner);
+            this.heap = new PositionHeap(size);
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return "ThreadLocalPositionRecorder{" +
+                "positions=" + getPositionsInDescendingOrder() +
+                ", heaps=" + heaps.size() +
+                '}';
+    }
+
+}
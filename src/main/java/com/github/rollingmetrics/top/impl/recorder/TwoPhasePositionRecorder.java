@@ -18,6 +18,7 @@
 package com.github.rollingmetrics.top.impl.recorder;
 import org.HdrHistogram.WriterReaderPhaser;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -31,14 +32,28 @@ public class TwoPhasePositionRecorder {
     private PositionRecorder inactive;
 
     public TwoPhasePositionRecorder(int size, long latencyThresholdNanos, int maxDescriptionLength) {
-        this.active = PositionRecorder.createRecorder(size, latencyThresholdNanos, maxDescriptionLength);
+        this(PositionRecorder.createRecorder(size, latencyThresholdNanos, maxDescriptionLength));
+    }
+
+    /**
+     * @param initialRecorder the recorder which is active at start, the inactive recorder is created via {@link PositionRecorder#createEmptyCopy()}
+     */
+    public TwoPhasePositionRecorder(PositionRecorder initialRecorder) {
+        this.active = initialRecorder;
         this.inactive = null;
     }
 
     public void update(long timestamp, long latencyTime, TimeUnit latencyUnit, Supplier<String> descriptionSupplier) {
+        update(timestamp, latencyTime, latencyUnit, descriptionSupplier, null);
+    }
+
+    /**
+     * @see PositionRecorder#update(long, long, TimeUnit, Object, Function)
+     */
+    public void update(long timestamp, long latencyTime, TimeUnit latencyUnit, Object descriptionSource, Function<Object, String> descriptionFormatter) {
         long criticalValueAtEnter = recordingPhaser.writerCriticalSectionEnter();
         try {
-            active.update(timestamp, latencyTime, latencyUnit, descriptionSupplier);
+            active.update(timestamp, latencyTime, latencyUnit, descriptionSource, descriptionFormatter);
         } finally {
             recordingPhaser.writerCriticalSectionExit(criticalValueAtEnter);
         }
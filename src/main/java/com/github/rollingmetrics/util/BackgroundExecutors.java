@@ -0,0 +1,124 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Factory of execution backends for background tasks like rotation of histograms and tops.
+ * The created executor can be installed globally via {@link ResilientExecutionUtil#setBackgroundExecutor(Executor)}
+ * or per metric via {@code withBackgroundExecutor} method of builders.
+ *
+ * <p>
+ * Virtual threads are accessed via reflection, so the library remains compatible with Java 8
+ * and does not need to be packaged as multi-release jar to benefit from virtual threads on Java 21+.
+ */
+public final class BackgroundExecutors {
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadFactoryMethod();
+
+    private BackgroundExecutors() {
+        // util class
+    }
+
+    /**
+     * Creates executor with one daemon platform thread, this is the same backend which {@link ResilientExecutionUtil} uses by default.
+     *
+     * @param threadFactory the factory of worker thread
+     * @return new single thread executor
+     */
+    public static SingleThreadExecutor singleThread(ThreadFactory threadFactory) {
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("threadFactory should not be null");
+        }
+        return new SingleThreadExecutor(threadFactory);
+    }
+
+    /**
+     * Creates small pool of daemon platform threads, each metric is pinned to one of threads.
+     *
+     * @param shardCount the number of threads
+     * @return new sharded executor
+     */
+    public static ShardedExecutor sharded(int shardCount) {
+        return sharded(shardCount, new DaemonThreadFactory("metrics-core-hdr-background-worker-%d"));
+    }
+
+    /**
+     * Creates small pool of threads created by {@code threadFactory}, each metric is pinned to one of threads.
+     *
+     * @param shardCount the number of threads
+     * @param threadFactory the factory of worker threads
+     * @return new sharded executor
+     */
+    public static ShardedExecutor sharded(int shardCount, ThreadFactory threadFactory) {
+        return new ShardedExecutor(shardCount, threadFactory);
+    }
+
+    /**
+     * @return true if current JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Creates executor which starts new virtual thread for each task.
+     *
+     * @return new virtual thread per task executor
+     * @throws UnsupportedOperationException if current JVM does not support virtual threads
+     */
+    public static ExecutorService virtualThreads() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by JVM " + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("Failed to create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Creates executor which starts new virtual thread for each task when JVM supports virtual threads,
+     * otherwise falls back to {@link #sharded(int)} executor.
+     *
+     * @param fallbackShardCount the number of threads in fallback executor
+     * @return new executor
+     */
+    public static Executor virtualThreadsOrSharded(int fallbackShardCount) {
+        if (isVirtualThreadSupported()) {
+            return virtualThreads();
+        }
+        return sharded(fallbackShardCount);
+    }
+
+    private static Method findVirtualThreadFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException | SecurityException e) {
+            return null;
+        }
+    }
+
+}
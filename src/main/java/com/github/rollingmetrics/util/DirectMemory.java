@@ -0,0 +1,146 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Allocates and frees direct byte buffers which are used to keep metric data outside of java heap.
+ *
+ * <p>
+ * The direct buffer is freed by garbage collector together with its owner anyway,
+ * but owner can free memory immediately via {@link #free(ByteBuffer)} when metric is removed.
+ * The immediate freeing is performed via reflection, so the library remains compatible with Java 8,
+ * when JVM does not allow to free buffer explicitly the memory is left to garbage collector.
+ *
+ * This class is not the part of metrics-core-hdr public API and should not be used by user directly.
+ */
+public final class DirectMemory {
+
+    private static final Logger logger = Logger.getLogger(DirectMemory.class.getName());
+
+    private static final AtomicLong allocatedBytes = new AtomicLong();
+    private static final Deallocator DEALLOCATOR = createDeallocator();
+
+    private DirectMemory() {
+    }
+
+    /**
+     * Allocates direct buffer with {@code capacity} bytes.
+     *
+     * @param capacity the capacity of buffer in bytes
+     * @return new direct buffer
+     */
+    public static ByteBuffer allocate(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        allocatedBytes.addAndGet(capacity);
+        return buffer;
+    }
+
+    /**
+     * Frees memory of direct buffer which was allocated by {@link #allocate(int)}, the buffer must not be used after this call.
+     *
+     * @param buffer the buffer to free
+     */
+    public static void free(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        allocatedBytes.addAndGet(-buffer.capacity());
+        clean(buffer);
+    }
+
+    /**
+     * Unmaps memory-mapped buffer, the buffer must not be used after this call.
+     * The mapped memory is not accounted by {@link #getAllocatedBytes()}.
+     *
+     * @param buffer the buffer to unmap
+     */
+    public static void unmap(MappedByteBuffer buffer) {
+        if (buffer != null) {
+            clean(buffer);
+        }
+    }
+
+    /**
+     * @return the amount of memory allocated by {@link #allocate(int)} and not yet freed explicitly
+     */
+    public static long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return true if JVM allows to free direct buffers explicitly
+     */
+    public static boolean isExplicitFreeSupported() {
+        return DEALLOCATOR != null;
+    }
+
+    private static void clean(ByteBuffer buffer) {
+        if (DEALLOCATOR != null) {
+            try {
+                DEALLOCATOR.free(buffer);
+            } catch (Throwable e) {
+                logger.log(Level.FINE, "Failed to free direct buffer, memory is left to garbage collector", e);
+            }
+        }
+    }
+
+    private interface Deallocator {
+        void free(ByteBuffer buffer) throws Exception;
+    }
+
+    private static Deallocator createDeallocator() {
+        // Java 9+
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (Throwable e) {
+            // fall through to Java 8 way
+        }
+        // Java 8
+        try {
+            ByteBuffer probe = ByteBuffer.allocateDirect(1);
+            Method cleanerMethod = probe.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Method cleanMethod = cleanerMethod.getReturnType().getMethod("clean");
+            cleanMethod.setAccessible(true);
+            return buffer -> {
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleanMethod.invoke(cleaner);
+                }
+            };
+        } catch (Throwable e) {
+            logger.log(Level.FINE, "Explicit freeing of direct buffers is not supported by JVM " + System.getProperty("java.version"), e);
+            return null;
+        }
+    }
+
+}
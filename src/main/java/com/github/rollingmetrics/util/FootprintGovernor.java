@@ -0,0 +1,186 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.util;
+
+import com.codahale.metrics.Gauge;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Registry of memory consumed by rolling metrics, the builders report estimated footprint of each constructed metric into governor.
+ *
+ * <p>
+ * The governor has two limits:
+ * <ul>
+ *     <li><b>soft limit</b> - when footprint of new metric does not fit into soft limit, the builder degrades precision of metric if it is possible,
+ *     for example {@link com.github.rollingmetrics.histogram.HdrBuilder} reduces number of significant value digits.</li>
+ *     <li><b>hard limit</b> - when footprint of new metric does not fit into hard limit, the construction of metric fails with {@link IllegalStateException}.</li>
+ * </ul>
+ * By default both limits are not configured, so governor only tracks the usage which can be exposed as gauge via {@link #getUsageGauge()}.
+ *
+ * <p>
+ * The footprint of metric is released automatically when metric is collected by garbage collector.
+ *
+ * <p>
+ * Known clients: {@link com.github.rollingmetrics.histogram.HdrBuilder}, {@link com.github.rollingmetrics.top.TopBuilder},
+ * {@link com.github.rollingmetrics.top.HeavyHittersTopBuilder}, {@link com.github.rollingmetrics.counter.SmoothlyDecayingRollingCounter},
+ * {@link com.github.rollingmetrics.hitratio.SmoothlyDecayingRollingHitRatio}.
+ */
+public final class FootprintGovernor {
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final FootprintGovernor INSTANCE = new FootprintGovernor();
+
+    private final ReferenceQueue<Object> collectedOwners = new ReferenceQueue<>();
+    private final Set<Reservation> reservations = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private long softLimitInBytes = UNLIMITED;
+    private long hardLimitInBytes = UNLIMITED;
+    private volatile long usedBytes;
+
+    /**
+     * @return the process-wide instance of governor which is used by builders by default
+     */
+    public static FootprintGovernor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates governor isolated from process-wide instance, it can be passed to builders explicitly.
+     */
+    public FootprintGovernor() {
+        // do nothing
+    }
+
+    /**
+     * Configures the limits of governor.
+     *
+     * @param softLimitInBytes the limit after reaching of which the precision of new metrics is degraded
+     * @param hardLimitInBytes the limit after reaching of which the construction of new metrics is rejected
+     */
+    public synchronized void setLimits(long softLimitInBytes, long hardLimitInBytes) {
+        if (softLimitInBytes <= 0) {
+            throw new IllegalArgumentException("softLimitInBytes should be positive");
+        }
+        if (hardLimitInBytes < softLimitInBytes) {
+            throw new IllegalArgumentException("hardLimitInBytes should be >= softLimitInBytes");
+        }
+        this.softLimitInBytes = softLimitInBytes;
+        this.hardLimitInBytes = hardLimitInBytes;
+    }
+
+    public synchronized long getSoftLimitInBytes() {
+        return softLimitInBytes;
+    }
+
+    public synchronized long getHardLimitInBytes() {
+        return hardLimitInBytes;
+    }
+
+    /**
+     * @return the sum of estimated footprints of all alive metrics which were reported to this governor
+     */
+    public long getUsedBytes() {
+        purgeCollectedOwners();
+        return usedBytes;
+    }
+
+    /**
+     * @return the gauge which reports {@link #getUsedBytes()}
+     */
+    public Gauge<Long> getUsageGauge() {
+        return this::getUsedBytes;
+    }
+
+    /**
+     * Checks that metric with footprint {@code bytes} can be created without exceeding of soft limit.
+     *
+     * @param bytes the estimated footprint of metric
+     * @return true if metric fits into soft limit
+     */
+    public synchronized boolean fitsIntoSoftLimit(long bytes) {
+        purgeCollectedOwners();
+        return usedBytes + bytes <= softLimitInBytes;
+    }
+
+    /**
+     * Checks that metric with footprint {@code bytes} can be created without exceeding of hard limit,
+     * the builders call this method before allocation of metric.
+     *
+     * @param bytes the estimated footprint of metric
+     * @throws IllegalStateException if metric does not fit into hard limit
+     */
+    public synchronized void checkHardLimit(long bytes) {
+        purgeCollectedOwners();
+        if (usedBytes + bytes > hardLimitInBytes) {
+            throw new IllegalStateException("Footprint of metric " + bytes + " bytes does not fit into hard limit " + hardLimitInBytes
+                    + " bytes, already used " + usedBytes + " bytes");
+        }
+    }
+
+    /**
+     * Accounts footprint of metric, the footprint is released when {@code owner} is collected by garbage collector.
+     *
+     * @param owner the metric which consumes memory
+     * @param bytes the estimated footprint of metric
+     * @throws IllegalStateException if metric does not fit into hard limit
+     */
+    public synchronized void reserve(Object owner, long bytes) {
+        checkHardLimit(bytes);
+        reservations.add(new Reservation(owner, bytes, collectedOwners));
+        usedBytes += bytes;
+    }
+
+    private synchronized void purgeCollectedOwners() {
+        Reference<?> reference;
+        while ((reference = collectedOwners.poll()) != null) {
+            Reservation reservation = (Reservation) reference;
+            if (reservations.remove(reservation)) {
+                usedBytes -= reservation.bytes;
+            }
+        }
+    }
+
+    private static final class Reservation extends WeakReference<Object> {
+
+        final long bytes;
+
+        Reservation(Object owner, long bytes, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            this.bytes = bytes;
+        }
+
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FootprintGovernor{" +
+                "softLimitInBytes=" + softLimitInBytes +
+                ", hardLimitInBytes=" + hardLimitInBytes +
+                ", usedBytes=" + usedBytes +
+                ", reservations=" + reservations.size() +
+                '}';
+    }
+
+}
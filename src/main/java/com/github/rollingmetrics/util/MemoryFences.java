@@ -0,0 +1,96 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Memory fences which order plain accesses to memory shared with other processes, for example to memory-mapped file.
+ * The fences are taken from {@code java.lang.invoke.VarHandle} on Java 9+ and from {@code sun.misc.Unsafe} on Java 8,
+ * so the library remains compatible with Java 8.
+ * When none of them is available, the fences degrade to access of volatile field.
+ *
+ * This class is not the part of metrics-core-hdr public API and should not be used by user directly.
+ */
+public final class MemoryFences {
+
+    private static final MethodType FENCE_TYPE = MethodType.methodType(void.class);
+
+    private static final MethodHandle STORE_FENCE = findFence("storeFence");
+    private static final MethodHandle LOAD_FENCE = findFence("loadFence");
+
+    private static volatile int fallbackFence;
+
+    private MemoryFences() {
+    }
+
+    /**
+     * Ensures that stores before the fence are not reordered with stores after the fence.
+     */
+    public static void storeFence() {
+        if (STORE_FENCE == null) {
+            fallbackFence = 0;
+            return;
+        }
+        try {
+            STORE_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Ensures that loads before the fence are not reordered with loads and stores after the fence.
+     */
+    public static void loadFence() {
+        if (LOAD_FENCE == null) {
+            int ignored = fallbackFence;
+            return;
+        }
+        try {
+            LOAD_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findFence(String name) {
+        // Java 9+
+        try {
+            Class<?> varHandleClass = Class.forName("java.lang.invoke.VarHandle");
+            return MethodHandles.publicLookup().findStatic(varHandleClass, name, FENCE_TYPE);
+        } catch (Throwable e) {
+            // fall through to Java 8 way
+        }
+        // Java 8
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return MethodHandles.publicLookup().findVirtual(unsafeClass, name, FENCE_TYPE).bindTo(unsafe);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+}
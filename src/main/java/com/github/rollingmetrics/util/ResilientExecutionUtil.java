@@ -30,6 +30,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *
  * For background execution this class maintains own implementation of executor {@link SingleThreadExecutor}
  * which extremely fast and has no blocking on task queueing.
+ * The execution backend can be replaced globally via {@link #setBackgroundExecutor(Executor)},
+ * see {@link BackgroundExecutors} for available backends.
  */
 public final class ResilientExecutionUtil {
 
@@ -38,7 +40,9 @@ public final class ResilientExecutionUtil {
     private static final ResilientExecutionUtil INSTANCE = new ResilientExecutionUtil();
 
     private volatile SingleThreadExecutor executorInstance;
+    private volatile Executor customExecutor;
     private ThreadFactory threadFactory = DEFAULT_THREAD_FACTORY;
+    private int queueCapacity = SingleThreadExecutor.UNBOUNDED;
 
     /**
      * @return instance of {@link ResilientExecutionUtil}
@@ -61,7 +65,7 @@ public final class ResilientExecutionUtil {
      * @param task
      */
     public void execute(Executor executor, Runnable task) {
-        if (executor instanceof SingleThreadExecutor) {
+        if (executor instanceof SingleThreadExecutor || executor instanceof ShardedExecutor) {
             // we can trust to own executor implementation and schedule task without advanced control
             executor.execute(task);
             return;
@@ -86,19 +90,63 @@ public final class ResilientExecutionUtil {
     }
 
     /**
-     * @return instance of {@link SingleThreadExecutor}
+     * @return the executor configured via {@link #setBackgroundExecutor(Executor)}, or instance of {@link SingleThreadExecutor} by default
      */
     public Executor getBackgroundExecutor() {
+        Executor customExecutor = this.customExecutor;
+        if (customExecutor != null) {
+            return customExecutor;
+        }
         return getExecutorInstance();
     }
 
+    /**
+     * Resolves the executor which should be used by one metric for whole its life.
+     * When {@code executor} is {@link ShardedExecutor} then metric is pinned to one of its shards,
+     * so background tasks of one metric are never reordered and slow metric does not delay metrics from other shards.
+     *
+     * @param executor the executor configured for metric, or null if metric should use {@link #getBackgroundExecutor()}
+     * @return the executor to be used by metric
+     */
+    public Executor resolveExecutorForMetric(Executor executor) {
+        if (executor == null) {
+            executor = getBackgroundExecutor();
+        }
+        if (executor instanceof ShardedExecutor) {
+            return ((ShardedExecutor) executor).nextShard();
+        }
+        return executor;
+    }
+
+    /**
+     * Replaces the backend which is used for background execution by metrics which do not have own executor.
+     * Already constructed metrics continue to use the executor which was actual at their construction time,
+     * so this method should be called before construction of metrics, typically at application startup.
+     *
+     * @param executor the executor, see {@link BackgroundExecutors} for available implementations
+     */
+    public synchronized void setBackgroundExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor should not be null");
+        }
+        this.customExecutor = executor;
+    }
+
     /**
      * If the {@link #getBackgroundExecutor} was called before, the this method perform shutdown of background execution thread.
+     * The executor configured via {@link #setBackgroundExecutor(Executor)} is stopped too if it is {@link ShardedExecutor} or {@link ExecutorService}.
      */
     public synchronized void shutdownBackgroundExecutor() {
         if (executorInstance != null) {
             executorInstance.stopExecutionThread();
         }
+        if (customExecutor instanceof ShardedExecutor) {
+            ((ShardedExecutor) customExecutor).stopExecutionThreads();
+        } else if (customExecutor instanceof SingleThreadExecutor) {
+            ((SingleThreadExecutor) customExecutor).stopExecutionThread();
+        } else if (customExecutor instanceof ExecutorService) {
+            ((ExecutorService) customExecutor).shutdown();
+        }
     }
 
     /**
@@ -126,13 +174,35 @@ public final class ResilientExecutionUtil {
         this.threadFactory = Objects.requireNonNull(threadFactory);
     }
 
+    /**
+     * Configures the bounded queue of {@link SingleThreadExecutor}, by default the queue is unbounded.
+     * The task which does not fit into queue is executed in the thread which submits it.
+     * <p>
+     * This method should be called strongly before first invocation of {@link #getBackgroundExecutor}.
+     * </p>
+     *
+     * @param queueCapacity the maximum number of tasks which can wait for execution
+     * @throws IllegalStateException if executor already created
+     */
+    public synchronized void setQueueCapacity(int queueCapacity) {
+        if (executorInstance != null) {
+            String msg = "The executor instance already created, so it is impossible to change queue capacity." +
+                    " You should call setQueueCapacity strongly before first invocation of getBackgroundExecutor";
+            throw new IllegalStateException(msg);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity should be positive");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
     private SingleThreadExecutor getExecutorInstance() {
         SingleThreadExecutor executorInstance = this.executorInstance;
         if (executorInstance == null) {
             synchronized (this) {
                 executorInstance = this.executorInstance;
                 if (executorInstance == null) {
-                    executorInstance = new SingleThreadExecutor(threadFactory);
+                    executorInstance = new SingleThreadExecutor(threadFactory, queueCapacity);
                     this.executorInstance = executorInstance;
                 }
             }
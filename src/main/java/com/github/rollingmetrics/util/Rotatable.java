@@ -0,0 +1,35 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.util;
+
+/**
+ * The metric which evicts old values by rotation of chunks, and which can be rotated by {@link RotationScheduler}
+ * instead of the writer which first observes that chunk is expired.
+ *
+ * This interface is not the part of rolling-metrics public API and should not be used by user directly.
+ */
+public interface Rotatable {
+
+    /**
+     * Rotates the chunks which are expired at the moment of invocation.
+     *
+     * @return the delay in milliseconds after which the next rotation should be performed
+     */
+    long rotate();
+
+}
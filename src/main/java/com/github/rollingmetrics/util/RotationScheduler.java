@@ -0,0 +1,157 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.util;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The shared scheduler which rotates chunked metrics at chunk boundaries,
+ * so writers of metric configured for scheduled rotation never check the time and never submit rotation tasks.
+ *
+ * <p>
+ * The scheduler holds only weak references to metrics, so registration does not prevent metric from garbage collection,
+ * the rotation of collected metric is cancelled automatically.
+ *
+ * <p>
+ * Known clients: {@link com.github.rollingmetrics.histogram.accumulator.ResetByChunksAccumulator}, {@link com.github.rollingmetrics.top.impl.ResetByChunksTop}.
+ */
+public final class RotationScheduler {
+
+    private static final ThreadFactory DEFAULT_THREAD_FACTORY = new DaemonThreadFactory("rolling-metrics-rotation-scheduler-%d");
+    private static final long DELAY_AFTER_FAILURE_MILLIS = 1000;
+    private static final Logger logger = Logger.getLogger(RotationScheduler.class.getName());
+
+    private static final RotationScheduler INSTANCE = new RotationScheduler();
+
+    private volatile ScheduledThreadPoolExecutor executorInstance;
+    private ThreadFactory threadFactory = DEFAULT_THREAD_FACTORY;
+
+    /**
+     * @return instance of {@link RotationScheduler}
+     */
+    public static RotationScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The constructor visibility is package-private for unit testing
+     */
+    RotationScheduler() {
+        // do nothing
+    }
+
+    /**
+     * Schedules the rotation of {@code target}, the next rotation is scheduled after delay returned by previous rotation.
+     *
+     * @param target the metric to rotate
+     * @param initialDelayMillis the delay before first rotation
+     */
+    public void schedule(Rotatable target, long initialDelayMillis) {
+        RotationTask task = new RotationTask(target);
+        getExecutorInstance().schedule(task, initialDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the thread factory which will be used for construction of scheduler thread.
+     * This method should be called strongly before first scheduling of rotation.
+     *
+     * @param threadFactory
+     * @throws IllegalStateException if scheduler thread already created
+     */
+    public synchronized void setThreadFactory(ThreadFactory threadFactory) {
+        if (executorInstance != null) {
+            throw new IllegalStateException("The scheduler thread already created, so it is impossible to replace threadFactory");
+        }
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("threadFactory should not be null");
+        }
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Stops the scheduler thread, the metrics configured for scheduled rotation will not be rotated anymore.
+     * This method should be called in application shutdown listener inside JEE environment,
+     * in order to avoid leaking reference to classloader through the scheduler thread.
+     */
+    public synchronized void shutdown() {
+        if (executorInstance != null) {
+            executorInstance.shutdownNow();
+        }
+    }
+
+    private ScheduledThreadPoolExecutor getExecutorInstance() {
+        ScheduledThreadPoolExecutor executorInstance = this.executorInstance;
+        if (executorInstance == null) {
+            synchronized (this) {
+                executorInstance = this.executorInstance;
+                if (executorInstance == null) {
+                    executorInstance = new ScheduledThreadPoolExecutor(1, threadFactory);
+                    executorInstance.setRemoveOnCancelPolicy(true);
+                    this.executorInstance = executorInstance;
+                }
+            }
+        }
+        return executorInstance;
+    }
+
+    private final class RotationTask implements Runnable {
+
+        private final WeakReference<Rotatable> targetRef;
+
+        RotationTask(Rotatable target) {
+            this.targetRef = new WeakReference<>(target);
+        }
+
+        @Override
+        public void run() {
+            Rotatable target = targetRef.get();
+            if (target == null) {
+                // metric was collected, so there is nothing to rotate
+                return;
+            }
+            long delayMillis;
+            try {
+                delayMillis = target.rotate();
+            } catch (Throwable e) {
+                logger.log(Level.WARNING, e, () -> "Fail to rotate " + target + " because of " + e.getMessage());
+                delayMillis = DELAY_AFTER_FAILURE_MILLIS;
+            }
+            try {
+                executorInstance.schedule(this, Math.max(1, delayMillis), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // scheduler is shut down
+            }
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return "RotationScheduler{" +
+                "threadFactory=" + threadFactory +
+                ", executorInstance=" + executorInstance +
+                '}';
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor which consists from several independent {@link SingleThreadExecutor} shards,
+ * so slow rotation of one large metric does not delay rotation of metrics which are pinned to other shards.
+ *
+ * <p>
+ * Each metric is pinned to one shard at construction time via {@link #nextShard()},
+ * this preserves ordering of background tasks belonging to same metric.
+ * The tasks submitted directly via {@link #execute(Runnable)} are distributed by hash of task.
+ *
+ * @see BackgroundExecutors#sharded(int)
+ */
+public class ShardedExecutor implements Executor {
+
+    private final SingleThreadExecutor[] shards;
+    private final AtomicInteger shardSequence = new AtomicInteger();
+
+    ShardedExecutor(int shardCount, ThreadFactory threadFactory) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount should be positive");
+        }
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("threadFactory should not be null");
+        }
+        this.shards = new SingleThreadExecutor[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new SingleThreadExecutor(threadFactory);
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        getShard(System.identityHashCode(task)).execute(task);
+    }
+
+    /**
+     * @param hash the hash of metric
+     * @return the shard which is responsible for the hash
+     */
+    public Executor getShard(int hash) {
+        // spread higher bits in same way as HashMap does
+        int spread = hash ^ (hash >>> 16);
+        return shards[(spread & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * Selects the shard for new metric in round-robin manner, so metrics are evenly distributed between shards.
+     *
+     * @return the shard to which new metric should be pinned
+     */
+    public Executor nextShard() {
+        return shards[(shardSequence.getAndIncrement() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return the sum of queue depths of all shards
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (SingleThreadExecutor shard : shards) {
+            depth += shard.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * @return the sum of completed tasks of all shards
+     */
+    public long getCompletedTaskCount() {
+        long count = 0;
+        for (SingleThreadExecutor shard : shards) {
+            count += shard.getCompletedTaskCount();
+        }
+        return count;
+    }
+
+    /**
+     * Stops execution threads of all shards.
+     */
+    public void stopExecutionThreads() {
+        for (SingleThreadExecutor shard : shards) {
+            shard.stopExecutionThread();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedExecutor{" +
+                "shardCount=" + shards.length +
+                ", queueDepth=" + getQueueDepth() +
+                ", completedTaskCount=" + getCompletedTaskCount() +
+                '}';
+    }
+
+}
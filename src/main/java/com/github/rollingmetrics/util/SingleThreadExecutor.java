@@ -20,6 +20,9 @@ package com.github.rollingmetrics.util;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.StampedLock;
 import java.util.logging.Level;
@@ -30,19 +33,50 @@ import java.util.logging.Logger;
  * This executor never throws RejectedExecutionException, because after it stopped by client,
  * it begin executes tasks in current caller thread.
  * This behavior provides graceful shutdown in complex applications when metrics can still be collected during shutdown.
+ *
+ * <p>
+ * The worker thread drains all queued tasks in a batch before parking, and submitters unpark the worker only when it is actually parked,
+ * so burst of submissions at chunk boundaries produces single unpark instead of unpark per task.
+ *
+ * <p>
+ * The queue can be bounded, in this case the task which does not fit into queue is executed in the thread which submits it.
+ * The task is never discarded, because the metrics rely on execution of each submitted rotation task,
+ * for example the writer switches the phase of chunked reservoir before submitting of rotation, and nobody else completes the switched phase.
+ * The depth of queue, the number of overflowed tasks and the time spent by tasks in the queue are exposed via getters,
+ * so they can be registered as gauges.
  */
 public class SingleThreadExecutor implements Executor {
 
-    private static final Runnable POISON = () -> {};
-    private static final Runnable PARK = () -> {};
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private static final QueuedTask POISON = new QueuedTask(() -> {}, 0L);
 
     private static final Logger logger = Logger.getLogger(SingleThreadExecutor.class.getName());
 
     private final StampedLock stampedLock = new StampedLock();
-    private final ConcurrentLinkedQueue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<QueuedTask> taskQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicBoolean parked = new AtomicBoolean();
+    private final int queueCapacity;
     private final Thread workerThread;
 
+    private final LongAdder overflowedTasks = new LongAdder();
+    private final LongAdder unparks = new LongAdder();
+
+    // written only by worker thread
+    private volatile long completedTasks;
+    private volatile long totalQueueLatencyNanos;
+    private volatile long maxQueueLatencyNanos;
+
     SingleThreadExecutor(ThreadFactory factory) {
+        this(factory, UNBOUNDED);
+    }
+
+    SingleThreadExecutor(ThreadFactory factory, int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity should be positive");
+        }
+        this.queueCapacity = queueCapacity;
         this.workerThread = factory.newThread(this::doLifeCycle);
 
         // Leaking reference to "SingleOrSameThreadExecutor.this" from constructor though lambda does not lead to publication problem,
@@ -55,6 +89,7 @@ public class SingleThreadExecutor implements Executor {
      * {@inheritDoc}
      *
      * If background thread is started then executes task in this thread, otherwise executes task in current thread.
+     * If queue is full then executes task in current thread.
      *
      * @param task
      */
@@ -65,12 +100,22 @@ public class SingleThreadExecutor implements Executor {
             task.run();
             return;
         }
+        boolean overflowed = false;
         try {
-            taskQueue.add(task);
-            LockSupport.unpark(workerThread);
+            if (queueDepth.incrementAndGet() > queueCapacity) {
+                queueDepth.decrementAndGet();
+                overflowedTasks.increment();
+                overflowed = true;
+            } else {
+                taskQueue.add(new QueuedTask(task, System.nanoTime()));
+                wakeUpWorker();
+            }
         } finally {
             stampedLock.unlockRead(stamp);
         }
+        if (overflowed) {
+            task.run();
+        }
     }
 
     /**
@@ -90,29 +135,99 @@ public class SingleThreadExecutor implements Executor {
           *we have guarantee that POISON will be a last task in the QUEUE.
          */
         taskQueue.add(POISON);
+        parked.set(false);
         LockSupport.unpark(workerThread);
     }
 
+    /**
+     * @return the number of tasks which are waiting for execution
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the maximum number of tasks which can wait for execution
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return the number of tasks which did not fit into queue and were executed by submitters
+     */
+    public long getOverflowedTaskCount() {
+        return overflowedTasks.sum();
+    }
+
+    /**
+     * @return the number of tasks executed by worker thread
+     */
+    public long getCompletedTaskCount() {
+        return completedTasks;
+    }
+
+    /**
+     * @return the number of times when the worker thread was unparked by submitters
+     */
+    public long getUnparkCount() {
+        return unparks.sum();
+    }
+
+    /**
+     * @return the average time in nanoseconds which tasks spent in the queue before execution
+     */
+    public long getMeanQueueLatencyNanos() {
+        long completedTasks = this.completedTasks;
+        return completedTasks == 0 ? 0 : totalQueueLatencyNanos / completedTasks;
+    }
+
+    /**
+     * @return the maximum time in nanoseconds which task spent in the queue before execution
+     */
+    public long getMaxQueueLatencyNanos() {
+        return maxQueueLatencyNanos;
+    }
+
+    private void wakeUpWorker() {
+        // only one submitter unparks the worker, the others see that worker is already woken up
+        if (parked.get() && parked.compareAndSet(true, false)) {
+            unparks.increment();
+            LockSupport.unpark(workerThread);
+        }
+    }
+
     private void doLifeCycle() {
         while (true) {
             Thread.interrupted();
-            Runnable task = taskQueue.poll();
-            if (task == POISON) {
-                return;
-            }
-            if (task == PARK) {
-                task = taskQueue.poll();
-                if (task == null) {
-                    LockSupport.park(SingleThreadExecutor.this);
-                    continue;
+            QueuedTask queuedTask;
+            while ((queuedTask = taskQueue.poll()) != null) {
+                if (queuedTask == POISON) {
+                    return;
                 }
+                queueDepth.decrementAndGet();
+                executeQueuedTask(queuedTask);
             }
-            if (task != null) {
-                executeAndLogErrors(task);
-            } else {
-                taskQueue.add(PARK);
+
+            parked.set(true);
+            if (!taskQueue.isEmpty()) {
+                // task was added after draining but submitter could miss the parked flag
+                parked.set(false);
+                continue;
             }
+            LockSupport.park(SingleThreadExecutor.this);
+            parked.set(false);
+        }
+    }
+
+    private void executeQueuedTask(QueuedTask queuedTask) {
+        long queueLatencyNanos = System.nanoTime() - queuedTask.enqueueNanos;
+        totalQueueLatencyNanos += queueLatencyNanos;
+        if (queueLatencyNanos > maxQueueLatencyNanos) {
+            maxQueueLatencyNanos = queueLatencyNanos;
         }
+        executeAndLogErrors(queuedTask.task);
+        completedTasks++;
     }
 
     private static void executeAndLogErrors(Runnable task) {
@@ -123,4 +238,27 @@ public class SingleThreadExecutor implements Executor {
         }
     }
 
+    private static final class QueuedTask {
+
+        final Runnable task;
+        final long enqueueNanos;
+
+        QueuedTask(Runnable task, long enqueueNanos) {
+            this.task = task;
+            this.enqueueNanos = enqueueNanos;
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return "SingleThreadExecutor{" +
+                "queueDepth=" + queueDepth +
+                ", queueCapacity=" + queueCapacity +
+                ", overflowedTasks=" + overflowedTasks +
+                ", completedTasks=" + completedTasks +
+                ", unparks=" + unparks +
+                '}';
+    }
+
 }
@@ -0,0 +1,149 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.*;
+import com.github.rollingmetrics.histogram.util.EmptySnapshot;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.MockExecutor;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class BulkSnapshotsTest {
+
+    private static final double[] PERCENTILES = new double[] {0.9, 0.5};
+
+    private final AtomicLong time = new AtomicLong(0);
+    private final Clock clock = Clock.mock(time);
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @Test
+    public void shouldCollectAllHistogramsAndTimersFromRegistry() {
+        MetricRegistry registry = new MetricRegistry();
+        HdrBuilder builder = new HdrBuilder(clock)
+                .resetReservoirPeriodicallyByChunks(Duration.ofSeconds(60), 3)
+                .withBackgroundExecutor(MockExecutor.INSTANCE);
+        for (int i = 0; i < 100; i++) {
+            Histogram histogram = builder.buildAndRegisterHistogram(registry, "histogram-" + i);
+            for (int value = 1; value <= 100; value++) {
+                histogram.update(value + i);
+            }
+        }
+        builder.buildAndRegisterTimer(registry, "timer").update(42, TimeUnit.NANOSECONDS);
+        registry.histogram("dropwizard").update(7);
+        registry.counter("counter").inc();
+
+        SortedMap<String, Snapshot> snapshots = BulkSnapshots.collect(registry, MetricFilter.ALL, PERCENTILES, pool);
+
+        assertEquals(102, snapshots.size());
+        for (int i = 0; i < 100; i++) {
+            Snapshot snapshot = snapshots.get("histogram-" + i);
+            assertEquals(1 + i, snapshot.getMin());
+            assertEquals(100 + i, snapshot.getMax());
+            assertEquals(50 + i, snapshot.getMedian(), 1.0);
+            assertEquals(90 + i, snapshot.getValue(0.9), 1.0);
+            assertEquals(2, snapshot.size());
+        }
+        assertEquals(42, snapshots.get("timer").getMax());
+        assertEquals(7, snapshots.get("dropwizard").getMax());
+    }
+
+    @Test
+    public void shouldNotResetChunkedReservoirWhenCollecting() {
+        Reservoir reservoir = new HdrBuilder(clock)
+                .resetReservoirPeriodicallyByChunks(Duration.ofSeconds(60), 3)
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .buildReservoir();
+        reservoir.update(10);
+        reservoir.update(20);
+
+        Map<String, Reservoir> reservoirs = Collections.singletonMap("r", reservoir);
+        assertEquals(20, BulkSnapshots.collect(reservoirs, PERCENTILES, pool).get("r").getMax());
+        assertEquals(20, BulkSnapshots.collect(reservoirs, PERCENTILES, pool).get("r").getMax());
+        assertEquals(10, reservoir.getSnapshot().getMin());
+    }
+
+    @Test
+    public void shouldResetReservoirWhichIsConfiguredToResetOnSnapshot() {
+        Reservoir reservoir = new HdrBuilder(clock).resetReservoirOnSnapshot().buildReservoir();
+        reservoir.update(10);
+
+        Map<String, Reservoir> reservoirs = Collections.singletonMap("r", reservoir);
+        assertEquals(10, BulkSnapshots.collect(reservoirs, PERCENTILES, pool).get("r").getMax());
+        assertSame(EmptySnapshot.INSTANCE, BulkSnapshots.collect(reservoirs, PERCENTILES, pool).get("r"));
+    }
+
+    @Test
+    public void shouldBypassSnapshotCache() {
+        Reservoir reservoir = new HdrBuilder(clock)
+                .neverResetReservoir()
+                .withSnapshotCachingDuration(Duration.ofMinutes(1))
+                .buildReservoir();
+        reservoir.update(10);
+        assertEquals(10, reservoir.getSnapshot().getMax());
+        reservoir.update(20);
+
+        Map<String, Reservoir> reservoirs = Collections.singletonMap("r", reservoir);
+        assertEquals(20, BulkSnapshots.collect(reservoirs, PERCENTILES, pool).get("r").getMax());
+    }
+
+    @Test
+    public void shouldCollectReservoirsWithDifferentPrecision() {
+        Map<Integer, Reservoir> reservoirs = new LinkedHashMap<>();
+        for (int digits = 0; digits <= 5; digits++) {
+            Reservoir reservoir = new HdrBuilder(clock)
+                    .neverResetReservoir()
+                    .withSignificantDigits(digits)
+                    .withLowestDiscernibleValue(1000)
+                    .withHighestTrackableValue(10_000_000, OverflowResolver.SKIP)
+                    .buildReservoir();
+            reservoir.update(1_000_000);
+            reservoirs.put(digits, reservoir);
+        }
+
+        Map<Integer, Snapshot> snapshots = BulkSnapshots.collect(reservoirs, PERCENTILES, pool);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), new ArrayList<>(snapshots.keySet()));
+        for (Snapshot snapshot : snapshots.values()) {
+            assertEquals(1_000_000, snapshot.getMax(), 1_000_000 * 0.6);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowEmptyPercentiles() {
+        BulkSnapshots.collect(new MetricRegistry(), MetricFilter.ALL, new double[0], pool);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowPercentileGreaterThanOne() {
+        BulkSnapshots.collect(new MetricRegistry(), MetricFilter.ALL, new double[] {1.1}, pool);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowNullPool() {
+        BulkSnapshots.collect(new MetricRegistry(), MetricFilter.ALL, PERCENTILES, null);
+    }
+
+}
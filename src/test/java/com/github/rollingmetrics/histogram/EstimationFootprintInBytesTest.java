@@ -16,12 +16,18 @@
  */
 
 package com.github.rollingmetrics.histogram;
+import com.github.rollingmetrics.histogram.util.HistogramUtil;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.MockExecutor;
+import org.HdrHistogram.Histogram;
 import org.HdrHistogram.Recorder;
 import org.junit.Test;
 
 import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class EstimationFootprintInBytesTest {
 
@@ -39,4 +45,69 @@ public class EstimationFootprintInBytesTest {
         assertEquals(histogramEquivalentEstimate * (10 + 6 + 1), builder.resetReservoirPeriodicallyByChunks(Duration.ofMinutes(1), 10).getEstimatedFootprintInBytes());
     }
 
+    @Test
+    public void estimationFromConfigurationShouldMatchAllocatedHistograms() {
+        long[][] ranges = {{1, 2}, {1, 3600}, {10, 3600}, {1000, Long.MAX_VALUE / 3}};
+        for (int digits = 0; digits <= 5; digits++) {
+            for (long[] range : ranges) {
+                Histogram histogram = new Histogram(range[0], range[1], digits);
+                assertEquals(histogram.getEstimatedFootprintInBytes(), HistogramUtil.estimateFootprintInBytes(range[0], range[1], digits, false));
+            }
+            Histogram concurrentHistogram = new Recorder(digits).getIntervalHistogram();
+            assertEquals(concurrentHistogram.getEstimatedFootprintInBytes(), HistogramUtil.estimateFootprintInBytes(1, 2, digits, true));
+        }
+    }
+
+    @Test
+    public void estimationFromConfigurationShouldNotBeLesserThanFootprintOfReservoir() {
+        HdrBuilder[] builders = {
+                new HdrBuilder().resetReservoirPeriodicallyByChunks(Duration.ofMinutes(1), 10),
+                new HdrBuilder().resetReservoirPeriodicallyByChunks(Duration.ofMinutes(1), 10).withArchivedChunksPrecision(1, 1000).withCompressedArchive(),
+                new HdrBuilder().resetReservoirPeriodicallyByTiers(RollupTier.of(Duration.ofSeconds(1), 60), RollupTier.of(Duration.ofMinutes(1), 60)),
+                new HdrBuilder().decayReservoirExponentially(Duration.ofMinutes(1)),
+                builder.deepCopy().resetReservoirPeriodicallyByChunks(Duration.ofMinutes(1), 10).withArchivedChunksPrecision(1, 100),
+        };
+        for (HdrBuilder builder : builders) {
+            int estimation = builder.getEstimatedFootprintInBytes();
+            int footprint = ((HdrReservoir) builder.buildReservoir()).getEstimatedFootprintInBytes();
+            assertTrue(builder.toString(), estimation >= footprint);
+        }
+    }
+
+    @Test
+    public void copyShouldBeEstimatedWithItsOwnArchiveOptions() {
+        HdrBuilder source = new HdrBuilder()
+                .withHighestTrackableValue(3600_000, OverflowResolver.REDUCE_TO_HIGHEST_TRACKABLE)
+                .resetReservoirPeriodicallyByChunks(Duration.ofMinutes(1), 10);
+        HdrBuilder copy = source.deepCopy().withArchivedChunksPrecision(1, 1000);
+        assertTrue(copy.getEstimatedFootprintInBytes() < source.getEstimatedFootprintInBytes());
+    }
+
+    @Test
+    public void estimationOfCompressedArchiveShouldNotBeLesserThanFootprintOfFilledChunks() {
+        AtomicLong time = new AtomicLong();
+        for (boolean downsampled : new boolean[] {false, true}) {
+            HdrBuilder builder = new HdrBuilder(Clock.mock(time))
+                    .withHighestTrackableValue(3_600_000, OverflowResolver.REDUCE_TO_HIGHEST_TRACKABLE)
+                    .withLowestDiscernibleValue(1)
+                    .withSignificantDigits(2)
+                    .resetReservoirPeriodicallyByChunks(Duration.ofMinutes(60), 60)
+                    .withBackgroundExecutor(MockExecutor.INSTANCE)
+                    .withCompressedArchive();
+            if (downsampled) {
+                builder.withArchivedChunksPrecision(1, 10);
+            }
+            HdrReservoir reservoir = (HdrReservoir) builder.buildReservoir();
+            for (int chunk = 0; chunk <= 60; chunk++) {
+                // each bucket of each chunk is filled
+                for (long value = 1; value <= 3_600_000; value += Math.max(1, value / 256)) {
+                    reservoir.update(value);
+                }
+                time.addAndGet(Duration.ofMinutes(1).toMillis());
+            }
+            reservoir.getSnapshot();
+            assertTrue(builder.toString(), builder.getEstimatedFootprintInBytes() >= reservoir.getEstimatedFootprintInBytes());
+        }
+    }
+
 }
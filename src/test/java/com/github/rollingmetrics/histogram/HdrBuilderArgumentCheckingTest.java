@@ -162,4 +162,48 @@ public class HdrBuilderArgumentCheckingTest {
         } catch (IllegalArgumentException e) {}
     }
 
-}
\ No newline at end of file
+    @Test
+    public void validateResetSmoothlyByChunksParametersTest() {
+        new HdrBuilder().resetReservoirSmoothlyByChunks(Duration.ofMillis(HdrBuilder.MIN_CHUNK_RESETTING_INTERVAL_MILLIS * HdrBuilder.MAX_CHUNKS), HdrBuilder.MAX_CHUNKS);
+        try {
+            new HdrBuilder().resetReservoirSmoothlyByChunks(Duration.ofMillis(HdrBuilder.MIN_CHUNK_RESETTING_INTERVAL_MILLIS - 1), HdrBuilder.MAX_CHUNKS);
+            fail("should disallow too short duration");
+        } catch (IllegalArgumentException e) {}
+
+        try {
+            new HdrBuilder().resetReservoirSmoothlyByChunks(Duration.ofMillis(HdrBuilder.MIN_CHUNK_RESETTING_INTERVAL_MILLIS), HdrBuilder.MAX_CHUNKS + 1);
+            fail("should too many chunks");
+        } catch (IllegalArgumentException e) {}
+
+        try {
+            new HdrBuilder().resetReservoirSmoothlyByChunks(Duration.ofMillis(HdrBuilder.MIN_CHUNK_RESETTING_INTERVAL_MILLIS), 1);
+            fail("should check that chunks >= 2");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldCheckArchivedChunksSignificantDigits() {
+        new HdrBuilder().withArchivedChunksPrecision(6, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldCheckArchivedChunksLowestDiscernibleValue() {
+        new HdrBuilder().withArchivedChunksPrecision(2, 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void archivedChunksPrecisionShouldNotBeAllowedWithoutChunks() {
+        new HdrBuilder().resetReservoirOnSnapshot().withArchivedChunksPrecision(2, 1).buildReservoir();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void compressedArchiveShouldNotBeAllowedWithoutChunks() {
+        new HdrBuilder().neverResetReservoir().withCompressedArchive().buildReservoir();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void offHeapArchiveShouldNotBeAllowedWithoutChunks() {
+        new HdrBuilder().resetReservoirOnSnapshot().withOffHeapArchive().buildReservoir();
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Reservoir;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.MockExecutor;
+import org.HdrHistogram.Histogram;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class IntervalLogWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong time = new AtomicLong(0);
+    private final Clock clock = Clock.mock(time);
+
+    @Test
+    public void completedChunksShouldBeWrittenToLog() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        IntervalLogWriter logWriter = new IntervalLogWriter(directory, "latency", Long.MAX_VALUE, Duration.ofDays(1), IntervalLogWriter.DEFAULT_BUFFER_SIZE_BYTES, clock);
+        Reservoir reservoir = new HdrBuilder(clock)
+                .resetReservoirPeriodicallyByChunks(Duration.ofMillis(3000), 3)
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .withIntervalLog(logWriter)
+                .buildReservoir();
+
+        reservoir.update(10);
+        reservoir.update(20);
+        time.set(1000);
+        reservoir.update(30); // first chunk is completed
+        time.set(2500);
+        reservoir.update(40); // second chunk is completed
+        logWriter.close();
+
+        List<Histogram> histograms = readAll(directory);
+        assertEquals(2, histograms.size());
+
+        assertEquals(2, histograms.get(0).getTotalCount());
+        assertEquals(20, histograms.get(0).getMaxValue());
+        assertEquals(0, histograms.get(0).getStartTimeStamp());
+        assertEquals(1000, histograms.get(0).getEndTimeStamp());
+
+        assertEquals(1, histograms.get(1).getTotalCount());
+        assertEquals(30, histograms.get(1).getMaxValue());
+        assertEquals(1000, histograms.get(1).getStartTimeStamp());
+        assertEquals(2000, histograms.get(1).getEndTimeStamp());
+    }
+
+    @Test
+    public void copyOfBuilderShouldWriteIntoItsOwnLog() throws Exception {
+        Path sourceDirectory = folder.newFolder("source").toPath();
+        Path copyDirectory = folder.newFolder("copy").toPath();
+        IntervalLogWriter sourceLogWriter = new IntervalLogWriter(sourceDirectory, "latency", Long.MAX_VALUE, Duration.ofDays(1), IntervalLogWriter.DEFAULT_BUFFER_SIZE_BYTES, clock);
+        IntervalLogWriter copyLogWriter = new IntervalLogWriter(copyDirectory, "latency", Long.MAX_VALUE, Duration.ofDays(1), IntervalLogWriter.DEFAULT_BUFFER_SIZE_BYTES, clock);
+        HdrBuilder source = new HdrBuilder(clock)
+                .resetReservoirPeriodicallyByChunks(Duration.ofMillis(3000), 3)
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .withIntervalLog(sourceLogWriter);
+        Reservoir reservoir = source.deepCopy()
+                .withIntervalLog(copyLogWriter)
+                .buildReservoir();
+
+        reservoir.update(10);
+        time.set(1000);
+        reservoir.update(20); // first chunk is completed
+        sourceLogWriter.close();
+        copyLogWriter.close();
+
+        assertEquals(0, readAll(sourceDirectory).size());
+        assertEquals(1, readAll(copyDirectory).size());
+    }
+
+    @Test
+    public void logShouldBeRolledOverByAge() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        IntervalLogWriter logWriter = new IntervalLogWriter(directory, "latency", Long.MAX_VALUE, Duration.ofMillis(1500), IntervalLogWriter.DEFAULT_BUFFER_SIZE_BYTES, clock);
+        Reservoir reservoir = new HdrBuilder(clock)
+                .resetReservoirPeriodically(Duration.ofMillis(1000))
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .withIntervalLog(logWriter)
+                .buildReservoir();
+
+        for (int i = 0; i < 4; i++) {
+            reservoir.update(10 + i);
+            time.addAndGet(1000);
+        }
+        reservoir.update(100);
+        logWriter.close();
+
+        assertEquals(2, directory.toFile().listFiles().length);
+        assertEquals(4, readAll(directory).size());
+    }
+
+    @Test
+    public void logShouldBeRolledOverBySize() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        IntervalLogWriter logWriter = new IntervalLogWriter(directory, "latency", 1, Duration.ofDays(1), IntervalLogWriter.DEFAULT_BUFFER_SIZE_BYTES, clock);
+        Reservoir reservoir = new HdrBuilder(clock)
+                .resetReservoirPeriodically(Duration.ofMillis(1000))
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .withIntervalLog(logWriter)
+                .buildReservoir();
+
+        for (int i = 0; i < 3; i++) {
+            reservoir.update(10 + i);
+            time.addAndGet(1000);
+        }
+        reservoir.update(100);
+        logWriter.close();
+
+        assertEquals(3, directory.toFile().listFiles().length);
+        assertEquals(3, readAll(directory).size());
+    }
+
+    @Test
+    public void chunksShouldBeIgnoredAfterClose() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        IntervalLogWriter logWriter = new IntervalLogWriter(directory, "latency", Long.MAX_VALUE, Duration.ofDays(1), IntervalLogWriter.DEFAULT_BUFFER_SIZE_BYTES, clock);
+        logWriter.close();
+        logWriter.accept(new Histogram(2));
+        assertEquals(0, directory.toFile().listFiles().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowNullWriter() {
+        new HdrBuilder().withIntervalLog(null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldDisallowIntervalLogForUniformReservoir() {
+        new HdrBuilder()
+                .neverResetReservoir()
+                .withIntervalLog(new IntervalLogWriter(folder.getRoot().toPath(), "latency", 1024, Duration.ofDays(1)))
+                .buildReservoir();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldDisallowIntervalLogForResetOnSnapshotReservoir() {
+        new HdrBuilder()
+                .resetReservoirOnSnapshot()
+                .withIntervalLog(new IntervalLogWriter(folder.getRoot().toPath(), "latency", 1024, Duration.ofDays(1)))
+                .buildReservoir();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowNonPositiveFileSize() {
+        new IntervalLogWriter(folder.getRoot().toPath(), "latency", 0, Duration.ofDays(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowZeroFileAge() {
+        new IntervalLogWriter(folder.getRoot().toPath(), "latency", 1024, Duration.ZERO);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowEmptyPrefix() {
+        new IntervalLogWriter(folder.getRoot().toPath(), "", 1024, Duration.ofDays(1));
+    }
+
+    // HistogramLogReader from HdrHistogram 2.1.8 can not be used on modern JDKs because of dependency to javax.xml.bind
+    private static List<Histogram> readAll(Path directory) throws Exception {
+        File[] files = directory.toFile().listFiles();
+        Arrays.sort(files);
+        List<Histogram> histograms = new ArrayList<>();
+        for (File file : files) {
+            long baseTimeMillis = 0;
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("#[BaseTime: ")) {
+                    baseTimeMillis = Math.round(Double.parseDouble(line.substring(12, line.indexOf(' ', 12))) * 1000);
+                } else if (!line.startsWith("#") && !line.startsWith("\"")) {
+                    String[] columns = line.split(",");
+                    long startTimeMillis = baseTimeMillis + Math.round(Double.parseDouble(columns[0]) * 1000);
+                    long intervalLengthMillis = Math.round(Double.parseDouble(columns[1]) * 1000);
+                    ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(columns[3]));
+                    Histogram histogram = Histogram.decodeFromCompressedByteBuffer(buffer, 0);
+                    histogram.setStartTimeStamp(startTimeMillis);
+                    histogram.setEndTimeStamp(startTimeMillis + intervalLengthMillis);
+                    histograms.add(histogram);
+                }
+            }
+        }
+        return histograms;
+    }
+
+}
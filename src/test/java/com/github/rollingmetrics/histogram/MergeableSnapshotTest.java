@@ -0,0 +1,136 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MergeableSnapshotTest {
+
+    @Test
+    public void reservoirShouldReturnMergeableSnapshot() {
+        Reservoir reservoir = new HdrBuilder().withMergeableSnapshots().buildReservoir();
+        for (int i = 1; i <= 100; i++) {
+            reservoir.update(i);
+        }
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertTrue(snapshot instanceof MergeableSnapshot);
+        assertEquals(100, ((MergeableSnapshot) snapshot).getTotalCount());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(100, snapshot.getMax());
+        assertEquals(50.0, snapshot.getMedian(), 1.0);
+    }
+
+    @Test
+    public void emptyReservoirShouldReturnMergeableSnapshot() {
+        Reservoir reservoir = new HdrBuilder().withMergeableSnapshots().buildReservoir();
+        MergeableSnapshot snapshot = (MergeableSnapshot) reservoir.getSnapshot();
+        assertEquals(0, snapshot.getTotalCount());
+        assertEquals(0, MergeableSnapshot.fromByteArray(snapshot.toByteArray()).getTotalCount());
+    }
+
+    @Test
+    public void snapshotShouldNotBeAffectedByFurtherUpdates() {
+        Reservoir reservoir = new HdrBuilder().withMergeableSnapshots().buildReservoir();
+        reservoir.update(10);
+        Snapshot snapshot = reservoir.getSnapshot();
+        reservoir.update(1000);
+        assertEquals(10, snapshot.getMax());
+    }
+
+    @Test
+    public void snapshotShouldSurviveEncoding() {
+        Reservoir reservoir = new HdrBuilder().withMergeableSnapshots().buildReservoir();
+        reservoir.update(10);
+        reservoir.update(20);
+        reservoir.update(30);
+        MergeableSnapshot snapshot = (MergeableSnapshot) reservoir.getSnapshot();
+
+        MergeableSnapshot decoded = MergeableSnapshot.fromByteArray(snapshot.toByteArray());
+        assertEquals(3, decoded.getTotalCount());
+        assertEquals(10, decoded.getMin());
+        assertEquals(30, decoded.getMax());
+        assertEquals(snapshot.getMean(), decoded.getMean(), 0.0001);
+    }
+
+    @Test
+    public void mergedPercentilesShouldBeCalculatedFromAllValues() {
+        // first node is fast, second node is slow, averaging of medians gives 505, but real median is 100
+        Reservoir fastNode = new HdrBuilder().withMergeableSnapshots().buildReservoir();
+        Reservoir slowNode = new HdrBuilder().withMergeableSnapshots().withSignificantDigits(3).buildReservoir();
+        for (int i = 0; i < 900; i++) {
+            fastNode.update(10);
+        }
+        for (int i = 0; i < 100; i++) {
+            fastNode.update(100);
+        }
+        for (int i = 0; i < 100; i++) {
+            slowNode.update(1000);
+        }
+
+        MergeableSnapshot merged = MergeableSnapshot.merge(Arrays.asList(
+                MergeableSnapshot.fromByteArray(((MergeableSnapshot) fastNode.getSnapshot()).toByteArray()),
+                MergeableSnapshot.fromByteArray(((MergeableSnapshot) slowNode.getSnapshot()).toByteArray())
+        ));
+        assertEquals(1100, merged.getTotalCount());
+        assertEquals(10.0, merged.getMedian(), 0.0);
+        assertEquals(100.0, merged.getValue(0.85), 1.0);
+        assertEquals(1000.0, merged.get99thPercentile(), 1.0);
+        assertEquals(3, merged.getHistogramCopy().getNumberOfSignificantValueDigits());
+    }
+
+    @Test
+    public void mergeOfNothingShouldBeEmpty() {
+        assertEquals(0, MergeableSnapshot.merge(Collections.emptyList()).getTotalCount());
+    }
+
+    @Test
+    public void snapshotsWithZeroSignificantDigitsShouldBeMerged() {
+        Reservoir first = new HdrBuilder().withMergeableSnapshots().withSignificantDigits(0).buildReservoir();
+        Reservoir second = new HdrBuilder().withMergeableSnapshots().withSignificantDigits(0).buildReservoir();
+        first.update(10);
+        second.update(1000);
+        second.update(1000);
+
+        MergeableSnapshot merged = MergeableSnapshot.merge(Arrays.asList((MergeableSnapshot) first.getSnapshot(), (MergeableSnapshot) second.getSnapshot()));
+        assertEquals(3, merged.getTotalCount());
+        assertEquals(0, merged.getHistogramCopy().getNumberOfSignificantValueDigits());
+    }
+
+    @Test
+    public void lastSnapshotConfigurationShouldWin() {
+        Snapshot snapshot = new HdrBuilder().withMergeableSnapshots().withPredefinedPercentiles(new double[] {0.5}).buildReservoir().getSnapshot();
+        assertFalse(snapshot instanceof MergeableSnapshot);
+        snapshot = new HdrBuilder().withMergeableSnapshots().withoutSnapshotOptimization().buildReservoir().getSnapshot();
+        assertFalse(snapshot instanceof MergeableSnapshot);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectCorruptedBytes() {
+        MergeableSnapshot.fromByteArray(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+    }
+
+}
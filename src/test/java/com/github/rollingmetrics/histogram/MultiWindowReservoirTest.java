@@ -0,0 +1,139 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.MockExecutor;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class MultiWindowReservoirTest {
+
+    private final AtomicLong time = new AtomicLong(0);
+    private final Clock clock = Clock.mock(time);
+
+    @Test
+    public void shouldServeSeveralWindowsFromChunks() {
+        MultiWindowReservoir reservoir = new HdrBuilder(clock)
+                .resetReservoirPeriodicallyByChunks(Duration.ofSeconds(6), 6)
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .withoutSnapshotOptimization()
+                .buildMultiWindowReservoir(Duration.ofSeconds(2), Duration.ofSeconds(6));
+        recordOneValuePerSecond(reservoir, 3);
+
+        time.set(3500);
+        Snapshot shortSnapshot = reservoir.getSnapshot(Duration.ofSeconds(2));
+        assertEquals(3, shortSnapshot.size());
+        assertEquals(20, shortSnapshot.getMin());
+        assertEquals(40, shortSnapshot.getMax());
+
+        Snapshot longSnapshot = reservoir.getSnapshot(Duration.ofSeconds(6));
+        assertEquals(4, longSnapshot.size());
+        assertEquals(10, longSnapshot.getMin());
+
+        assertEquals(4, reservoir.getSnapshot().size());
+        assertEquals(1, reservoir.getSnapshot(Duration.ofMillis(1)).size());
+    }
+
+    @Test
+    public void shouldServeSeveralWindowsFromTiers() {
+        MultiWindowReservoir reservoir = new HdrBuilder(clock)
+                .resetReservoirPeriodicallyByTiers(RollupTier.of(Duration.ofSeconds(1), 3), RollupTier.of(Duration.ofSeconds(3), 3))
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .withoutSnapshotOptimization()
+                .buildMultiWindowReservoir(Duration.ofSeconds(2), Duration.ofSeconds(9));
+        recordOneValuePerSecond(reservoir, 11);
+
+        time.set(11_500);
+        Snapshot shortSnapshot = reservoir.getHistogram(Duration.ofSeconds(2)).getSnapshot();
+        assertEquals(3, shortSnapshot.size());
+        assertEquals(100, shortSnapshot.getMin());
+
+        Snapshot longSnapshot = reservoir.getHistogram(Duration.ofSeconds(9)).getSnapshot();
+        assertEquals(12, longSnapshot.size());
+    }
+
+    @Test
+    public void histogramViewsShouldShareValuesAndCount() {
+        MultiWindowReservoir reservoir = new HdrBuilder(clock)
+                .resetReservoirPeriodicallyByChunks(Duration.ofSeconds(6), 6)
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .withSnapshotCachingDuration(Duration.ofSeconds(1))
+                .buildMultiWindowReservoir(Duration.ofSeconds(2), Duration.ofSeconds(6));
+        Histogram shortHistogram = reservoir.getHistogram(Duration.ofSeconds(2));
+        Histogram longHistogram = reservoir.getHistogram(Duration.ofSeconds(6));
+
+        shortHistogram.update(10);
+        reservoir.update(20);
+
+        assertEquals(2, shortHistogram.getCount());
+        assertEquals(2, longHistogram.getCount());
+        assertEquals(2, reservoir.getCount());
+        assertEquals(20, longHistogram.getSnapshot().getMax());
+        assertEquals(Arrays.asList(Duration.ofSeconds(2), Duration.ofSeconds(6)), reservoir.getWindows());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRequireWindowedStrategy() {
+        new HdrBuilder().neverResetReservoir().buildMultiWindowReservoir(Duration.ofSeconds(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldDisallowWindowLongerThanRollingWindow() {
+        new HdrBuilder().resetReservoirPeriodicallyByChunks(Duration.ofSeconds(6), 6).buildMultiWindowReservoir(Duration.ofSeconds(7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowDuplicatedWindows() {
+        new HdrBuilder().resetReservoirPeriodicallyByChunks(Duration.ofSeconds(6), 6).buildMultiWindowReservoir(Duration.ofSeconds(2), Duration.ofSeconds(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowEmptyWindows() {
+        new HdrBuilder().resetReservoirPeriodicallyByChunks(Duration.ofSeconds(6), 6).buildMultiWindowReservoir();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowUnknownWindowView() {
+        new HdrBuilder().resetReservoirPeriodicallyByChunks(Duration.ofSeconds(6), 6)
+                .buildMultiWindowReservoir(Duration.ofSeconds(2))
+                .getHistogram(Duration.ofSeconds(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowSnapshotForTooLongWindow() {
+        new HdrBuilder().resetReservoirPeriodicallyByChunks(Duration.ofSeconds(6), 6)
+                .buildMultiWindowReservoir(Duration.ofSeconds(2))
+                .getSnapshot(Duration.ofSeconds(7));
+    }
+
+    private void recordOneValuePerSecond(MultiWindowReservoir reservoir, int toSecond) {
+        for (int second = 0; second <= toSecond; second++) {
+            time.set(second * 1000L);
+            reservoir.update((second + 1) * 10);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.MockExecutor;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapMemoryTest {
+
+    private final AtomicLong time = new AtomicLong(0);
+    private final HdrBuilder builder = new HdrBuilder(Clock.mock(time))
+            .resetReservoirPeriodicallyByChunks(Duration.ofSeconds(3), 3)
+            .withOffHeapArchive()
+            .withBackgroundExecutor(MockExecutor.INSTANCE);
+
+    @Test
+    public void shouldReleaseMemoryOfTimer() {
+        Timer timer = builder.buildTimer();
+        long allocatedBefore = OffHeapMemory.getAllocatedBytes();
+        fillArchive(value -> timer.update(value, TimeUnit.NANOSECONDS));
+        assertTrue(OffHeapMemory.getAllocatedBytes() > allocatedBefore);
+
+        OffHeapMemory.release(timer);
+        assertEquals(allocatedBefore, (long) OffHeapMemory.getUsageGauge().getValue());
+    }
+
+    @Test
+    public void shouldReleaseMemoryOfCachedHistogram() {
+        Histogram histogram = builder.withSnapshotCachingDuration(Duration.ofSeconds(1)).buildHistogram();
+        long allocatedBefore = OffHeapMemory.getAllocatedBytes();
+        fillArchive(histogram::update);
+        assertTrue(OffHeapMemory.getAllocatedBytes() > allocatedBefore);
+
+        OffHeapMemory.release(histogram);
+        assertEquals(allocatedBefore, OffHeapMemory.getAllocatedBytes());
+    }
+
+    @Test
+    public void shouldIgnoreMetricsWithoutOffHeapMemory() {
+        long allocatedBefore = OffHeapMemory.getAllocatedBytes();
+        OffHeapMemory.release(new HdrBuilder().buildHistogram());
+        OffHeapMemory.release(new Histogram(new UniformReservoir()));
+        OffHeapMemory.release(null);
+        assertEquals(allocatedBefore, OffHeapMemory.getAllocatedBytes());
+    }
+
+    private void fillArchive(LongConsumer recorder) {
+        for (int second = 0; second < 5; second++) {
+            time.set(second * 1000);
+            for (int value = 1; value <= 100; value++) {
+                recorder.accept(value * (second + 1));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Snapshot;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.MockExecutor;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReservoirFamilyTest {
+
+    private final AtomicLong time = new AtomicLong(0);
+    private final Clock clock = Clock.mock(time);
+
+    @Test
+    public void shouldRecordValuesPerKey() {
+        ReservoirFamily<String> family = new HdrBuilder(clock)
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .buildReservoirFamily(10, Long.MAX_VALUE, Duration.ofMinutes(1));
+        family.update("a", 10);
+        family.update("a", 20);
+        family.getReservoir("b").update(30);
+
+        assertEquals(2, family.getKeyCount());
+        assertEquals(20, family.getSnapshot("a").getMax());
+        assertEquals(30, family.getReservoir("b").getSnapshot().getMax());
+        assertEquals(0, family.getSnapshot("c").size());
+
+        Map<String, Snapshot> snapshots = family.getSnapshots();
+        assertEquals(2, snapshots.size());
+        assertEquals(10, snapshots.get("a").getMin());
+        assertEquals(30, snapshots.get("b").getMin());
+    }
+
+    @Test
+    public void shouldRecordToOverflowReservoirWhenCardinalityExceeded() {
+        ReservoirFamily<String> family = new HdrBuilder(clock)
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .buildReservoirFamily(2, Long.MAX_VALUE, Duration.ofMinutes(1));
+        family.update("a", 10);
+        family.update("b", 20);
+        family.update("c", 30);
+        family.update("d", 40);
+        family.update("a", 50);
+
+        assertEquals(2, family.getKeyCount());
+        assertEquals(2, family.getOverflowCount());
+        Snapshot overflowSnapshot = family.getOverflowReservoir().getSnapshot();
+        assertEquals(30, overflowSnapshot.getMin());
+        assertEquals(40, overflowSnapshot.getMax());
+        assertEquals(50, family.getSnapshot("a").getMax());
+    }
+
+    @Test
+    public void shouldLimitKeysByFootprint() {
+        HdrBuilder builder = new HdrBuilder(clock).withBackgroundExecutor(MockExecutor.INSTANCE);
+        long oneReservoirFootprint = builder.getEstimatedFootprintInBytes();
+        ReservoirFamily<String> family = builder.buildReservoirFamily(100, oneReservoirFootprint * 4, Duration.ofMinutes(1));
+        assertEquals(3, family.getMaxKeys());
+
+        for (int i = 0; i < 10; i++) {
+            family.update("key-" + i, i);
+        }
+        assertEquals(3, family.getKeyCount());
+        assertEquals(7, family.getOverflowCount());
+        assertTrue(family.getEstimatedFootprintInBytes() <= oneReservoirFootprint * 4);
+    }
+
+    @Test
+    public void shouldEvictIdleKeysAndReuseTheirReservoirs() {
+        ReservoirFamily<String> family = new HdrBuilder(clock)
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .buildReservoirFamily(2, Long.MAX_VALUE, Duration.ofSeconds(10));
+        family.update("a", 10);
+        family.update("b", 20);
+
+        time.set(6_000);
+        family.update("b", 30);
+
+        time.set(12_000);
+        // triggers eviction of "a"
+        family.update("b", 40);
+        assertEquals(1, family.getKeyCount());
+        assertEquals(1, family.getEvictionCount());
+        assertEquals(1, family.getPooledCount());
+        assertEquals(0, family.getSnapshot("a").size());
+
+        family.update("c", 50);
+        assertEquals(0, family.getPooledCount());
+        assertEquals(0, family.getOverflowCount());
+        Snapshot snapshot = family.getSnapshot("c");
+        assertEquals(50, snapshot.getMin());
+        assertEquals(50, snapshot.getMax());
+    }
+
+    @Test
+    public void shouldClearChunkedReservoirBeforeReusing() {
+        ReservoirFamily<String> family = new HdrBuilder(clock)
+                .resetReservoirPeriodicallyByChunks(Duration.ofSeconds(60), 6)
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .buildReservoirFamily(1, Long.MAX_VALUE, Duration.ofSeconds(20));
+        for (int second = 0; second < 15; second++) {
+            time.set(second * 1000L);
+            family.update("a", 1000 + second);
+        }
+
+        time.set(40_000);
+        family.evictIdleKeys();
+        assertEquals(0, family.getKeyCount());
+
+        family.update("b", 7);
+        Snapshot snapshot = family.getSnapshot("b");
+        assertEquals(7, snapshot.getMin());
+        assertEquals(7, snapshot.getMax());
+
+        time.set(55_000);
+        family.update("b", 8);
+        assertEquals(8, family.getSnapshot("b").getMax());
+        assertEquals(7, family.getSnapshot("b").getMin());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowNonPositiveMaxKeys() {
+        new HdrBuilder().buildReservoirFamily(0, Long.MAX_VALUE, Duration.ofMinutes(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowNonPositiveFootprint() {
+        new HdrBuilder().buildReservoirFamily(10, 0, Duration.ofMinutes(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowZeroIdleTimeout() {
+        new HdrBuilder().buildReservoirFamily(10, Long.MAX_VALUE, Duration.ZERO);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldDisallowFootprintWhichIsNotEnoughForOneKey() {
+        HdrBuilder builder = new HdrBuilder();
+        builder.buildReservoirFamily(10, builder.getEstimatedFootprintInBytes(), Duration.ofMinutes(1));
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.MockExecutor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReservoirPersistenceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong time = new AtomicLong(0);
+    private final Clock clock = Clock.mock(time);
+    private Path stateFile;
+
+    @Before
+    public void setUp() {
+        stateFile = folder.getRoot().toPath().resolve("reservoir.state");
+    }
+
+    @Test
+    public void expiredChunksShouldBeDiscardedAfterRestore() throws IOException {
+        saveReservoirWithFourValues();
+
+        time.set(4500);
+        Reservoir restored = buildReservoir(3);
+        assertTrue(ReservoirPersistence.restore(restored, stateFile));
+        Snapshot snapshot = restored.getSnapshot();
+        assertEquals(20, snapshot.getMin());
+        assertEquals(40, snapshot.getMax());
+
+        time.set(5000);
+        snapshot = restored.getSnapshot();
+        assertEquals(30, snapshot.getMin());
+        assertEquals(40, snapshot.getMax());
+
+        time.set(6000);
+        assertEquals(0, restored.getSnapshot().getMax());
+    }
+
+    @Test
+    public void restoredChunksShouldNotBeOverwrittenByRotation() throws IOException {
+        saveReservoirWithFourValues();
+
+        time.set(4500);
+        Reservoir restored = buildReservoir(3);
+        ReservoirPersistence.restore(restored, stateFile);
+
+        time.set(5600);
+        restored.update(50);
+        Snapshot snapshot = restored.getSnapshot();
+        assertEquals(30, snapshot.getMin());
+        assertEquals(50, snapshot.getMax());
+    }
+
+    @Test
+    public void uncompletedChunkShouldBeRestoredToCurrentPhase() throws IOException {
+        saveReservoirWithFourValues();
+
+        time.set(2800);
+        Reservoir restored = buildReservoir(3);
+        assertTrue(ReservoirPersistence.restore(restored, stateFile));
+        Snapshot snapshot = restored.getSnapshot();
+        assertEquals(10, snapshot.getMin());
+        assertEquals(40, snapshot.getMax());
+    }
+
+    @Test
+    public void stateShouldBeRestoredForReservoirWithoutHistory() throws IOException {
+        Reservoir reservoir = new HdrBuilder(clock)
+                .resetReservoirPeriodically(Duration.ofMillis(1000))
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .buildReservoir();
+        reservoir.update(10);
+        time.set(500);
+        ReservoirPersistence.save(reservoir, stateFile);
+
+        time.set(900);
+        Reservoir restored = new HdrBuilder(clock)
+                .resetReservoirPeriodically(Duration.ofMillis(1000))
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .buildReservoir();
+        assertTrue(ReservoirPersistence.restore(restored, stateFile));
+        assertEquals(10, restored.getSnapshot().getMax());
+    }
+
+    @Test
+    public void stateShouldNotBeRestoredWhenConfigurationChanged() throws IOException {
+        saveReservoirWithFourValues();
+
+        Reservoir restored = buildReservoir(4);
+        assertFalse(ReservoirPersistence.restore(restored, stateFile));
+        assertEquals(0, restored.getSnapshot().getMax());
+    }
+
+    @Test
+    public void restoreShouldReturnFalseWhenFileDoesNotExist() throws IOException {
+        assertFalse(ReservoirPersistence.restore(buildReservoir(3), stateFile));
+    }
+
+    @Test
+    public void shouldSupportSnapshotCachingReservoir() throws IOException {
+        Reservoir reservoir = new HdrBuilder(clock)
+                .resetReservoirPeriodicallyByChunks(Duration.ofMillis(3000), 3)
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .withSnapshotCachingDuration(Duration.ofMillis(100))
+                .buildReservoir();
+        reservoir.update(42);
+        ReservoirPersistence.save(reservoir, stateFile);
+
+        Reservoir restored = buildReservoir(3);
+        assertTrue(ReservoirPersistence.restore(restored, stateFile));
+        assertEquals(42, restored.getSnapshot().getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowUniformReservoir() throws IOException {
+        ReservoirPersistence.save(new HdrBuilder().neverResetReservoir().buildReservoir(), stateFile);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowForeignReservoir() throws IOException {
+        ReservoirPersistence.save(new com.codahale.metrics.UniformReservoir(), stateFile);
+    }
+
+    // the value which triggers rotation is recorded to the next chunk, so chunks are [10], [20], [30, 40]
+    private void saveReservoirWithFourValues() throws IOException {
+        Reservoir reservoir = buildReservoir(3);
+        reservoir.update(10);
+        time.set(1000);
+        reservoir.update(20);
+        time.set(2000);
+        reservoir.update(30);
+        time.set(2500);
+        reservoir.update(40);
+        ReservoirPersistence.save(reservoir, stateFile);
+    }
+
+    private Reservoir buildReservoir(int numberChunks) {
+        return new HdrBuilder(clock)
+                .resetReservoirPeriodicallyByChunks(Duration.ofMillis(1000 * numberChunks), numberChunks)
+                .withBackgroundExecutor(MockExecutor.INSTANCE)
+                .buildReservoir();
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.histogram.accumulator;
+
+import com.github.rollingmetrics.util.DirectMemory;
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedHistogramTest {
+
+    @Test
+    public void shouldDecodeSameValues() {
+        Histogram source = new Histogram(3);
+        source.recordValueWithCount(1, 3);
+        source.recordValue(1000);
+        source.recordValueWithCount(123_456_789L, 1_000_000L);
+        source.recordValue(Long.MAX_VALUE / 4);
+
+        CompressedHistogram compressed = new CompressedHistogram();
+        compressed.store(source);
+        assertEquals(source.getTotalCount(), compressed.getTotalCount());
+
+        Histogram target = new Histogram(3);
+        compressed.addTo(target, 1.0);
+        assertEquals(source, target);
+    }
+
+    @Test
+    public void shouldApplyWeight() {
+        Histogram source = new Histogram(2);
+        source.recordValueWithCount(10, 10);
+        source.recordValueWithCount(20, 1);
+
+        CompressedHistogram compressed = new CompressedHistogram();
+        compressed.store(source);
+        Histogram target = new Histogram(2);
+        compressed.addTo(target, 0.3);
+        assertEquals(3, target.getTotalCount());
+        assertEquals(10, target.getMaxValue());
+    }
+
+    @Test
+    public void shouldReuseBufferAndBeMuchSmallerThanHistogram() {
+        Histogram source = new Histogram(3_600_000_000L, 3);
+        for (int i = 1; i <= 100; i++) {
+            source.recordValue(i * 1000);
+        }
+        CompressedHistogram compressed = new CompressedHistogram();
+        compressed.store(source);
+        int footprint = compressed.getEstimatedFootprintInBytes();
+        assertTrue(footprint * 50 < source.getEstimatedFootprintInBytes());
+
+        source.reset();
+        source.recordValue(42);
+        compressed.store(source);
+        assertEquals(footprint, compressed.getEstimatedFootprintInBytes());
+        Histogram target = new Histogram(3);
+        compressed.addTo(target, 1.0);
+        assertEquals(1, target.getTotalCount());
+        assertEquals(42, target.getMaxValue());
+
+        compressed.reset();
+        assertEquals(0, compressed.getTotalCount());
+    }
+
+    @Test
+    public void shouldKeepValuesOffHeapAndReleaseMemory() {
+        Histogram source = new Histogram(3);
+        for (int i = 1; i <= 100; i++) {
+            source.recordValue(i * 1000);
+        }
+        long allocatedBefore = DirectMemory.getAllocatedBytes();
+        CompressedHistogram compressed = new CompressedHistogram(true);
+        compressed.store(source);
+        assertTrue(compressed.getOffHeapBytes() > 0);
+        assertEquals(allocatedBefore + compressed.getOffHeapBytes(), DirectMemory.getAllocatedBytes());
+
+        Histogram target = new Histogram(3);
+        compressed.addTo(target, 1.0);
+        assertEquals(source, target);
+
+        compressed.release();
+        assertEquals(0, compressed.getOffHeapBytes());
+        assertEquals(0, compressed.getTotalCount());
+        assertEquals(allocatedBefore, DirectMemory.getAllocatedBytes());
+
+        // histogram stays usable after release
+        compressed.store(source);
+        target.reset();
+        compressed.addTo(target, 1.0);
+        assertEquals(source, target);
+        compressed.release();
+    }
+
+}
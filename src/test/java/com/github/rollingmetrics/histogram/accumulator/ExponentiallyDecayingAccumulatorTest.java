@@ -0,0 +1,107 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram.accumulator;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.github.rollingmetrics.histogram.HdrBuilder;
+import com.github.rollingmetrics.util.Clock;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class ExponentiallyDecayingAccumulatorTest {
+
+    private final AtomicLong time = new AtomicLong(0);
+    private final Reservoir reservoir = new HdrBuilder(Clock.mock(time))
+            .decayReservoirExponentially(Duration.ofMillis(1000))
+            .withoutSnapshotOptimization()
+            .buildReservoir();
+
+    @Test
+    public void recentValuesShouldHaveGreaterWeight() {
+        update(10, 100);
+        assertEquals(10.0, reservoir.getSnapshot().getMedian());
+
+        time.set(1000);
+        update(20, 100);
+        Snapshot snapshot = reservoir.getSnapshot();
+        // values recorded one half-life later have twice greater weight
+        assertEquals(20.0, snapshot.getMedian());
+        assertEquals(10.0, snapshot.getValue(0.3));
+        assertEquals(20.0, snapshot.getValue(0.4));
+        assertEquals(10, snapshot.getMin());
+        assertEquals(20, snapshot.getMax());
+    }
+
+    @Test
+    public void distributionShouldBePreservedByRescaling() {
+        update(10, 100);
+        reservoir.getSnapshot();
+        time.set(1000);
+        update(20, 100);
+        reservoir.getSnapshot();
+
+        time.set(10_000);
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertEquals(10.0, snapshot.getValue(0.3));
+        assertEquals(20.0, snapshot.getValue(0.4));
+
+        update(30, 100);
+        snapshot = reservoir.getSnapshot();
+        assertEquals(30.0, snapshot.getMedian());
+        assertEquals(10, snapshot.getMin());
+    }
+
+    @Test
+    public void veryOldValuesShouldBeForgotten() {
+        update(10, 1);
+        reservoir.getSnapshot();
+
+        time.set(40_000);
+        update(20, 1);
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertEquals(20, snapshot.getMin());
+        assertEquals(20, snapshot.getMax());
+    }
+
+    @Test
+    public void emptyReservoirShouldReturnEmptySnapshot() {
+        assertEquals(0, reservoir.getSnapshot().getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowZeroHalfLife() {
+        new HdrBuilder().decayReservoirExponentially(Duration.ZERO);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowNullHalfLife() {
+        new HdrBuilder().decayReservoirExponentially(null);
+    }
+
+    private void update(long value, int count) {
+        for (int i = 0; i < count; i++) {
+            reservoir.update(value);
+        }
+    }
+
+}
@@ -20,15 +20,28 @@ package com.github.rollingmetrics.histogram.accumulator;
 import com.codahale.metrics.Reservoir;
 import com.codahale.metrics.Snapshot;
 import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.DirectMemory;
 import com.github.rollingmetrics.histogram.HdrBuilder;
 import com.github.rollingmetrics.util.MockExecutor;
+import com.codahale.metrics.UniformSnapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
 
 public class ResetByChunksAccumulatorTest {
 
@@ -120,4 +133,178 @@ public class ResetByChunksAccumulatorTest {
         HistogramUtil.runInParallel(reservoir, TimeUnit.SECONDS.toMillis(30));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldBeRotatedByScheduler() {
+        AtomicLong time = new AtomicLong(0);
+        ResetByChunksAccumulator accumulator = new ResetByChunksAccumulator(() -> new Recorder(2), 3, 1000, Clock.mock(time), MockExecutor.INSTANCE, null, false, true);
+
+        accumulator.recordSingleValueWithExpectedInterval(10, 0);
+        time.set(1500);
+        // writer does not rotate chunks in scheduled mode
+        accumulator.recordSingleValueWithExpectedInterval(20, 0);
+        assertEquals(500, accumulator.rotate());
+        assertEquals(500, accumulator.rotate());
+
+        time.set(3500);
+        Snapshot snapshot = accumulator.getSnapshot(MIN_MAX_SNAPSHOT_TAKER);
+        assertEquals(10, snapshot.getMin());
+        assertEquals(20, snapshot.getMax());
+
+        time.set(4001);
+        snapshot = accumulator.getSnapshot(MIN_MAX_SNAPSHOT_TAKER);
+        assertEquals(0, snapshot.size());
+    }
+
+    @Test
+    public void completedChunksShouldBePassedToConsumerInBackgroundExecutor() {
+        AtomicLong time = new AtomicLong(0);
+        List<Runnable> backgroundTasks = new ArrayList<>();
+        List<Histogram> completedChunks = new ArrayList<>();
+        ResetByChunksAccumulator accumulator = new ResetByChunksAccumulator(() -> new Recorder(2), 3, 1000, Clock.mock(time), backgroundTasks::add, completedChunks::add, false, true);
+
+        accumulator.recordSingleValueWithExpectedInterval(10, 0);
+        time.set(1000);
+        accumulator.rotate();
+        accumulator.recordSingleValueWithExpectedInterval(20, 0);
+        time.set(2000);
+        accumulator.rotate();
+
+        // the scheduler thread only hands off completed chunks
+        assertTrue(completedChunks.isEmpty());
+        backgroundTasks.forEach(Runnable::run);
+
+        assertEquals(2, completedChunks.size());
+        assertEquals(0, completedChunks.get(0).getStartTimeStamp());
+        assertEquals(10, completedChunks.get(0).getMaxValue());
+        assertEquals(1000, completedChunks.get(1).getStartTimeStamp());
+        assertEquals(20, completedChunks.get(1).getMaxValue());
+    }
+
+    private static final Function<Histogram, Snapshot> MIN_MAX_SNAPSHOT_TAKER = histogram -> new UniformSnapshot(new long[] {histogram.getMinValue(), histogram.getMaxValue()});
+
+    @Test
+    public void shouldDownsampleArchivedChunks() {
+        AtomicLong time = new AtomicLong(0);
+        ArchiveOptions archiveOptions = ArchiveOptions.DEFAULT.withPrecision(1, 1);
+        ResetByChunksAccumulator accumulator = new ResetByChunksAccumulator(() -> new Recorder(3_600_000L, 3), 3, 1000, Clock.mock(time), MockExecutor.INSTANCE, null, false, false, archiveOptions);
+
+        accumulator.recordSingleValueWithExpectedInterval(12345, 0);
+        Snapshot recentSnapshot = accumulator.getSnapshot(MIN_MAX_SNAPSHOT_TAKER);
+        assertEquals(12345, recentSnapshot.getMax(), 12345 * 0.001);
+
+        time.set(1000);
+        // rotation is triggered by writer
+        accumulator.recordSingleValueWithExpectedInterval(1, 0);
+        Snapshot archivedSnapshot = accumulator.getSnapshot(MIN_MAX_SNAPSHOT_TAKER);
+        assertEquals(12345, archivedSnapshot.getMax(), 12345 * 0.1);
+        assertTrue(Math.abs(archivedSnapshot.getMax() - 12345) > 12345 * 0.001);
+        assertEquals(1, archivedSnapshot.getMin());
+    }
+
+    @Test
+    public void downsampledArchiveShouldReduceFootprint() {
+        Clock clock = Clock.mock(new AtomicLong());
+        ResetByChunksAccumulator fullPrecision = new ResetByChunksAccumulator(() -> new Recorder(3_600_000_000L, 3), 60, 1000, clock, MockExecutor.INSTANCE, null, false, false, ArchiveOptions.DEFAULT);
+        ResetByChunksAccumulator downsampled = new ResetByChunksAccumulator(() -> new Recorder(3_600_000_000L, 3), 60, 1000, clock, MockExecutor.INSTANCE, null, false, false, ArchiveOptions.DEFAULT.withPrecision(2, 1000));
+        assertTrue(downsampled.getEstimatedFootprintInBytes() * 3 < fullPrecision.getEstimatedFootprintInBytes());
+    }
+
+    @Test
+    public void archivePrecisionShouldNotBeHigherThanLivePrecision() {
+        Clock clock = Clock.mock(new AtomicLong());
+        ResetByChunksAccumulator accumulator = new ResetByChunksAccumulator(() -> new Recorder(3_600_000_000L, 2), 3, 1000, clock, MockExecutor.INSTANCE, null, false, false, ArchiveOptions.DEFAULT);
+        ResetByChunksAccumulator overPrecise = new ResetByChunksAccumulator(() -> new Recorder(3_600_000_000L, 2), 3, 1000, clock, MockExecutor.INSTANCE, null, false, false, ArchiveOptions.DEFAULT.withPrecision(5, 1));
+        assertEquals(accumulator.getEstimatedFootprintInBytes(), overPrecise.getEstimatedFootprintInBytes());
+    }
+
+    @Test
+    public void compressedArchiveShouldProduceSameSnapshots() {
+        AtomicLong time = new AtomicLong(0);
+        Clock clock = Clock.mock(time);
+        ResetByChunksAccumulator plain = new ResetByChunksAccumulator(() -> new Recorder(3_600_000L, 3), 3, 1000, clock, MockExecutor.INSTANCE, null, true, false, ArchiveOptions.DEFAULT);
+        ResetByChunksAccumulator compressed = new ResetByChunksAccumulator(() -> new Recorder(3_600_000L, 3), 3, 1000, clock, MockExecutor.INSTANCE, null, true, false, ArchiveOptions.DEFAULT.withCompression());
+
+        for (int i = 0; i < 5000; i++) {
+            time.set(i);
+            plain.recordSingleValueWithExpectedInterval(i * 7, 0);
+            compressed.recordSingleValueWithExpectedInterval(i * 7, 0);
+            if (i % 500 == 0) {
+                assertEquals(plain.getSnapshot(FULL_SNAPSHOT_TAKER).toString(), compressed.getSnapshot(FULL_SNAPSHOT_TAKER).toString());
+            }
+        }
+        assertTrue(compressed.getEstimatedFootprintInBytes() < plain.getEstimatedFootprintInBytes());
+    }
+
+    @Test
+    public void compressedArchiveCanBeDownsampled() {
+        AtomicLong time = new AtomicLong(0);
+        ArchiveOptions archiveOptions = ArchiveOptions.DEFAULT.withPrecision(1, 1).withCompression();
+        ResetByChunksAccumulator accumulator = new ResetByChunksAccumulator(() -> new Recorder(3_600_000L, 3), 3, 1000, Clock.mock(time), MockExecutor.INSTANCE, null, false, false, archiveOptions);
+
+        accumulator.recordSingleValueWithExpectedInterval(12345, 0);
+        time.set(1000);
+        accumulator.recordSingleValueWithExpectedInterval(1, 0);
+        Snapshot snapshot = accumulator.getSnapshot(MIN_MAX_SNAPSHOT_TAKER);
+        assertEquals(12345, snapshot.getMax(), 12345 * 0.1);
+        assertTrue(Math.abs(snapshot.getMax() - 12345) > 12345 * 0.001);
+        assertEquals(1, snapshot.getMin());
+    }
+
+    @Test
+    public void compressedArchiveShouldSurviveSavingAndRestoring() throws Exception {
+        AtomicLong time = new AtomicLong(0);
+        Clock clock = Clock.mock(time);
+        ArchiveOptions archiveOptions = ArchiveOptions.DEFAULT.withCompression();
+        ResetByChunksAccumulator accumulator = new ResetByChunksAccumulator(() -> new Recorder(3_600_000L, 3), 3, 1000, clock, MockExecutor.INSTANCE, null, false, false, archiveOptions);
+        accumulator.recordSingleValueWithExpectedInterval(10, 0);
+        time.set(1000);
+        accumulator.recordSingleValueWithExpectedInterval(20, 0);
+        time.set(2000);
+        accumulator.recordSingleValueWithExpectedInterval(30, 0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        accumulator.writeState(new DataOutputStream(bytes));
+
+        ResetByChunksAccumulator restored = new ResetByChunksAccumulator(() -> new Recorder(3_600_000L, 3), 3, 1000, clock, MockExecutor.INSTANCE, null, false, false, archiveOptions);
+        assertTrue(restored.readState(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        assertEquals(accumulator.getSnapshot(FULL_SNAPSHOT_TAKER).toString(), restored.getSnapshot(FULL_SNAPSHOT_TAKER).toString());
+        assertEquals(10, restored.getSnapshot(MIN_MAX_SNAPSHOT_TAKER).getMin());
+    }
+
+    @Test
+    public void offHeapArchiveShouldProduceSameSnapshotsAndBeReleasable() {
+        AtomicLong time = new AtomicLong(0);
+        Clock clock = Clock.mock(time);
+        ResetByChunksAccumulator plain = new ResetByChunksAccumulator(() -> new Recorder(3_600_000L, 3), 3, 1000, clock, MockExecutor.INSTANCE, null, false, false, ArchiveOptions.DEFAULT);
+        ResetByChunksAccumulator offHeap = new ResetByChunksAccumulator(() -> new Recorder(3_600_000L, 3), 3, 1000, clock, MockExecutor.INSTANCE, null, false, false, ArchiveOptions.DEFAULT.withOffHeapStorage());
+
+        long allocatedBefore = DirectMemory.getAllocatedBytes();
+        for (int i = 0; i < 5000; i++) {
+            time.set(i);
+            plain.recordSingleValueWithExpectedInterval(i * 7, 0);
+            offHeap.recordSingleValueWithExpectedInterval(i * 7, 0);
+            if (i % 500 == 0) {
+                assertEquals(plain.getSnapshot(FULL_SNAPSHOT_TAKER).toString(), offHeap.getSnapshot(FULL_SNAPSHOT_TAKER).toString());
+            }
+        }
+        assertTrue(DirectMemory.getAllocatedBytes() > allocatedBefore);
+
+        offHeap.release();
+        assertEquals(allocatedBefore, DirectMemory.getAllocatedBytes());
+        time.set(4500);
+        offHeap.recordSingleValueWithExpectedInterval(1, 0);
+        assertEquals(1, offHeap.getSnapshot(MIN_MAX_SNAPSHOT_TAKER).getMin());
+        offHeap.release();
+    }
+
+    private static final Function<Histogram, Snapshot> FULL_SNAPSHOT_TAKER = histogram -> {
+        long[] values = new long[] {histogram.getMinValue(), histogram.getMaxValue(), histogram.getTotalCount(), histogram.getValueAtPercentile(50.0), histogram.getValueAtPercentile(99.0)};
+        return new UniformSnapshot(values) {
+            @Override
+            public String toString() {
+                return Arrays.toString(values);
+            }
+        };
+    };
+
+}
@@ -0,0 +1,136 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram.accumulator;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.github.rollingmetrics.histogram.HdrBuilder;
+import com.github.rollingmetrics.histogram.RollupTier;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.MockExecutor;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ResetByTiersAccumulatorTest {
+
+    private final AtomicLong time = new AtomicLong(0);
+
+    // 3 chunks per second and 3 chunks per 3 seconds, so the rolling window is 9 seconds
+    private final Reservoir reservoir = new HdrBuilder(Clock.mock(time))
+            .resetReservoirPeriodicallyByTiers(
+                    RollupTier.of(Duration.ofSeconds(1), 3),
+                    RollupTier.of(Duration.ofSeconds(3), 3)
+            )
+            .withBackgroundExecutor(MockExecutor.INSTANCE)
+            .withoutSnapshotOptimization()
+            .buildReservoir();
+
+    @Test
+    public void valuesShouldBeTakenFromFineTierWhileNothingIsEvicted() {
+        recordOneValuePerSecond(0, 2);
+
+        time.set(2500);
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertEquals(3, snapshot.size());
+        assertEquals(10, snapshot.getMin());
+        assertEquals(30, snapshot.getMax());
+    }
+
+    @Test
+    public void oldValuesShouldBeTakenFromCoarseTierWithoutDuplicates() {
+        recordOneValuePerSecond(0, 11);
+
+        time.set(11_500);
+        Snapshot snapshot = reservoir.getSnapshot();
+        // [0-3) chunk of coarse tier is still alive, because it is not older than window
+        assertEquals(12, snapshot.size());
+        assertEquals(10, snapshot.getMin());
+        assertEquals(120, snapshot.getMax());
+
+        time.set(12_000);
+        snapshot = reservoir.getSnapshot();
+        assertEquals(9, snapshot.size());
+        assertEquals(40, snapshot.getMin());
+        assertEquals(120, snapshot.getMax());
+
+        time.set(15_000);
+        snapshot = reservoir.getSnapshot();
+        assertEquals(6, snapshot.size());
+        assertEquals(70, snapshot.getMin());
+    }
+
+    @Test
+    public void allValuesShouldBeEvictedAfterLongInactivity() {
+        recordOneValuePerSecond(0, 11);
+
+        time.set(100_000);
+        assertEquals(0, reservoir.getSnapshot().size());
+
+        reservoir.update(5);
+        time.set(100_500);
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertEquals(1, snapshot.size());
+        assertEquals(5, snapshot.getMax());
+    }
+
+    @Test
+    public void shouldValidateTiers() {
+        try {
+            new HdrBuilder().resetReservoirPeriodicallyByTiers();
+            fail("should require at least one tier");
+        } catch (IllegalArgumentException e) {}
+
+        try {
+            new HdrBuilder().resetReservoirPeriodicallyByTiers(RollupTier.of(Duration.ofSeconds(2), 10), RollupTier.of(Duration.ofSeconds(3), 10));
+            fail("should require multiple chunk durations");
+        } catch (IllegalArgumentException e) {}
+
+        try {
+            new HdrBuilder().resetReservoirPeriodicallyByTiers(RollupTier.of(Duration.ofMinutes(1), 10), RollupTier.of(Duration.ofSeconds(1), 10));
+            fail("should require tiers ordered from finest to coarsest");
+        } catch (IllegalArgumentException e) {}
+
+        try {
+            new HdrBuilder().resetReservoirPeriodicallyByTiers(RollupTier.of(Duration.ofSeconds(1), 10), RollupTier.of(Duration.ofMinutes(1), 10));
+            fail("should require that finer tier covers at least one chunk of coarser tier");
+        } catch (IllegalArgumentException e) {}
+
+        try {
+            RollupTier.of(Duration.ofMillis(1), 10);
+            fail("should disallow too short chunks");
+        } catch (IllegalArgumentException e) {}
+
+        try {
+            RollupTier.of(Duration.ofSeconds(1), 0);
+            fail("should disallow empty tier");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    private void recordOneValuePerSecond(int fromSecond, int toSecond) {
+        for (int second = fromSecond; second <= toSecond; second++) {
+            time.set(second * 1000L);
+            reservoir.update((second + 1) * 10);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.histogram.accumulator;
+
+import com.codahale.metrics.Reservoir;
+import com.github.rollingmetrics.histogram.HdrBuilder;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.MockExecutor;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class ResetSmoothlyByChunksAccumulatorTest {
+
+    private final AtomicLong time = new AtomicLong(0);
+    private final Reservoir reservoir = new HdrBuilder(Clock.mock(time))
+            .resetReservoirSmoothlyByChunks(Duration.ofMillis(3000), 3)
+            .withBackgroundExecutor(MockExecutor.INSTANCE)
+            .withoutSnapshotOptimization()
+            .buildReservoir();
+
+    @Test
+    public void oldestArchivedChunkShouldBeDecayedSmoothly() {
+        for (int i = 0; i < 100; i++) {
+            reservoir.update(10);
+        }
+        time.set(1000);
+        reservoir.update(20); // first chunk is moved to archive and will be invalidated at 4000
+
+        time.set(3000);
+        assertEquals(101, reservoir.getSnapshot().size());
+
+        time.set(3500);
+        assertEquals(51, reservoir.getSnapshot().size());
+        assertEquals(10, reservoir.getSnapshot().getMin());
+
+        time.set(3900);
+        assertEquals(11, reservoir.getSnapshot().size());
+
+        time.set(4000);
+        assertEquals(1, reservoir.getSnapshot().size());
+        assertEquals(20, reservoir.getSnapshot().getMin());
+    }
+
+    @Test
+    public void expiredPhaseWhichIsNotRotatedYetShouldBeDecayedSmoothly() {
+        for (int i = 0; i < 100; i++) {
+            reservoir.update(10);
+        }
+
+        time.set(2999);
+        assertEquals(100, reservoir.getSnapshot().size());
+
+        time.set(3750);
+        assertEquals(25, reservoir.getSnapshot().size());
+
+        time.set(4000);
+        assertEquals(0, reservoir.getSnapshot().size());
+    }
+
+    @Test
+    public void recentChunksShouldNotBeDecayed() {
+        reservoir.update(10);
+        time.set(1000);
+        reservoir.update(20);
+        time.set(2000);
+        reservoir.update(30);
+
+        time.set(2999);
+        assertEquals(3, reservoir.getSnapshot().size());
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.prometheus;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.rollingmetrics.counter.ResetOnSnapshotCounter;
+import com.github.rollingmetrics.counter.WindowCounter;
+import com.github.rollingmetrics.histogram.HdrBuilder;
+import com.github.rollingmetrics.hitratio.HitRatio;
+import com.github.rollingmetrics.hitratio.UniformHitRatio;
+import com.github.rollingmetrics.top.Top;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OpenMetricsExporterTest {
+
+    private final MetricRegistry registry = new MetricRegistry();
+
+    @Test
+    public void shouldExportRegistryAndRollingMetrics() {
+        registry.counter("jobs").inc(3);
+        registry.meter("events").mark(5);
+        registry.register("temperature", (Gauge<Double>) () -> 36.6);
+        registry.register("enabled", (Gauge<Boolean>) () -> true);
+        registry.register("name", (Gauge<String>) () -> "ignored");
+        new HdrBuilder().neverResetReservoir().withPredefinedPercentiles(new double[]{0.5})
+                .buildAndRegisterTimer(registry, "requests").update(2, TimeUnit.MILLISECONDS);
+
+        WindowCounter counter = new ResetOnSnapshotCounter();
+        counter.add(7);
+        HitRatio hitRatio = new UniformHitRatio();
+        hitRatio.update(1, 4);
+        Top top = Top.builder(1).neverResetPositions().withLatencyThreshold(Duration.ZERO).build();
+        top.update(1, 3, TimeUnit.SECONDS, () -> "slow");
+
+        OpenMetricsExporter exporter = new OpenMetricsExporter(registry, new double[]{0.5})
+                .addCounter("rolling.counter", counter)
+                .addHitRatio("cache.hit.ratio", hitRatio)
+                .addTop("slow.queries", top, TimeUnit.SECONDS);
+        StringBuilder output = new StringBuilder();
+        exporter.export(output);
+        String exposition = output.toString();
+
+        assertTrue(exposition, exposition.contains("# TYPE jobs gauge\njobs 3\n"));
+        assertTrue(exposition, exposition.contains("# TYPE events counter\nevents_total 5\n"));
+        assertTrue(exposition, exposition.contains("temperature 36.6\n"));
+        assertTrue(exposition, exposition.contains("enabled 1\n"));
+        assertTrue(exposition, !exposition.contains("ignored"));
+        assertTrue(exposition, exposition.contains("# TYPE requests summary\nrequests{quantile=\"0.5\"} 0.002"));
+        assertTrue(exposition, exposition.contains("requests_count 1\n"));
+        assertTrue(exposition, exposition.contains("rolling_counter 7\n"));
+        assertTrue(exposition, exposition.contains("cache_hit_ratio 0.25\n"));
+        assertTrue(exposition, exposition.contains("slow_queries{rank=\"0\",description=\"slow\"} 3\n"));
+        assertTrue(exposition, exposition.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void shouldExportIntoByteBufferAsUtf8() {
+        Top top = Top.builder(1).neverResetPositions().withLatencyThreshold(Duration.ZERO).build();
+        top.update(1, 1, TimeUnit.SECONDS, () -> "é€😀");
+        OpenMetricsExporter exporter = new OpenMetricsExporter(registry).addTop("top", top, TimeUnit.SECONDS);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        exporter.export(buffer);
+        StringBuilder expected = new StringBuilder();
+        exporter.export(expected);
+        assertEquals(expected.toString(), new String(buffer.array(), 0, buffer.position(), UTF_8));
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void shouldFailWhenBufferIsTooSmall() {
+        registry.counter("jobs").inc();
+        new OpenMetricsExporter(registry).export(ByteBuffer.allocate(8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowIllegalQuantile() {
+        new OpenMetricsExporter(registry, new double[]{2.0});
+    }
+
+    @Test(timeout = 10000)
+    public void shouldServeExpositionViaHttp() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            // exposition does not fit into initial buffer
+            registry.counter("counter-number-" + i).inc(i);
+        }
+        // each snapshot of reset-on-snapshot metric consumes its state, so metrics should be read exactly once per scrape
+        AtomicInteger reads = new AtomicInteger();
+        registry.register("reads", (Gauge<Integer>) reads::incrementAndGet);
+        OpenMetricsExporter exporter = new OpenMetricsExporter(registry);
+        try (OpenMetricsHttpServer server = new OpenMetricsHttpServer(new InetSocketAddress("localhost", 0), "/metrics", exporter)) {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(OpenMetricsExporter.CONTENT_TYPE, connection.getContentType());
+            String body;
+            try (InputStream input = connection.getInputStream()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8192];
+                int read;
+                while ((read = input.read(chunk)) > 0) {
+                    bytes.write(chunk, 0, read);
+                }
+                body = new String(bytes.toByteArray(), UTF_8);
+            }
+            assertTrue(body.contains("counter_number_4999 4999\n"));
+            assertTrue(body.endsWith("# EOF\n"));
+            assertEquals(1, reads.get());
+
+            HttpURLConnection head = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/metrics").openConnection();
+            head.setRequestMethod("HEAD");
+            assertEquals(200, head.getResponseCode());
+            assertEquals(1, reads.get());
+
+            HttpURLConnection post = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/metrics").openConnection();
+            post.setRequestMethod("POST");
+            assertEquals(405, post.getResponseCode());
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.prometheus;
+
+import com.codahale.metrics.Reservoir;
+import com.github.rollingmetrics.histogram.HdrBuilder;
+import com.github.rollingmetrics.histogram.MergeableSnapshot;
+import com.github.rollingmetrics.top.Top;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OpenMetricsWriterTest {
+
+    private final StringBuilder output = new StringBuilder();
+    private final OpenMetricsWriter writer = new OpenMetricsWriter(output);
+
+    @Test
+    public void shouldFormatLongs() {
+        checkLong(0, "0");
+        checkLong(7, "7");
+        checkLong(10, "10");
+        checkLong(-1234567890123L, "-1234567890123");
+        checkLong(Long.MAX_VALUE, "9223372036854775807");
+        checkLong(Long.MIN_VALUE, "-9223372036854775808");
+    }
+
+    @Test
+    public void shouldFormatDoubles() {
+        checkDouble(0.0, "0");
+        checkDouble(42.0, "42");
+        checkDouble(0.5, "0.5");
+        checkDouble(-2.25, "-2.25");
+        checkDouble(0.000000001, "0.000000001");
+        checkDouble(0.999, "0.999");
+        checkDouble(1.9999999999, "2");
+        checkDouble(Double.NaN, "NaN");
+        checkDouble(Double.POSITIVE_INFINITY, "+Inf");
+        checkDouble(Double.NEGATIVE_INFINITY, "-Inf");
+        checkDouble(1e20, "1.0E20");
+    }
+
+    @Test
+    public void shouldSanitizeNames() {
+        writer.writeGauge("my.metric-1", 1);
+        assertEquals("# TYPE my_metric_1 gauge\nmy_metric_1 1\n", output.toString());
+    }
+
+    @Test
+    public void shouldWriteCounter() {
+        writer.writeCounter("requests", 42);
+        writer.writeEof();
+        assertEquals("# TYPE requests counter\nrequests_total 42\n# EOF\n", output.toString());
+    }
+
+    @Test
+    public void shouldWriteSummary() {
+        Reservoir reservoir = new HdrBuilder().neverResetReservoir().withPredefinedPercentiles(new double[]{0.5, 0.9}).buildReservoir();
+        for (int i = 1; i <= 10; i++) {
+            reservoir.update(i);
+        }
+        writer.writeSummary("latency", reservoir.getSnapshot(), 10, new double[]{0.5, 0.9}, 1.0);
+        assertEquals("# TYPE latency summary\n" +
+                "latency{quantile=\"0.5\"} 5\n" +
+                "latency{quantile=\"0.9\"} 9\n" +
+                "latency_count 10\n", output.toString());
+    }
+
+    @Test
+    public void shouldWriteHistogramWithExponentialBuckets() {
+        Reservoir reservoir = new HdrBuilder().neverResetReservoir().withMergeableSnapshots().buildReservoir();
+        reservoir.update(1);
+        reservoir.update(3);
+        reservoir.update(3);
+        reservoir.update(6);
+        writer.writeHistogram("size", (MergeableSnapshot) reservoir.getSnapshot(), 1.0);
+        assertEquals("# TYPE size histogram\n" +
+                "size_bucket{le=\"0\"} 0\n" +
+                "size_bucket{le=\"1\"} 1\n" +
+                "size_bucket{le=\"3\"} 3\n" +
+                "size_bucket{le=\"7\"} 4\n" +
+                "size_bucket{le=\"+Inf\"} 4\n" +
+                "size_count 4\n", output.toString());
+    }
+
+    @Test
+    public void shouldWriteTopWithEscapedDescriptions() {
+        Top top = Top.builder(2).neverResetPositions().withLatencyThreshold(Duration.ZERO).build();
+        top.update(1, 2, TimeUnit.MILLISECONDS, () -> "SELECT \"x\"\nFROM t");
+        top.update(2, 1, TimeUnit.MILLISECONDS, () -> "c:\\");
+        writer.writeTop("queries", top, TimeUnit.MILLISECONDS);
+        assertEquals("# TYPE queries gauge\n" +
+                "queries{rank=\"0\",description=\"SELECT \\\"x\\\"\\nFROM t\"} 2\n" +
+                "queries{rank=\"1\",description=\"c:\\\\\"} 1\n", output.toString());
+    }
+
+    @Test
+    public void shouldBeReusableForAnotherTarget() {
+        StringBuilder anotherOutput = new StringBuilder();
+        writer.setTarget(anotherOutput);
+        writer.writeEof();
+        assertTrue(output.length() == 0);
+        assertEquals("# EOF\n", anotherOutput.toString());
+    }
+
+    private void checkLong(long value, String expected) {
+        output.setLength(0);
+        writer.appendLong(value);
+        assertEquals(expected, output.toString());
+    }
+
+    private void checkDouble(double value, String expected) {
+        output.setLength(0);
+        writer.appendDouble(value);
+        assertEquals(expected, output.toString());
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.shared;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformSnapshot;
+import com.github.rollingmetrics.counter.ResetOnSnapshotCounter;
+import com.github.rollingmetrics.counter.ResetPeriodicallyCounter;
+import com.github.rollingmetrics.counter.WindowCounter;
+import com.github.rollingmetrics.histogram.HdrBuilder;
+import com.github.rollingmetrics.hitratio.HitRatio;
+import com.github.rollingmetrics.hitratio.UniformHitRatio;
+import com.github.rollingmetrics.util.Clock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SharedMetricsPublisherTest {
+
+    private static final double[] QUANTILES = new double[] {0.99, 0.5};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldPublishAllTypesOfMetrics() throws Exception {
+        Path file = folder.newFile("metrics").toPath();
+        AtomicLong time = new AtomicLong(42_000);
+        WindowCounter counter = new ResetOnSnapshotCounter();
+        counter.add(13);
+        HitRatio hitRatio = new UniformHitRatio();
+        hitRatio.update(1, 4);
+        Histogram histogram = new HdrBuilder().withPredefinedPercentiles(new double[] {0.5, 0.99}).buildHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.update(i);
+        }
+        Timer timer = new HdrBuilder().buildTimer();
+        timer.update(5, TimeUnit.NANOSECONDS);
+
+        try (SharedMetricsPublisher publisher = new SharedMetricsPublisher(file, 10, QUANTILES, Clock.mock(time));
+             SharedMetricsReader reader = new SharedMetricsReader(file)) {
+            publisher.addCounter("counter", counter)
+                    .addHitRatio("hit-ratio", hitRatio)
+                    .addHistogram("histogram", histogram)
+                    .addTimer("timer", timer);
+            assertEquals(0, reader.getPublishTimestamp());
+            publisher.publish();
+
+            assertEquals(Arrays.asList("counter", "hit-ratio", "histogram", "timer"), reader.getNames());
+            assertArrayEquals(new double[] {0.5, 0.99}, reader.getQuantiles(), 0.0);
+            assertEquals(42_000, reader.getPublishTimestamp());
+
+            assertEquals(SharedMetricType.COUNTER, reader.getType("counter"));
+            assertEquals(13, reader.readCounter("counter"));
+            assertEquals(SharedMetricType.HIT_RATIO, reader.getType("hit-ratio"));
+            assertEquals(0.25, reader.readHitRatio("hit-ratio"), 0.0);
+
+            SharedMetricsReader.HistogramSummary summary = reader.readHistogram("histogram");
+            assertEquals(100, summary.getCount());
+            assertEquals(1.0, summary.getMin(), 0.0);
+            assertEquals(100.0, summary.getMax(), 0.0);
+            assertEquals(50.0, summary.getValue(0.5), 1.0);
+            assertEquals(99.0, summary.getValue(0.99), 1.0);
+
+            SharedMetricsReader.HistogramSummary timerSummary = reader.readHistogram("timer");
+            assertEquals(1, timerSummary.getCount());
+            assertEquals(5.0, timerSummary.getMax(), 0.0);
+        }
+    }
+
+    @Test
+    public void readerShouldDiscoverMetricsAddedAfterOpening() throws Exception {
+        Path file = folder.newFile("metrics").toPath();
+        try (SharedMetricsPublisher publisher = new SharedMetricsPublisher(file, 10);
+             SharedMetricsReader reader = new SharedMetricsReader(file)) {
+            assertTrue(reader.getNames().isEmpty());
+
+            WindowCounter counter = new ResetOnSnapshotCounter();
+            counter.add(7);
+            publisher.addCounter("late", counter);
+            publisher.publish();
+            assertEquals(7, reader.readCounter("late"));
+        }
+    }
+
+    @Test
+    public void readerShouldObserveConsistentValues() throws Exception {
+        Path file = folder.newFile("metrics").toPath();
+        AtomicLong sequence = new AtomicLong();
+        // all statistics of snapshot are equal, so torn read is easy to detect
+        Histogram histogram = new Histogram(new Reservoir() {
+            @Override
+            public int size() {
+                return 1;
+            }
+
+            @Override
+            public void update(long value) {
+            }
+
+            @Override
+            public Snapshot getSnapshot() {
+                return new UniformSnapshot(new long[] {sequence.incrementAndGet()});
+            }
+        });
+        try (SharedMetricsPublisher publisher = new SharedMetricsPublisher(file, 1, QUANTILES);
+             SharedMetricsReader reader = new SharedMetricsReader(file)) {
+            publisher.addHistogram("histogram", histogram);
+            AtomicBoolean stopped = new AtomicBoolean();
+            Thread publisherThread = new Thread(() -> {
+                while (!stopped.get()) {
+                    publisher.publish();
+                }
+            });
+            publisherThread.start();
+            try {
+                for (int i = 0; i < 100_000; i++) {
+                    SharedMetricsReader.HistogramSummary summary = reader.readHistogram("histogram");
+                    assertEquals(summary.toString(), summary.getMin(), summary.getMax(), 0.0);
+                    assertEquals(summary.toString(), summary.getMin(), summary.getMean(), 0.0);
+                    assertEquals(summary.toString(), summary.getMin(), summary.getValue(0.5), 0.0);
+                    assertEquals(summary.toString(), summary.getMin(), summary.getValue(0.99), 0.0);
+                }
+            } finally {
+                stopped.set(true);
+                publisherThread.join();
+            }
+        }
+    }
+
+    @Test
+    public void shouldPublishPeriodically() throws Exception {
+        Path file = folder.newFile("metrics").toPath();
+        WindowCounter counter = new ResetPeriodicallyCounter(Duration.ofMinutes(1));
+        try (SharedMetricsPublisher publisher = new SharedMetricsPublisher(file, 1);
+             SharedMetricsReader reader = new SharedMetricsReader(file)) {
+            publisher.addCounter("counter", counter);
+            counter.add(3);
+            publisher.startPublishing(Duration.ofMillis(10));
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (reader.readCounter("counter") != 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(3, reader.readCounter("counter"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectDuplicateNames() throws Exception {
+        try (SharedMetricsPublisher publisher = new SharedMetricsPublisher(folder.newFile("metrics").toPath(), 10)) {
+            publisher.addCounter("counter", new ResetOnSnapshotCounter());
+            publisher.addHitRatio("counter", new UniformHitRatio());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTooLongNames() throws Exception {
+        char[] name = new char[SharedMetricsLayout.MAX_NAME_BYTES + 1];
+        Arrays.fill(name, 'x');
+        try (SharedMetricsPublisher publisher = new SharedMetricsPublisher(folder.newFile("metrics").toPath(), 10)) {
+            publisher.addCounter(new String(name), new ResetOnSnapshotCounter());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldCheckCapacity() throws Exception {
+        try (SharedMetricsPublisher publisher = new SharedMetricsPublisher(folder.newFile("metrics").toPath(), 1)) {
+            publisher.addCounter("first", new ResetOnSnapshotCounter());
+            publisher.addCounter("second", new ResetOnSnapshotCounter());
+        }
+    }
+
+    @Test
+    public void readerShouldReopenFileReplacedByRestartedPublisher() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("metrics");
+        WindowCounter first = new ResetOnSnapshotCounter();
+        first.add(1);
+        WindowCounter second = new ResetOnSnapshotCounter();
+        second.add(2);
+        SharedMetricsPublisher publisher = new SharedMetricsPublisher(file, 10);
+        publisher.addCounter("first", first).addCounter("second", second);
+        publisher.publish();
+        try (SharedMetricsReader reader = new SharedMetricsReader(file)) {
+            assertEquals(2, reader.readCounter("second"));
+
+            // restarted service publishes smaller file with different order of metrics
+            second.add(20);
+            try (SharedMetricsPublisher restartedPublisher = new SharedMetricsPublisher(file, 1)) {
+                restartedPublisher.addCounter("second", second);
+                restartedPublisher.publish();
+                assertEquals(20, reader.readCounter("second"));
+                assertEquals(Arrays.asList("second"), reader.getNames());
+            }
+            // the replaced file stays mapped by first publisher, so it is not truncated
+            publisher.close();
+        }
+        assertEquals(1, folder.getRoot().listFiles().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readerShouldCheckType() throws Exception {
+        Path file = folder.newFile("metrics").toPath();
+        try (SharedMetricsPublisher publisher = new SharedMetricsPublisher(file, 1);
+             SharedMetricsReader reader = new SharedMetricsReader(file)) {
+            publisher.addCounter("counter", new ResetOnSnapshotCounter());
+            reader.readHitRatio("counter");
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readerShouldRejectForeignFile() throws Exception {
+        Path file = folder.newFile("metrics").toPath();
+        Files.write(file, new byte[1024]);
+        new SharedMetricsReader(file);
+    }
+
+}
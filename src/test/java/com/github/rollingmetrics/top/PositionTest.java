@@ -20,6 +20,8 @@ package com.github.rollingmetrics.top;
 import org.junit.Test;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import static org.junit.Assert.*;
@@ -59,4 +61,29 @@ public class PositionTest {
         System.out.println(position.toString());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldFormatDeferredDescriptionOnlyOnce() {
+        AtomicInteger formatCount = new AtomicInteger();
+        Function<StringBuilder, String> formatter = handle -> {
+            formatCount.incrementAndGet();
+            return handle.toString();
+        };
+        Position position = new Position(1, 2, TimeUnit.MILLISECONDS, new StringBuilder("SELECT * FROM DUAL"), formatter, 6);
+        assertEquals(0, formatCount.get());
+        assertEquals(2_000_000L, position.getLatencyInNanoseconds());
+        assertEquals(0, position.compareTo(position));
+        assertEquals(0, formatCount.get());
+
+        assertEquals("SELECT", position.getQueryDescription());
+        assertEquals("SELECT", position.getQueryDescription());
+        assertEquals(1, formatCount.get());
+        assertEquals(new Position(1, 2, TimeUnit.MILLISECONDS, "SELECT"), position);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldDisallowNullFormattedDescription() {
+        Function<Object, String> formatter = handle -> null;
+        new Position(1, 2, TimeUnit.MILLISECONDS, new Object(), formatter, 1000).getQueryDescription();
+    }
+
+}
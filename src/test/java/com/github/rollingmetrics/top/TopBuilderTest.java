@@ -23,6 +23,8 @@ import com.github.rollingmetrics.util.Clock;
 import org.junit.Test;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.github.rollingmetrics.top.TestData.first;
@@ -31,6 +33,7 @@ import static com.github.rollingmetrics.top.TopBuilder.MIN_CHUNK_RESETTING_INTER
 import static com.github.rollingmetrics.top.impl.TopTestUtil.checkOrder;
 import static com.github.rollingmetrics.top.impl.TopTestUtil.update;
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
 
 public class TopBuilderTest {
 
@@ -44,6 +47,16 @@ public class TopBuilderTest {
         Top.builder(1).withPositionCount(TopBuilder.MAX_POSITION_COUNT + 1);
     }
 
+    @Test(expected = IllegalStateException.class)
+    public void scheduledRotationShouldBeDisallowedForUniformTop() {
+        Top.builder(1).neverResetPositions().withScheduledRotation().build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void scheduledRotationShouldBeDisallowedForResetOnSnapshotTop() {
+        Top.builder(1).resetAllPositionsOnSnapshot().withScheduledRotation().build();
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void zeroPositionsShouldBeDisallowed() {
         Top.builder(0);
@@ -183,4 +196,90 @@ public class TopBuilderTest {
         TopTestUtil.checkOrder(top, TestData.second, TestData.first);
     }
 
-}
\ No newline at end of file
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroRecorderStripesShouldBeDisallowed() {
+        Top.builder(1).withStripedRecorder(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyRecorderStripesShouldBeDisallowed() {
+        Top.builder(1).withStripedRecorder(TopBuilder.MAX_RECORDER_STRIPES + 1);
+    }
+
+    @Test
+    public void stripedRecorderShouldBeUsedByAllStrategies() {
+        for (TopBuilder builder : new TopBuilder[] {
+                Top.builder(2).neverResetPositions(),
+                Top.builder(2).resetAllPositionsOnSnapshot(),
+                Top.builder(2).resetAllPositionsPeriodically(Duration.ofSeconds(1)),
+                Top.builder(2).resetPositionsPeriodicallyByChunks(Duration.ofSeconds(2), 2)}) {
+            long plainFootprint = builder.getEstimatedFootprintInBytes();
+            Top top = builder.withStripedRecorder(3).withSnapshotCachingDuration(Duration.ZERO).build();
+            assertTrue(builder.getEstimatedFootprintInBytes() > plainFootprint);
+
+            TopTestUtil.update(top, TestData.first);
+            TopTestUtil.update(top, TestData.second);
+            TopTestUtil.update(top, TestData.third);
+            TopTestUtil.checkOrder(top, TestData.third, TestData.second);
+        }
+    }
+
+    @Test
+    public void threadLocalRecorderShouldBeUsedByAllStrategies() {
+        for (TopBuilder builder : new TopBuilder[] {
+                Top.builder(2).neverResetPositions(),
+                Top.builder(2).resetAllPositionsOnSnapshot(),
+                Top.builder(2).resetAllPositionsPeriodically(Duration.ofSeconds(1)),
+                Top.builder(2).resetPositionsPeriodicallyByChunks(Duration.ofSeconds(2), 2)}) {
+            long plainFootprint = builder.getEstimatedFootprintInBytes();
+            Top top = builder.withThreadLocalRecorder().withSnapshotCachingDuration(Duration.ZERO).build();
+            assertTrue(builder.getEstimatedFootprintInBytes() >= plainFootprint);
+
+            TopTestUtil.update(top, TestData.first);
+            TopTestUtil.update(top, TestData.second);
+            TopTestUtil.update(top, TestData.third);
+            TopTestUtil.checkOrder(top, TestData.third, TestData.second);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyScalablePositionsShouldBeDisallowed() {
+        Top.scalableBuilder(TopBuilder.MAX_SCALABLE_POSITION_COUNT + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyScalableChunksShouldBeDisallowed() {
+        Top.scalableBuilder(1).resetPositionsPeriodicallyByChunks(Duration.ofDays(1), TopBuilder.MAX_SCALABLE_CHUNKS + 1);
+    }
+
+    @Test
+    public void scalableTopShouldHoldMorePositionsThanRegularTop() {
+        int size = TopBuilder.MAX_POSITION_COUNT * 10;
+        AtomicLong currentTimeMillis = new AtomicLong(0L);
+        Top top = Top.scalableBuilder(size)
+                .resetPositionsPeriodicallyByChunks(Duration.ofMinutes(60), 60)
+                .withMaxLengthOfQueryDescription(TopBuilder.MIN_LENGTH_OF_QUERY_DESCRIPTION)
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .withClock(Clock.mock(currentTimeMillis))
+                .build();
+
+        int valuesPerChunk = size;
+        int chunks = 5;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            for (int i = 0; i < valuesPerChunk; i++) {
+                long latency = (long) i * chunks + chunk;
+                top.update(latency, latency, TimeUnit.NANOSECONDS, () -> "query");
+            }
+            currentTimeMillis.addAndGet(Duration.ofMinutes(1).toMillis());
+            top.getPositionsInDescendingOrder();
+        }
+
+        List<Position> positions = top.getPositionsInDescendingOrder();
+        assertEquals(size, positions.size());
+        long expectedLatency = (long) valuesPerChunk * chunks - 1;
+        for (Position position : positions) {
+            assertEquals(expectedLatency--, position.getLatencyInNanoseconds());
+        }
+    }
+
+}
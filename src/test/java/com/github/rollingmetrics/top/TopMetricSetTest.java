@@ -19,13 +19,18 @@ package com.github.rollingmetrics.top;
 
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Metric;
+import com.github.rollingmetrics.util.Clock;
 import org.junit.Test;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import static com.github.rollingmetrics.top.TestData.first;
 import static com.github.rollingmetrics.top.TestData.second;
@@ -104,6 +109,82 @@ public class TopMetricSetTest {
         checkValues(metricSet, "my-top", 3, 13.345d, 11.666d, 2.004d);
     }
 
+    @Test
+    public void testValueGaugesWithManyDigitsAfterDecimalPoint() {
+        TopMetricSet metricSet = new TopMetricSet("my-top", top, TimeUnit.SECONDS, 20);
+        top.update(0, 1, TimeUnit.NANOSECONDS, () -> "SELECT * FROM DUAL");
+        Gauge<BigDecimal> gauge = (Gauge<BigDecimal>) metricSet.getMetrics().get("my-top.0.latency");
+        assertEquals(new BigDecimal("0.00000000100000000000"), gauge.getValue());
+    }
+
+    @Test
+    public void shouldTakeSingleSnapshotPerReportingCycle() {
+        AtomicInteger snapshotCount = new AtomicInteger();
+        Top countingTop = new Top() {
+            @Override
+            public void update(long timestamp, long latencyTime, TimeUnit latencyUnit, Supplier<String> descriptionSupplier) {
+                top.update(timestamp, latencyTime, latencyUnit, descriptionSupplier);
+            }
+            @Override
+            public List<Position> getPositionsInDescendingOrder() {
+                snapshotCount.incrementAndGet();
+                return top.getPositionsInDescendingOrder();
+            }
+            @Override
+            public int getSize() {
+                return top.getSize();
+            }
+        };
+        TopMetricSet metricSet = new TopMetricSet("my-top", countingTop, TimeUnit.MILLISECONDS, 3);
+
+        update(countingTop, first);
+        checkDescriptions(metricSet, "my-top", first.getQueryDescription(), "", "");
+        checkValues(metricSet, "my-top", 3, 1.0d, 0.0d, 0.0d);
+        assertEquals(1, snapshotCount.get());
+
+        // second read of the same gauge starts the new reporting cycle
+        update(countingTop, second);
+        checkValues(metricSet, "my-top", 3, 2.0d, 1.0d, 0.0d);
+        checkDescriptions(metricSet, "my-top", second.getQueryDescription(), first.getQueryDescription(), "");
+        assertEquals(2, snapshotCount.get());
+    }
+
+    @Test
+    public void gaugesReadBySubsetShouldNotReturnStaleSnapshot() {
+        AtomicLong currentTimeMillis = new AtomicLong(0L);
+        TopMetricSet metricSet = new TopMetricSet("my-top", top, TimeUnit.MILLISECONDS, 3, Duration.ofSeconds(1), Clock.mock(currentTimeMillis));
+        Gauge<String> firstDescription = (Gauge<String>) metricSet.getMetrics().get("my-top.0.description");
+        Gauge<String> secondDescription = (Gauge<String>) metricSet.getMetrics().get("my-top.1.description");
+
+        // filtered reporter reads only the first gauge in each cycle
+        update(top, first);
+        assertEquals(first.getQueryDescription(), firstDescription.getValue());
+        currentTimeMillis.addAndGet(1000L);
+        update(top, second);
+        assertEquals(second.getQueryDescription(), firstDescription.getValue());
+
+        // other reporter reads the second gauge at first time after several cycles
+        currentTimeMillis.addAndGet(1000L);
+        update(top, TestData.fourth);
+        assertEquals(second.getQueryDescription(), secondDescription.getValue());
+        // the gauges which are read in the same cycle share the snapshot
+        update(top, TestData.fifth);
+        assertEquals(TestData.fourth.getQueryDescription(), firstDescription.getValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowNegativeMaxSnapshotAge() {
+        new TopMetricSet("my-top", top, TimeUnit.MILLISECONDS, 3, Duration.ofSeconds(-1));
+    }
+
+    @Test
+    public void shouldReuseLatencyValueWhenPositionIsNotChanged() {
+        TopMetricSet metricSet = new TopMetricSet("my-top", top, TimeUnit.MILLISECONDS, 3);
+        top.update(0, 13_345_456, TimeUnit.NANOSECONDS, () -> "SELECT * FROM USERS");
+        Gauge<BigDecimal> gauge = (Gauge<BigDecimal>) metricSet.getMetrics().get("my-top.0.latency");
+        assertSame(gauge.getValue(), gauge.getValue());
+    }
+
     private void checkDescriptions(TopMetricSet metricSet, String name, String... requiredDescriptions) {
         for (int i = 0; i < requiredDescriptions.length; i++) {
             String requiredDescription = requiredDescriptions[i];
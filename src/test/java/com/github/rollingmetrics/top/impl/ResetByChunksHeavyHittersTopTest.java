@@ -0,0 +1,279 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.top.impl;
+
+import com.github.rollingmetrics.top.HeavyHitter;
+import com.github.rollingmetrics.top.HeavyHittersRanking;
+import com.github.rollingmetrics.top.HeavyHittersTop;
+import com.github.rollingmetrics.top.TopBuilder;
+import com.github.rollingmetrics.util.Clock;
+import com.github.rollingmetrics.util.FootprintGovernor;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class ResetByChunksHeavyHittersTopTest {
+
+    private final FootprintGovernor governor = new FootprintGovernor();
+
+    @Test
+    public void shouldAggregateByKey() {
+        HeavyHittersTop top = HeavyHittersTop.builder(2)
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .withFootprintGovernor(governor)
+                .build();
+        assertTrue(top.getHeavyHittersInDescendingOrder().isEmpty());
+
+        for (int i = 0; i < 10; i++) {
+            top.update("select a", 10, TimeUnit.MILLISECONDS);
+        }
+        top.update("select b", 50, TimeUnit.MILLISECONDS);
+        top.update("select c", 1, TimeUnit.MILLISECONDS);
+
+        checkKeys(top, "select a", "select b");
+        HeavyHitter first = top.getHeavyHittersInDescendingOrder().get(0);
+        assertEquals(10, first.getCount());
+        assertEquals(100, first.getTotalLatency(TimeUnit.MILLISECONDS));
+        assertEquals(10, first.getMaxLatency(TimeUnit.MILLISECONDS));
+        assertEquals(0, first.getError());
+    }
+
+    @Test
+    public void shouldRankByCountAndMaxLatency() {
+        HeavyHittersTop byCount = HeavyHittersTop.builder(1)
+                .rankBy(HeavyHittersRanking.COUNT)
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .withFootprintGovernor(governor)
+                .build();
+        HeavyHittersTop byMax = HeavyHittersTop.builder(1)
+                .rankBy(HeavyHittersRanking.MAX_LATENCY)
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .withFootprintGovernor(governor)
+                .build();
+        for (HeavyHittersTop top : new HeavyHittersTop[] {byCount, byMax}) {
+            top.update("frequent", 1, TimeUnit.MILLISECONDS);
+            top.update("frequent", 1, TimeUnit.MILLISECONDS);
+            top.update("slow", 5, TimeUnit.MILLISECONDS);
+        }
+        checkKeys(byCount, "frequent");
+        checkKeys(byMax, "slow");
+    }
+
+    @Test
+    public void shouldReplaceMinimalKeyWhenCapacityExhausted() {
+        HeavyHittersTop top = HeavyHittersTop.builder(1)
+                .withCapacity(2)
+                .rankBy(HeavyHittersRanking.COUNT)
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .withFootprintGovernor(governor)
+                .build();
+        top.update("a", 1, TimeUnit.MILLISECONDS);
+        top.update("a", 1, TimeUnit.MILLISECONDS);
+        top.update("a", 1, TimeUnit.MILLISECONDS);
+        top.update("b", 1, TimeUnit.MILLISECONDS);
+        top.update("c", 1, TimeUnit.MILLISECONDS);
+        top.update("c", 1, TimeUnit.MILLISECONDS);
+        top.update("c", 1, TimeUnit.MILLISECONDS);
+
+        // "c" inherited counter of "b", so it overtakes "a" with error 1
+        List<HeavyHitter> heavyHitters = top.getHeavyHittersInDescendingOrder();
+        assertEquals("c", heavyHitters.get(0).getKey());
+        assertEquals(4, heavyHitters.get(0).getCount());
+        assertEquals(1, heavyHitters.get(0).getError());
+    }
+
+    @Test
+    public void shouldResetOnSnapshot() {
+        HeavyHittersTop top = HeavyHittersTop.builder(2)
+                .resetAllPositionsOnSnapshot()
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .withFootprintGovernor(governor)
+                .build();
+        top.update("a", 1, TimeUnit.MILLISECONDS);
+        checkKeys(top, "a");
+        checkKeys(top);
+    }
+
+    @Test
+    public void shouldEvictChunks() {
+        AtomicLong currentTimeMillis = new AtomicLong(0L);
+        HeavyHittersTop top = HeavyHittersTop.builder(3)
+                .resetPositionsPeriodicallyByChunks(Duration.ofSeconds(3), 3)
+                .withClock(Clock.mock(currentTimeMillis))
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .withFootprintGovernor(governor)
+                .build();
+
+        top.update("a", 3, TimeUnit.MILLISECONDS);
+        currentTimeMillis.addAndGet(1000L); //1000
+        top.update("b", 2, TimeUnit.MILLISECONDS);
+        currentTimeMillis.addAndGet(1000L); //2000
+        top.update("c", 1, TimeUnit.MILLISECONDS);
+        top.update("a", 3, TimeUnit.MILLISECONDS);
+        checkKeys(top, "a", "b", "c");
+
+        currentTimeMillis.addAndGet(1000L); //3000
+        checkKeys(top, "a", "b", "c");
+
+        currentTimeMillis.addAndGet(1000L); //4000
+        checkKeys(top, "a", "b", "c");
+
+        currentTimeMillis.addAndGet(1000L); //5000
+        checkKeys(top, "a", "c");
+        assertEquals(3, top.getHeavyHittersInDescendingOrder().get(0).getTotalLatency(TimeUnit.MILLISECONDS));
+
+        currentTimeMillis.addAndGet(1000L); //6000
+        checkKeys(top);
+    }
+
+    @Test
+    public void shouldResetPeriodically() {
+        AtomicLong currentTimeMillis = new AtomicLong(0L);
+        HeavyHittersTop top = HeavyHittersTop.builder(3)
+                .resetAllPositionsPeriodically(Duration.ofSeconds(1))
+                .withClock(Clock.mock(currentTimeMillis))
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .withFootprintGovernor(governor)
+                .build();
+
+        top.update("a", 1, TimeUnit.MILLISECONDS);
+        checkKeys(top, "a");
+        currentTimeMillis.addAndGet(1000L);
+        checkKeys(top);
+        top.update("b", 1, TimeUnit.MILLISECONDS);
+        checkKeys(top, "b");
+    }
+
+    @Test
+    public void shouldMergeStripesUpdatedByDifferentThreads() throws Exception {
+        HeavyHittersTop top = HeavyHittersTop.builder(2)
+                .withStripes(8)
+                .withSnapshotCachingDuration(Duration.ZERO)
+                .withFootprintGovernor(governor)
+                .build();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    top.update("a", 2, TimeUnit.MILLISECONDS);
+                    top.update("b", 1, TimeUnit.MILLISECONDS);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        checkKeys(top, "a", "b");
+        HeavyHitter first = top.getHeavyHittersInDescendingOrder().get(0);
+        assertEquals(8000, first.getCount());
+        assertEquals(16000, first.getTotalLatency(TimeUnit.MILLISECONDS));
+        assertEquals(0, first.getError());
+    }
+
+    @Test
+    public void shouldNotUnderestimateKeyEvictedFromOneOfStripes() throws Exception {
+        ResetByChunksHeavyHittersTop top = new ResetByChunksHeavyHittersTop(2, 2, HeavyHittersRanking.COUNT, Long.MAX_VALUE, 0, false, 2, Clock.defaultClock());
+        Thread first = new Thread(() -> {
+            update(top, "a", 5);
+            update(top, "b", 1);
+            // "c" evicts "b" and inherits its count
+            update(top, "c", 1);
+        });
+        Thread second = null;
+        while (second == null) {
+            Thread candidate = new Thread(() -> {
+                update(top, "a", 1);
+                update(top, "x", 3);
+                // "y" evicts "a", so one of six updates of "a" is not tracked anymore
+                update(top, "y", 3);
+            });
+            if (top.stripeIndex(candidate.getId()) != top.stripeIndex(first.getId())) {
+                second = candidate;
+            }
+        }
+        first.start();
+        first.join();
+        second.start();
+        second.join();
+
+        HeavyHitter a = top.getHeavyHittersInDescendingOrder().get(0);
+        assertEquals("a", a.getKey());
+        // minimum of stripe from which "a" was evicted is added to count and error
+        assertEquals(8, a.getCount());
+        assertEquals(3, a.getError());
+        assertTrue(a.getCount() >= 6 && a.getCount() - a.getError() <= 6);
+    }
+
+    @Test
+    public void shouldCacheSnapshot() {
+        AtomicLong currentTimeMillis = new AtomicLong(0L);
+        HeavyHittersTop top = HeavyHittersTop.builder(2)
+                .resetAllPositionsOnSnapshot()
+                .withSnapshotCachingDuration(Duration.ofSeconds(1))
+                .withClock(Clock.mock(currentTimeMillis))
+                .withFootprintGovernor(governor)
+                .build();
+        top.update("a", 1, TimeUnit.MILLISECONDS);
+        checkKeys(top, "a");
+        top.update("b", 1, TimeUnit.MILLISECONDS);
+        // the second reader in the same second observes the same snapshot instead of consuming the new data
+        checkKeys(top, "a");
+
+        currentTimeMillis.addAndGet(1000L);
+        checkKeys(top, "b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowTooManyStripes() {
+        HeavyHittersTop.builder(10).withStripes(TopBuilder.MAX_RECORDER_STRIPES + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowCapacityLesserThanSize() {
+        HeavyHittersTop.builder(10).withCapacity(9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowNullKey() {
+        HeavyHittersTop.builder(10).withFootprintGovernor(governor).build().update(null, 1, TimeUnit.MILLISECONDS);
+    }
+
+    private static void update(HeavyHittersTop top, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            top.update(key, 1, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void checkKeys(HeavyHittersTop top, String... keys) {
+        List<HeavyHitter> heavyHitters = top.getHeavyHittersInDescendingOrder();
+        assertEquals(keys.length, heavyHitters.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(keys[i], heavyHitters.get(i).getKey());
+        }
+    }
+
+}
@@ -17,6 +17,7 @@
 
 package com.github.rollingmetrics.top.impl;
 
+import com.github.rollingmetrics.top.Position;
 import com.github.rollingmetrics.top.Top;
 import com.github.rollingmetrics.util.Clock;
 import com.github.rollingmetrics.util.MockExecutor;
@@ -24,8 +25,13 @@ import com.github.rollingmetrics.top.TestData;
 import org.junit.Test;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
 
 
 public class ResetByChunksTopTest {
@@ -218,4 +224,48 @@ public class ResetByChunksTopTest {
         TopTestUtil.runInParallel(top, TimeUnit.SECONDS.toMillis(30), 0, 10_000);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldBeRotatedByScheduler() {
+        AtomicLong currentTimeMillis = new AtomicLong(0L);
+        ResetByChunksTop top = new ResetByChunksTop(1, 0, 1000, 1000, 3, Clock.mock(currentTimeMillis), MockExecutor.INSTANCE, true);
+
+        TopTestUtil.update(top, TestData.fifth);
+        currentTimeMillis.set(1500L);
+        TopTestUtil.update(top, TestData.fourth);
+        TopTestUtil.checkOrder(top, TestData.fifth);
+        assertEquals(500L, top.rotate());
+
+        currentTimeMillis.set(3500L);
+        TopTestUtil.checkOrder(top, TestData.fifth);
+
+        currentTimeMillis.set(4001L);
+        TopTestUtil.assertEmpty(top);
+    }
+
+    @Test
+    public void shouldFormatDeferredDescriptionsOnlyForSurvivedPositions() {
+        AtomicInteger formatCount = new AtomicInteger();
+        Function<Integer, String> formatter = handle -> {
+            formatCount.incrementAndGet();
+            return "query-" + handle;
+        };
+        for (int size = 1; size <= 2; size++) {
+            formatCount.set(0);
+            Top top = Top.builder(size)
+                    .resetPositionsPeriodicallyByChunks(Duration.ofDays(1), 3)
+                    .withSnapshotCachingDuration(Duration.ZERO)
+                    .withMaxLengthOfQueryDescription(10)
+                    .build();
+            for (int i = 1; i <= 100; i++) {
+                top.update(i, i, TimeUnit.MILLISECONDS, i, formatter);
+            }
+            List<Position> positions = top.getPositionsInDescendingOrder();
+            assertEquals(0, formatCount.get());
+
+            assertEquals(size, positions.size());
+            assertEquals("query-100", positions.get(0).getQueryDescription());
+            assertEquals(1, formatCount.get());
+        }
+    }
+
+}
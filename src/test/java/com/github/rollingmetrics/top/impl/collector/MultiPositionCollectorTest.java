@@ -17,12 +17,14 @@
 
 package com.github.rollingmetrics.top.impl.collector;
 
+import com.github.rollingmetrics.top.Position;
 import com.github.rollingmetrics.top.TestData;
 import org.junit.Test;
 
 
 import static com.github.rollingmetrics.top.impl.collector.PositionCollectorTestUtil.assertEmpty;
 import static com.github.rollingmetrics.top.impl.collector.PositionCollectorTestUtil.checkOrder;
+import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -78,4 +80,57 @@ public class MultiPositionCollectorTest {
         PositionCollectorTestUtil.assertEmpty(collector);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldKeepOrderWhenPositionsArriveUnordered() {
+        PositionCollector collector = new MultiPositionCollector(3);
+        collector.add(TestData.first);
+        collector.add(TestData.third);
+        collector.add(TestData.second);
+        PositionCollectorTestUtil.checkOrder(collector, TestData.third, TestData.second, TestData.first);
+
+        assertTrue(collector.add(TestData.fourth));
+        PositionCollectorTestUtil.checkOrder(collector, TestData.fourth, TestData.third, TestData.second);
+
+        assertEquals(3, collector.size());
+        assertEquals(TestData.fourth, collector.get(0));
+        assertEquals(TestData.second, collector.get(2));
+    }
+
+    @Test
+    public void testMergeFrom() {
+        PositionCollector target = new MultiPositionCollector(3);
+        target.add(TestData.fifth);
+        target.mergeFrom(new PositionCollector[] {collector, collector2}, 2);
+        PositionCollectorTestUtil.assertEmpty(target);
+
+        collector.add(TestData.first);
+        collector.add(TestData.fourth);
+        collector2.add(TestData.fourth);
+        collector2.add(TestData.sixth);
+        PositionCollector ignored = new MultiPositionCollector(2);
+        ignored.add(TestData.fifth);
+
+        target.mergeFrom(new PositionCollector[] {collector, collector2, ignored}, 2);
+        PositionCollectorTestUtil.checkOrder(target, TestData.sixth, TestData.fourth, TestData.first);
+
+        target.mergeFrom(new PositionCollector[] {collector, collector2, ignored}, 3);
+        PositionCollectorTestUtil.checkOrder(target, TestData.sixth, TestData.fifth, TestData.fourth);
+    }
+
+    @Test
+    public void testAddAll() {
+        PositionCollector target = new MultiPositionCollector(3);
+        target.addAll(new Position[] {TestData.fourth, TestData.second}, 2);
+        PositionCollectorTestUtil.checkOrder(target, TestData.fourth, TestData.second);
+
+        target.addAll(new Position[] {TestData.first}, 1);
+        PositionCollectorTestUtil.checkOrder(target, TestData.fourth, TestData.second, TestData.first);
+
+        target.addAll(new Position[] {TestData.fifth, TestData.fourth, TestData.third, TestData.first}, 3);
+        PositionCollectorTestUtil.checkOrder(target, TestData.fifth, TestData.fourth, TestData.third);
+
+        target.addAll(new Position[] {TestData.first}, 1);
+        PositionCollectorTestUtil.checkOrder(target, TestData.fifth, TestData.fourth, TestData.third);
+    }
+
+}
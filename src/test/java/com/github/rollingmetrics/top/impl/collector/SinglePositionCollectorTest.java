@@ -21,6 +21,7 @@ import com.github.rollingmetrics.top.TestData;
 import org.junit.Test;
 
 
+import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -68,4 +69,19 @@ public class SinglePositionCollectorTest {
         PositionCollectorTestUtil.assertEmpty(collector);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testMergeFrom() {
+        collector.add(TestData.first);
+        collector2.add(TestData.second);
+        PositionCollector target = new SinglePositionCollector();
+        target.mergeFrom(new PositionCollector[] {collector, collector2}, 2);
+        PositionCollectorTestUtil.checkOrder(target, TestData.second);
+
+        collector2.reset();
+        target.mergeFrom(new PositionCollector[] {collector, collector2}, 2);
+        PositionCollectorTestUtil.checkOrder(target, TestData.first);
+        assertEquals(1, target.size());
+        assertEquals(TestData.first, target.get(0));
+    }
+
+}
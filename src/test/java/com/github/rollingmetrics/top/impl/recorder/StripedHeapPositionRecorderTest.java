@@ -0,0 +1,148 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.top.impl.recorder;
+
+import com.github.rollingmetrics.top.Position;
+import com.github.rollingmetrics.top.TestData;
+import com.github.rollingmetrics.top.impl.collector.PositionCollector;
+import com.github.rollingmetrics.top.impl.collector.PositionCollectorTestUtil;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class StripedHeapPositionRecorderTest {
+
+    private PositionRecorder recorder = new StripedHeapPositionRecorder(2, TestData.THRESHOLD_NANOS, 1000, 4);
+    private PositionCollector collector = PositionCollector.createCollector(2);
+
+    @Test
+    public void test() {
+        PositionRecorderTestUtil.assertEmpty(recorder);
+
+        PositionRecorderTestUtil.update(recorder, TestData.first);
+        PositionRecorderTestUtil.update(recorder, TestData.first);
+        PositionRecorderTestUtil.checkOrder(recorder, TestData.first);
+
+        PositionRecorderTestUtil.update(recorder, TestData.second);
+        PositionRecorderTestUtil.update(recorder, TestData.second);
+        PositionRecorderTestUtil.checkOrder(recorder, TestData.second, TestData.first);
+
+        PositionRecorderTestUtil.update(recorder, TestData.third);
+        PositionRecorderTestUtil.update(recorder, TestData.third);
+        PositionRecorderTestUtil.checkOrder(recorder, TestData.third, TestData.second);
+
+        PositionRecorderTestUtil.update(recorder, TestData.first);
+        PositionRecorderTestUtil.checkOrder(recorder, TestData.third, TestData.second);
+    }
+
+    @Test
+    public void testAddInto() {
+        recorder.addInto(collector);
+        PositionCollectorTestUtil.assertEmpty(collector);
+
+        PositionRecorderTestUtil.update(recorder, TestData.first);
+        recorder.addInto(collector);
+        PositionCollectorTestUtil.checkOrder(collector, TestData.first);
+
+        PositionRecorderTestUtil.update(recorder, TestData.second);
+        recorder.addInto(collector);
+        PositionCollectorTestUtil.checkOrder(collector, TestData.second, TestData.first);
+    }
+
+    @Test
+    public void testReset() {
+        PositionRecorderTestUtil.update(recorder, TestData.first);
+
+        recorder.reset();
+        PositionRecorderTestUtil.assertEmpty(recorder);
+
+        PositionRecorderTestUtil.update(recorder, TestData.second);
+        PositionRecorderTestUtil.checkOrder(recorder, TestData.second);
+    }
+
+    @Test
+    public void shouldTruncateDescription() {
+        PositionRecorder recorder = new StripedHeapPositionRecorder(2, 0, 3, 1);
+        recorder.update(1, 10, TimeUnit.NANOSECONDS, () -> "abcdef");
+        assertEquals("abc", recorder.getPositionsInDescendingOrder().get(0).getQueryDescription());
+    }
+
+    @Test
+    public void shouldIgnoreLatencyBelowThreshold() {
+        recorder.update(1, TestData.THRESHOLD_NANOS - 1, TimeUnit.NANOSECONDS, () -> "fast");
+        PositionRecorderTestUtil.assertEmpty(recorder);
+    }
+
+    @Test
+    public void createEmptyCopyShouldKeepConfiguration() {
+        PositionRecorderTestUtil.update(recorder, TestData.first);
+        StripedHeapPositionRecorder copy = (StripedHeapPositionRecorder) recorder.createEmptyCopy();
+        PositionRecorderTestUtil.assertEmpty(copy);
+        assertEquals(4, copy.getStripeCount());
+    }
+
+    @Test
+    public void shouldSelectGlobalTopAcrossStripes() throws InterruptedException {
+        int threads = 8;
+        int updatesPerThread = 10_000;
+        PositionRecorder recorder = new StripedHeapPositionRecorder(5, 0, 100, 4);
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            int threadIndex = i;
+            new Thread(() -> {
+                for (int j = 0; j < updatesPerThread; j++) {
+                    long latency = (long) j * threads + threadIndex;
+                    recorder.update(latency, latency, TimeUnit.NANOSECONDS, () -> "query");
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+
+        List<Position> top = recorder.getPositionsInDescendingOrder();
+        assertEquals(5, top.size());
+        long expectedLatency = (long) threads * updatesPerThread - 1;
+        for (Position position : top) {
+            assertEquals(expectedLatency--, position.getLatencyInNanoseconds());
+        }
+    }
+
+    @Test
+    public void shouldStoreDeferredDescriptionWithoutFormatting() {
+        Function<Object, String> formatter = handle -> {
+            throw new IllegalStateException("description should not be formatted by writer");
+        };
+        Object handle = new Object();
+        recorder.update(1, 200, TimeUnit.MILLISECONDS, handle, formatter);
+        recorder.update(1, 200, TimeUnit.MILLISECONDS, handle, formatter);
+        recorder.update(2, 300, TimeUnit.MILLISECONDS, new Object(), formatter);
+
+        List<Position> positions = recorder.getPositionsInDescendingOrder();
+        assertEquals(2, positions.size());
+        assertEquals(300, positions.get(0).getLatencyTime());
+        assertEquals(200, positions.get(1).getLatencyTime());
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.github.rollingmetrics.top.impl.recorder;
+
+import com.github.rollingmetrics.top.Position;
+import com.github.rollingmetrics.top.TestData;
+import com.github.rollingmetrics.top.impl.collector.PositionCollector;
+import com.github.rollingmetrics.top.impl.collector.PositionCollectorTestUtil;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class ThreadLocalPositionRecorderTest {
+
+    private PositionRecorder recorder = new ThreadLocalPositionRecorder(2, TestData.THRESHOLD_NANOS, 1000);
+    private PositionCollector collector = PositionCollector.createCollector(2);
+
+    @Test
+    public void test() {
+        PositionRecorderTestUtil.assertEmpty(recorder);
+
+        PositionRecorderTestUtil.update(recorder, TestData.first);
+        PositionRecorderTestUtil.update(recorder, TestData.first);
+        PositionRecorderTestUtil.checkOrder(recorder, TestData.first);
+
+        PositionRecorderTestUtil.update(recorder, TestData.second);
+        PositionRecorderTestUtil.update(recorder, TestData.second);
+        PositionRecorderTestUtil.checkOrder(recorder, TestData.second, TestData.first);
+
+        PositionRecorderTestUtil.update(recorder, TestData.third);
+        PositionRecorderTestUtil.update(recorder, TestData.third);
+        PositionRecorderTestUtil.checkOrder(recorder, TestData.third, TestData.second);
+
+        PositionRecorderTestUtil.update(recorder, TestData.first);
+        PositionRecorderTestUtil.checkOrder(recorder, TestData.third, TestData.second);
+    }
+
+    @Test
+    public void testAddInto() {
+        recorder.addInto(collector);
+        PositionCollectorTestUtil.assertEmpty(collector);
+
+        PositionRecorderTestUtil.update(recorder, TestData.first);
+        recorder.addInto(collector);
+        PositionCollectorTestUtil.checkOrder(collector, TestData.first);
+
+        PositionRecorderTestUtil.update(recorder, TestData.second);
+        recorder.addInto(collector);
+        PositionCollectorTestUtil.checkOrder(collector, TestData.second, TestData.first);
+    }
+
+    @Test
+    public void heapShouldNotBeRetainedByWriterThreadWhenRecorderIsDiscarded() throws InterruptedException {
+        ThreadLocalPositionRecorder discardedRecorder = new ThreadLocalPositionRecorder(2, TestData.THRESHOLD_NANOS, 1000);
+        PositionRecorderTestUtil.update(discardedRecorder, TestData.first);
+        WeakReference<PositionHeap> heap = new WeakReference<>(discardedRecorder.getHeap(0));
+        discardedRecorder = null;
+
+        for (int i = 0; i < 100 && heap.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(heap.get());
+    }
+
+    @Test
+    public void testReset() {
+        PositionRecorderTestUtil.update(recorder, TestData.first);
+
+        recorder.reset();
+        PositionRecorderTestUtil.assertEmpty(recorder);
+
+        PositionRecorderTestUtil.update(recorder, TestData.second);
+        PositionRecorderTestUtil.checkOrder(recorder, TestData.second);
+    }
+
+    @Test
+    public void shouldMergeHeapsOfAllThreadsAndReleaseHeapsOfTerminatedThreads() throws InterruptedException {
+        int threads = 8;
+        int updatesPerThread = 10_000;
+        ThreadLocalPositionRecorder recorder = new ThreadLocalPositionRecorder(5, 0, 100);
+        CountDownLatch latch = new CountDownLatch(threads);
+        Thread[] writers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int threadIndex = i;
+            writers[i] = new Thread(() -> {
+                for (int j = 0; j < updatesPerThread; j++) {
+                    long latency = (long) j * threads + threadIndex;
+                    recorder.update(latency, latency, TimeUnit.NANOSECONDS, () -> "query");
+                }
+                latch.countDown();
+            });
+            writers[i].start();
+        }
+        latch.await();
+
+        List<Position> top = recorder.getPositionsInDescendingOrder();
+        assertEquals(5, top.size());
+        long expectedLatency = (long) threads * updatesPerThread - 1;
+        for (Position position : top) {
+            assertEquals(expectedLatency--, position.getLatencyInNanoseconds());
+        }
+        assertEquals(threads, recorder.getHeapCount());
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        recorder.reset();
+        assertEquals(0, recorder.getHeapCount());
+        PositionRecorderTestUtil.assertEmpty(recorder);
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.github.rollingmetrics.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class BackgroundExecutorsTest {
+
+    @Test(timeout = 10000)
+    public void shouldExecuteTasksOnAllShards() throws InterruptedException {
+        ShardedExecutor executor = BackgroundExecutors.sharded(3, new DaemonThreadFactory("shard-%d"));
+        try {
+            assertEquals(3, executor.getShardCount());
+            Set<String> threadNames = Collections.synchronizedSet(new HashSet<>());
+            CountDownLatch latch = new CountDownLatch(3);
+            for (int i = 0; i < 3; i++) {
+                executor.nextShard().execute(() -> {
+                    threadNames.add(Thread.currentThread().getName());
+                    latch.countDown();
+                });
+            }
+            latch.await();
+            assertEquals(new HashSet<>(Arrays.asList("shard-1", "shard-2", "shard-3")), threadNames);
+        } finally {
+            executor.stopExecutionThreads();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void slowShardShouldNotBlockOtherShards() throws InterruptedException {
+        ShardedExecutor executor = BackgroundExecutors.sharded(2);
+        try {
+            Executor slow = executor.nextShard();
+            Executor fast = executor.nextShard();
+            CountDownLatch release = new CountDownLatch(1);
+            slow.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            CountDownLatch fastExecuted = new CountDownLatch(1);
+            fast.execute(fastExecuted::countDown);
+            fastExecuted.await();
+            release.countDown();
+        } finally {
+            executor.stopExecutionThreads();
+        }
+    }
+
+    @Test
+    public void shouldMapSameHashToSameShard() {
+        ShardedExecutor executor = BackgroundExecutors.sharded(4);
+        try {
+            assertSame(executor.getShard(42), executor.getShard(42));
+            assertSame(executor.getShard(-1), executor.getShard(-1));
+        } finally {
+            executor.stopExecutionThreads();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowZeroShards() {
+        BackgroundExecutors.sharded(0);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldRunTasksOnVirtualThreadsWhenSupported() throws InterruptedException {
+        assumeTrue(BackgroundExecutors.isVirtualThreadSupported());
+        ExecutorService executor = BackgroundExecutors.virtualThreads();
+        try {
+            AtomicBoolean executed = new AtomicBoolean();
+            CountDownLatch latch = new CountDownLatch(1);
+            executor.execute(() -> {
+                executed.set(true);
+                latch.countDown();
+            });
+            latch.await();
+            assertTrue(executed.get());
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldRejectVirtualThreadsWhenNotSupported() {
+        assumeFalse(BackgroundExecutors.isVirtualThreadSupported());
+        BackgroundExecutors.virtualThreads();
+    }
+
+    @Test
+    public void shouldFallbackToShardedExecutorWhenVirtualThreadsNotSupported() {
+        Executor executor = BackgroundExecutors.virtualThreadsOrSharded(2);
+        if (BackgroundExecutors.isVirtualThreadSupported()) {
+            assertTrue(executor instanceof ExecutorService);
+            ((ExecutorService) executor).shutdown();
+        } else {
+            assertEquals(2, ((ShardedExecutor) executor).getShardCount());
+            ((ShardedExecutor) executor).stopExecutionThreads();
+        }
+    }
+
+}
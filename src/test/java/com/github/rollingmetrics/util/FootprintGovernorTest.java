@@ -0,0 +1,158 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.util;
+
+import com.codahale.metrics.Reservoir;
+import com.github.rollingmetrics.counter.SmoothlyDecayingRollingCounter;
+import com.github.rollingmetrics.hitratio.SmoothlyDecayingRollingHitRatio;
+import com.github.rollingmetrics.histogram.HdrBuilder;
+import com.github.rollingmetrics.histogram.OverflowResolver;
+import com.github.rollingmetrics.top.Top;
+import com.github.rollingmetrics.top.TopBuilder;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FootprintGovernorTest {
+
+    private final FootprintGovernor governor = new FootprintGovernor();
+
+    @Test
+    public void shouldBeUnlimitedByDefault() {
+        assertEquals(FootprintGovernor.UNLIMITED, governor.getSoftLimitInBytes());
+        assertEquals(FootprintGovernor.UNLIMITED, governor.getHardLimitInBytes());
+        governor.reserve(new Object(), 1L << 40);
+    }
+
+    @Test
+    public void shouldAccountReservations() {
+        Object first = new Object();
+        Object second = new Object();
+        governor.reserve(first, 100);
+        governor.reserve(second, 200);
+        assertEquals(300, governor.getUsedBytes());
+        assertEquals(300L, (long) governor.getUsageGauge().getValue());
+    }
+
+    @Test
+    public void shouldCheckSoftLimit() {
+        governor.setLimits(1000, 2000);
+        Object owner = new Object();
+        governor.reserve(owner, 900);
+        assertTrue(governor.fitsIntoSoftLimit(100));
+        assertFalse(governor.fitsIntoSoftLimit(101));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectReservationAboveHardLimit() {
+        governor.setLimits(1000, 2000);
+        Object owner = new Object();
+        governor.reserve(owner, 1500);
+        governor.reserve(new Object(), 501);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowHardLimitLessThanSoftLimit() {
+        governor.setLimits(2000, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowNonPositiveSoftLimit() {
+        governor.setLimits(0, 1000);
+    }
+
+    @Test
+    public void hdrBuilderShouldDegradePrecisionWhenSoftLimitExceeded() {
+        HdrBuilder builder = new HdrBuilder().withSignificantDigits(4).withFootprintGovernor(governor);
+        int fullPrecisionFootprint = builder.getEstimatedFootprintInBytes();
+        int degradedFootprint = builder.deepCopy().withSignificantDigits(3).getEstimatedFootprintInBytes();
+        governor.setLimits(fullPrecisionFootprint - 1, Long.MAX_VALUE);
+
+        Reservoir reservoir = builder.buildReservoir();
+        assertEquals(degradedFootprint, governor.getUsedBytes());
+        reservoir.update(42);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void hdrBuilderShouldRejectReservoirWhenHardLimitExceeded() {
+        HdrBuilder builder = new HdrBuilder().withFootprintGovernor(governor);
+        int mostDegradedFootprint = builder.deepCopy().withSignificantDigits(1).getEstimatedFootprintInBytes();
+        governor.setLimits(1, mostDegradedFootprint - 1);
+        builder.buildReservoir();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void hdrBuilderShouldRejectReservoirBeforeAllocation() {
+        // full precision reservoir takes gigabytes, so test fails with OutOfMemoryError if limits are checked after allocation
+        HdrBuilder builder = new HdrBuilder()
+                .withSignificantDigits(5)
+                .withLowestDiscernibleValue(1000)
+                .withHighestTrackableValue(Long.MAX_VALUE / 3, OverflowResolver.REDUCE_TO_HIGHEST_TRACKABLE)
+                .resetReservoirPeriodicallyByChunks(Duration.ofMinutes(60), 60)
+                .withFootprintGovernor(governor);
+        governor.setLimits(1, 1);
+        builder.buildReservoir();
+    }
+
+    @Test
+    public void topBuilderShouldReportFootprint() {
+        TopBuilder builder = Top.builder(10).withFootprintGovernor(governor);
+        Top top = builder.build();
+        assertEquals(builder.getEstimatedFootprintInBytes(), governor.getUsedBytes());
+        top.update(0, 1, java.util.concurrent.TimeUnit.MILLISECONDS, () -> "SELECT 1");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void topBuilderShouldRejectTopWhenHardLimitExceeded() {
+        TopBuilder builder = Top.builder(10).resetPositionsPeriodicallyByChunks(Duration.ofMinutes(1), 6).withFootprintGovernor(governor);
+        governor.setLimits(1, builder.getEstimatedFootprintInBytes() - 1);
+        builder.build();
+    }
+
+    @Test
+    public void chunkedCounterAndHitRatioShouldReportFootprintProportionalToNumberOfChunks() {
+        SmoothlyDecayingRollingCounter counter = new SmoothlyDecayingRollingCounter(Duration.ofMinutes(1), 10, Clock.defaultClock(), governor);
+        SmoothlyDecayingRollingCounter twiceChunkedCounter = new SmoothlyDecayingRollingCounter(Duration.ofMinutes(1), 21, Clock.defaultClock(), governor);
+        assertEquals(2 * counter.getEstimatedFootprintInBytes(), twiceChunkedCounter.getEstimatedFootprintInBytes());
+
+        SmoothlyDecayingRollingHitRatio hitRatio = new SmoothlyDecayingRollingHitRatio(Duration.ofMinutes(1), 10, Clock.defaultClock(), governor);
+        assertEquals(counter.getEstimatedFootprintInBytes() + twiceChunkedCounter.getEstimatedFootprintInBytes() + hitRatio.getEstimatedFootprintInBytes(),
+                governor.getUsedBytes());
+
+        counter.add(1);
+        twiceChunkedCounter.add(1);
+        hitRatio.update(1, 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void chunkedCounterShouldBeRejectedWhenHardLimitExceeded() {
+        governor.setLimits(1, 1);
+        new SmoothlyDecayingRollingCounter(Duration.ofMinutes(1), 10, Clock.defaultClock(), governor);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void chunkedHitRatioShouldBeRejectedWhenHardLimitExceeded() {
+        governor.setLimits(1, 1);
+        new SmoothlyDecayingRollingHitRatio(Duration.ofMinutes(1), 10, Clock.defaultClock(), governor);
+    }
+
+}
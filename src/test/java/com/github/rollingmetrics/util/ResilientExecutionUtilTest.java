@@ -21,13 +21,18 @@ import org.junit.Test;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class ResilientExecutionUtilTest {
 
@@ -114,4 +119,47 @@ public class ResilientExecutionUtilTest {
         assertEquals(1, executionCount.get());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldUseConfiguredBackgroundExecutor() {
+        Executor executor = Runnable::run;
+        util.setBackgroundExecutor(executor);
+        assertSame(executor, util.getBackgroundExecutor());
+        assertSame(executor, util.resolveExecutorForMetric(null));
+    }
+
+    @Test
+    public void shouldPreferExecutorConfiguredForMetric() {
+        Executor executor = Runnable::run;
+        assertSame(executor, util.resolveExecutorForMetric(executor));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldPinMetricsToShardsInRoundRobinManner() {
+        ShardedExecutor sharded = BackgroundExecutors.sharded(2, new DaemonThreadFactory("shard-%d"));
+        try {
+            util.setBackgroundExecutor(sharded);
+            Executor first = util.resolveExecutorForMetric(null);
+            Executor second = util.resolveExecutorForMetric(null);
+            Executor third = util.resolveExecutorForMetric(sharded);
+            assertTrue(first instanceof SingleThreadExecutor);
+            assertNotSame(first, second);
+            assertSame(first, third);
+        } finally {
+            util.shutdownBackgroundExecutor();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldStopConfiguredExecutorOnShutdown() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        util.setBackgroundExecutor(executor);
+        util.shutdownBackgroundExecutor();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldDisallowNullBackgroundExecutor() {
+        util.setBackgroundExecutor(null);
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ *
+ *  Copyright 2016 Vladimir Bukhtoyarov
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.github.rollingmetrics.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RotationSchedulerTest {
+
+    private final RotationScheduler scheduler = new RotationScheduler();
+
+    @After
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldRotateRepeatedlyWithDelayReturnedByTarget() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(3);
+        Rotatable target = () -> {
+            latch.countDown();
+            return 10;
+        };
+        scheduler.schedule(target, 1);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldContinueRotationAfterFailure() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(2);
+        Rotatable target = () -> {
+            latch.countDown();
+            throw new IllegalStateException("test");
+        };
+        scheduler.schedule(target, 1);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldStopRotationAfterShutdown() throws InterruptedException {
+        AtomicInteger rotations = new AtomicInteger();
+        Rotatable target = () -> {
+            rotations.incrementAndGet();
+            return 1;
+        };
+        scheduler.schedule(target, 1000);
+        scheduler.shutdown();
+        Thread.sleep(1500);
+        assertEquals(0, rotations.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldDisallowToReplaceThreadFactoryAfterStart() {
+        scheduler.schedule(() -> 1000, 1000);
+        scheduler.setThreadFactory(new DaemonThreadFactory("test-%d"));
+    }
+
+}
@@ -17,12 +17,17 @@
 
 package com.github.rollingmetrics.util;
 
+import com.github.rollingmetrics.histogram.accumulator.ResetByChunksAccumulator;
+import org.HdrHistogram.Recorder;
 import org.junit.Test;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static junit.framework.TestCase.assertSame;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class SingleThreadExecutorTest {
 
@@ -79,4 +84,91 @@ public class SingleThreadExecutorTest {
         executor.execute(() -> {throw new RuntimeException("test");});
     }
 
-}
\ No newline at end of file
+    @Test(timeout = 10000)
+    public void shouldDrainBurstOfTasksWithoutUnparkPerTask() throws InterruptedException {
+        CountDownLatch blocker = new CountDownLatch(1);
+        executor.execute(() -> awaitUninterruptibly(blocker));
+
+        int tasks = 1000;
+        CountDownLatch latch = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(latch::countDown);
+        }
+        blocker.countDown();
+        latch.await();
+        while (executor.getCompletedTaskCount() < tasks + 1) {
+            // counter is incremented just after the task completion
+            Thread.yield();
+        }
+
+        assertTrue(executor.getUnparkCount() < tasks);
+        assertEquals(0, executor.getQueueDepth());
+        assertTrue(executor.getMaxQueueLatencyNanos() >= executor.getMeanQueueLatencyNanos());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldRunTaskInCallerThreadWhenQueueIsFull() throws InterruptedException {
+        SingleThreadExecutor boundedExecutor = new SingleThreadExecutor(new DaemonThreadFactory("bounded"), 1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        boundedExecutor.execute(() -> {
+            started.countDown();
+            awaitUninterruptibly(blocker);
+        });
+        started.await();
+        boundedExecutor.execute(() -> {});
+
+        AtomicReference<Thread> executionThread = new AtomicReference<>();
+        boundedExecutor.execute(() -> executionThread.set(Thread.currentThread()));
+        assertSame(Thread.currentThread(), executionThread.get());
+        assertEquals(1, boundedExecutor.getOverflowedTaskCount());
+        assertEquals(1, boundedExecutor.getQueueDepth());
+        blocker.countDown();
+        boundedExecutor.stopExecutionThread();
+    }
+
+    @Test(timeout = 10000)
+    public void rotationShouldNotBeLostWhenQueueIsFull() throws InterruptedException {
+        SingleThreadExecutor boundedExecutor = new SingleThreadExecutor(new DaemonThreadFactory("bounded"), 1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        boundedExecutor.execute(() -> {
+            started.countDown();
+            awaitUninterruptibly(blocker);
+        });
+        started.await();
+        boundedExecutor.execute(() -> {});
+
+        AtomicLong time = new AtomicLong(0);
+        ResetByChunksAccumulator accumulator = new ResetByChunksAccumulator(() -> new Recorder(2), 3, 1000, Clock.mock(time), boundedExecutor);
+        accumulator.recordSingleValueWithExpectedInterval(10, 0);
+        time.set(1000);
+        // writer switches the phase and submits the rotation into full queue
+        accumulator.recordSingleValueWithExpectedInterval(20, 0);
+        assertEquals(1, boundedExecutor.getOverflowedTaskCount());
+
+        // the next rotation is planned, so rotation has not been lost
+        time.set(1500);
+        assertEquals(500, accumulator.rotate());
+        time.set(2000);
+        accumulator.recordSingleValueWithExpectedInterval(30, 0);
+        assertEquals(2, boundedExecutor.getOverflowedTaskCount());
+        time.set(2100);
+        assertEquals(900, accumulator.rotate());
+
+        blocker.countDown();
+        boundedExecutor.stopExecutionThread();
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // continue waiting
+            }
+        }
+    }
+
+}